@@ -0,0 +1,132 @@
+package Benchmarks;
+
+import cycling.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Benchmark for how long results registered during a save of a large archive are held up,
+ * saving in the foreground against saving in the background.
+ */
+public class AsyncSaveBenchmark {
+
+    private static final int RACES = 100;
+    private static final int STAGES_PER_RACE = 6;
+    private static final int RIDERS = 200;
+    private static final int ROUNDS = 5;
+    private static final String FILENAME = "async-save-benchmark.ser";
+
+    /**
+     * Builds the archive, then each round saves it while registering every rider's result
+     * in a new stage, reporting how long the first result waited and how long all of them
+     * took.
+     *
+     * @param args not used
+     * @throws Exception should never happen
+     */
+    public static void main(String[] args) throws Exception {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        int[] riderIds = buildArchive(portal);
+        int raceId = portal.createRace("Live-Race", null);
+
+        // The first round warms up the JIT and isn't reported
+        for (int round = 0; round <= ROUNDS; round++) {
+            for (boolean background : new boolean[]{false, true}) {
+                int stageId = portal.addStageToRace(raceId, "Live-Stage" + round + background,
+                        null, 160.0, LocalDateTime.of(2024, 7, 1, 12, 0), StageType.FLAT);
+                portal.concludeStagePreparation(stageId);
+                // A new file each time, so the save is a whole snapshot rather than a delta
+                String filename = round + "-" + background + "-" + FILENAME;
+
+                long start = System.nanoTime();
+                CompletableFuture<Void> saved = null;
+                if (background) {
+                    saved = portal.saveCyclingPortalAsync(filename);
+                } else {
+                    portal.saveCyclingPortal(filename);
+                }
+                long firstResult = 0;
+                LocalTime stageStart = LocalTime.of(12, 0);
+                for (int i = 0; i < RIDERS; i++) {
+                    portal.registerRiderResultsInStage(stageId, riderIds[i], stageStart,
+                            stageStart.plusSeconds(14400 + i));
+                    if (i == 0) {
+                        firstResult = System.nanoTime();
+                    }
+                }
+                long registered = System.nanoTime();
+                if (saved != null) {
+                    saved.join();
+                }
+                long finished = System.nanoTime();
+
+                if (round > 0) {
+                    System.out.printf("round %d %-10s first result after %,7d us, "
+                                    + "all results after %,7d us, save done after %,7d us%n",
+                            round, background ? "background" : "foreground",
+                            (firstResult - start) / 1_000, (registered - start) / 1_000,
+                            (finished - start) / 1_000);
+                }
+                portal.removeStageById(stageId);
+                deleteFiles(filename);
+            }
+        }
+    }
+
+    /**
+     * Creates every race, stage and rider, with a result for every rider in every stage.
+     *
+     * @param portal an empty portal
+     * @return the riders' IDs
+     * @throws Exception should never happen
+     */
+    private static int[] buildArchive(CyclingPortalImpl portal) throws Exception {
+        int teamId = portal.createTeam("Archive", "Every rider in the archive");
+        int[] riderIds = new int[RIDERS];
+        for (int i = 0; i < RIDERS; i++) {
+            riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990 + i % 15);
+        }
+
+        for (int race = 0; race < RACES; race++) {
+            int raceId = portal.createRace("Archive-Race" + race, "Race number " + race);
+            for (int stage = 0; stage < STAGES_PER_RACE; stage++) {
+                int stageId = portal.addStageToRace(raceId, "Archive-Stage" + race + "-" + stage,
+                        "A hilly stage", 160.0, LocalDateTime.of(2023, 5, 1 + stage, 12, 0),
+                        StageType.MEDIUM_MOUNTAIN);
+                portal.addIntermediateSprintToStage(stageId, 60.0);
+                portal.addCategorizedClimbToStage(stageId, 120.0, CheckpointType.C2, 6.0, 5.5);
+                portal.concludeStagePreparation(stageId);
+
+                LocalTime[][] sheet = new LocalTime[RIDERS][];
+                int seed = race * STAGES_PER_RACE + stage;
+                for (int i = 0; i < RIDERS; i++) {
+                    LocalTime start = LocalTime.of(12, 0);
+                    sheet[i] = new LocalTime[]{start,
+                            start.plusSeconds(5400 + (i * 37 + seed * 11) % 900),
+                            start.plusSeconds(10800 + (i * 53 + seed * 7) % 1200),
+                            start.plusSeconds(14400 + (i * 71 + seed * 13) % 1800).plusNanos(i)};
+                }
+                portal.registerStageResultSheet(stageId, riderIds, sheet);
+            }
+        }
+        return riderIds;
+    }
+
+    /**
+     * Removes the manifest and the base written next to it.
+     *
+     * @param filename the manifest's name
+     * @throws IOException if a file can't be removed
+     */
+    private static void deleteFiles(String filename) throws IOException {
+        for (File file : new File[]{new File(filename), new File(filename + ".0.0")}) {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Could not delete " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package Benchmarks;
+
+/**
+ * Minimal harness for the portal benchmarks, run the way JMH would run them: each benchmark
+ * runs warm-up iterations that aren't reported, so the JIT has compiled the code being
+ * measured, then measured iterations whose time per operation is reported as a mean, with
+ * the spread and the best iteration. Results are handed to {@link #consume(Object)} so the
+ * JIT can't drop the work that produced them.
+ */
+public class BenchmarkHarness {
+
+    /**
+     * Work done once before each iteration, and not timed.
+     */
+    public interface Setup {
+        void run() throws Exception;
+    }
+
+    /**
+     * The work being measured, run once per iteration.
+     */
+    public interface Body {
+        /**
+         * @return the number of operations the iteration did
+         */
+        int run() throws Exception;
+    }
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+
+    // Written to with every result, so nothing the benchmarks compute is dead code
+    private static volatile Object sink;
+
+    private BenchmarkHarness() {
+    }
+
+    /**
+     * Hand a result to the harness so the work behind it has to be done.
+     *
+     * @param result anything a benchmark computed
+     */
+    public static void consume(Object result) {
+        sink = result;
+    }
+
+    /**
+     * Print the heading for a set of benchmarks.
+     *
+     * @param title what the benchmarks are run against
+     */
+    public static void heading(String title) {
+        System.out.printf("%n== %s ==%n", title);
+        System.out.printf("%-48s %14s %12s %14s%n", "benchmark", "ns/op", "+/-", "best ns/op");
+    }
+
+    /**
+     * Run a benchmark with no setup.
+     *
+     * @param name what is being measured
+     * @param body the work being measured
+     * @throws Exception if the benchmark fails
+     */
+    public static void run(String name, Body body) throws Exception {
+        run(name, null, body);
+    }
+
+    /**
+     * Run a benchmark and print its time per operation.
+     *
+     * @param name  what is being measured
+     * @param setup work done before each iteration and not timed, or null
+     * @param body  the work being measured
+     * @throws Exception if the benchmark fails
+     */
+    public static void run(String name, Setup setup, Body body) throws Exception {
+        double[] nanosPerOp = new double[MEASURED_ITERATIONS];
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+            if (setup != null) {
+                setup.run();
+            }
+            long start = System.nanoTime();
+            int operations = body.run();
+            long elapsed = System.nanoTime() - start;
+            if (i >= WARMUP_ITERATIONS) {
+                nanosPerOp[i - WARMUP_ITERATIONS] = (double) elapsed / operations;
+            }
+        }
+
+        double mean = 0;
+        double best = Double.MAX_VALUE;
+        for (double time : nanosPerOp) {
+            mean += time / nanosPerOp.length;
+            best = Math.min(best, time);
+        }
+        double variance = 0;
+        for (double time : nanosPerOp) {
+            variance += (time - mean) * (time - mean) / nanosPerOp.length;
+        }
+        System.out.printf("%-48s %,14.0f %,12.0f %,14.0f%n", name, mean, Math.sqrt(variance),
+                best);
+    }
+}
@@ -0,0 +1,71 @@
+package Benchmarks;
+
+import cycling.*;
+
+/**
+ * Benchmark for creating and removing a large number of entities, which is dominated by
+ * handing out and freeing IDs.
+ */
+public class IdAllocationBenchmark {
+
+    private static final int ENTITY_COUNT = 1_000_000;
+
+    /**
+     * Creates and removes 1M riders, then churns half of them to exercise gap filling.
+     *
+     * @param args not used
+     * @throws IDNotRecognisedException should never happen
+     * @throws IllegalNameException     should never happen
+     * @throws InvalidNameException     should never happen
+     */
+    public static void main(String[] args)
+            throws IDNotRecognisedException, IllegalNameException, InvalidNameException {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        int teamId = portal.createTeam("BenchTeam", "Holds every benchmark rider");
+        int[] riderIds = new int[ENTITY_COUNT];
+
+        // Create every rider, IDs come off the high-water mark
+        long start = System.nanoTime();
+        for (int i = 0; i < ENTITY_COUNT; i++) {
+            riderIds[i] = portal.createRider(teamId, "Rider", 2000);
+        }
+        report("create", ENTITY_COUNT, start);
+
+        // Remove every other rider, leaving a gap at each one
+        start = System.nanoTime();
+        for (int i = 0; i < ENTITY_COUNT; i += 2) {
+            portal.removeRider(riderIds[i]);
+        }
+        report("remove (gaps)", ENTITY_COUNT / 2, start);
+
+        // Recreate them, each creation should fill the lowest gap
+        start = System.nanoTime();
+        for (int i = 0; i < ENTITY_COUNT; i += 2) {
+            int newId = portal.createRider(teamId, "Rider", 2000);
+            assert newId == riderIds[i] : "Lowest free ID was not reused";
+        }
+        report("refill gaps", ENTITY_COUNT / 2, start);
+
+        // Remove everything
+        start = System.nanoTime();
+        for (int riderId : riderIds) {
+            portal.removeRider(riderId);
+        }
+        report("remove all", ENTITY_COUNT, start);
+
+        portal.removeTeam(teamId);
+    }
+
+    /**
+     * Print how long a phase took.
+     *
+     * @param phase     name of the phase
+     * @param ops       number of entities created or removed in the phase
+     * @param startNano System.nanoTime() when the phase started
+     */
+    private static void report(String phase, int ops, long startNano) {
+        long elapsed = System.nanoTime() - startNano;
+        System.out.printf("%-14s %,d entities in %,d ms (%,d ns/op)%n", phase, ops,
+                elapsed / 1_000_000, elapsed / ops);
+    }
+}
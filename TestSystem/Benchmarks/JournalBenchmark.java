@@ -0,0 +1,91 @@
+package Benchmarks;
+
+import cycling.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Benchmark for registering results one rider at a time through a journaling portal,
+ * against the same results registered with no journal.
+ */
+public class JournalBenchmark {
+
+    private static final int RIDERS = 20_000;
+    private static final String SNAPSHOT = "journal-benchmark.ser";
+    private static final String JOURNAL = "journal-benchmark.jnl";
+
+    /**
+     * Registers every rider's result with no journal, with a journal synced at the end,
+     * and with every result synced as it is registered.
+     *
+     * @param args not used
+     * @throws Exception should never happen
+     */
+    public static void main(String[] args) throws Exception {
+        register("no journal", new CyclingPortalImpl());
+
+        deleteFiles();
+        JournalingCyclingPortal journaled = new JournalingCyclingPortal(new CyclingPortalImpl(),
+                SNAPSHOT, JOURNAL, false);
+        register("journal", journaled);
+        journaled.close();
+
+        deleteFiles();
+        journaled = new JournalingCyclingPortal(new CyclingPortalImpl(), SNAPSHOT, JOURNAL, true);
+        register("journal, synced", journaled);
+        journaled.close();
+        deleteFiles();
+    }
+
+    /**
+     * Sets up one stage and times registering a result for every rider in it.
+     *
+     * @param label  what the portal is, for the report
+     * @param portal an empty portal
+     * @throws Exception should never happen
+     */
+    private static void register(String label, CyclingPortal portal) throws Exception {
+        int teamId = portal.createTeam("Sportive", "Every rider in the benchmark");
+        int[] riderIds = new int[RIDERS];
+        for (int i = 0; i < RIDERS; i++) {
+            riderIds[i] = portal.createRider(teamId, "Rider" + i, 1970 + i % 40);
+        }
+        int raceId = portal.createRace("Journal-Sportive", null);
+        int stageId = portal.addStageToRace(raceId, "Journal-Stage", null, 160.0,
+                LocalDateTime.of(2024, 6, 1, 7, 0), StageType.MEDIUM_MOUNTAIN);
+        portal.addIntermediateSprintToStage(stageId, 60.0);
+        portal.addCategorizedClimbToStage(stageId, 120.0, CheckpointType.C2, 6.0, 5.5);
+        portal.concludeStagePreparation(stageId);
+
+        LocalTime start = LocalTime.of(7, 0);
+        long begin = System.nanoTime();
+        for (int i = 0; i < RIDERS; i++) {
+            portal.registerRiderResultsInStage(stageId, riderIds[i], start,
+                    start.plusSeconds(5400 + i % 900), start.plusSeconds(10800 + i % 1200),
+                    start.plusSeconds(14400 + i % 1800).plusNanos(i));
+        }
+        if (portal instanceof JournalingCyclingPortal) {
+            ((JournalingCyclingPortal) portal).sync();
+        }
+        long elapsed = System.nanoTime() - begin;
+        System.out.printf("%-16s %,d results in %,d ms (%,d ns/op)%n", label, RIDERS,
+                elapsed / 1_000_000, elapsed / RIDERS);
+    }
+
+    /**
+     * Removes the snapshot and journal so each run starts from nothing.
+     *
+     * @throws IOException if a file can't be removed
+     */
+    private static void deleteFiles() throws IOException {
+        for (String filename : new String[]{SNAPSHOT, JOURNAL}) {
+            File file = new File(filename);
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Could not delete " + filename);
+            }
+        }
+    }
+}
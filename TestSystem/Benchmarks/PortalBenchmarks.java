@@ -0,0 +1,370 @@
+package Benchmarks;
+
+import cycling.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Benchmarks for the portal's hot paths: registering results, the stage and race
+ * classifications, creating and removing entities, and saving and loading. They run
+ * against a Grand Tour and a 20,000 rider sportive, or a race of any size, each made by
+ * {@link RaceGenerator} so they hold the same data as the load tests.
+ *
+ * <p>Usage, from the directory holding the compiled classes:
+ * <pre>
+ *   java Benchmarks.PortalBenchmarks                         both fixtures
+ *   java Benchmarks.PortalBenchmarks grand-tour sportive     either or both
+ *   java Benchmarks.PortalBenchmarks riders stages
+ * </pre>
+ * The checkpoints on each stage follow its type, as the generator places them.
+ */
+public class PortalBenchmarks {
+
+    private static final int MAX_CHANGES = 200; // result changes per iteration of a benchmark
+    private static final int ENTITIES = 1_000; // entities created per iteration
+    private static final String FILENAME = "portal-benchmark.ser";
+    private static final long SEED = 1; // so every run benchmarks the same races
+
+    /**
+     * Builds each fixture asked for in turn and runs every benchmark against it.
+     *
+     * @param args the fixtures to run, as above
+     * @throws Exception should never happen
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2) {
+            int riders = Integer.parseInt(args[0]);
+            int stages = Integer.parseInt(args[1]);
+            runAll(new Fixture("generated race", riders, stages));
+            return;
+        }
+        for (String fixture : (args.length == 0) ? new String[]{"grand-tour", "sportive"}
+                : args) {
+            switch (fixture) {
+                case "grand-tour":
+                    // 22 teams of eight over 21 stages
+                    runAll(new Fixture("grand tour", 176, 21));
+                    break;
+                case "sportive":
+                    // A mass-participation ride over a single stage
+                    runAll(new Fixture("sportive", 20_000, 1));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown fixture " + fixture);
+            }
+        }
+    }
+
+    /**
+     * Runs every benchmark against a fixture.
+     *
+     * @param fixture the fixture
+     * @throws Exception should never happen
+     */
+    private static void runAll(Fixture fixture) throws Exception {
+        int[] riderIds = fixture.generator.getRiderIds();
+        int[] stageIds = fixture.portal.getRaceStages(fixture.raceId);
+        BenchmarkHarness.heading(fixture.name + ", " + riderIds.length + " riders, "
+                + stageIds.length + ((stageIds.length == 1) ? " stage" : " stages"));
+
+        registerBenchmarks(fixture);
+        classificationBenchmarks(fixture);
+        entityBenchmarks(fixture);
+        saveLoadBenchmarks(fixture);
+    }
+
+    /**
+     * Times registering every rider's result in a new stage, one rider at a time.
+     *
+     * @param fixture the fixture
+     * @throws Exception should never happen
+     */
+    private static void registerBenchmarks(Fixture fixture) throws Exception {
+        CyclingPortal portal = fixture.portal;
+        StageType type = fixture.generator.getResultSheet(roadStage(fixture)).getType();
+
+        RaceGenerator.StageSheet[] added = {null};
+        BenchmarkHarness.run("registerRiderResultsInStage", () -> {
+            if (added[0] != null) {
+                portal.removeStageById(added[0].getStageId());
+            }
+            added[0] = fixture.generator.addStage(fixture.raceId, type);
+        }, () -> {
+            int stageId = added[0].getStageId();
+            int[] riderIds = added[0].getRiderIds();
+            LocalTime[][] times = added[0].getTimes();
+            for (int r = 0; r < riderIds.length; r++) {
+                portal.registerRiderResultsInStage(stageId, riderIds[r], times[r]);
+            }
+            return riderIds.length;
+        });
+        portal.removeStageById(added[0].getStageId());
+    }
+
+    /**
+     * Times the stage rankings and the four race classifications, each asked for after one
+     * result in a stage changes, as they are while results come in. The change on its own
+     * is timed too, to take away from the rest.
+     *
+     * @param fixture the fixture
+     * @throws Exception should never happen
+     */
+    private static void classificationBenchmarks(Fixture fixture) throws Exception {
+        CyclingPortal portal = fixture.portal;
+        int raceId = fixture.raceId;
+        int stageId = roadStage(fixture);
+        ResultChanger changer = new ResultChanger(fixture, stageId);
+        // Each change makes the rankings be worked out again, so big fields get fewer
+        int changes = Math.max(10,
+                Math.min(MAX_CHANGES, 400_000 / fixture.generator.getRiderIds().length));
+
+        BenchmarkHarness.run("result change (delete + register)", () -> {
+            for (int i = 0; i < changes; i++) {
+                changer.change();
+            }
+            return changes;
+        });
+        BenchmarkHarness.run("getRidersRankInStage, unchanged", () -> {
+            for (int i = 0; i < changes; i++) {
+                BenchmarkHarness.consume(portal.getRidersRankInStage(stageId));
+            }
+            return changes;
+        });
+        BenchmarkHarness.run("change + getRidersRankInStage", () -> {
+            for (int i = 0; i < changes; i++) {
+                changer.change();
+                BenchmarkHarness.consume(portal.getRidersRankInStage(stageId));
+            }
+            return changes;
+        });
+        BenchmarkHarness.run("change + getRankedAdjustedElapsedTimesInStage", () -> {
+            for (int i = 0; i < changes; i++) {
+                changer.change();
+                BenchmarkHarness.consume(portal.getRankedAdjustedElapsedTimesInStage(stageId));
+            }
+            return changes;
+        });
+        BenchmarkHarness.run("change + getRidersGeneralClassificationRank", () -> {
+            for (int i = 0; i < changes; i++) {
+                changer.change();
+                BenchmarkHarness.consume(portal.getRidersGeneralClassificationRank(raceId));
+            }
+            return changes;
+        });
+        BenchmarkHarness.run("change + getGeneralClassificationTimesInRace", () -> {
+            for (int i = 0; i < changes; i++) {
+                changer.change();
+                BenchmarkHarness.consume(portal.getGeneralClassificationTimesInRace(raceId));
+            }
+            return changes;
+        });
+        BenchmarkHarness.run("change + getRidersPointClassificationRank", () -> {
+            for (int i = 0; i < changes; i++) {
+                changer.change();
+                BenchmarkHarness.consume(portal.getRidersPointClassificationRank(raceId));
+            }
+            return changes;
+        });
+        BenchmarkHarness.run("change + getRidersMountainPointClassificationRank", () -> {
+            for (int i = 0; i < changes; i++) {
+                changer.change();
+                BenchmarkHarness.consume(
+                        portal.getRidersMountainPointClassificationRank(raceId));
+            }
+            return changes;
+        });
+    }
+
+    /**
+     * Times creating and removing riders, teams and races with a stage, in a portal that
+     * already holds the fixture.
+     *
+     * @param fixture the fixture
+     * @throws Exception should never happen
+     */
+    private static void entityBenchmarks(Fixture fixture) throws Exception {
+        CyclingPortal portal = fixture.portal;
+        int teamId = fixture.generator.getTeamIds()[0];
+
+        BenchmarkHarness.run("createRider + removeRider", () -> {
+            for (int i = 0; i < ENTITIES; i++) {
+                portal.removeRider(portal.createRider(teamId, "Benchmark-Rider", 1995));
+            }
+            return ENTITIES;
+        });
+        BenchmarkHarness.run("createTeam + removeTeam", () -> {
+            for (int i = 0; i < ENTITIES; i++) {
+                portal.removeTeam(portal.createTeam("Benchmark-Team", null));
+            }
+            return ENTITIES;
+        });
+        BenchmarkHarness.run("createRace + addStageToRace + removeRaceById", () -> {
+            for (int i = 0; i < ENTITIES; i++) {
+                int raceId = portal.createRace("Benchmark-Race", null);
+                portal.addStageToRace(raceId, "Benchmark-Stage", null, 100.0,
+                        LocalDateTime.of(2024, 9, 1, 12, 0), StageType.FLAT);
+                portal.removeRaceById(raceId);
+            }
+            return ENTITIES;
+        });
+    }
+
+    /**
+     * Times saving the fixture as a whole snapshot and as a delta after one result
+     * changed, and loading it with and without reading its race.
+     *
+     * @param fixture the fixture
+     * @throws Exception should never happen
+     */
+    private static void saveLoadBenchmarks(Fixture fixture) throws Exception {
+        CyclingPortal portal = fixture.portal;
+        int raceId = fixture.raceId;
+        ResultChanger changer = new ResultChanger(fixture, roadStage(fixture));
+
+        // A new file each iteration, so the save is a whole snapshot rather than a delta
+        String[] filename = {FILENAME};
+        int[] saves = {0};
+        BenchmarkHarness.run("saveCyclingPortal, whole snapshot", () -> {
+            deleteFiles();
+            filename[0] = saves[0]++ + "-" + FILENAME;
+        }, () -> {
+            portal.saveCyclingPortal(filename[0]);
+            return 1;
+        });
+        BenchmarkHarness.run("saveCyclingPortal, delta of one change", changer::change, () -> {
+            portal.saveCyclingPortal(filename[0]);
+            return 1;
+        });
+        BenchmarkHarness.run("loadCyclingPortal", () -> {
+            BenchmarkHarness.consume(load(filename[0]));
+            return 1;
+        });
+        BenchmarkHarness.run("loadCyclingPortal + read the race", () -> {
+            BenchmarkHarness.consume(
+                    load(filename[0]).getRidersGeneralClassificationRank(raceId));
+            return 1;
+        });
+        deleteFiles();
+    }
+
+    /**
+     * Loads the saved fixture into a new portal.
+     *
+     * @param filename the file it was saved to
+     * @return the portal
+     * @throws Exception should never happen
+     */
+    private static CyclingPortal load(String filename) throws Exception {
+        CyclingPortal loaded = new CyclingPortalImpl();
+        loaded.loadCyclingPortal(filename);
+        return loaded;
+    }
+
+    /**
+     * Picks a stage with climbs and a sprint if the race has one, so every classification
+     * has points in it. Mountain stages always do, other road stages may.
+     *
+     * @param fixture the fixture
+     * @return the stage's ID
+     * @throws Exception should never happen
+     */
+    private static int roadStage(Fixture fixture) throws Exception {
+        int[] stageIds = fixture.portal.getRaceStages(fixture.raceId);
+        int best = stageIds[0];
+        int bestScore = -1;
+        for (int stageId : stageIds) {
+            StageType type = fixture.generator.getResultSheet(stageId).getType();
+            int score = (type == StageType.HIGH_MOUNTAIN) ? 3
+                    : (type == StageType.MEDIUM_MOUNTAIN) ? 2 : (type == StageType.TT) ? 0 : 1;
+            if (score > bestScore) {
+                best = stageId;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Removes every manifest saved by the benchmarks and the files of their chains.
+     *
+     * @throws IOException if a file can't be removed
+     */
+    private static void deleteFiles() throws IOException {
+        File manifest = new File(FILENAME).getAbsoluteFile();
+        File[] chainFiles = manifest.getParentFile().listFiles(
+                (directory, name) -> name.contains(FILENAME));
+        for (File file : chainFiles) {
+            if (!file.delete()) {
+                throw new IOException("Could not delete " + file);
+            }
+        }
+    }
+
+    /**
+     * A portal holding one generated race for the benchmarks to run against, its teams
+     * being the race's whole start list. The generator keeps every stage's results, so
+     * they can be deleted and registered again.
+     */
+    private static class Fixture {
+        private final String name;
+        private final CyclingPortal portal = new CyclingPortalImpl();
+        private final RaceGenerator generator = new RaceGenerator(portal, SEED);
+        private final int raceId;
+
+        /**
+         * Fill a new portal with a race and its results.
+         *
+         * @param name   what the fixture is, for reports
+         * @param riders the number of riders, in teams of eight
+         * @param stages the number of stages, one for a one-day race
+         * @throws Exception should never happen
+         */
+        Fixture(String name, int riders, int stages) throws Exception {
+            this.name = name;
+            int teams = (riders + RaceGenerator.TEAM_SIZE - 1) / RaceGenerator.TEAM_SIZE;
+            generator.keepResultSheets();
+            generator.createTeams(teams);
+            raceId = (stages == 1) ? generator.createOneDayRace(teams)
+                    : generator.createStageRace(stages, teams);
+        }
+    }
+
+    /**
+     * Deletes and registers again the result of each rider of a stage in turn, leaving the
+     * stage's results as they were but making the portal work out its rankings again.
+     */
+    private static class ResultChanger {
+        private final CyclingPortal portal;
+        private final int stageId;
+        private final int[] riderIds;
+        private final LocalTime[][] sheet;
+        private int next = 0;
+
+        /**
+         * @param fixture the fixture
+         * @param stageId the stage to change results in
+         */
+        ResultChanger(Fixture fixture, int stageId) {
+            RaceGenerator.StageSheet stageSheet = fixture.generator.getResultSheet(stageId);
+            portal = fixture.portal;
+            this.stageId = stageId;
+            riderIds = stageSheet.getRiderIds();
+            sheet = stageSheet.getTimes();
+        }
+
+        /**
+         * Changes the next rider's result.
+         *
+         * @throws Exception should never happen
+         */
+        void change() throws Exception {
+            int rider = next;
+            next = (next + 1) % riderIds.length;
+            portal.deleteRiderResultsInStage(stageId, riderIds[rider]);
+            portal.registerRiderResultsInStage(stageId, riderIds[rider], sheet[rider]);
+        }
+    }
+}
@@ -0,0 +1,684 @@
+package Benchmarks;
+
+import cycling.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Seeded generator of fully populated portals for load tests, soak tests and benchmarks,
+ * built only through the public {@link CyclingPortal} API. The same seed and the same calls
+ * always build the same races.
+ *
+ * <p>Teams have eight riders, each with a fixed ability for sprinting, climbing and time
+ * trials. Stage races mix flat, hilly, mountain and time trial stages, with mountains
+ * more likely later on, and one-day races are flat or hilly. Sprints and climbs are
+ * placed apart within each stage and mountain stages can finish on a climb. Finishing
+ * times follow the kind of stage:
+ * <ul>
+ *   <li>flat stages end in a bunch sprint, riders crossing the line less than a second
+ *   apart so they share an adjusted time, behind an occasional breakaway and ahead of
+ *   dropped riders</li>
+ *   <li>hilly stages split the field into groups</li>
+ *   <li>mountain stages spread the leaders out, then a large gruppetto comes in late</li>
+ *   <li>time trials start riders one after another and time them individually</li>
+ * </ul>
+ * The spread of times is kept to what a professional race would see however many riders
+ * start, so very large fields finish in bigger groups rather than running past midnight.
+ * Results are registered a whole stage at a time, so millions can be generated quickly.
+ * Benchmarks that register results again can have the generator keep each stage's sheet.
+ */
+public class RaceGenerator {
+
+    public static final int TEAM_SIZE = 8;
+    // Riders in a professional field, spreads of times are sized for this many
+    private static final int PRO_FIELD = 176;
+    private static final LocalDate SEASON_START = LocalDate.of(2025, 2, 1);
+
+    private final CyclingPortal portal;
+    private final SplittableRandom random;
+
+    // Every team created, and its riders' IDs and abilities in the same order
+    private int[] teamIds = new int[0];
+    private int[] riderIds = new int[0];
+    private double[] sprinting = new double[0];
+    private double[] climbing = new double[0];
+    private double[] timeTrialling = new double[0];
+
+    // The start list of every race created, as positions in the riders above
+    private final Map<Integer, int[]> startLists = new HashMap<>();
+    // The result sheet of every stage registered, if kept, format of <stageId, sheet>
+    private Map<Integer, StageSheet> sheets = null;
+
+    private int racesCreated = 0; // so every race and stage gets a new name
+    private int stagesAdded = 0; // stages added to races after they were created
+    private int raceDays = 0; // days of the season taken by races so far
+    private long results = 0;
+
+    /**
+     * Constructor for a generator filling a portal.
+     *
+     * @param portal the portal to create races and teams in
+     * @param seed   the seed every random choice follows from
+     */
+    public RaceGenerator(CyclingPortal portal, long seed) {
+        this.portal = portal;
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Create teams of eight riders, each rider with their own abilities.
+     *
+     * @param count the number of teams
+     * @return the new teams' IDs
+     * @throws IllegalNameException     if the portal already has a team of the same name
+     * @throws InvalidNameException     should never happen
+     * @throws IDNotRecognisedException should never happen
+     */
+    public int[] createTeams(int count)
+            throws IllegalNameException, InvalidNameException, IDNotRecognisedException {
+        int firstTeam = teamIds.length;
+        int firstRider = riderIds.length;
+        teamIds = Arrays.copyOf(teamIds, firstTeam + count);
+        riderIds = Arrays.copyOf(riderIds, firstRider + count * TEAM_SIZE);
+        sprinting = Arrays.copyOf(sprinting, riderIds.length);
+        climbing = Arrays.copyOf(climbing, riderIds.length);
+        timeTrialling = Arrays.copyOf(timeTrialling, riderIds.length);
+
+        for (int t = firstTeam; t < teamIds.length; t++) {
+            teamIds[t] = portal.createTeam("Gen-Team-" + t, "Generated team " + t);
+            for (int r = t * TEAM_SIZE; r < (t + 1) * TEAM_SIZE; r++) {
+                riderIds[r] = portal.createRider(teamIds[t], "Gen-Rider-" + r,
+                        1985 + random.nextInt(20));
+                sprinting[r] = gaussian();
+                climbing[r] = gaussian();
+                timeTrialling[r] = 0.6 * climbing[r] + 0.8 * gaussian();
+            }
+        }
+        return Arrays.copyOfRange(teamIds, firstTeam, teamIds.length);
+    }
+
+    /**
+     * Create a stage race and register the results of every stage.
+     *
+     * @param stages the number of stages, 21 for a Grand Tour
+     * @param teams  the number of teams on the start list, chosen from those created
+     * @return the race's ID
+     * @throws Exception if the portal rejects the race, such as when there are fewer teams
+     */
+    public int createStageRace(int stages, int teams) throws Exception {
+        int[] startList = startList(teams);
+        int raceId = portal.createRace("Gen-Race-" + racesCreated,
+                stages + " stage race of " + teams + " teams");
+        startLists.put(raceId, startList);
+        for (int s = 0; s < stages; s++) {
+            // Rest days after every ninth stage, as in a Grand Tour
+            LocalDate day = SEASON_START.plusDays(raceDays + s + s / 9);
+            register(addStage(raceId, "Gen-R" + racesCreated + "-S" + s, stageType(s, stages),
+                    day, startList));
+        }
+        raceDays += stages + stages / 9 + 1;
+        racesCreated++;
+        return raceId;
+    }
+
+    /**
+     * Create a one-day race, flat or hilly, and register its results.
+     *
+     * @param teams the number of teams on the start list, chosen from those created
+     * @return the race's ID
+     * @throws Exception if the portal rejects the race, such as when there are fewer teams
+     */
+    public int createOneDayRace(int teams) throws Exception {
+        int[] startList = startList(teams);
+        int raceId = portal.createRace("Gen-Race-" + racesCreated,
+                "One-day race of " + teams + " teams");
+        startLists.put(raceId, startList);
+        StageType type = random.nextBoolean() ? StageType.FLAT : StageType.MEDIUM_MOUNTAIN;
+        register(addStage(raceId, "Gen-R" + racesCreated + "-S0", type,
+                SEASON_START.plusDays(raceDays), startList));
+        raceDays++;
+        racesCreated++;
+        return raceId;
+    }
+
+    /**
+     * Create a season of races with the same teams on every start list.
+     *
+     * @param grandTours    the number of 21 stage races
+     * @param weekRaces     the number of 7 stage races
+     * @param oneDayRaces   the number of one-day races
+     * @param teamsPerRace  the number of teams on each start list
+     * @return the races' IDs
+     * @throws Exception if the portal rejects a race, such as when there are fewer teams
+     */
+    public int[] createSeason(int grandTours, int weekRaces, int oneDayRaces, int teamsPerRace)
+            throws Exception {
+        int[] raceIds = new int[grandTours + weekRaces + oneDayRaces];
+        int next = 0;
+        for (int i = 0; i < grandTours; i++) {
+            raceIds[next++] = createStageRace(21, teamsPerRace);
+        }
+        for (int i = 0; i < weekRaces; i++) {
+            raceIds[next++] = createStageRace(7, teamsPerRace);
+        }
+        for (int i = 0; i < oneDayRaces; i++) {
+            raceIds[next++] = createOneDayRace(teamsPerRace);
+        }
+        return raceIds;
+    }
+
+    /**
+     * Add a stage to a race created by the generator, on the next free day of the season,
+     * with its checkpoints and its preparation concluded. A result is worked out for every
+     * rider on the race's start list, but not registered, so the caller can register them
+     * however it likes.
+     *
+     * @param raceId the race's ID
+     * @param type   the type of stage
+     * @return the stage's ID and the results worked out for it
+     * @throws Exception if the race wasn't created by the generator, or has been removed
+     */
+    public StageSheet addStage(int raceId, StageType type) throws Exception {
+        int[] startList = startLists.get(raceId);
+        if (startList == null) {
+            throw new IllegalArgumentException("Race " + raceId + " was not generated");
+        }
+        return addStage(raceId, "Gen-Added-S" + stagesAdded++, type,
+                SEASON_START.plusDays(raceDays++), startList);
+    }
+
+    /**
+     * Keep the result sheet of every stage registered from now on, so its results can be
+     * registered again. Off by default, as a whole season's sheets take a lot of memory.
+     */
+    public void keepResultSheets() {
+        if (sheets == null) {
+            sheets = new HashMap<>();
+        }
+    }
+
+    /**
+     * Get the results registered for a stage, if the generator was keeping them.
+     *
+     * @param stageId the stage's ID
+     * @return the stage's sheet, or null if it wasn't kept
+     */
+    public StageSheet getResultSheet(int stageId) {
+        return (sheets == null) ? null : sheets.get(stageId);
+    }
+
+    /**
+     * Get the number of rider results registered so far.
+     *
+     * @return the number of results
+     */
+    public long getResultCount() {
+        return results;
+    }
+
+    /**
+     * Get the IDs of every rider created, in the order their teams were created.
+     *
+     * @return the riders' IDs
+     */
+    public int[] getRiderIds() {
+        return riderIds.clone();
+    }
+
+    /**
+     * Get the IDs of every team created, in the order they were created.
+     *
+     * @return the teams' IDs
+     */
+    public int[] getTeamIds() {
+        return teamIds.clone();
+    }
+
+    /**
+     * Create a stage with its checkpoints, conclude its preparation and work out a result
+     * for every rider on the start list.
+     *
+     * @param raceId    the race the stage is in
+     * @param name      the stage's name
+     * @param type      the type of stage
+     * @param day       the day the stage is raced
+     * @param startList the positions of the riders starting, in the generator's riders
+     * @return the stage's ID and its results, not yet registered
+     * @throws Exception should never happen
+     */
+    private StageSheet addStage(int raceId, String name, StageType type, LocalDate day,
+                                int[] startList) throws Exception {
+        double length = stageLength(type);
+        LocalTime start = (type == StageType.TT) ? LocalTime.of(13, 0) : LocalTime.of(12, 15);
+        int stageId = portal.addStageToRace(raceId, name, null, length,
+                LocalDateTime.of(day, start), type);
+
+        // Where each checkpoint is passed, as a fraction of the stage
+        double[] fractions = addCheckpoints(stageId, type, length);
+        portal.concludeStagePreparation(stageId);
+
+        int riders = startList.length;
+        long[] elapsed = finishingTimes(type, length, riders);
+        int[] order = finishingOrder(type, startList);
+        // Time triallists start one after another, best riders last
+        long startGap = (type == StageType.TT)
+                ? Math.max(1_000_000_000L, Math.min(60_000_000_000L,
+                        4 * 3600_000_000_000L / riders)) : 0;
+        long startNanos = start.toNanoOfDay();
+
+        int[] sheetRiders = new int[riders];
+        LocalTime[][] sheet = new LocalTime[riders][];
+        for (int place = 0; place < riders; place++) {
+            int rider = order[place];
+            long riderStart = startNanos + startGap * (riders - 1 - place);
+            LocalTime[] times = new LocalTime[fractions.length + 2];
+            times[0] = LocalTime.ofNanoOfDay(riderStart);
+            long previous = riderStart;
+            for (int c = 0; c < fractions.length; c++) {
+                // Riders go at their own pace, but always pass checkpoints in order
+                double pace = fractions[c] * (1 + 0.01 * (random.nextDouble() - 0.5));
+                long passed = riderStart + (long) (elapsed[place] * Math.min(1.0, pace));
+                previous = Math.max(previous, passed);
+                times[c + 1] = LocalTime.ofNanoOfDay(previous);
+            }
+            times[times.length - 1] = LocalTime.ofNanoOfDay(riderStart + elapsed[place]);
+            sheetRiders[place] = riderIds[rider];
+            sheet[place] = times;
+        }
+        return new StageSheet(stageId, type, sheetRiders, sheet);
+    }
+
+    /**
+     * Register a stage's results all at once, keeping the sheet if asked to.
+     *
+     * @param sheet the stage's sheet
+     * @throws Exception should never happen
+     */
+    private void register(StageSheet sheet) throws Exception {
+        portal.registerStageResultSheet(sheet.stageId, sheet.riderIds, sheet.times);
+        results += sheet.riderIds.length;
+        if (sheets != null) {
+            sheets.put(sheet.stageId, sheet);
+        }
+    }
+
+    /**
+     * Add the sprint and climbs of a stage, each in its own stretch of the stage so none
+     * overlap, in the order they are reached.
+     *
+     * @param stageId the stage
+     * @param type    the type of stage
+     * @param length  the stage's length in kilometres
+     * @return where each checkpoint is passed, as a fraction of the stage
+     * @throws Exception should never happen
+     */
+    private double[] addCheckpoints(int stageId, StageType type, double length)
+            throws Exception {
+        int climbs;
+        switch (type) {
+            case TT:
+                return new double[0]; // Time trials can't have checkpoints
+            case HIGH_MOUNTAIN:
+                climbs = 3 + random.nextInt(3);
+                break;
+            case MEDIUM_MOUNTAIN:
+                climbs = 2 + random.nextInt(3);
+                break;
+            default:
+                climbs = random.nextInt(3);
+        }
+        int count = climbs + 1;
+        int sprint = random.nextInt(count - (climbs > 0 ? 1 : 0)); // Never the last on a climb
+        boolean summitFinish = type == StageType.HIGH_MOUNTAIN && random.nextInt(3) > 0;
+        double stretch = length / (summitFinish ? count : count + 1);
+
+        double[] fractions = new double[count];
+        for (int c = 0; c < count; c++) {
+            // Kept a hair short of the line, so a summit finish doesn't round past it
+            double end = Math.min(stretch * (c + 1), length - 1e-6);
+            if (c == sprint) {
+                double location = end - stretch * 0.5 * random.nextDouble();
+                portal.addIntermediateSprintToStage(stageId, location);
+                fractions[c] = location / length;
+            } else {
+                CheckpointType category = climbCategory(type);
+                double climbLength = Math.min(stretch * 0.8, climbLength(category));
+                double gradient = climbGradient(category);
+                portal.addCategorizedClimbToStage(stageId, end - climbLength, category,
+                        gradient, climbLength);
+                fractions[c] = end / length; // Timed at the top
+            }
+        }
+        return fractions;
+    }
+
+    /**
+     * Work out the elapsed time of each finishing place in a stage, the winner first.
+     *
+     * @param type   the type of stage
+     * @param length the stage's length in kilometres
+     * @param riders the number of riders
+     * @return the elapsed times in nanoseconds, in finishing order
+     */
+    private long[] finishingTimes(StageType type, double length, int riders) {
+        double speed; // the winner's average, km/h
+        switch (type) {
+            case TT:
+                speed = 49 + 3 * random.nextDouble();
+                break;
+            case HIGH_MOUNTAIN:
+                speed = 33 + 4 * random.nextDouble();
+                break;
+            case MEDIUM_MOUNTAIN:
+                speed = 39 + 4 * random.nextDouble();
+                break;
+            default:
+                speed = 42 + 5 * random.nextDouble();
+        }
+        double winner = length / speed * 3600;
+        // Gaps between groups shrink for big fields so the spread stays that of a pro race
+        double scale = Math.min(1.0, (double) PRO_FIELD / riders);
+
+        double[] seconds = new double[riders];
+        seconds[0] = winner;
+        int breakaway = (type == StageType.FLAT && random.nextInt(4) == 0)
+                ? 1 + random.nextInt(Math.min(4, riders)) : 0;
+        int gruppetto = (type == StageType.HIGH_MOUNTAIN) ? riders * 2 / 3 : riders;
+        int dropped = (type == StageType.FLAT) ? riders * 9 / 10 : riders;
+        for (int place = 1; place < riders; place++) {
+            double gap;
+            if (type == StageType.TT) {
+                gap = (0.2 + 8 * random.nextDouble()) * scale; // Every rider on their own
+            } else if (place == breakaway) {
+                gap = 10 + 110 * random.nextDouble(); // The bunch catches up too late
+            } else if (place == dropped) {
+                gap = 180 + 720 * random.nextDouble();
+            } else if (place == gruppetto) {
+                gap = 600 + 900 * random.nextDouble();
+            } else if (type == StageType.HIGH_MOUNTAIN && place < gruppetto
+                    && random.nextInt(3) > 0) {
+                gap = Math.max(1.0, (3 + 57 * random.nextDouble()) * scale);
+            } else if (type == StageType.MEDIUM_MOUNTAIN && random.nextInt(12) == 0) {
+                gap = Math.max(1.0, (5 + 85 * random.nextDouble()) * scale);
+            } else if (random.nextInt(50) == 0) {
+                gap = 1 + 3 * random.nextDouble(); // The bunch splits
+            } else {
+                gap = 0.05 + 0.9 * random.nextDouble(); // Within a second, in the same group
+            }
+            seconds[place] = seconds[place - 1] + gap;
+        }
+
+        long[] elapsed = new long[riders];
+        for (int place = 0; place < riders; place++) {
+            elapsed[place] = (long) (seconds[place] * 1e9);
+        }
+        return elapsed;
+    }
+
+    /**
+     * Work out the order riders finish a stage in from their abilities for its type, plus
+     * the luck of the day.
+     *
+     * @param type      the type of stage
+     * @param startList the positions of the riders starting, in the generator's riders
+     * @return the positions of the riders in finishing order
+     */
+    private int[] finishingOrder(StageType type, int[] startList) {
+        // The score and the rider packed together, so a primitive sort orders the riders
+        long[] keys = new long[startList.length];
+        for (int i = 0; i < startList.length; i++) {
+            int rider = startList[i];
+            double ability;
+            switch (type) {
+                case TT:
+                    ability = timeTrialling[rider];
+                    break;
+                case HIGH_MOUNTAIN:
+                    ability = climbing[rider];
+                    break;
+                case MEDIUM_MOUNTAIN:
+                    ability = 0.7 * climbing[rider] + 0.3 * sprinting[rider];
+                    break;
+                default:
+                    ability = sprinting[rider];
+            }
+            double score = ability + gaussian();
+            // Higher scores finish first, scores are well within +/- 16
+            long rank = (long) ((16 - Math.max(-15.9, Math.min(15.9, score))) * (1 << 20));
+            keys[i] = (rank << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        int[] order = new int[startList.length];
+        for (int place = 0; place < order.length; place++) {
+            order[place] = startList[(int) keys[place]];
+        }
+        return order;
+    }
+
+    /**
+     * Pick the teams starting a race.
+     *
+     * @param teams the number of teams
+     * @return the positions of their riders, in the generator's riders
+     */
+    private int[] startList(int teams) {
+        if (teams > teamIds.length) {
+            throw new IllegalArgumentException("Only " + teamIds.length + " teams created");
+        }
+        // Shuffle every team, then take the first few
+        int[] chosen = new int[teamIds.length];
+        for (int t = 0; t < chosen.length; t++) {
+            chosen[t] = t;
+        }
+        for (int t = chosen.length - 1; t > 0; t--) {
+            int swap = random.nextInt(t + 1);
+            int team = chosen[t];
+            chosen[t] = chosen[swap];
+            chosen[swap] = team;
+        }
+        Arrays.sort(chosen, 0, teams);
+
+        int[] riders = new int[teams * TEAM_SIZE];
+        for (int t = 0; t < teams; t++) {
+            for (int r = 0; r < TEAM_SIZE; r++) {
+                riders[t * TEAM_SIZE + r] = chosen[t] * TEAM_SIZE + r;
+            }
+        }
+        return riders;
+    }
+
+    /**
+     * Pick the type of a stage of a stage race. Races often open with a prologue, flat
+     * stages are more likely early on and mountains towards the end.
+     *
+     * @param stage  the position of the stage in the race
+     * @param stages the number of stages in the race
+     * @return the type
+     */
+    private StageType stageType(int stage, int stages) {
+        if (stage == 0 && stages >= 5 && random.nextBoolean()) {
+            return StageType.TT;
+        }
+        double progress = (double) stage / stages;
+        double roll = random.nextDouble();
+        if (roll < 0.1) {
+            return StageType.TT;
+        } else if (roll < 0.1 + 0.5 * (1 - progress)) {
+            return StageType.FLAT;
+        } else if (roll < 0.1 + 0.5 * (1 - progress) + 0.25) {
+            return StageType.MEDIUM_MOUNTAIN;
+        }
+        return StageType.HIGH_MOUNTAIN;
+    }
+
+    /**
+     * @param type the type of stage
+     * @return a length for a stage of the type, in kilometres
+     */
+    private double stageLength(StageType type) {
+        switch (type) {
+            case TT:
+                return 8 + 42 * random.nextDouble();
+            case HIGH_MOUNTAIN:
+                return 130 + 70 * random.nextDouble();
+            case MEDIUM_MOUNTAIN:
+                return 150 + 60 * random.nextDouble();
+            default:
+                return 160 + 70 * random.nextDouble();
+        }
+    }
+
+    /**
+     * @param type the type of stage
+     * @return the category of a climb on a stage of the type
+     */
+    private CheckpointType climbCategory(StageType type) {
+        int roll = random.nextInt(3);
+        switch (type) {
+            case HIGH_MOUNTAIN:
+                return (roll == 0) ? CheckpointType.HC : (roll == 1) ? CheckpointType.C1
+                        : CheckpointType.C2;
+            case MEDIUM_MOUNTAIN:
+                return (roll == 0) ? CheckpointType.C1 : (roll == 1) ? CheckpointType.C2
+                        : CheckpointType.C3;
+            default:
+                return (roll == 0) ? CheckpointType.C3 : CheckpointType.C4;
+        }
+    }
+
+    /**
+     * @param category the category of a climb
+     * @return a length for a climb of the category, in kilometres
+     */
+    private double climbLength(CheckpointType category) {
+        switch (category) {
+            case HC:
+                return 12 + 10 * random.nextDouble();
+            case C1:
+                return 8 + 8 * random.nextDouble();
+            case C2:
+                return 5 + 5 * random.nextDouble();
+            case C3:
+                return 3 + 4 * random.nextDouble();
+            default:
+                return 1 + 3 * random.nextDouble();
+        }
+    }
+
+    /**
+     * @param category the category of a climb
+     * @return an average gradient for a climb of the category, in percent
+     */
+    private double climbGradient(CheckpointType category) {
+        switch (category) {
+            case HC:
+            case C1:
+                return 6.5 + 3 * random.nextDouble();
+            case C2:
+                return 5 + 3 * random.nextDouble();
+            default:
+                return 3 + 4 * random.nextDouble();
+        }
+    }
+
+    /**
+     * @return a normally distributed number with mean 0 and standard deviation 1
+     */
+    private double gaussian() {
+        // Box-Muller, as SplittableRandom has no nextGaussian
+        double u = 1 - random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    /**
+     * The results worked out for a stage: each rider's start, checkpoint and finish times,
+     * in the order they finished. The arrays are shared rather than copied, so must not be
+     * changed.
+     */
+    public static class StageSheet {
+        private final int stageId;
+        private final StageType type;
+        private final int[] riderIds;
+        private final LocalTime[][] times;
+
+        /**
+         * @param stageId  the stage's ID
+         * @param type     the type of stage
+         * @param riderIds the riders' IDs, in finishing order
+         * @param times    each rider's times, in the same order
+         */
+        StageSheet(int stageId, StageType type, int[] riderIds, LocalTime[][] times) {
+            this.stageId = stageId;
+            this.type = type;
+            this.riderIds = riderIds;
+            this.times = times;
+        }
+
+        /**
+         * @return the stage's ID
+         */
+        public int getStageId() {
+            return stageId;
+        }
+
+        /**
+         * @return the type of stage
+         */
+        public StageType getType() {
+            return type;
+        }
+
+        /**
+         * @return the riders' IDs, in finishing order
+         */
+        public int[] getRiderIds() {
+            return riderIds;
+        }
+
+        /**
+         * @return each rider's start, checkpoint and finish times, in the order of the riders
+         */
+        public LocalTime[][] getTimes() {
+            return times;
+        }
+    }
+
+    /**
+     * Generates a season and reports how quickly its results were registered.
+     *
+     * <pre>
+     *   java Benchmarks.RaceGenerator [seed] [teams] [teams per race]
+     * </pre>
+     * By default 1,000 teams ride 3 Grand Tours, 12 week-long races and 20 one-day races,
+     * over 1.3 million results.
+     *
+     * @param args the seed, the number of teams and the number on each start list
+     * @throws Exception should never happen
+     */
+    public static void main(String[] args) throws Exception {
+        long seed = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+        int teams = (args.length > 1) ? Integer.parseInt(args[1]) : 1_000;
+        int teamsPerRace = (args.length > 2) ? Integer.parseInt(args[2]) : teams;
+
+        CyclingPortal portal = new CyclingPortalImpl();
+        RaceGenerator generator = new RaceGenerator(portal, seed);
+        long start = System.nanoTime();
+        generator.createTeams(teams);
+        int[] raceIds = generator.createSeason(3, 12, 20, teamsPerRace);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%,d races, %,d results in %,d ms (%,.0f results/s)%n",
+                raceIds.length, generator.getResultCount(), elapsed / 1_000_000,
+                generator.getResultCount() * 1e9 / elapsed);
+        int[] leaders = portal.getRidersGeneralClassificationRank(raceIds[0]);
+        System.out.printf("first Grand Tour won by rider %d in %s%n", leaders[0],
+                portal.getGeneralClassificationTimesInRace(raceIds[0])[0]);
+    }
+}
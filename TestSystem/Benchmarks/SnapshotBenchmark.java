@@ -0,0 +1,117 @@
+package Benchmarks;
+
+import cycling.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Benchmark for saving and loading an archive of many races with full results.
+ */
+public class SnapshotBenchmark {
+
+    private static final int RACES = 50;
+    private static final int STAGES_PER_RACE = 6;
+    private static final int RIDERS = 150;
+    private static final int ROUNDS = 5;
+    private static final String FILENAME = "snapshot-benchmark.ser";
+
+    /**
+     * Builds the archive, then times saving it, loading it, querying one race of it and
+     * saving it again with one result changed a few times over.
+     *
+     * @param args not used
+     * @throws Exception should never happen
+     */
+    public static void main(String[] args) throws Exception {
+        CyclingPortalImpl portal = buildArchive();
+
+        // The first round warms up the JIT and isn't reported
+        for (int round = 0; round <= ROUNDS; round++) {
+            // A new file each round, so the save is a whole snapshot rather than a delta
+            String filename = round + "-" + FILENAME;
+            long start = System.nanoTime();
+            portal.saveCyclingPortal(filename);
+            long saved = System.nanoTime();
+            CyclingPortal loaded = new CyclingPortalImpl();
+            loaded.loadCyclingPortal(filename);
+            long loadedAt = System.nanoTime();
+            // Races are read as they're used, so time the first query on one as well
+            int raceId = loaded.getRaceIds()[0];
+            loaded.getRidersGeneralClassificationRank(raceId);
+            long queried = System.nanoTime();
+
+            // Saving one changed result again only writes a delta with its stage and team
+            int stageId = loaded.getRaceStages(raceId)[0];
+            int riderId = loaded.getRidersRankInStage(stageId)[0];
+            // The results are each checkpoint then the elapsed time, every stage starts at 12
+            LocalTime[] times = loaded.getRiderResultsInStage(stageId, riderId);
+            loaded.deleteRiderResultsInStage(stageId, riderId);
+            LocalTime[] checkpoints = new LocalTime[times.length + 1];
+            checkpoints[0] = LocalTime.of(12, 0);
+            System.arraycopy(times, 0, checkpoints, 1, times.length - 1);
+            checkpoints[times.length] = checkpoints[0].plusNanos(
+                    times[times.length - 1].toNanoOfDay());
+            loaded.registerRiderResultsInStage(stageId, riderId, checkpoints);
+            long changed = System.nanoTime();
+            loaded.saveCyclingPortal(filename);
+            long deltaSaved = System.nanoTime();
+
+            File[] files = {new File(filename), new File(filename + ".0.0"),
+                    new File(filename + ".0.1")};
+            if (round > 0) {
+                System.out.printf("round %d: save %,d ms (%,d bytes), load %,d ms, "
+                                + "first race %,d ms, delta save %,d us (%,d bytes)%n", round,
+                        (saved - start) / 1_000_000, files[1].length(),
+                        (loadedAt - saved) / 1_000_000, (queried - loadedAt) / 1_000_000,
+                        (deltaSaved - changed) / 1_000, files[2].length());
+            }
+            for (File file : files) {
+                if (!file.delete()) {
+                    throw new IOException("Could not delete " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates every race, stage and rider, with a result for every rider in every stage.
+     *
+     * @return the portal holding the archive
+     * @throws Exception should never happen
+     */
+    private static CyclingPortalImpl buildArchive() throws Exception {
+        CyclingPortalImpl portal = new CyclingPortalImpl();
+        int teamId = portal.createTeam("Archive", "Every rider in the archive");
+        int[] riderIds = new int[RIDERS];
+        for (int i = 0; i < RIDERS; i++) {
+            riderIds[i] = portal.createRider(teamId, "Rider" + i, 1990 + i % 15);
+        }
+
+        for (int race = 0; race < RACES; race++) {
+            int raceId = portal.createRace("Archive-Race" + race, "Race number " + race);
+            for (int stage = 0; stage < STAGES_PER_RACE; stage++) {
+                int stageId = portal.addStageToRace(raceId, "Archive-Stage" + race + "-" + stage,
+                        "A hilly stage", 160.0, LocalDateTime.of(2023, 5, 1 + stage, 12, 0),
+                        StageType.MEDIUM_MOUNTAIN);
+                portal.addIntermediateSprintToStage(stageId, 60.0);
+                portal.addCategorizedClimbToStage(stageId, 120.0, CheckpointType.C2, 6.0, 5.5);
+                portal.concludeStagePreparation(stageId);
+
+                LocalTime[][] sheet = new LocalTime[RIDERS][];
+                int seed = race * STAGES_PER_RACE + stage;
+                for (int i = 0; i < RIDERS; i++) {
+                    LocalTime start = LocalTime.of(12, 0);
+                    sheet[i] = new LocalTime[]{start,
+                            start.plusSeconds(5400 + (i * 37 + seed * 11) % 900),
+                            start.plusSeconds(10800 + (i * 53 + seed * 7) % 1200),
+                            start.plusSeconds(14400 + (i * 71 + seed * 13) % 1800).plusNanos(i)};
+                }
+                portal.registerStageResultSheet(stageId, riderIds, sheet);
+            }
+        }
+        return portal;
+    }
+}
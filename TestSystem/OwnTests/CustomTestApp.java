@@ -2,11 +2,25 @@ package OwnTests;
 
 import cycling.*;
 
+import java.util.function.Supplier;
+
 /**
  * Main class to run all tests
  */
 public class CustomTestApp {
 
+    // Makes the portals the tests run against, so every suite runs on each implementation
+    private static Supplier<CyclingPortal> portalFactory = CyclingPortalImpl::new;
+
+    /**
+     * Create a new empty portal of the implementation currently under test
+     *
+     * @return the new portal
+     */
+    public static CyclingPortal newPortal() {
+        return portalFactory.get();
+    }
+
     /**
      * Main method to run all tests
      *
@@ -26,6 +40,28 @@ public class CustomTestApp {
             DuplicatedResultException, InvalidCheckpointTimesException {
         System.out.println("The system compiled and started the execution...");
 
+        // run every suite against each implementation
+        runSuites();
+        portalFactory = ConcurrentCyclingPortalImpl::new;
+        System.out.println("\u001B[1mConcurrent portal\u001B[0m");
+        runSuites();
+
+        System.out.println("Starting concurrency tests...");
+        PortalConcurrencyTests.concurrencyImplTests();
+        PortalConcurrencyTests.lazyLoadImplTests();
+        PortalConcurrencyTests.lazyReadLockTests();
+        System.out.println("Passed.\n");
+
+        System.out.println("All tests passed.");
+    }
+
+    /**
+     * Run each of the test suites against the current portal implementation
+     */
+    private static void runSuites()
+            throws IDNotRecognisedException, NameNotRecognisedException, IllegalNameException, InvalidNameException,
+            InvalidLengthException, InvalidLocationException, InvalidStageStateException, InvalidStageTypeException,
+            DuplicatedResultException, InvalidCheckpointTimesException {
         // run each sets of tests twice to check they don't affect each other
         for(int i = 0; i < 2; i++) {
             System.out.println("\u001B[1mRound "+ (i+1)+ "\u001B[0m");
@@ -63,7 +99,5 @@ public class CustomTestApp {
             System.out.println("Passed.\n");
         }
 
-        System.out.println("All tests passed.");
     }
-
 }
@@ -14,7 +14,7 @@ public class PortalCheckpointsTests {
                         IllegalNameException, InvalidNameException, InvalidLengthException, InvalidLocationException,
                         InvalidStageStateException, InvalidStageTypeException, DuplicatedResultException,
                         InvalidCheckpointTimesException {
-                CyclingPortalImpl portal = new CyclingPortalImpl();
+                CyclingPortal portal = CustomTestApp.newPortal();
 
                 int team1Id = portal.createTeam("Team1", "Test team");
                 int team2Id = portal.createTeam("Team2", "Test team");
@@ -0,0 +1,407 @@
+package OwnTests;
+
+import cycling.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class PortalConcurrencyTests {
+    private static final int RACES = 2;
+    private static final int STAGES_PER_RACE = 5;
+    private static final int RIDERS = 60;
+    private static final int READERS = 4;
+
+    /**
+     * Stress tests the concurrent portal by registering results on every stage at once
+     * while other threads query the races, then checks the final classifications match
+     * a portal that was given the same results one at a time.
+     */
+    public static void concurrencyImplTests() {
+        CyclingPortal concurrent = new ConcurrentCyclingPortalImpl();
+        CyclingPortal sequential = new CyclingPortalImpl();
+        int[][] stageIds = setUp(concurrent);
+        int[][] sequentialStageIds = setUp(sequential);
+        int[] riderIds = teamRiders(concurrent);
+        assert riderIds.length == RIDERS : "Riders were not created";
+        int[] raceIds = concurrent.getRaceIds();
+
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch startGate = new CountDownLatch(1);
+        List<Thread> writers = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+
+        // One writer per stage, each also deletes and re-registers some results
+        for (int race = 0; race < RACES; race++) {
+            for (int stage = 0; stage < STAGES_PER_RACE; stage++) {
+                final int stageId = stageIds[race][stage];
+                final int seed = race * STAGES_PER_RACE + stage;
+                writers.add(new Thread(() -> {
+                    try {
+                        startGate.await();
+                        for (int i = 0; i < riderIds.length; i++) {
+                            concurrent.registerRiderResultsInStage(stageId, riderIds[i],
+                                    resultTimes(seed, i));
+                            if (i % 7 == 0) {
+                                concurrent.deleteRiderResultsInStage(stageId, riderIds[i]);
+                                concurrent.registerRiderResultsInStage(stageId, riderIds[i],
+                                        resultTimes(seed, i));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }));
+            }
+        }
+
+        // Readers query the races while results are arriving, checking each answer hangs together
+        for (int r = 0; r < READERS; r++) {
+            final int raceId = raceIds[r % raceIds.length];
+            final int stageId = stageIds[r % RACES][r % STAGES_PER_RACE];
+            readers.add(new Thread(() -> {
+                try {
+                    startGate.await();
+                    while (writing.get()) {
+                        int[] ranks = concurrent.getRidersGeneralClassificationRank(raceId);
+                        LocalTime[] times = concurrent.getGeneralClassificationTimesInRace(raceId);
+                        int[] points = concurrent.getRidersPointsInRace(raceId);
+                        int[] pointsRanks = concurrent.getRidersPointClassificationRank(raceId);
+                        assert ranks.length <= RIDERS && times.length <= RIDERS
+                                && points.length <= RIDERS && pointsRanks.length <= RIDERS
+                                : "Race classification has too many riders";
+
+                        int[] stageRanks = concurrent.getRidersRankInStage(stageId);
+                        LocalTime[] stageTimes = concurrent.getRankedAdjustedElapsedTimesInStage(stageId);
+                        int[] stagePoints = concurrent.getRidersPointsInStage(stageId);
+                        // A stage is locked for the whole of each call, but results can arrive between calls
+                        assert stageRanks.length <= RIDERS && stageTimes.length <= RIDERS
+                                && stagePoints.length <= RIDERS : "Stage classification has too many riders";
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+
+        for (Thread thread : writers) {
+            thread.start();
+        }
+        for (Thread thread : readers) {
+            thread.start();
+        }
+        startGate.countDown();
+        joinAll(writers);
+        writing.set(false);
+        joinAll(readers);
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError("Concurrent portal threw during the stress test",
+                    failures.peek());
+        }
+
+        // Give the sequential portal the same results one at a time
+        int[] sequentialRiders = teamRiders(sequential);
+        try {
+            for (int race = 0; race < RACES; race++) {
+                for (int stage = 0; stage < STAGES_PER_RACE; stage++) {
+                    for (int i = 0; i < sequentialRiders.length; i++) {
+                        sequential.registerRiderResultsInStage(sequentialStageIds[race][stage],
+                                sequentialRiders[i], resultTimes(race * STAGES_PER_RACE + stage, i));
+                    }
+                }
+            }
+
+            // Both portals were set up the same way, so the IDs match too
+            int[] sequentialRaceIds = sequential.getRaceIds();
+            assert Arrays.equals(raceIds, sequentialRaceIds) : "Portals were not set up the same";
+            for (int raceId : raceIds) {
+                assert Arrays.equals(concurrent.getRidersGeneralClassificationRank(raceId),
+                        sequential.getRidersGeneralClassificationRank(raceId))
+                        : "Concurrent GC ranks differ";
+                assert Arrays.equals(concurrent.getGeneralClassificationTimesInRace(raceId),
+                        sequential.getGeneralClassificationTimesInRace(raceId))
+                        : "Concurrent GC times differ";
+                assert Arrays.equals(concurrent.getRidersPointsInRace(raceId),
+                        sequential.getRidersPointsInRace(raceId))
+                        : "Concurrent sprint points differ";
+                assert Arrays.equals(concurrent.getRidersMountainPointClassificationRank(raceId),
+                        sequential.getRidersMountainPointClassificationRank(raceId))
+                        : "Concurrent mountain rankings differ";
+            }
+        } catch (IDNotRecognisedException | DuplicatedResultException |
+                 InvalidCheckpointTimesException | InvalidStageStateException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests races of a loaded snapshot give the same answers as the portal that was saved
+     * when threads use them at once, some racing to read the same race and others reading
+     * different ones. This only covers the happy path: whether the threads actually overlap
+     * is down to the scheduler, so it can pass with the locking taken out. The locking
+     * itself is checked by {@link #lazyReadLockTests()}.
+     */
+    public static void lazyLoadImplTests() {
+        CyclingPortal original = new CyclingPortalImpl();
+        int[][] stageIds = setUp(original);
+        File file = new File("concurrent-lazy.ser");
+        saveWithResults(original, stageIds, file);
+
+        // Worked out up front, as the original portal isn't safe to use from many threads
+        int[] raceIds = original.getRaceIds();
+        int[][] gcRanks = new int[RACES][];
+        int[][] racePoints = new int[RACES][];
+        int[][][] stageRanks = new int[RACES][STAGES_PER_RACE][];
+        try {
+            for (int race = 0; race < RACES; race++) {
+                gcRanks[race] = original.getRidersGeneralClassificationRank(raceIds[race]);
+                racePoints[race] = original.getRidersPointsInRace(raceIds[race]);
+                for (int stage = 0; stage < STAGES_PER_RACE; stage++) {
+                    stageRanks[race][stage] = original.getRidersRankInStage(stageIds[race][stage]);
+                }
+            }
+        } catch (IDNotRecognisedException e) {
+            throw new RuntimeException(e);
+        }
+
+        for (int round = 0; round < 5; round++) {
+            CyclingPortal loaded = new ConcurrentCyclingPortalImpl();
+            try {
+                loaded.loadCyclingPortal(file.getName());
+            } catch (IOException | ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+
+            ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+            CountDownLatch startGate = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < READERS * 2; t++) {
+                final int race = t % RACES;
+                final int stage = t % STAGES_PER_RACE;
+                final boolean byRace = t % 2 == 0;
+                threads.add(new Thread(() -> {
+                    try {
+                        startGate.await();
+                        int raceId = raceIds[race];
+                        // Half go in through the race and half through one of its stages
+                        if (byRace) {
+                            assert Arrays.equals(loaded.getRidersGeneralClassificationRank(raceId),
+                                    gcRanks[race]) : "Lazily read GC differs";
+                        }
+                        assert Arrays.equals(loaded.getRidersRankInStage(stageIds[race][stage]),
+                                stageRanks[race][stage]) : "Lazily read stage ranks differ";
+                        assert Arrays.equals(loaded.getRidersPointsInRace(raceId),
+                                racePoints[race]) : "Lazily read race points differ";
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            startGate.countDown();
+            joinAll(threads);
+            if (!failures.isEmpty()) {
+                throw new AssertionError("Concurrent portal failed reading loaded races",
+                        failures.peek());
+            }
+        }
+    }
+
+    /**
+     * Tests an archived race isn't read while another thread is using the portal. A stage
+     * listener holds its thread inside a results change of one race, which keeps the
+     * portal locked for reading, and a second thread then asks for the other race while
+     * it is still archived. The second thread must wait until the first lets go.
+     */
+    public static void lazyReadLockTests() {
+        CyclingPortal original = new CyclingPortalImpl();
+        int[][] stageIds = setUp(original);
+        File file = new File("concurrent-lazy.ser");
+        saveWithResults(original, stageIds, file);
+        int[] raceIds = original.getRaceIds();
+        int[] expected;
+        try {
+            expected = original.getRidersGeneralClassificationRank(raceIds[0]);
+        } catch (IDNotRecognisedException e) {
+            throw new RuntimeException(e);
+        }
+
+        CyclingPortal loaded = new ConcurrentCyclingPortalImpl();
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        int lateRiderId;
+        try {
+            loaded.loadCyclingPortal(file.getName());
+            lateRiderId = loaded.createRider(loaded.getTeams()[0], "Late-Rider", 1990);
+            // Reads the second race, leaving the first archived
+            loaded.addStageListener(stageIds[1][0], (sourceId, type, deltas) -> {
+                if (inside.getCount() == 0) {
+                    return;
+                }
+                inside.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (IOException | ClassNotFoundException | IDNotRecognisedException e) {
+            throw new RuntimeException(e);
+        }
+
+        Thread holder = new Thread(() -> {
+            try {
+                loaded.registerRiderResultsInStage(stageIds[1][0], lateRiderId,
+                        resultTimes(0, RIDERS));
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        int[][] ranks = new int[1][];
+        Thread reader = new Thread(() -> {
+            try {
+                ranks[0] = loaded.getRidersGeneralClassificationRank(raceIds[0]);
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+
+        try {
+            holder.start();
+            assert inside.await(10, TimeUnit.SECONDS) : "Listener was not told about the result";
+            reader.start();
+            // Parked on the lock, or finished if it didn't wait for one
+            while (reader.isAlive() && reader.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            assert reader.isAlive() : "Archived race was read while the portal was in use";
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            release.countDown();
+        }
+        joinAll(Arrays.asList(holder, reader));
+        if (!failures.isEmpty()) {
+            throw new AssertionError("Concurrent portal failed reading an archived race",
+                    failures.peek());
+        }
+        assert Arrays.equals(ranks[0], expected) : "Lazily read GC differs";
+    }
+
+    /**
+     * Registers results for every rider on every stage, then saves the portal
+     *
+     * @param portal   the portal set up by {@link #setUp(CyclingPortal)}
+     * @param stageIds the stage IDs of each race
+     * @param file     the file to save to
+     */
+    private static void saveWithResults(CyclingPortal portal, int[][] stageIds, File file) {
+        int[] riderIds = teamRiders(portal);
+        try {
+            for (int race = 0; race < RACES; race++) {
+                for (int stage = 0; stage < STAGES_PER_RACE; stage++) {
+                    for (int i = 0; i < riderIds.length; i++) {
+                        portal.registerRiderResultsInStage(stageIds[race][stage], riderIds[i],
+                                resultTimes(race * STAGES_PER_RACE + stage, i));
+                    }
+                }
+            }
+            portal.saveCyclingPortal(file.getName());
+        } catch (IDNotRecognisedException | DuplicatedResultException |
+                 InvalidCheckpointTimesException | InvalidStageStateException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates the races, stages and riders used by the stress test
+     *
+     * @param portal the portal to set up
+     * @return the stage IDs of each race
+     */
+    private static int[][] setUp(CyclingPortal portal) {
+        int[][] stageIds = new int[RACES][STAGES_PER_RACE];
+        try {
+            int teamId = portal.createTeam("Stress-Team", "Lots of riders");
+            for (int i = 0; i < RIDERS; i++) {
+                portal.createRider(teamId, "Stress-Rider" + i, 1990);
+            }
+            for (int race = 0; race < RACES; race++) {
+                int raceId = portal.createRace("Stress-Race" + race, "Busy race");
+                for (int stage = 0; stage < STAGES_PER_RACE; stage++) {
+                    int stageId = portal.addStageToRace(raceId, "Stress-Stage" + race + "-" + stage,
+                            "Busy stage", 150.0, LocalDateTime.of(2024, 6, 1 + stage, 11, 0),
+                            StageType.MEDIUM_MOUNTAIN);
+                    portal.addIntermediateSprintToStage(stageId, 50.0);
+                    portal.addCategorizedClimbToStage(stageId, 100.0, CheckpointType.C2, 5.0, 4.0);
+                    portal.concludeStagePreparation(stageId);
+                    stageIds[race][stage] = stageId;
+                }
+            }
+        } catch (IllegalNameException | InvalidNameException | IDNotRecognisedException |
+                 InvalidLengthException | InvalidLocationException | InvalidStageStateException |
+                 InvalidStageTypeException e) {
+            throw new RuntimeException(e);
+        }
+        return stageIds;
+    }
+
+    /**
+     * Gets the riders of the only team in a portal
+     *
+     * @param portal the portal
+     * @return the rider IDs in ascending order
+     */
+    private static int[] teamRiders(CyclingPortal portal) {
+        try {
+            int[] riders = portal.getTeamRiders(portal.getTeams()[0]);
+            Arrays.sort(riders);
+            return riders;
+        } catch (IDNotRecognisedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Makes a rider's start, sprint, climb and finish times, varying with the stage
+     *
+     * @param seed  a number unique to the stage
+     * @param rider the index of the rider
+     * @return the times to register
+     */
+    private static LocalTime[] resultTimes(int seed, int rider) {
+        LocalTime start = LocalTime.of(11, 0);
+        return new LocalTime[]{start,
+                start.plusSeconds(3600 + (rider * 13 + seed * 7) % RIDERS),
+                start.plusSeconds(7200 + (rider * 17 + seed * 3) % RIDERS),
+                start.plusSeconds(10800 + (rider * 31 + seed * 11) % (RIDERS * 2))};
+    }
+
+    /**
+     * Waits for every thread in a list to finish
+     *
+     * @param threads the threads to wait for
+     */
+    private static void joinAll(List<Thread> threads) {
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -9,7 +9,7 @@ public class PortalMiscTests {
         // Will do this by creating a portal, adding all the objects to it, then erasing it.
         // Check that the objects are no longer in the portal in a basic way. Then Check that ids are reused.
 
-        CyclingPortalImpl portal = new CyclingPortalImpl(); // Create a portal
+        CyclingPortal portal = CustomTestApp.newPortal(); // Create a portal
 
         int oldTeamId; // add team
         try {
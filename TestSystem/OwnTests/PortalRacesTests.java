@@ -10,7 +10,7 @@ public class PortalRacesTests {
      * @throws NameNotRecognisedException
      */
     public static void raceImplTests() throws IDNotRecognisedException, NameNotRecognisedException {
-        CyclingPortalImpl portal = new CyclingPortalImpl();
+        CyclingPortal portal = CustomTestApp.newPortal();
 
         // Test initial portal has no races
         assert (portal.getRaceIds().length == 0) : "Initial Portal not empty on start";
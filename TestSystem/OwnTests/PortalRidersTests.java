@@ -8,7 +8,7 @@ public class PortalRidersTests {
      * Tests the rider implementation functions
      */
     public static void riderImplTests() throws IDNotRecognisedException {
-        CyclingPortalImpl portal = new CyclingPortalImpl();
+        CyclingPortal portal = CustomTestApp.newPortal();
 
         // Create two test teams
         int team1Id = -1;
@@ -1,13 +1,17 @@
 package OwnTests;
 import cycling.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class PortalScoringTests {
     public static void scoringImplTests(){
-        CyclingPortalImpl portal = new CyclingPortalImpl();
+        CyclingPortal portal = CustomTestApp.newPortal();
 
         // create a race
         int raceId = -1;
@@ -296,5 +300,798 @@ public class PortalScoringTests {
         // This had caused an error for some reason,
         // fixed now but keep it here in case it comes up again
         portal.eraseCyclingPortal();
+
+        adjustedTimeTests();
+        pointsTieTests();
+        manyStagePointsTests();
+        resultSheetTests();
+        checkpointPassTests();
+        listenerTests();
+        brokenListenerTests();
+    }
+
+    /**
+     * Tests riders finishing within a second of the rider ahead get their adjusted time,
+     * including when the gaps chain back through several riders.
+     */
+    private static void adjustedTimeTests() {
+        CyclingPortal portal = CustomTestApp.newPortal();
+        int[] riderIds = new int[4];
+        int stageId;
+        try {
+            int raceId = portal.createRace("Bunch-Race", "Sprint finish");
+            int teamId = portal.createTeam("Sprinters", "Fast team");
+            for (int i = 0; i < riderIds.length; i++) {
+                riderIds[i] = portal.createRider(teamId, "Sprinter" + i, 1995);
+            }
+            stageId = portal.addStageToRace(raceId, "Bunch-Stage", "Flat TT", 20.0,
+                    LocalDateTime.of(2024, 1, 1, 12, 0), StageType.TT);
+            portal.concludeStagePreparation(stageId);
+
+            // Finish 0.5s, then 0.7s apart (a chain), then a clear 1.8s gap
+            LocalTime start = LocalTime.of(12, 0, 0);
+            portal.registerRiderResultsInStage(stageId, riderIds[2], start,
+                    LocalTime.of(13, 0, 1, 200_000_000));
+            portal.registerRiderResultsInStage(stageId, riderIds[0], start,
+                    LocalTime.of(13, 0, 0));
+            portal.registerRiderResultsInStage(stageId, riderIds[3], start,
+                    LocalTime.of(13, 0, 3));
+            portal.registerRiderResultsInStage(stageId, riderIds[1], start,
+                    LocalTime.of(13, 0, 0, 500_000_000));
+        } catch (IllegalNameException | InvalidNameException | IDNotRecognisedException |
+                 InvalidLengthException | InvalidStageStateException | DuplicatedResultException |
+                 InvalidCheckpointTimesException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            // Before anything is ranked, the top 3 are adjusted among themselves
+            ClassificationResult top = portal.getTopRidersInStage(stageId, ClassificationType.STAGE, 3);
+            long hour = LocalTime.of(1, 0).toNanoOfDay();
+            assert Arrays.equals(top.getRiderIds(), Arrays.copyOf(riderIds, 3))
+                    : "Top riders of a bunch finish are not working";
+            assert Arrays.equals(top.getValues(), new long[]{hour, hour, hour})
+                    : "Top riders' adjusted times are not working";
+
+            assert Arrays.equals(portal.getRidersRankInStage(stageId), riderIds)
+                    : "Bunch finish rankings are not working";
+            assert Arrays.equals(portal.getRankedAdjustedElapsedTimesInStage(stageId),
+                    new LocalTime[]{LocalTime.of(1, 0, 0), LocalTime.of(1, 0, 0),
+                            LocalTime.of(1, 0, 0), LocalTime.of(1, 0, 3)})
+                    : "Chained adjusted times are not working";
+            assert portal.getRiderAdjustedElapsedTimeInStage(stageId, riderIds[2])
+                    .equals(LocalTime.of(1, 0, 0)) : "Rider adjusted time is not working";
+
+            // Taking the leader out moves the chain onto the next rider's time
+            portal.deleteRiderResultsInStage(stageId, riderIds[0]);
+            assert Arrays.equals(portal.getRankedAdjustedElapsedTimesInStage(stageId),
+                    new LocalTime[]{LocalTime.of(1, 0, 0, 500_000_000),
+                            LocalTime.of(1, 0, 0, 500_000_000), LocalTime.of(1, 0, 3)})
+                    : "Adjusted times not updated after removing a result";
+        } catch (IDNotRecognisedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests riders on the same points are all kept in the points rankings, ordered by ID.
+     */
+    private static void pointsTieTests() {
+        CyclingPortal portal = CustomTestApp.newPortal();
+        int[] riderIds = new int[25];
+        int raceId;
+        try {
+            raceId = portal.createRace("Tied-Race", "Most riders score nothing");
+            int teamId = portal.createTeam("Peloton", "Big team");
+            for (int i = 0; i < riderIds.length; i++) {
+                riderIds[i] = portal.createRider(teamId, "Rider" + i, 1995);
+            }
+            int stageId = portal.addStageToRace(raceId, "Tied-Stage", "Flat", 150.0,
+                    LocalDateTime.of(2024, 1, 1, 12, 0), StageType.FLAT);
+            portal.concludeStagePreparation(stageId);
+
+            // Lower IDs finish further back, so the riders outside the points are the lowest IDs
+            LocalTime start = LocalTime.of(12, 0, 0);
+            for (int i = 0; i < riderIds.length; i++) {
+                portal.registerRiderResultsInStage(stageId, riderIds[i], start,
+                        LocalTime.of(16, 0, riderIds.length - i));
+            }
+        } catch (IllegalNameException | InvalidNameException | IDNotRecognisedException |
+                 InvalidLengthException | InvalidStageStateException | DuplicatedResultException |
+                 InvalidCheckpointTimesException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            int[] ranks = portal.getRidersPointClassificationRank(raceId);
+            assert ranks.length == riderIds.length : "Riders on equal points were dropped";
+            assert ranks[0] == riderIds[riderIds.length - 1] : "Points winner is not first";
+
+            int[] sorted = ranks.clone();
+            Arrays.sort(sorted);
+            assert Arrays.equals(sorted, riderIds) : "Points rankings lost riders";
+
+            // The last ten all have no points, so they are ordered by ID
+            int[] tail = Arrays.copyOfRange(ranks, ranks.length - 10, ranks.length);
+            int[] tailSorted = tail.clone();
+            Arrays.sort(tailSorted);
+            assert Arrays.equals(tail, tailSorted) : "Tied riders not ordered by ID";
+
+            assert portal.getRidersMountainPointClassificationRank(raceId).length == riderIds.length
+                    : "Riders on no mountain points were dropped";
+        } catch (IDNotRecognisedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests race points totals match the sum of each stage's points when the race has
+     * enough stages to be worked out in parallel.
+     */
+    private static void manyStagePointsTests() {
+        CyclingPortal portal = CustomTestApp.newPortal();
+        int[] riderIds = new int[20];
+        int[] stageIds = new int[8];
+        int raceId;
+        try {
+            raceId = portal.createRace("Long-Race", "Lots of stages");
+            int teamId = portal.createTeam("Tourers", "Stage racers");
+            for (int i = 0; i < riderIds.length; i++) {
+                riderIds[i] = portal.createRider(teamId, "Tourer" + i, 1990);
+            }
+            for (int s = 0; s < stageIds.length; s++) {
+                stageIds[s] = portal.addStageToRace(raceId, "Long-Stage" + s, "Hilly", 120.0,
+                        LocalDateTime.of(2024, 1, 1 + s, 12, 0), StageType.MEDIUM_MOUNTAIN);
+                portal.addIntermediateSprintToStage(stageIds[s], 40.0);
+                portal.addCategorizedClimbToStage(stageIds[s], 80.0, CheckpointType.C1, 6.0, 5.0);
+                portal.concludeStagePreparation(stageIds[s]);
+
+                // Each stage mixes up the order riders reach the sprint, climb and finish
+                LocalTime start = LocalTime.of(12, 0, 0);
+                for (int i = 0; i < riderIds.length; i++) {
+                    portal.registerRiderResultsInStage(stageIds[s], riderIds[i], start,
+                            LocalTime.of(13, 0, (i * 7 + s) % riderIds.length),
+                            LocalTime.of(14, 0, (i * 3 + s * 5) % riderIds.length),
+                            LocalTime.of(16, 0, (i * 11 + s * 3) % riderIds.length));
+                }
+            }
+        } catch (IllegalNameException | InvalidNameException | IDNotRecognisedException |
+                 InvalidLengthException | InvalidStageStateException | DuplicatedResultException |
+                 InvalidCheckpointTimesException | InvalidLocationException |
+                 InvalidStageTypeException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            // Top-K goes first so it has to work from the totals rather than cached rankings
+            topRidersMatchRankings(portal, raceId, stageIds);
+            racePointsMatchStages(portal, raceId, stageIds, riderIds);
+            int[] gcBefore = portal.getRidersGeneralClassificationRank(raceId);
+            ClassificationPage firstPage = portal.getRaceClassificationPage(raceId,
+                    ClassificationType.GENERAL, 0, 6);
+            pagesMatchRankings(portal, raceId, stageIds);
+
+            // Changing one stage's results must show up in the race totals
+            portal.deleteRiderResultsInStage(stageIds[3], riderIds[5]);
+            pagesMatchRankings(portal, raceId, stageIds);
+            ClassificationPage latest = portal.getRaceClassificationPage(raceId,
+                    ClassificationType.GENERAL, 6, 6);
+            assert latest.getVersion() != firstPage.getVersion() : "Version not changed by new results";
+            // A page taken before the change still pages through the old ranking
+            ClassificationPage secondPage = firstPage.next();
+            assert secondPage.getVersion() == firstPage.getVersion() : "Next page changed version";
+            assert Arrays.equals(secondPage.getRiderIds(), Arrays.copyOfRange(gcBefore, 6, 12))
+                    : "Next page didn't continue the old ranking";
+            // A caller that only kept the version gets the same ranking back
+            ClassificationPage byVersion = portal.getRaceClassificationPage(raceId,
+                    ClassificationType.GENERAL, firstPage.getVersion(), 6, 6);
+            assert byVersion.getVersion() == firstPage.getVersion() : "Page by version changed version";
+            assert Arrays.equals(byVersion.getRiderIds(), secondPage.getRiderIds())
+                    : "Page by version didn't continue the old ranking";
+            topRidersMatchRankings(portal, raceId, stageIds);
+            racePointsMatchStages(portal, raceId, stageIds, riderIds);
+            // Now everything is cached the heads of the rankings are used
+            topRidersMatchRankings(portal, raceId, stageIds);
+            versionedPageTests(portal, raceId, stageIds[5], riderIds);
+
+            try {
+                portal.getTopRidersInRace(raceId, ClassificationType.STAGE, 3);
+                assert false : "Race has no stage classification";
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+            try {
+                portal.getTopRidersInStage(stageIds[0], ClassificationType.STAGE, -1);
+                assert false : "Negative K was accepted";
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        } catch (IDNotRecognisedException | VersionNotAvailableException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks pages can be asked for by the version of an earlier page after results change,
+     * until enough newer versions have been taken to push it out
+     *
+     * @param portal   the portal
+     * @param raceId   the race
+     * @param stageId  a stage of the race with a result for every rider
+     * @param riderIds the riders
+     * @throws IDNotRecognisedException if the race or stage doesn't exist
+     */
+    private static void versionedPageTests(CyclingPortal portal, int raceId, int stageId,
+                                           int[] riderIds) throws IDNotRecognisedException {
+        ClassificationPage stagePage = portal.getStageClassificationPage(stageId,
+                ClassificationType.STAGE, 0, 5);
+        ClassificationPage racePage = portal.getRaceClassificationPage(raceId,
+                ClassificationType.MOUNTAIN, 0, 5);
+        int[] stageRanking = portal.getRidersRankInStage(stageId);
+        int[] mountainRanking = portal.getRidersMountainPointClassificationRank(raceId);
+
+        try {
+            // One change and a page of the new version leaves the old one kept
+            portal.deleteRiderResultsInStage(stageId, stageRanking[0]);
+            assert portal.getStageClassificationPage(stageId, ClassificationType.STAGE, 0, 5)
+                    .getVersion() != stagePage.getVersion() : "Stage version not changed by new results";
+            ClassificationPage oldStage = portal.getStageClassificationPage(stageId,
+                    ClassificationType.STAGE, stagePage.getVersion(), 5, 5);
+            assert Arrays.equals(oldStage.getRiderIds(), Arrays.copyOfRange(stageRanking, 5, 10))
+                    : "Old stage version not paged";
+            ClassificationPage oldRace = portal.getRaceClassificationPage(raceId,
+                    ClassificationType.MOUNTAIN, racePage.getVersion(), 5, 5);
+            assert Arrays.equals(oldRace.getRiderIds(), Arrays.copyOfRange(mountainRanking, 5, 10))
+                    : "Old race version not paged";
+
+            // A version of the race was never taken of the stage
+            try {
+                portal.getStageClassificationPage(stageId, ClassificationType.STAGE,
+                        racePage.getVersion(), 0, 5);
+                assert false : "Stage paged a version of the race";
+            } catch (VersionNotAvailableException e) {
+                // Expected
+            }
+
+            // Plenty of newer versions push the old ones out, which fails rather than paging another
+            for (int i = 1; i <= 10; i++) {
+                portal.deleteRiderResultsInStage(stageId, stageRanking[i]);
+                portal.getStageClassificationPage(stageId, ClassificationType.STAGE, 0, 5);
+                portal.getRaceClassificationPage(raceId, ClassificationType.MOUNTAIN, 0, 5);
+            }
+            try {
+                portal.getStageClassificationPage(stageId, ClassificationType.STAGE,
+                        stagePage.getVersion(), 5, 5);
+                assert false : "Evicted stage version was paged";
+            } catch (VersionNotAvailableException e) {
+                // Expected
+            }
+            try {
+                portal.getRaceClassificationPage(raceId, ClassificationType.MOUNTAIN,
+                        racePage.getVersion(), 5, 5);
+                assert false : "Evicted race version was paged";
+            } catch (VersionNotAvailableException e) {
+                // Expected
+            }
+        } catch (VersionNotAvailableException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks the top-K queries give the heads of the full rankings for a race and its stages
+     *
+     * @param portal   the portal
+     * @param raceId   the race
+     * @param stageIds the stages of the race
+     * @throws IDNotRecognisedException if the race or a stage doesn't exist
+     */
+    private static void topRidersMatchRankings(CyclingPortal portal, int raceId, int[] stageIds)
+            throws IDNotRecognisedException {
+        for (int k : new int[]{5, 0, 1, 50}) {
+            // The stage first, as ranking anything else sorts its finishing order
+            ClassificationResult stage = portal.getTopRidersInStage(stageIds[3],
+                    ClassificationType.STAGE, k);
+            ClassificationResult gc = portal.getTopRidersInRace(raceId, ClassificationType.GENERAL, k);
+            ClassificationResult points = portal.getTopRidersInRace(raceId, ClassificationType.POINTS, k);
+            ClassificationResult mountain = portal.getTopRidersInRace(raceId,
+                    ClassificationType.MOUNTAIN, k);
+            ClassificationResult stagePoints = portal.getTopRidersInStage(stageIds[3],
+                    ClassificationType.POINTS, k);
+
+            int[] gcRanks = portal.getRidersGeneralClassificationRank(raceId);
+            LocalTime[] gcTimes = portal.getGeneralClassificationTimesInRace(raceId);
+            int count = Math.min(k, gcRanks.length);
+            assert gc.size() == count : "Wrong number of GC riders";
+            assert Arrays.equals(gc.getRiderIds(), Arrays.copyOf(gcRanks, count))
+                    : "Top GC riders don't match the GC";
+            for (int i = 0; i < count; i++) {
+                // The GC times wrap past a day like LocalTime does
+                assert gc.getValues()[i] % (LocalTime.MAX.toNanoOfDay() + 1)
+                        == gcTimes[i].toNanoOfDay() : "Top GC times don't match";
+            }
+            assert Arrays.equals(points.getRiderIds(),
+                    Arrays.copyOf(portal.getRidersPointClassificationRank(raceId), count))
+                    : "Top points riders don't match the points classification";
+            assert Arrays.equals(mountain.getRiderIds(),
+                    Arrays.copyOf(portal.getRidersMountainPointClassificationRank(raceId), count))
+                    : "Top mountain riders don't match the mountain classification";
+
+            int[] stageRanks = portal.getRidersRankInStage(stageIds[3]);
+            LocalTime[] stageTimes = portal.getRankedAdjustedElapsedTimesInStage(stageIds[3]);
+            int stageCount = Math.min(k, stageRanks.length);
+            assert Arrays.equals(stage.getRiderIds(), Arrays.copyOf(stageRanks, stageCount))
+                    : "Top stage riders don't match the stage ranking";
+            for (int i = 0; i < stageCount; i++) {
+                assert stage.getValues()[i] == stageTimes[i].toNanoOfDay()
+                        : "Top stage times don't match";
+            }
+
+            // The stage's points ranked most first, then by ID
+            int[] stagePointsList = portal.getRidersPointsInStage(stageIds[3]);
+            long[] values = stagePoints.getValues();
+            int[] riders = stagePoints.getRiderIds();
+            assert stagePoints.size() == stageCount : "Wrong number of stage points riders";
+            for (int i = 0; i < stageCount; i++) {
+                int rank = 0;
+                while (stageRanks[rank] != riders[i]) {
+                    rank++;
+                }
+                assert values[i] == stagePointsList[rank] : "Top stage points don't match";
+                assert i == 0 || values[i - 1] > values[i]
+                        || (values[i - 1] == values[i] && riders[i - 1] < riders[i])
+                        : "Top stage points are not in order";
+            }
+        }
+    }
+
+    /**
+     * Checks paging through each classification of a race and one of its stages gives the
+     * full rankings, all from one version
+     *
+     * @param portal   the portal
+     * @param raceId   the race
+     * @param stageIds the stages of the race
+     * @throws IDNotRecognisedException if the race or a stage doesn't exist
+     */
+    private static void pagesMatchRankings(CyclingPortal portal, int raceId, int[] stageIds)
+            throws IDNotRecognisedException {
+        ClassificationType[] types = {ClassificationType.GENERAL, ClassificationType.POINTS,
+                ClassificationType.MOUNTAIN, ClassificationType.STAGE};
+        int[][] fullRankings = {portal.getRidersGeneralClassificationRank(raceId),
+                portal.getRidersPointClassificationRank(raceId),
+                portal.getRidersMountainPointClassificationRank(raceId),
+                portal.getRidersRankInStage(stageIds[3])};
+
+        for (int t = 0; t < types.length; t++) {
+            ClassificationPage page = (types[t] == ClassificationType.STAGE)
+                    ? portal.getStageClassificationPage(stageIds[3], types[t], 0, 6)
+                    : portal.getRaceClassificationPage(raceId, types[t], 0, 6);
+            assert page.getTotal() == fullRankings[t].length : "Page total is wrong";
+            long version = page.getVersion();
+
+            int[] paged = new int[0];
+            while (true) {
+                assert page.getVersion() == version : "Pages came from different versions";
+                assert page.getOffset() == paged.length : "Page offset is wrong";
+                int[] riders = page.getRiderIds();
+                paged = Arrays.copyOf(paged, paged.length + riders.length);
+                System.arraycopy(riders, 0, paged, paged.length - riders.length, riders.length);
+                if (!page.hasNext()) {
+                    break;
+                }
+                page = page.next();
+            }
+            assert Arrays.equals(paged, fullRankings[t]) : types[t] + " pages don't match the ranking";
+
+            // Asking again without any change is served from the same version
+            ClassificationPage third = (types[t] == ClassificationType.STAGE)
+                    ? portal.getStageClassificationPage(stageIds[3], types[t], 12, 6)
+                    : portal.getRaceClassificationPage(raceId, types[t], 12, 6);
+            assert third.getVersion() == version : "Unchanged ranking got a new version";
+            assert Arrays.equals(third.getRiderIds(), Arrays.copyOfRange(fullRankings[t],
+                    Math.min(12, fullRankings[t].length), Math.min(18, fullRankings[t].length)))
+                    : "Page from an offset is wrong";
+        }
+
+        ClassificationPage pastEnd = portal.getRaceClassificationPage(raceId,
+                ClassificationType.GENERAL, 1000, 6);
+        assert pastEnd.size() == 0 && !pastEnd.hasNext() : "Page past the end isn't empty";
+        try {
+            portal.getRaceClassificationPage(raceId, ClassificationType.GENERAL, -1, 6);
+            assert false : "Negative offset was accepted";
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Checks a race's points classifications against the sum of its stages' points.
+     *
+     * @param portal   the portal holding the race
+     * @param raceId   the race to check
+     * @param stageIds the stages of the race
+     * @param riderIds the riders, with consecutive IDs
+     * @throws IDNotRecognisedException if the race or a stage doesn't exist
+     */
+    private static void racePointsMatchStages(CyclingPortal portal, int raceId, int[] stageIds,
+                                              int[] riderIds) throws IDNotRecognisedException {
+        // Sum every stage's points by rider, the slow way
+        int[] sprintExpected = new int[riderIds.length];
+        int[] mountainExpected = new int[riderIds.length];
+        for (int stageId : stageIds) {
+            int[] stageRanks = portal.getRidersRankInStage(stageId);
+            int[] sprint = portal.getRidersPointsInStage(stageId);
+            int[] mountain = portal.getRidersMountainPointsInStage(stageId);
+            for (int i = 0; i < stageRanks.length; i++) {
+                sprintExpected[stageRanks[i] - riderIds[0]] += sprint[i];
+                mountainExpected[stageRanks[i] - riderIds[0]] += mountain[i];
+            }
+        }
+
+        int[] gcRanks = portal.getRidersGeneralClassificationRank(raceId);
+        int[] sprint = portal.getRidersPointsInRace(raceId);
+        int[] mountain = portal.getRidersMountainPointsInRace(raceId);
+        assert gcRanks.length == riderIds.length : "Riders missing from the GC";
+        for (int i = 0; i < gcRanks.length; i++) {
+            assert sprint[i] == sprintExpected[gcRanks[i] - riderIds[0]]
+                    : "Race sprint points don't match the stage totals";
+            assert mountain[i] == mountainExpected[gcRanks[i] - riderIds[0]]
+                    : "Race mountain points don't match the stage totals";
+        }
+    }
+
+    /**
+     * Tests registering a whole result sheet gives the same classifications as registering
+     * each rider in turn, and that a sheet with any bad row changes nothing.
+     */
+    private static void resultSheetTests() {
+        CyclingPortal sheetPortal = CustomTestApp.newPortal();
+        CyclingPortal singlePortal = CustomTestApp.newPortal();
+        int riders = 30;
+        int[] riderIds = new int[riders];
+        LocalTime[][] times = new LocalTime[riders][];
+        int sheetStage = sheetSetUp(sheetPortal, riderIds);
+        int[] singleRiderIds = new int[riders];
+        int singleStage = sheetSetUp(singlePortal, singleRiderIds);
+        assert Arrays.equals(riderIds, singleRiderIds) : "Portals were not set up the same";
+
+        LocalTime start = LocalTime.of(10, 0);
+        for (int i = 0; i < riders; i++) {
+            times[i] = new LocalTime[]{start, start.plusSeconds(1800 + (i * 7) % riders),
+                    start.plusSeconds(3600 + (i * 11) % riders), start.plusSeconds(7200 + (i * 13) % riders)};
+        }
+
+        try {
+            // A row out of order rejects the whole sheet
+            LocalTime[][] badTimes = times.clone();
+            badTimes[2] = new LocalTime[]{start, start.plusSeconds(10), start.plusSeconds(5), start.plusSeconds(20)};
+            try {
+                sheetPortal.registerStageResultSheet(sheetStage, riderIds, badTimes);
+                assert false : "Out of order row was accepted";
+            } catch (InvalidCheckpointTimesException e) {
+                assert e.getMessage().startsWith("Row 2 ") : "Error doesn't say which row failed";
+            }
+            assert sheetPortal.getRidersRankInStage(sheetStage).length == 0 : "Bad sheet was partly stored";
+
+            // So does a rider appearing twice, or one that doesn't exist
+            int[] repeated = riderIds.clone();
+            repeated[5] = repeated[4];
+            try {
+                sheetPortal.registerStageResultSheet(sheetStage, repeated, times);
+                assert false : "Repeated rider was accepted";
+            } catch (DuplicatedResultException e) {
+                assert e.getMessage().startsWith("Row 5 ") : "Error doesn't say which row failed";
+            }
+            int[] unknown = riderIds.clone();
+            unknown[7] = -1;
+            try {
+                sheetPortal.registerStageResultSheet(sheetStage, unknown, times);
+                assert false : "Unknown rider was accepted";
+            } catch (IDNotRecognisedException e) {
+                assert e.getMessage().startsWith("Row 7 ") : "Error doesn't say which row failed";
+            }
+            assert sheetPortal.getRidersRankInStage(sheetStage).length == 0 : "Bad sheet was partly stored";
+
+            // Half the sheet one at a time, then the rest in one go
+            for (int i = 0; i < riders / 2; i++) {
+                sheetPortal.registerRiderResultsInStage(sheetStage, riderIds[i], times[i]);
+            }
+            sheetPortal.registerStageResultSheet(sheetStage,
+                    Arrays.copyOfRange(riderIds, riders / 2, riders),
+                    Arrays.copyOfRange(times, riders / 2, riders));
+            for (int i = 0; i < riders; i++) {
+                singlePortal.registerRiderResultsInStage(singleStage, riderIds[i], times[i]);
+            }
+
+            // Riders already in the stage can't be in a later sheet
+            try {
+                sheetPortal.registerStageResultSheet(sheetStage, new int[]{riderIds[0]},
+                        new LocalTime[][]{times[0]});
+                assert false : "Rider with a result was accepted";
+            } catch (DuplicatedResultException e) {
+                assert e.getMessage().startsWith("Row 0 ") : "Error doesn't say which row failed";
+            }
+
+            assert Arrays.equals(sheetPortal.getRidersRankInStage(sheetStage),
+                    singlePortal.getRidersRankInStage(singleStage)) : "Sheet ranks differ";
+            assert Arrays.equals(sheetPortal.getRidersPointsInStage(sheetStage),
+                    singlePortal.getRidersPointsInStage(singleStage)) : "Sheet sprint points differ";
+            assert Arrays.equals(sheetPortal.getRidersMountainPointsInStage(sheetStage),
+                    singlePortal.getRidersMountainPointsInStage(singleStage)) : "Sheet mountain points differ";
+            for (int i = 0; i < riders; i++) {
+                assert Arrays.equals(sheetPortal.getRiderResultsInStage(sheetStage, riderIds[i]),
+                        singlePortal.getRiderResultsInStage(singleStage, riderIds[i]))
+                        : "Sheet results differ";
+            }
+        } catch (IDNotRecognisedException | DuplicatedResultException |
+                 InvalidCheckpointTimesException | InvalidStageStateException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates a prepared stage with a sprint and a climb, and a team of riders
+     *
+     * @param portal   the portal to set up
+     * @param riderIds filled with the IDs of the riders created
+     * @return the ID of the stage
+     */
+    private static int sheetSetUp(CyclingPortal portal, int[] riderIds) {
+        try {
+            int raceId = portal.createRace("Sheet-Race", "Results by the sheet");
+            int teamId = portal.createTeam("Sheet-Team", "Many riders");
+            for (int i = 0; i < riderIds.length; i++) {
+                riderIds[i] = portal.createRider(teamId, "Sheet-Rider" + i, 1992);
+            }
+            int stageId = portal.addStageToRace(raceId, "Sheet-Stage", "Hilly", 160.0,
+                    LocalDateTime.of(2024, 3, 1, 10, 0), StageType.HIGH_MOUNTAIN);
+            portal.addIntermediateSprintToStage(stageId, 60.0);
+            portal.addCategorizedClimbToStage(stageId, 120.0, CheckpointType.HC, 8.0, 12.0);
+            portal.concludeStagePreparation(stageId);
+            return stageId;
+        } catch (IllegalNameException | InvalidNameException | IDNotRecognisedException |
+                 InvalidLengthException | InvalidLocationException | InvalidStageStateException |
+                 InvalidStageTypeException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests results assembled from single passes arriving out of order match results
+     * registered in one go, and that bad passes are rejected as they arrive.
+     */
+    private static void checkpointPassTests() {
+        CyclingPortal passPortal = CustomTestApp.newPortal();
+        CyclingPortal wholePortal = CustomTestApp.newPortal();
+        int[] riderIds = new int[3];
+        int[] wholeRiderIds = new int[3];
+        int passStage = sheetSetUp(passPortal, riderIds);
+        int wholeStage = sheetSetUp(wholePortal, wholeRiderIds);
+        assert Arrays.equals(riderIds, wholeRiderIds) : "Portals were not set up the same";
+
+        LocalTime start = LocalTime.of(10, 0);
+        LocalTime[][] times = {
+                {start, start.plusMinutes(40), start.plusMinutes(90), start.plusMinutes(200)},
+                {start, start.plusMinutes(35), start.plusMinutes(95), start.plusMinutes(190)},
+                {start, start.plusMinutes(45), start.plusMinutes(85), start.plusMinutes(210)}};
+        // The order the passes arrive in, as {rider, point}
+        int[][] arrivals = {{0, 1}, {1, 3}, {2, 0}, {0, 3}, {1, 0}, {2, 2}, {0, 0}, {1, 1},
+                {2, 3}, {0, 2}, {1, 2}, {2, 1}};
+
+        try {
+            for (int i = 0; i < riderIds.length; i++) {
+                wholePortal.registerRiderResultsInStage(wholeStage, riderIds[i], times[i]);
+            }
+
+            for (int[] arrival : arrivals) {
+                int rider = arrival[0];
+                int point = arrival[1];
+                boolean completed = passPortal.registerCheckpointPass(passStage, riderIds[rider], point,
+                        times[rider][point]);
+                // Each rider's last pass is in the final three arrivals, in rider order
+                boolean lastPass = arrival == arrivals[arrivals.length - 3 + rider];
+                assert completed == lastPass : "Result completed at the wrong pass";
+
+                // Later passes are checked against the ones already received
+                if (arrival == arrivals[4]) {
+                    assert passPortal.getRidersRankInStage(passStage).length == 0
+                            : "Partial results are visible";
+                    try {
+                        passPortal.registerCheckpointPass(passStage, riderIds[0], 2,
+                                start.plusMinutes(30)); // before their first checkpoint
+                        assert false : "Pass out of order was accepted";
+                    } catch (InvalidCheckpointTimesException e) {
+                        // expected
+                    }
+                    try {
+                        passPortal.registerCheckpointPass(passStage, riderIds[1], 3,
+                                times[1][3]);
+                        assert false : "Repeated pass was accepted";
+                    } catch (DuplicatedResultException e) {
+                        // expected
+                    }
+                    try {
+                        passPortal.registerCheckpointPass(passStage, riderIds[1], 4, times[1][3]);
+                        assert false : "Pass for a point not in the stage was accepted";
+                    } catch (InvalidCheckpointTimesException e) {
+                        // expected
+                    }
+                    try {
+                        passPortal.registerRiderResultsInStage(passStage, riderIds[1], times[1]);
+                        assert false : "Whole result accepted on top of passes";
+                    } catch (DuplicatedResultException e) {
+                        // expected
+                    }
+                }
+            }
+
+            assert Arrays.equals(passPortal.getRidersRankInStage(passStage),
+                    wholePortal.getRidersRankInStage(wholeStage)) : "Pass ranks differ";
+            assert Arrays.equals(passPortal.getRidersPointsInStage(passStage),
+                    wholePortal.getRidersPointsInStage(wholeStage)) : "Pass sprint points differ";
+            assert Arrays.equals(passPortal.getRidersMountainPointsInStage(passStage),
+                    wholePortal.getRidersMountainPointsInStage(wholeStage)) : "Pass mountain points differ";
+            try {
+                passPortal.registerCheckpointPass(passStage, riderIds[0], 0, start);
+                assert false : "Pass accepted for a complete result";
+            } catch (DuplicatedResultException e) {
+                // expected
+            }
+
+            // Deleting a rider's results drops the passes received so far
+            passPortal.deleteRiderResultsInStage(passStage, riderIds[2]);
+            passPortal.registerCheckpointPass(passStage, riderIds[2], 3, times[2][3]);
+            passPortal.deleteRiderResultsInStage(passStage, riderIds[2]);
+            assert !passPortal.registerCheckpointPass(passStage, riderIds[2], 0, times[2][0])
+                    : "Deleted passes were kept";
+
+            // Removing a rider drops their partial result as well
+            passPortal.removeRider(riderIds[2]);
+            assert passPortal.getRidersRankInStage(passStage).length == 2 : "Removed rider still ranked";
+        } catch (IDNotRecognisedException | DuplicatedResultException |
+                 InvalidCheckpointTimesException | InvalidStageStateException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests stage and race listeners are told which riders moved after each change to the
+     * results, and nothing once removed.
+     */
+    private static void listenerTests() {
+        CyclingPortal portal = CustomTestApp.newPortal();
+        int[] riderIds = new int[3];
+        int stageId = sheetSetUp(portal, riderIds);
+        List<String> stageEvents = new ArrayList<>();
+        List<String> raceEvents = new ArrayList<>();
+        List<RankDelta[]> stageDeltas = new ArrayList<>();
+        ClassificationListener stageListener = (sourceId, type, deltas) -> {
+            stageEvents.add(sourceId + " " + type);
+            stageDeltas.add(deltas);
+        };
+        ClassificationListener raceListener = (sourceId, type, deltas) -> raceEvents.add(type.toString());
+
+        LocalTime start = LocalTime.of(10, 0);
+        try {
+            int raceId = portal.getRaceIds()[0];
+            portal.addStageListener(stageId, stageListener);
+            portal.addRaceListener(raceId, raceListener);
+
+            portal.registerRiderResultsInStage(stageId, riderIds[0], start, start.plusMinutes(40),
+                    start.plusMinutes(90), start.plusMinutes(200));
+            assert stageEvents.size() == 1 && stageEvents.get(0).equals(stageId + " STAGE")
+                    : "Stage listener not told about a result";
+            RankDelta first = stageDeltas.get(0)[0];
+            assert stageDeltas.get(0).length == 1 && first.getRiderId() == riderIds[0]
+                    && first.getOldPosition() == 0 && first.getNewPosition() == 1
+                    && first.getValue() == 200L * 60 * 1_000_000_000 : "Wrong delta for a new result";
+            assert raceEvents.equals(Arrays.asList("GENERAL", "POINTS", "MOUNTAIN"))
+                    : "Race listener not told about each classification";
+
+            // A faster rider pushes the first one down, so both move
+            portal.registerRiderResultsInStage(stageId, riderIds[1], start, start.plusMinutes(35),
+                    start.plusMinutes(80), start.plusMinutes(190));
+            RankDelta[] second = stageDeltas.get(1);
+            assert second.length == 2 && second[0].getRiderId() == riderIds[1]
+                    && second[0].getNewPosition() == 1 && second[1].getRiderId() == riderIds[0]
+                    && second[1].getOldPosition() == 1 && second[1].getNewPosition() == 2
+                    : "Wrong deltas when a rider is overtaken";
+
+            // A slower rider only adds themselves
+            portal.registerRiderResultsInStage(stageId, riderIds[2], start, start.plusMinutes(45),
+                    start.plusMinutes(95), start.plusMinutes(220));
+            RankDelta[] third = stageDeltas.get(2);
+            assert third.length == 1 && third[0].getRiderId() == riderIds[2]
+                    && third[0].getNewPosition() == 3 : "Riders who didn't move were sent";
+
+            // Deleting the leader moves everyone up and drops them out
+            portal.deleteRiderResultsInStage(stageId, riderIds[1]);
+            RankDelta[] fourth = stageDeltas.get(3);
+            assert fourth.length == 3 && fourth[2].getRiderId() == riderIds[1]
+                    && fourth[2].getOldPosition() == 1 && fourth[2].getNewPosition() == 0
+                    : "Rider dropping out was not sent";
+
+            // Removed listeners hear nothing more
+            portal.removeStageListener(stageId, stageListener);
+            portal.removeRaceListener(raceId, raceListener);
+            int stageCount = stageEvents.size();
+            int raceCount = raceEvents.size();
+            portal.registerRiderResultsInStage(stageId, riderIds[1], start, start.plusMinutes(35),
+                    start.plusMinutes(80), start.plusMinutes(190));
+            assert stageEvents.size() == stageCount && raceEvents.size() == raceCount
+                    : "Removed listener was still told about changes";
+        } catch (IDNotRecognisedException | DuplicatedResultException |
+                 InvalidCheckpointTimesException | InvalidStageStateException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests a listener that throws doesn't fail the change it is told about or leave it
+     * half made, and the other listeners still hear about it.
+     */
+    private static void brokenListenerTests() {
+        CyclingPortal portal = CustomTestApp.newPortal();
+        int[] riderIds = new int[2];
+        int stageId = sheetSetUp(portal, riderIds);
+        File manifest = new File("broken-listener.ser");
+        deleteSaved(manifest);
+
+        List<Throwable> thrown = new ArrayList<>();
+        List<String> heard = new ArrayList<>();
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler((t, e) -> thrown.add(e));
+        LocalTime start = LocalTime.of(10, 0);
+        try {
+            int raceId = portal.getRaceIds()[0];
+            portal.saveCyclingPortal(manifest.getName());
+            ClassificationListener broken = (sourceId, type, deltas) -> {
+                throw new IllegalStateException("Broken listener");
+            };
+            portal.addStageListener(stageId, broken);
+            portal.addRaceListener(raceId, broken);
+            portal.addStageListener(stageId, (sourceId, type, deltas) -> heard.add("STAGE"));
+
+            portal.registerRiderResultsInStage(stageId, riderIds[0], start, start.plusMinutes(40),
+                    start.plusMinutes(90), start.plusMinutes(200));
+            portal.registerRiderResultsInStage(stageId, riderIds[1], start, start.plusMinutes(45),
+                    start.plusMinutes(95), start.plusMinutes(220));
+            assert thrown.size() == 8 : "Listener exceptions not handed to the thread's handler";
+            assert heard.size() == 2 : "Listener after a broken one wasn't told";
+
+            // The results were recorded as changes, so a delta saves them
+            portal.saveCyclingPortal(manifest.getName());
+            CyclingPortal loaded = CustomTestApp.newPortal();
+            loaded.loadCyclingPortal(manifest.getName());
+            assert Arrays.equals(loaded.getRidersRankInStage(stageId), riderIds)
+                    : "Results registered past a broken listener not saved";
+
+            // The rider was registered for the stage, so removing them takes their result
+            portal.removeRider(riderIds[0]);
+            assert Arrays.equals(portal.getRidersRankInStage(stageId), new int[]{riderIds[1]})
+                    : "Removed rider's result left in the stage";
+        } catch (IOException | ClassNotFoundException | IDNotRecognisedException |
+                 DuplicatedResultException | InvalidCheckpointTimesException |
+                 InvalidStageStateException e) {
+            throw new RuntimeException(e);
+        } finally {
+            thread.setUncaughtExceptionHandler(handler);
+            deleteSaved(manifest);
+        }
+    }
+
+    /**
+     * Deletes a saved portal's manifest and the files of its chain.
+     *
+     * @param manifest the manifest
+     */
+    private static void deleteSaved(File manifest) {
+        File[] chainFiles = manifest.getAbsoluteFile().getParentFile().listFiles(
+                (directory, name) -> name.startsWith(manifest.getName()));
+        for (File file : chainFiles) {
+            file.delete();
+        }
     }
 }
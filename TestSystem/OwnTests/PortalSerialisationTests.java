@@ -1,10 +1,17 @@
 package OwnTests;
 import cycling.*;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
 
 public class PortalSerialisationTests {
 
@@ -18,7 +25,7 @@ public class PortalSerialisationTests {
         // we will test this creating two portals with seperate data but shared ids and then serialising both
         // and then deserialising them into new portals and checking that the data is correct and not overwritten.
 
-        CyclingPortalImpl portal1 = new CyclingPortalImpl(); // Create a portal
+        CyclingPortal portal1 = CustomTestApp.newPortal(); // Create a portal
 
         int portal1TeamId; // add team
         try {
@@ -176,7 +183,7 @@ public class PortalSerialisationTests {
         assert portal1CheckId == portal3CheckId : "Check ids not equal";
 
         // create a new portal and deserialise the data into it
-        CyclingPortalImpl portal4 = new CyclingPortalImpl();
+        CyclingPortal portal4 = CustomTestApp.newPortal();
         try {
             portal4.loadCyclingPortal("portal3.ser");
         } catch (IOException | ClassNotFoundException e) {
@@ -197,7 +204,7 @@ public class PortalSerialisationTests {
         assert expectedDetails4.equals(portal4RaceDetails) : "Details not equal";
 
         // create a new portal and deserialise the data into it
-        CyclingPortalImpl portal2 = new CyclingPortalImpl();
+        CyclingPortal portal2 = CustomTestApp.newPortal();
         try {
             portal2.loadCyclingPortal("portal1.ser");
         } catch (IOException | ClassNotFoundException e) {
@@ -229,5 +236,913 @@ public class PortalSerialisationTests {
         }
         assert Arrays.equals(expectedTimes4,portal4Times) : "Times not equal";
         assert expectedDetails4.equals(portal4RaceDetails) : "Details not equal";
+
+        snapshotRoundTripTests();
+        lazyLoadTests();
+        journalReplayTests();
+        journalOtherFileTests();
+        journalRejectedCallTests();
+        deltaSnapshotTests();
+        asyncSaveTests();
+        reloadTests();
+        javaSerializationTests();
+        damagedSnapshotTests();
+    }
+
+    /**
+     * Tests a portal with several kinds of stage, checkpoint and result comes back from a
+     * saved snapshot giving the same answers, and hands out the same IDs afterwards.
+     */
+    private static void snapshotRoundTripTests() {
+        CyclingPortal original = CustomTestApp.newPortal();
+        int raceId;
+        int[] stageIds = new int[3];
+        int[] riderIds = new int[6];
+        try {
+            int teamId = original.createTeam("Savers", null);
+            int spareId = original.createTeam("Spare", "Removed to leave a gap in the IDs");
+            for (int i = 0; i < riderIds.length; i++) {
+                riderIds[i] = original.createRider(teamId, "Saver" + i, 1990 + i);
+            }
+            original.removeTeam(spareId);
+
+            raceId = original.createRace("Saved-Race", "Round trip");
+            stageIds[0] = original.addStageToRace(raceId, "Saved-Hills", null, 150.0,
+                    LocalDateTime.of(2024, 7, 1, 12, 0, 30), StageType.HIGH_MOUNTAIN);
+            original.addIntermediateSprintToStage(stageIds[0], 40.0);
+            original.addCategorizedClimbToStage(stageIds[0], 90.0, CheckpointType.HC, 8.5, 12.0);
+            original.concludeStagePreparation(stageIds[0]);
+            stageIds[1] = original.addStageToRace(raceId, "Saved-TT", "Against the clock", 30.0,
+                    LocalDateTime.of(2024, 7, 2, 9, 0), StageType.TT);
+            original.concludeStagePreparation(stageIds[1]);
+            // Left unprepared with a checkpoint still to be finalised
+            stageIds[2] = original.addStageToRace(raceId, "Saved-Flat", "Not ready", 180.0,
+                    LocalDateTime.of(2024, 7, 3, 12, 0), StageType.FLAT);
+            original.addIntermediateSprintToStage(stageIds[2], 100.0);
+
+            LocalTime start = LocalTime.of(12, 0);
+            for (int i = 0; i < riderIds.length - 1; i++) {
+                original.registerRiderResultsInStage(stageIds[0], riderIds[i], start,
+                        start.plusMinutes(50 + i), start.plusMinutes(140 - i).plusNanos(i * 1000),
+                        start.plusMinutes(250 + (i * 7) % 5).plusSeconds(i));
+                original.registerRiderResultsInStage(stageIds[1], riderIds[i], LocalTime.of(9, i),
+                        LocalTime.of(9, 40 + i, 30 - i));
+            }
+            // The last rider has only passed the sprint so far
+            original.registerCheckpointPass(stageIds[0], riderIds[5], 0, start);
+            original.registerCheckpointPass(stageIds[0], riderIds[5], 1, start.plusMinutes(55));
+        } catch (IllegalNameException | InvalidNameException | IDNotRecognisedException |
+                 InvalidLengthException | InvalidLocationException | InvalidStageStateException |
+                 InvalidStageTypeException | DuplicatedResultException |
+                 InvalidCheckpointTimesException e) {
+            throw new RuntimeException(e);
+        }
+
+        CyclingPortal loaded = CustomTestApp.newPortal();
+        try {
+            original.saveCyclingPortal("snapshot.ser");
+            loaded.loadCyclingPortal("snapshot.ser");
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            assert Arrays.equals(loaded.getRaceIds(), original.getRaceIds()) : "Races not loaded";
+            assert Arrays.equals(loaded.getTeams(), original.getTeams()) : "Teams not loaded";
+            assert loaded.viewRaceDetails(raceId).equals(original.viewRaceDetails(raceId))
+                    : "Race details not loaded";
+            assert Arrays.equals(loaded.getRaceStages(raceId), original.getRaceStages(raceId))
+                    : "Stages not loaded";
+            for (int stageId : stageIds) {
+                assert Arrays.equals(loaded.getStageCheckpoints(stageId),
+                        original.getStageCheckpoints(stageId)) : "Checkpoints not loaded";
+                assert Arrays.equals(loaded.getRidersRankInStage(stageId),
+                        original.getRidersRankInStage(stageId)) : "Stage ranks not loaded";
+                assert Arrays.equals(loaded.getRankedAdjustedElapsedTimesInStage(stageId),
+                        original.getRankedAdjustedElapsedTimesInStage(stageId))
+                        : "Stage times not loaded";
+                assert Arrays.equals(loaded.getRidersPointsInStage(stageId),
+                        original.getRidersPointsInStage(stageId)) : "Stage points not loaded";
+                assert Arrays.equals(loaded.getRidersMountainPointsInStage(stageId),
+                        original.getRidersMountainPointsInStage(stageId))
+                        : "Stage mountain points not loaded";
+            }
+            for (int riderId : riderIds) {
+                assert Arrays.equals(loaded.getRiderResultsInStage(stageIds[0], riderId),
+                        original.getRiderResultsInStage(stageIds[0], riderId))
+                        : "Rider results not loaded";
+            }
+            assert Arrays.equals(loaded.getGeneralClassificationTimesInRace(raceId),
+                    original.getGeneralClassificationTimesInRace(raceId)) : "GC not loaded";
+            assert Arrays.equals(loaded.getRidersPointClassificationRank(raceId),
+                    original.getRidersPointClassificationRank(raceId))
+                    : "Points classification not loaded";
+            assert Arrays.equals(loaded.getRidersMountainPointClassificationRank(raceId),
+                    original.getRidersMountainPointClassificationRank(raceId))
+                    : "Mountain classification not loaded";
+
+            // The rider with only some passes can finish their result after loading
+            LocalTime start = LocalTime.of(12, 0);
+            loaded.registerCheckpointPass(stageIds[0], riderIds[5], 2, start.plusMinutes(150));
+            assert loaded.registerCheckpointPass(stageIds[0], riderIds[5], 3, start.plusMinutes(260))
+                    : "Partial result not loaded";
+
+            // The unprepared stage can still be finished off
+            loaded.concludeStagePreparation(stageIds[2]);
+
+            // Both fill the same gap in the IDs next
+            assert loaded.createTeam("After-Load", "New") == original.createTeam("After-Load", "New")
+                    : "IDs not reserved the same after loading";
+        } catch (IDNotRecognisedException | InvalidStageStateException | DuplicatedResultException |
+                 InvalidCheckpointTimesException | IllegalNameException | InvalidNameException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests races loaded from a snapshot but not used yet still own their names and IDs,
+     * are read when one of their stages is used, and can be removed or erased unread.
+     */
+    private static void lazyLoadTests() {
+        CyclingPortal original = CustomTestApp.newPortal();
+        int[] raceIds = new int[3];
+        int[] stageIds = new int[3];
+        try {
+            for (int i = 0; i < raceIds.length; i++) {
+                raceIds[i] = original.createRace("Lazy-Race" + i, "Read when used");
+                stageIds[i] = original.addStageToRace(raceIds[i], "Lazy-Stage" + i, null,
+                        20.0 + i, LocalDateTime.of(2024, 8, 1 + i, 12, 0), StageType.FLAT);
+                original.addIntermediateSprintToStage(stageIds[i], 10.0);
+            }
+            original.saveCyclingPortal("lazy.ser");
+        } catch (IllegalNameException | InvalidNameException | IDNotRecognisedException |
+                 InvalidLengthException | InvalidLocationException | InvalidStageStateException |
+                 InvalidStageTypeException | IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        CyclingPortal loaded = CustomTestApp.newPortal();
+        try {
+            loaded.loadCyclingPortal("lazy.ser");
+            assert Arrays.equals(loaded.getRaceIds(), original.getRaceIds()) : "Races not listed";
+
+            // Names of races and stages not read yet are still taken
+            boolean threw = false;
+            try {
+                loaded.createRace("Lazy-Race1", "Taken");
+            } catch (IllegalNameException e) {
+                threw = true;
+            }
+            assert threw : "Name of an unread race was free";
+            threw = false;
+            try {
+                loaded.addStageToRace(raceIds[0], "Lazy-Stage2", null, 10.0,
+                        LocalDateTime.of(2024, 8, 9, 12, 0), StageType.FLAT);
+            } catch (IllegalNameException e) {
+                threw = true;
+            }
+            assert threw : "Name of a stage in an unread race was free";
+
+            // Using a stage or checkpoint reads its race
+            assert loaded.getStageLength(stageIds[1]) == 21.0 : "Stage of an unread race not read";
+            int checkpointId = original.getStageCheckpoints(stageIds[2])[0];
+            loaded.removeCheckpoint(checkpointId);
+            assert loaded.getStageCheckpoints(stageIds[2]).length == 0 : "Checkpoint not removed";
+
+            // A new race takes the same ID as it would have in the original
+            assert loaded.createRace("Lazy-New", null) == original.createRace("Lazy-New", null)
+                    : "IDs of unread races not reserved";
+
+            // Saving over the file being read from keeps the races not read yet
+            loaded.removeRaceByName("Lazy-Race0");
+            loaded.saveCyclingPortal("lazy.ser");
+            CyclingPortal reloaded = CustomTestApp.newPortal();
+            reloaded.loadCyclingPortal("lazy.ser");
+            assert reloaded.getRaceIds().length == 3 : "Races lost saving over the snapshot";
+            assert reloaded.getStageCheckpoints(stageIds[2]).length == 0 : "Removal not saved";
+
+            // Erasing gives back the IDs of races never read
+            reloaded.eraseCyclingPortal();
+            assert reloaded.getRaceIds().length == 0 : "Unread races not erased";
+            assert reloaded.createRace("Lazy-Race0", null) == 0 : "IDs of unread races not freed";
+        } catch (IOException | ClassNotFoundException | IllegalNameException | InvalidNameException |
+                 IDNotRecognisedException | InvalidLengthException | InvalidStageStateException |
+                 NameNotRecognisedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests changes made through a journaling portal come back after a restart, on top of
+     * the last snapshot, even with a record cut short at the end of the journal, and that
+     * a journal left over from before the latest snapshot isn't replayed.
+     */
+    private static void journalReplayTests() {
+        File snapshot = new File("journal-snapshot.ser");
+        File journalFile = new File("journal.jnl");
+        snapshot.delete();
+        journalFile.delete();
+
+        int stageId;
+        int[] riderIds = new int[4];
+        JournalingCyclingPortal original;
+        try {
+            original = new JournalingCyclingPortal(CustomTestApp.newPortal(),
+                    snapshot.getName(), journalFile.getName(), true);
+            int teamId = original.createTeam("Journalists", null);
+            for (int i = 0; i < riderIds.length; i++) {
+                riderIds[i] = original.createRider(teamId, "Journalist" + i, 1995 + i);
+            }
+            int raceId = original.createRace("Journal-Race", null);
+            stageId = original.addStageToRace(raceId, "Journal-Hills", "Kept in the journal",
+                    120.0, LocalDateTime.of(2024, 9, 1, 12, 0), StageType.MEDIUM_MOUNTAIN);
+            original.addCategorizedClimbToStage(stageId, 60.0, CheckpointType.C1, 7.0, 9.0);
+            original.concludeStagePreparation(stageId);
+
+            LocalTime start = LocalTime.of(12, 0);
+            original.registerRiderResultsInStage(stageId, riderIds[0], start,
+                    start.plusMinutes(80), start.plusMinutes(170));
+            original.saveCyclingPortal(snapshot.getName());
+
+            // Changes after the snapshot are only in the journal
+            original.registerStageResultSheet(stageId, new int[]{riderIds[1], riderIds[2]},
+                    new LocalTime[][]{{start, start.plusMinutes(78), start.plusMinutes(172)},
+                            {start, start.plusMinutes(81), start.plusMinutes(169)}});
+            original.registerCheckpointPass(stageId, riderIds[3], 0, start);
+            original.deleteRiderResultsInStage(stageId, riderIds[0]);
+            original.removeRaceById(original.createRace("Journal-Gone", null));
+            original.createRace("Journal-Later", "Takes the freed ID");
+        } catch (IOException | ClassNotFoundException | IllegalNameException |
+                 InvalidNameException | IDNotRecognisedException | InvalidLengthException |
+                 InvalidLocationException | InvalidStageStateException |
+                 InvalidStageTypeException | DuplicatedResultException |
+                 InvalidCheckpointTimesException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            // Restarting without closing is the same as crashing, every change was synced
+            JournalingCyclingPortal recovered = new JournalingCyclingPortal(
+                    CustomTestApp.newPortal(), snapshot.getName(), journalFile.getName(), false);
+            assertSamePortal(recovered, original, stageId, riderIds);
+            recovered.close();
+
+            // Half a record at the end is dropped
+            FileOutputStream torn = new FileOutputStream(journalFile, true);
+            torn.write(new byte[]{12, 0, 0, 0, 1, 2});
+            torn.close();
+            recovered = new JournalingCyclingPortal(CustomTestApp.newPortal(),
+                    snapshot.getName(), journalFile.getName(), false);
+            assertSamePortal(recovered, original, stageId, riderIds);
+
+            // The rider with only a start can still finish after recovering
+            LocalTime start = LocalTime.of(12, 0);
+            recovered.registerCheckpointPass(stageId, riderIds[3], 1, start.plusMinutes(90));
+            assert recovered.registerCheckpointPass(stageId, riderIds[3], 2,
+                    start.plusMinutes(180)) : "Partial result not replayed";
+            recovered.close();
+
+            // A snapshot saved without starting a new journal leaves the old one stale
+            CyclingPortal plain = CustomTestApp.newPortal();
+            plain.loadCyclingPortal(snapshot.getName());
+            plain.createTeam("Journal-Snapshot-Only", null);
+            plain.saveCyclingPortal(snapshot.getName());
+            JournalingCyclingPortal fromSnapshot = new JournalingCyclingPortal(
+                    CustomTestApp.newPortal(), snapshot.getName(), journalFile.getName(), false);
+            assert Arrays.equals(fromSnapshot.getTeams(), plain.getTeams())
+                    : "Journal replayed over a later snapshot";
+            assert Arrays.equals(fromSnapshot.getRaceIds(), plain.getRaceIds())
+                    : "Journal replayed over a later snapshot";
+            assert new File(journalFile.getName() + ".stale").exists() : "Stale journal not kept";
+            fromSnapshot.close();
+            original.close();
+        } catch (IOException | ClassNotFoundException | IDNotRecognisedException |
+                 DuplicatedResultException | InvalidCheckpointTimesException |
+                 InvalidStageStateException | IllegalNameException | InvalidNameException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests saving a journaling portal to a file other than its snapshot, or loading one,
+     * keeps the journal following on from the snapshot, so no change is lost on restart.
+     */
+    private static void journalOtherFileTests() {
+        File snapshot = new File("journal-main.ser");
+        File backup = new File("journal-backup.ser");
+        File other = new File("journal-other.ser");
+        File journalFile = new File("journal-main.jnl");
+        for (File file : new File[]{snapshot, backup, other, journalFile,
+                new File(journalFile.getName() + ".stale")}) {
+            file.delete(); // Left by an earlier run
+        }
+        for (File file : new File[]{snapshot, backup, other}) {
+            for (File chainFile : chainFiles(file)) {
+                chainFile.delete();
+            }
+        }
+
+        try {
+            JournalingCyclingPortal portal = new JournalingCyclingPortal(
+                    CustomTestApp.newPortal(), snapshot.getName(), journalFile.getName(), true);
+            portal.createRace("Journal-Before-Backup", null);
+            portal.saveCyclingPortal(backup.getName());
+            portal.createRace("Journal-After-Backup", null);
+            portal.saveCyclingPortalAsync("./" + backup.getName()).join();
+            portal.createRace("Journal-After-Async-Backup", null);
+
+            // Restarting without closing is the same as crashing, every change was synced
+            JournalingCyclingPortal recovered = new JournalingCyclingPortal(
+                    CustomTestApp.newPortal(), snapshot.getName(), journalFile.getName(), false);
+            assert recovered.getRaceIds().length == 3 : "Saving a backup lost journaled changes";
+            assert !new File(journalFile.getName() + ".stale").exists()
+                    : "Saving a backup left the journal stale";
+            recovered.close();
+            portal.close();
+
+            // Loading another file makes it what a restart recovers, with changes on top
+            CyclingPortal plain = CustomTestApp.newPortal();
+            plain.createRace("Journal-Loaded", null);
+            plain.saveCyclingPortal(other.getName());
+            portal = new JournalingCyclingPortal(CustomTestApp.newPortal(), snapshot.getName(),
+                    journalFile.getName(), true);
+            portal.loadCyclingPortal(other.getName());
+            portal.createRace("Journal-After-Load", null);
+            recovered = new JournalingCyclingPortal(CustomTestApp.newPortal(),
+                    snapshot.getName(), journalFile.getName(), false);
+            assert Arrays.equals(recovered.getRaceIds(), portal.getRaceIds())
+                    : "Loading another file lost changes made after it";
+            assert recovered.getRaceIds().length == 2 : "Loaded file not recovered";
+            recovered.close();
+            portal.close();
+        } catch (IOException | ClassNotFoundException | IllegalNameException |
+                 InvalidNameException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests calls the portal rejects don't use up an ID, so the journal, which only holds
+     * the calls that succeeded, still replays with every entity getting the same ID.
+     */
+    private static void journalRejectedCallTests() {
+        File snapshot = new File("journal-rejected.ser");
+        File journalFile = new File("journal-rejected.jnl");
+        snapshot.delete();
+        journalFile.delete();
+
+        try {
+            JournalingCyclingPortal portal = new JournalingCyclingPortal(
+                    CustomTestApp.newPortal(), snapshot.getName(), journalFile.getName(), true);
+            int raceId = portal.createRace("Journal-Rejected", null);
+            int stageId = portal.addStageToRace(raceId, "Journal-Flat", null, 100.0,
+                    LocalDateTime.of(2024, 9, 1, 12, 0), StageType.FLAT);
+            try {
+                portal.addIntermediateSprintToStage(stageId, 500.0);
+                assert false : "Sprint past the end of the stage was added";
+            } catch (InvalidLocationException e) {
+                // Expected, and mustn't take an ID
+            }
+            try {
+                portal.addCategorizedClimbToStage(stageId, 90.0, CheckpointType.C2, 5.0, 20.0);
+                assert false : "Climb past the end of the stage was added";
+            } catch (InvalidLocationException e) {
+                // Expected, and mustn't take an ID
+            }
+            int teamId = portal.createTeam("Journal-After-Rejected", null);
+            int sprintId = portal.addIntermediateSprintToStage(stageId, 50.0);
+            assert teamId == stageId + 1 : "Rejected checkpoint used up an ID";
+            portal.close();
+
+            JournalingCyclingPortal recovered = new JournalingCyclingPortal(
+                    CustomTestApp.newPortal(), snapshot.getName(), journalFile.getName(), false);
+            assert Arrays.equals(recovered.getTeams(), new int[]{teamId})
+                    : "Team after a rejected call not recovered";
+            assert Arrays.equals(recovered.getStageCheckpoints(stageId), new int[]{sprintId})
+                    : "Checkpoint after a rejected call not recovered";
+            recovered.close();
+        } catch (IOException | ClassNotFoundException | IllegalNameException |
+                 InvalidNameException | IDNotRecognisedException | InvalidLengthException |
+                 InvalidLocationException | InvalidStageStateException |
+                 InvalidStageTypeException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests saving again to the file a portal was saved to writes only what changed as a
+     * small delta, that removals and reused IDs come back right from a chain of deltas, and
+     * that enough deltas get compacted into a new base with the old files deleted.
+     */
+    private static void deltaSnapshotTests() {
+        File manifest = new File("delta.ser");
+        manifest.delete();
+        for (File chainFile : chainFiles(manifest)) {
+            chainFile.delete(); // Left by an earlier run
+        }
+
+        CyclingPortal original = CustomTestApp.newPortal();
+        int[] teamIds = new int[5];
+        int[][] riderIds = new int[teamIds.length][6];
+        int[] raceIds = new int[2];
+        int[][] stageIds = new int[raceIds.length][3];
+        LocalTime start = LocalTime.of(11, 0);
+        try {
+            for (int t = 0; t < teamIds.length; t++) {
+                teamIds[t] = original.createTeam("Delta-Team" + t, null);
+                for (int r = 0; r < riderIds[t].length; r++) {
+                    riderIds[t][r] = original.createRider(teamIds[t], "Delta" + t + "-" + r, 1990);
+                }
+            }
+            for (int race = 0; race < raceIds.length; race++) {
+                raceIds[race] = original.createRace("Delta-Race" + race, null);
+                for (int s = 0; s < stageIds[race].length; s++) {
+                    stageIds[race][s] = original.addStageToRace(raceIds[race],
+                            "Delta-Stage" + race + "-" + s, null, 100.0,
+                            LocalDateTime.of(2024, 5, 1 + s, 11, 0), StageType.FLAT);
+                    original.addIntermediateSprintToStage(stageIds[race][s], 50.0);
+                    original.concludeStagePreparation(stageIds[race][s]);
+                    // Every rider but the last of the first team finishes every stage
+                    for (int t = 0; t < teamIds.length; t++) {
+                        for (int r = (t == 0) ? 1 : 0; r < riderIds[t].length; r++) {
+                            original.registerRiderResultsInStage(stageIds[race][s],
+                                    riderIds[t][r], start, start.plusMinutes(60 + r),
+                                    start.plusMinutes(130 + t * 3 + r));
+                        }
+                    }
+                }
+            }
+            original.saveCyclingPortal(manifest.getName());
+
+            // One more result goes in a delta holding only its stage and its rider's team
+            original.registerRiderResultsInStage(stageIds[0][1], riderIds[0][0], start,
+                    start.plusMinutes(59), start.plusMinutes(129));
+            original.saveCyclingPortal(manifest.getName());
+            File base = new File(manifest.getName() + ".0.0");
+            File delta = new File(manifest.getName() + ".0.1");
+            assert base.exists() && delta.exists() : "Delta not written next to the base";
+            assert delta.length() * 4 < base.length() : "Delta holds more than what changed";
+
+            CyclingPortal loaded = CustomTestApp.newPortal();
+            loaded.loadCyclingPortal(manifest.getName());
+            assertSameResults(loaded, original);
+
+            // Removals, and new entities taking their IDs, go in the next delta
+            original.removeRider(riderIds[1][2]);
+            original.removeRaceById(raceIds[1]);
+            original.removeTeam(teamIds[4]);
+            int newRaceId = original.createRace("Delta-Replacement", null);
+            int newStageId = original.addStageToRace(newRaceId, "Delta-New-Stage", null, 50.0,
+                    LocalDateTime.of(2024, 6, 1, 11, 0), StageType.TT);
+            original.concludeStagePreparation(newStageId);
+            original.registerRiderResultsInStage(newStageId, riderIds[2][0], start,
+                    start.plusMinutes(40));
+            int newTeamId = original.createTeam("Delta-Replacement", null);
+            assert newRaceId == riderIds[1][2] && newTeamId < raceIds[1]
+                    : "Test should reuse the freed IDs";
+            original.saveCyclingPortal(manifest.getName());
+
+            loaded = CustomTestApp.newPortal();
+            loaded.loadCyclingPortal(manifest.getName());
+            assertSameResults(loaded, original);
+
+            // A loaded chain takes deltas too, without reading the races that didn't change
+            loaded.registerRiderResultsInStage(stageIds[0][2], riderIds[0][0], start,
+                    start.plusMinutes(61), start.plusMinutes(128));
+            loaded.saveCyclingPortal(manifest.getName());
+            assert new File(manifest.getName() + ".0.3").exists() : "Loaded chain not extended";
+            CyclingPortal reloaded = CustomTestApp.newPortal();
+            reloaded.loadCyclingPortal(manifest.getName());
+            assertSameResults(reloaded, loaded);
+
+            // Enough deltas are compacted into the base of a new chain
+            for (int i = 0; i < 20; i++) {
+                loaded.deleteRiderResultsInStage(stageIds[0][0], riderIds[3][i % 6]);
+                loaded.registerRiderResultsInStage(stageIds[0][0], riderIds[3][i % 6], start,
+                        start.plusMinutes(55 + i), start.plusMinutes(125 + i));
+                loaded.saveCyclingPortal(manifest.getName());
+            }
+            assert !base.exists() : "Old chain not deleted when compacted";
+            assert chainFiles(manifest).length <= 17 : "Chain not compacted";
+            reloaded = CustomTestApp.newPortal();
+            reloaded.loadCyclingPortal(manifest.getName());
+            assertSameResults(reloaded, loaded);
+        } catch (IOException | ClassNotFoundException | IllegalNameException |
+                 InvalidNameException | IDNotRecognisedException | InvalidLengthException |
+                 InvalidLocationException | InvalidStageStateException |
+                 InvalidStageTypeException | DuplicatedResultException |
+                 InvalidCheckpointTimesException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests a background save holds the portal as it was when the save was called, while
+     * results registered and deleted during the save go in the next one.
+     */
+    private static void asyncSaveTests() {
+        File manifest = new File("async.ser");
+        manifest.delete();
+        for (File chainFile : chainFiles(manifest)) {
+            chainFile.delete(); // Left by an earlier run
+        }
+
+        CyclingPortal original = CustomTestApp.newPortal();
+        int[] riderIds = new int[6];
+        LocalTime start = LocalTime.of(9, 0);
+        try {
+            int teamId = original.createTeam("Async-Team", null);
+            for (int r = 0; r < riderIds.length; r++) {
+                riderIds[r] = original.createRider(teamId, "Async" + r, 1992);
+            }
+            int raceId = original.createRace("Async-Race", null);
+            int stageId = original.addStageToRace(raceId, "Async-Stage", null, 120.0,
+                    LocalDateTime.of(2024, 7, 1, 9, 0), StageType.FLAT);
+            original.addIntermediateSprintToStage(stageId, 60.0);
+            original.concludeStagePreparation(stageId);
+            for (int r = 0; r < 4; r++) {
+                original.registerRiderResultsInStage(stageId, riderIds[r], start,
+                        start.plusMinutes(70 + r), start.plusMinutes(150 + r));
+            }
+            int[] savedRanks = original.getRidersRankInStage(stageId);
+
+            // Changes made before the save finishes aren't in it, but stay in the portal
+            CompletableFuture<Void> save = original.saveCyclingPortalAsync(manifest.getName());
+            original.registerRiderResultsInStage(stageId, riderIds[4], start,
+                    start.plusMinutes(65), start.plusMinutes(140));
+            original.deleteRiderResultsInStage(stageId, riderIds[0]);
+            save.join();
+            assert original.getRidersRankInStage(stageId).length == 4
+                    : "Changes lost from the portal";
+            CyclingPortal loaded = CustomTestApp.newPortal();
+            loaded.loadCyclingPortal(manifest.getName());
+            assert Arrays.equals(loaded.getRidersRankInStage(stageId), savedRanks)
+                    : "Save holds changes made after it was called";
+
+            // Saves queued without waiting are written in order, each taking what changed
+            original.saveCyclingPortalAsync(manifest.getName());
+            original.registerRiderResultsInStage(stageId, riderIds[5], start,
+                    start.plusMinutes(75), start.plusMinutes(155));
+            int newStageId = original.addStageToRace(raceId, "Async-Stage-2", null, 30.0,
+                    LocalDateTime.of(2024, 7, 2, 9, 0), StageType.TT);
+            original.concludeStagePreparation(newStageId);
+            original.registerRiderResultsInStage(newStageId, riderIds[1], start,
+                    start.plusMinutes(35));
+            original.saveCyclingPortalAsync(manifest.getName()).join();
+            loaded = CustomTestApp.newPortal();
+            loaded.loadCyclingPortal(manifest.getName());
+            assertSameResults(loaded, original);
+
+            // A portal loading straight after its own save waits for it to be written
+            original.removeRider(riderIds[2]);
+            original.saveCyclingPortalAsync(manifest.getName());
+            original.loadCyclingPortal(manifest.getName());
+            assert original.getTeamRiders(teamId).length == riderIds.length - 1
+                    : "Load read the file before the save finished";
+            loaded = CustomTestApp.newPortal();
+            loaded.loadCyclingPortal(manifest.getName());
+            assertSameResults(loaded, original);
+        } catch (IOException | ClassNotFoundException | IllegalNameException |
+                 InvalidNameException | IDNotRecognisedException | InvalidLengthException |
+                 InvalidLocationException | InvalidStageStateException |
+                 InvalidStageTypeException | DuplicatedResultException |
+                 InvalidCheckpointTimesException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests loading over a portal that already has contents replaces them all at once,
+     * leaving it free to reuse the old names and handing out the same IDs as the saved
+     * portal, and that a file that can't be read leaves the portal as it was.
+     */
+    private static void reloadTests() {
+        File file = new File("reload.ser");
+        File damaged = new File("reload-damaged.ser");
+        file.delete();
+        for (File chainFile : chainFiles(file)) {
+            chainFile.delete(); // Left by an earlier run
+        }
+        CyclingPortal saved = CustomTestApp.newPortal();
+        CyclingPortal portal = CustomTestApp.newPortal();
+        LocalTime start = LocalTime.of(10, 0);
+        try {
+            int teamId = saved.createTeam("Reload-Team", null);
+            int[] riderIds = new int[4];
+            for (int r = 0; r < riderIds.length; r++) {
+                riderIds[r] = saved.createRider(teamId, "Reload" + r, 1991);
+            }
+            int raceId = saved.createRace("Reload-Race", null);
+            int stageId = saved.addStageToRace(raceId, "Reload-Stage", null, 90.0,
+                    LocalDateTime.of(2024, 8, 1, 10, 0), StageType.FLAT);
+            saved.concludeStagePreparation(stageId);
+            for (int r = 0; r < riderIds.length; r++) {
+                saved.registerRiderResultsInStage(stageId, riderIds[r], start,
+                        start.plusMinutes(120 + r));
+            }
+            saved.removeRider(riderIds[1]); // Leaves a gap in the IDs
+            saved.saveCyclingPortal(file.getName());
+
+            // The portal loaded over has more entities, with IDs and names of its own
+            for (int t = 0; t < 3; t++) {
+                int oldTeamId = portal.createTeam("Old-Team" + t, null);
+                for (int r = 0; r < 5; r++) {
+                    portal.createRider(oldTeamId, "Old" + t + "-" + r, 1985);
+                }
+            }
+            int oldRaceId = portal.createRace("Old-Race", null);
+            portal.addStageToRace(oldRaceId, "Old-Stage", null, 60.0,
+                    LocalDateTime.of(2024, 8, 2, 10, 0), StageType.TT);
+            portal.loadCyclingPortal(file.getName());
+            assertSameResults(portal, saved);
+            // The old names went with the old contents
+            portal.createRace("Old-Race", null);
+            portal.createTeam("Old-Team0", null);
+            saved.createRace("Old-Race", null);
+            saved.createTeam("Old-Team0", null);
+            assert portal.createRider(teamId, "New", 2000) == saved.createRider(teamId, "New", 2000)
+                    : "IDs not handed out the same after loading";
+
+            // A file cut short part way through its teams isn't loaded at all
+            byte[] bytes = Files.readAllBytes(new File(file.getName() + ".0.0").toPath());
+            Files.write(damaged.toPath(), Arrays.copyOf(bytes, 12));
+            int[] teamsBefore = portal.getTeams();
+            int[] racesBefore = portal.getRaceIds();
+            boolean failed = false;
+            try {
+                portal.loadCyclingPortal(damaged.getName());
+            } catch (IOException e) {
+                failed = true;
+            }
+            assert failed : "Damaged file loaded";
+            assert Arrays.equals(portal.getTeams(), teamsBefore)
+                    && Arrays.equals(portal.getRaceIds(), racesBefore)
+                    : "Failed load changed the portal";
+            assertSameResults(portal, saved);
+        } catch (IOException | ClassNotFoundException | IllegalNameException |
+                 InvalidNameException | IDNotRecognisedException | InvalidLengthException |
+                 InvalidStageStateException | DuplicatedResultException |
+                 InvalidCheckpointTimesException e) {
+            throw new RuntimeException(e);
+        } finally {
+            damaged.delete();
+        }
+    }
+
+    /**
+     * Tests a portal saved with Java serialization, before binary snapshots, still loads.
+     * The checked in file was saved by that version of the portal after building the same
+     * portal as below through the API, so the two must give the same answers, and the
+     * loaded portal must carry on working and save in the new format.
+     */
+    private static void javaSerializationTests() {
+        File file = new File("legacy-resave.ser");
+        file.delete();
+        for (File chainFile : chainFiles(file)) {
+            chainFile.delete(); // Left by an earlier run
+        }
+        CyclingPortal expected = CustomTestApp.newPortal();
+        CyclingPortal loaded = CustomTestApp.newPortal();
+        try {
+            // Created in the same order as when the file was saved, so the IDs match
+            int teamA = expected.createTeam("Legacy-Blue", "First team");
+            int teamB = expected.createTeam("Legacy-Red", "Second team");
+            int[] riderIds = new int[5];
+            for (int i = 0; i < riderIds.length; i++) {
+                riderIds[i] = expected.createRider((i < 3) ? teamA : teamB, "Legacy Rider " + i,
+                        1990 + i);
+            }
+            int raceId = expected.createRace("Legacy-Tour", "Saved before snapshots");
+            int flatId = expected.addStageToRace(raceId, "Legacy-Flat", "Flat stage", 150.0,
+                    LocalDateTime.of(2023, 7, 1, 12, 0), StageType.FLAT);
+            expected.addIntermediateSprintToStage(flatId, 40.0);
+            expected.addCategorizedClimbToStage(flatId, 80.0, CheckpointType.C2, 5.5, 6.0);
+            expected.concludeStagePreparation(flatId);
+            int ttId = expected.addStageToRace(raceId, "Legacy-TT", "Time trial", 30.0,
+                    LocalDateTime.of(2023, 7, 2, 13, 0), StageType.TT);
+            expected.concludeStagePreparation(ttId);
+            int hillsId = expected.addStageToRace(raceId, "Legacy-Hills", "Not prepared yet",
+                    120.0, LocalDateTime.of(2023, 7, 3, 12, 0), StageType.MEDIUM_MOUNTAIN);
+            expected.addCategorizedClimbToStage(hillsId, 100.0, CheckpointType.C1, 7.0, 9.0);
+            expected.createRace("Legacy-Classic", "No stages");
+            LocalTime start = LocalTime.of(12, 0);
+            for (int i = 0; i < riderIds.length; i++) {
+                expected.registerRiderResultsInStage(flatId, riderIds[i], start,
+                        start.plusSeconds(3600 + i * 40), start.plusSeconds(7200 + (4 - i) * 30),
+                        start.plusSeconds(14400 + i * 25));
+                expected.registerRiderResultsInStage(ttId, riderIds[i], LocalTime.of(13, i * 2),
+                        LocalTime.of(13, 40 + i * 2, i * 11));
+            }
+            expected.deleteRiderResultsInStage(flatId, riderIds[4]);
+
+            loaded.loadCyclingPortal("TestSystem/OwnTests/baseline-portal.ser");
+            assertSameResults(loaded, expected);
+            for (int stageId : new int[]{flatId, ttId}) {
+                assert Arrays.equals(loaded.getRidersPointsInStage(stageId),
+                        expected.getRidersPointsInStage(stageId)) : "Stage points not converted";
+                assert Arrays.equals(loaded.getRidersMountainPointsInStage(stageId),
+                        expected.getRidersMountainPointsInStage(stageId))
+                        : "Stage mountain points not converted";
+                for (int riderId : riderIds) {
+                    assert Arrays.equals(loaded.getRiderResultsInStage(stageId, riderId),
+                            expected.getRiderResultsInStage(stageId, riderId))
+                            : "Rider results not converted";
+                }
+            }
+            assert Arrays.equals(loaded.getRidersPointClassificationRank(raceId),
+                    expected.getRidersPointClassificationRank(raceId)) : "Race points not converted";
+
+            // The loaded portal carries on where the old one left off
+            assert loaded.createRider(teamB, "Legacy Rider 5", 1995)
+                    == expected.createRider(teamB, "Legacy Rider 5", 1995) : "IDs not carried on";
+            loaded.concludeStagePreparation(hillsId);
+            expected.concludeStagePreparation(hillsId);
+            loaded.registerRiderResultsInStage(flatId, riderIds[4], start,
+                    start.plusSeconds(3500), start.plusSeconds(7100), start.plusSeconds(14300));
+            expected.registerRiderResultsInStage(flatId, riderIds[4], start,
+                    start.plusSeconds(3500), start.plusSeconds(7100), start.plusSeconds(14300));
+            assertSameResults(loaded, expected);
+
+            // And is saved as a snapshot from then on
+            loaded.saveCyclingPortal(file.getName());
+            CyclingPortal resaved = CustomTestApp.newPortal();
+            resaved.loadCyclingPortal(file.getName());
+            assertSameResults(resaved, expected);
+        } catch (IOException | ClassNotFoundException | IllegalNameException |
+                 InvalidNameException | IDNotRecognisedException | InvalidLengthException |
+                 InvalidStageStateException | DuplicatedResultException |
+                 InvalidCheckpointTimesException | InvalidLocationException |
+                 InvalidStageTypeException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Tests every bit flipped in a saved snapshot is found by its checksum, and that a
+     * damaged snapshot whose checksum was worked out again either loads or fails with an
+     * IOException, but never trips an assertion or stores a rider's result twice.
+     */
+    private static void damagedSnapshotTests() {
+        File manifest = new File("damaged.ser");
+        manifest.delete();
+        for (File chainFile : chainFiles(manifest)) {
+            chainFile.delete(); // Left by an earlier run
+        }
+
+        CyclingPortal original = CustomTestApp.newPortal();
+        try {
+            int teamId = original.createTeam("Damaged", null);
+            int[] riderIds = new int[4];
+            for (int i = 0; i < riderIds.length; i++) {
+                riderIds[i] = original.createRider(teamId, "Damaged" + i, 1990 + i);
+            }
+            int raceId = original.createRace("Damaged-Race", null);
+            int stageId = original.addStageToRace(raceId, "Damaged-Hills", null, 150.0,
+                    LocalDateTime.of(2024, 7, 1, 12, 0), StageType.HIGH_MOUNTAIN);
+            original.addIntermediateSprintToStage(stageId, 40.0);
+            original.addCategorizedClimbToStage(stageId, 90.0, CheckpointType.HC, 8.5, 12.0);
+            original.concludeStagePreparation(stageId);
+            LocalTime start = LocalTime.of(12, 0);
+            for (int i = 0; i < riderIds.length - 1; i++) {
+                original.registerRiderResultsInStage(stageId, riderIds[i], start,
+                        start.plusMinutes(50 + i), start.plusMinutes(140 - i),
+                        start.plusMinutes(250 + i));
+            }
+            original.registerCheckpointPass(stageId, riderIds[3], 0, start);
+            original.saveCyclingPortal(manifest.getName());
+        } catch (IOException | IllegalNameException | InvalidNameException |
+                 IDNotRecognisedException | InvalidLengthException | InvalidLocationException |
+                 InvalidStageStateException | InvalidStageTypeException |
+                 DuplicatedResultException | InvalidCheckpointTimesException e) {
+            throw new RuntimeException(e);
+        }
+
+        File base = chainFiles(manifest)[0];
+        try {
+            byte[] saved = Files.readAllBytes(base.toPath());
+            for (int bit = 0; bit < saved.length * 8; bit++) {
+                byte[] damaged = saved.clone();
+                damaged[bit / 8] ^= (byte) (1 << (bit % 8));
+                Files.write(base.toPath(), damaged);
+                assert loadDamaged(manifest) != null : "Bit " + bit + " flipped in a snapshot"
+                        + " wasn't found by its checksum";
+
+                // The checksum is the four bytes after the magic number and version, and
+                // covers the rest of the file
+                CRC32 crc = new CRC32();
+                crc.update(damaged, 9, damaged.length - 9);
+                ByteBuffer.wrap(damaged).putInt(5, (int) crc.getValue());
+                Files.write(base.toPath(), damaged);
+                loadDamaged(manifest);
+            }
+            Files.write(base.toPath(), saved);
+            assert loadDamaged(manifest) == null : "Undamaged snapshot didn't load";
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        manifest.delete();
+        base.delete();
+    }
+
+    /**
+     * Loads a snapshot that may be damaged and reads every race, stage and result in it.
+     *
+     * @param manifest the snapshot
+     * @return the IOException the snapshot failed with, or null if it loaded and was read
+     */
+    private static IOException loadDamaged(File manifest) {
+        CyclingPortal loaded = CustomTestApp.newPortal();
+        try {
+            loaded.loadCyclingPortal(manifest.getName());
+            for (int raceId : loaded.getRaceIds()) {
+                loaded.getRidersGeneralClassificationRank(raceId);
+                loaded.getRidersPointClassificationRank(raceId);
+                for (int stageId : loaded.getRaceStages(raceId)) {
+                    int[] ranked = loaded.getRidersRankInStage(stageId);
+                    assert Arrays.stream(ranked).distinct().count() == ranked.length
+                            : "A rider's result was stored twice";
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            return e;
+        } catch (UncheckedIOException e) {
+            return e.getCause(); // A race couldn't be read when first used
+        } catch (ClassNotFoundException | IDNotRecognisedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Lists the base and deltas of the snapshot chains saved to a file.
+     *
+     * @param manifest the file the portal was saved to
+     * @return the files of every chain, current or not
+     */
+    private static File[] chainFiles(File manifest) {
+        return manifest.getAbsoluteFile().getParentFile().listFiles(
+                (directory, name) -> name.startsWith(manifest.getName() + "."));
+    }
+
+    /**
+     * Asserts two portals have the same races, stages, teams and riders, and the same
+     * results for every rider in every stage.
+     *
+     * @param loaded   the portal loaded from a file
+     * @param original the portal that was saved
+     * @throws IDNotRecognisedException should never happen
+     */
+    private static void assertSameResults(CyclingPortal loaded, CyclingPortal original)
+            throws IDNotRecognisedException {
+        int[] raceIds = original.getRaceIds();
+        Arrays.sort(raceIds);
+        int[] loadedRaceIds = loaded.getRaceIds();
+        Arrays.sort(loadedRaceIds);
+        assert Arrays.equals(loadedRaceIds, raceIds) : "Races not loaded";
+        assert Arrays.equals(loaded.getTeams(), original.getTeams()) : "Teams not loaded";
+        for (int raceId : raceIds) {
+            assert loaded.viewRaceDetails(raceId).equals(original.viewRaceDetails(raceId))
+                    : "Race details not loaded";
+            assert Arrays.equals(loaded.getRidersGeneralClassificationRank(raceId),
+                    original.getRidersGeneralClassificationRank(raceId)) : "GC not loaded";
+            for (int stageId : original.getRaceStages(raceId)) {
+                assert Arrays.equals(loaded.getStageCheckpoints(stageId),
+                        original.getStageCheckpoints(stageId)) : "Checkpoints not loaded";
+                assert Arrays.equals(loaded.getRidersRankInStage(stageId),
+                        original.getRidersRankInStage(stageId)) : "Stage ranks not loaded";
+                assert Arrays.equals(loaded.getRankedAdjustedElapsedTimesInStage(stageId),
+                        original.getRankedAdjustedElapsedTimesInStage(stageId))
+                        : "Stage times not loaded";
+            }
+        }
+        for (int teamId : original.getTeams()) {
+            assert Arrays.equals(loaded.getTeamRiders(teamId), original.getTeamRiders(teamId))
+                    : "Riders not loaded";
+        }
+    }
+
+    /**
+     * Asserts a recovered portal gives the same answers as the portal it was recovered from.
+     *
+     * @param recovered the recovered portal
+     * @param original  the portal whose changes were journaled
+     * @param stageId   the stage with results
+     * @param riderIds  the riders
+     * @throws IDNotRecognisedException should never happen
+     */
+    private static void assertSamePortal(CyclingPortal recovered, CyclingPortal original,
+                                         int stageId, int[] riderIds)
+            throws IDNotRecognisedException {
+        assert Arrays.equals(recovered.getRaceIds(), original.getRaceIds()) : "Races not recovered";
+        assert Arrays.equals(recovered.getTeams(), original.getTeams()) : "Teams not recovered";
+        assert Arrays.equals(recovered.getRidersRankInStage(stageId),
+                original.getRidersRankInStage(stageId)) : "Ranks not recovered";
+        assert Arrays.equals(recovered.getRidersMountainPointsInStage(stageId),
+                original.getRidersMountainPointsInStage(stageId)) : "Points not recovered";
+        for (int riderId : riderIds) {
+            assert Arrays.equals(recovered.getRiderResultsInStage(stageId, riderId),
+                    original.getRiderResultsInStage(stageId, riderId))
+                    : "Results not recovered";
+        }
     }
 }
@@ -12,7 +12,7 @@ public class PortalStagesTests {
      */
     @SuppressWarnings("unused")
     public static void stageImplTests() throws IDNotRecognisedException, NameNotRecognisedException {
-        CyclingPortalImpl portal = new CyclingPortalImpl();
+        CyclingPortal portal = CustomTestApp.newPortal();
 
         // Create 2 sets of Races, Teams and Riders for testing
         int rider1Id = -1;
@@ -8,8 +8,8 @@ public class PortalTeamsTests {
      */
     @SuppressWarnings("unused")
     public static void teamImplTests() throws IDNotRecognisedException {
-        MiniCyclingPortal portal1 = new CyclingPortalImpl();
-        MiniCyclingPortal portal2 = new CyclingPortalImpl();
+        MiniCyclingPortal portal1 = CustomTestApp.newPortal();
+        MiniCyclingPortal portal2 = CustomTestApp.newPortal();
 
         // Test initial portal starts with no teams
         assert (portal1.getRaceIds().length == 0)
@@ -34,6 +34,10 @@ public class PortalTeamsTests {
         assert (portal2.getTeams().length == 1)
                 : "Portal2 should have one team.";
 
+        // Each portal hands out its own IDs, so both first teams get the same one
+        assert (team1Id == team2Id)
+                : "Portals should not share ID spaces.";
+
         // Test printing the description
 
         // String supposedMessage = "Name: TeamOne Description: My favourite";
@@ -0,0 +1,297 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * A byte buffer with the compact encodings used by saved files: varints, zig-zagged signed
+ * values, length-prefixed strings and nullable values. Writing grows the buffer as needed.
+ * Reading past the end throws {@link java.nio.BufferUnderflowException}, which callers
+ * report as the file being cut short.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class BinaryBuffer {
+  // Written or read directly rather than through streams, which lock on every byte
+  protected ByteBuffer buffer;
+
+  /**
+   * Constructor for the BinaryBuffer class.
+   *
+   * @param buffer the buffer to write to or read from
+   */
+  protected BinaryBuffer(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Get the underlying buffer, which writing may have replaced with a larger one.
+   *
+   * @return the buffer
+   */
+  protected ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  /**
+   * Make sure there is room to write a number of bytes, doubling the buffer if not.
+   *
+   * @param bytes the number of bytes about to be written
+   */
+  private void ensureCapacity(int bytes) {
+    if (buffer.remaining() < bytes) {
+      int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+      ByteBuffer larger = ByteBuffer.allocate(capacity);
+      buffer.flip();
+      larger.put(buffer);
+      buffer = larger;
+    }
+  }
+
+  /**
+   * Write a single byte.
+   *
+   * @param value the byte, only the low 8 bits are written
+   */
+  protected void writeByte(int value) {
+    ensureCapacity(1);
+    buffer.put((byte) value);
+  }
+
+  /**
+   * Read a single byte.
+   *
+   * @return the byte as a value from 0 to 255
+   */
+  protected int readByte() {
+    return buffer.get() & 0xFF;
+  }
+
+  /**
+   * Write a boolean as one byte.
+   *
+   * @param value the boolean
+   */
+  protected void writeBoolean(boolean value) {
+    writeByte(value ? 1 : 0);
+  }
+
+  /**
+   * Read a boolean written by {@link #writeBoolean(boolean)}.
+   *
+   * @return the boolean
+   */
+  protected boolean readBoolean() {
+    return buffer.get() != 0;
+  }
+
+  /**
+   * Write a double as its 8 bytes.
+   *
+   * @param value the double
+   */
+  protected void writeDouble(double value) {
+    ensureCapacity(8);
+    buffer.putDouble(value);
+  }
+
+  /**
+   * Read a double written by {@link #writeDouble(double)}.
+   *
+   * @return the double
+   */
+  protected double readDouble() {
+    return buffer.getDouble();
+  }
+
+  /**
+   * Write a double that may be null, as a boolean for whether it is present then the value.
+   *
+   * @param value the double
+   */
+  protected void writeOptionalDouble(Double value) {
+    writeBoolean(value != null);
+    if (value != null) {
+      writeDouble(value);
+    }
+  }
+
+  /**
+   * Read a double written by {@link #writeOptionalDouble(Double)}.
+   *
+   * @return the double, or null
+   */
+  protected Double readOptionalDouble() {
+    return readBoolean() ? readDouble() : null;
+  }
+
+  /**
+   * Write a date and time that may be null, as a boolean for whether it is present, then
+   * the zig-zagged seconds since the epoch in UTC and the nanoseconds.
+   *
+   * @param value the date and time
+   */
+  protected void writeDateTime(LocalDateTime value) {
+    writeBoolean(value != null);
+    if (value != null) {
+      writeVarLong(zigZag(value.toEpochSecond(ZoneOffset.UTC)));
+      writeVarInt(value.getNano());
+    }
+  }
+
+  /**
+   * Read a date and time written by {@link #writeDateTime(LocalDateTime)}.
+   *
+   * @return the date and time, or null
+   * @throws IOException if the value is not valid
+   */
+  protected LocalDateTime readDateTime() throws IOException {
+    if (!readBoolean()) {
+      return null;
+    }
+    long epochSecond = unZigZag(readVarLong());
+    return LocalDateTime.ofEpochSecond(epochSecond, readVarInt(), ZoneOffset.UTC);
+  }
+
+  /**
+   * Write a string that may be null, as its UTF-8 length plus one (0 for null) then the
+   * bytes.
+   *
+   * @param value the string
+   */
+  protected void writeString(String value) {
+    if (value == null) {
+      writeVarInt(0);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(bytes.length + 1);
+    ensureCapacity(bytes.length);
+    buffer.put(bytes);
+  }
+
+  /**
+   * Read a string written by {@link #writeString(String)}.
+   *
+   * @return the string, or null
+   * @throws IOException if the length is not valid
+   */
+  protected String readString() throws IOException {
+    int length = readVarInt();
+    if (length == 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length - 1];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write an enum constant that may be null, as its ordinal plus one (0 for null).
+   *
+   * @param value the constant
+   */
+  protected void writeEnum(Enum<?> value) {
+    writeVarInt((value == null) ? 0 : value.ordinal() + 1);
+  }
+
+  /**
+   * Read an enum constant written by {@link #writeEnum(Enum)}.
+   *
+   * @param values every constant of the enum
+   * @param <E>    the enum type
+   * @return the constant, or null
+   * @throws IOException if the ordinal is out of range
+   */
+  protected <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+    int ordinal = readVarInt();
+    if (ordinal > values.length) {
+      throw new IOException("Unknown constant " + (ordinal - 1) + " in snapshot");
+    }
+    return (ordinal == 0) ? null : values[ordinal - 1];
+  }
+
+  /**
+   * Write a non-negative int in 7 bit groups, low group first, with the top bit of each
+   * byte set if more follow. IDs and counts take one or two bytes rather than four.
+   *
+   * @param value the value, at least 0
+   */
+  protected void writeVarInt(int value) {
+    assert value >= 0 : "Varints can't be negative";
+    writeVarLong(value);
+  }
+
+  /**
+   * Read a varint written by {@link #writeVarInt(int)}.
+   *
+   * @return the value
+   * @throws IOException if the value doesn't fit an int
+   */
+  protected int readVarInt() throws IOException {
+    long value = readVarLong();
+    if (value < 0 || value > Integer.MAX_VALUE) {
+      throw new IOException("Varint " + value + " is too large for an int");
+    }
+    return (int) value;
+  }
+
+  /**
+   * Write a long in 7 bit groups, low group first, with the top bit of each byte set if
+   * more follow. The value is treated as unsigned, so signed values should be zig-zagged.
+   *
+   * @param value the value
+   */
+  protected void writeVarLong(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  /**
+   * Read a varint written by {@link #writeVarLong(long)}.
+   *
+   * @return the value
+   * @throws IOException if the varint is too long
+   */
+  protected long readVarLong() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Varint is longer than 10 bytes");
+  }
+
+  /**
+   * Map a signed value to an unsigned one so small negatives stay small as varints
+   * (0, -1, 1, -2 become 0, 1, 2, 3).
+   *
+   * @param value the signed value
+   * @return the zig-zag encoded value
+   */
+  protected static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * Undo {@link #zigZag(long)}.
+   *
+   * @param value the zig-zag encoded value
+   * @return the signed value
+   */
+  protected static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
@@ -0,0 +1,159 @@
+package cycling;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records which races, stages and teams of a portal have changed since it was last saved
+ * or loaded, so the next save can write just those as a delta on top of the snapshot
+ * chain it was saved to.
+ * A race counts as changed whenever one of its stages does, as its entry in the race
+ * table lists where each of its stages is. A team counts as changed whenever one of its
+ * riders is created or removed, or registers for or leaves a stage.
+ * The sets can be added to from several threads, as results for different stages are
+ * registered at the same time.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class ChangeTracker {
+  private final Set<Integer> changedRaces = ConcurrentHashMap.newKeySet();
+  private final Set<Integer> changedStages = ConcurrentHashMap.newKeySet();
+  private final Set<Integer> removedRaces = ConcurrentHashMap.newKeySet();
+  private final Set<Integer> changedTeams = ConcurrentHashMap.newKeySet();
+  private final Set<Integer> removedTeams = ConcurrentHashMap.newKeySet();
+  // The chain the portal was last saved to or loaded from, null if a delta can't be saved
+  private SnapshotChain chain;
+
+  /**
+   * Record that a race's details or list of stages changed.
+   *
+   * @param raceId the ID of the race
+   */
+  protected void raceChanged(int raceId) {
+    changedRaces.add(raceId);
+  }
+
+  /**
+   * Record that a stage's checkpoints, state or results changed.
+   *
+   * @param raceId  the ID of the race the stage belongs to
+   * @param stageId the ID of the stage
+   */
+  protected void stageChanged(int raceId, int stageId) {
+    changedRaces.add(raceId);
+    changedStages.add(stageId);
+  }
+
+  /**
+   * Record that a stage was removed from its race.
+   *
+   * @param raceId  the ID of the race the stage belonged to
+   * @param stageId the ID of the stage
+   */
+  protected void stageRemoved(int raceId, int stageId) {
+    changedRaces.add(raceId);
+    changedStages.remove(stageId);
+  }
+
+  /**
+   * Record that a race was removed, along with its stages.
+   *
+   * @param race the race, before its stages are removed
+   */
+  protected void raceRemoved(Race race) {
+    changedRaces.remove(race.getId());
+    removedRaces.add(race.getId());
+    changedStages.removeAll(race.getStages().keySet());
+  }
+
+  /**
+   * Record that a team's details or riders changed.
+   *
+   * @param teamId the ID of the team
+   */
+  protected void teamChanged(int teamId) {
+    changedTeams.add(teamId);
+  }
+
+  /**
+   * Record that a team was removed, along with its riders.
+   *
+   * @param teamId the ID of the team
+   */
+  protected void teamRemoved(int teamId) {
+    changedTeams.remove(teamId);
+    removedTeams.add(teamId);
+  }
+
+  /**
+   * Get the races created or changed since the last save.
+   *
+   * @return the race IDs, which may include races since removed
+   */
+  protected Set<Integer> getChangedRaces() {
+    return changedRaces;
+  }
+
+  /**
+   * Get the stages created or changed since the last save.
+   *
+   * @return the stage IDs, which may include stages since removed
+   */
+  protected Set<Integer> getChangedStages() {
+    return changedStages;
+  }
+
+  /**
+   * Get the races removed since the last save.
+   *
+   * @return the race IDs, which may include IDs since taken by new races
+   */
+  protected Set<Integer> getRemovedRaces() {
+    return removedRaces;
+  }
+
+  /**
+   * Get the teams created or changed since the last save.
+   *
+   * @return the team IDs, which may include teams since removed
+   */
+  protected Set<Integer> getChangedTeams() {
+    return changedTeams;
+  }
+
+  /**
+   * Get the teams removed since the last save.
+   *
+   * @return the team IDs, which may include IDs since taken by new teams
+   */
+  protected Set<Integer> getRemovedTeams() {
+    return removedTeams;
+  }
+
+  /**
+   * Get the chain the portal was last saved to or loaded from. Its files may still be
+   * being written.
+   *
+   * @return the chain, or null if the next save has to write a whole snapshot
+   */
+  protected SnapshotChain getChain() {
+    return chain;
+  }
+
+  /**
+   * Start tracking changes from a save or load, forgetting everything recorded so far.
+   * A save calls this once it has captured the changes, before writing them.
+   *
+   * @param chain the chain being saved to or just loaded from, or null if there isn't one
+   */
+  protected void reset(SnapshotChain chain) {
+    this.chain = chain;
+    changedRaces.clear();
+    changedStages.clear();
+    removedRaces.clear();
+    changedTeams.clear();
+    removedTeams.clear();
+  }
+}
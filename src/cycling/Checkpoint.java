@@ -1,6 +1,9 @@
 package cycling;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.time.LocalTime;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -12,8 +15,15 @@ import java.util.HashMap;
  * @version 1.0
  */
 class Checkpoint extends Entity {
-  // The times that riders passed the checkpoint format of: <riderId, time>
-  protected final HashMap<Integer, LocalTime> passTimes = new HashMap<Integer, LocalTime>();
+  private static final long serialVersionUID = 5842934188687383094L;
+  // The times riders passed the checkpoint are stored by the parent stage, these are
+  // the same passes kept sorted by time, so ranks can be found by binary search
+  private long[] passOrderTimes = new long[0]; // nanos of day, ascending
+  private int[] passOrderRiders = new int[0]; // the rider for each entry in passOrderTimes
+  private int passOrderSize = 0;
+  // How passes were kept in files saved with Java serialization before the stage held them,
+  // format of <riderId, time>. Only set while such a file is read, until the stage takes them
+  private HashMap<Integer, LocalTime> passTimes;
   protected CheckpointType myType; // the type of checkpoint it is
   private final Double location; // where in the stage it is located
 
@@ -26,27 +36,32 @@ class Checkpoint extends Entity {
    * @param type        the type of checkpoint
    * @param location    the location of the checkpoint
    * @param parentStage the stage that the checkpoint is in
+   * @param idAllocator the ID allocator of the portal creating the checkpoint
    * @throws InvalidLocationException   if the location is out of range of the
    *                                    stage
    * @throws InvalidStageTypeException  if the stage is not of the correct type
    * @throws InvalidStageStateException if the stage is already prepared
    */
-  protected Checkpoint(CheckpointType type, Double location, Stage parentStage)
+  protected Checkpoint(CheckpointType type, Double location, Stage parentStage,
+                       IdAllocator idAllocator)
       throws InvalidLocationException, InvalidStageTypeException, InvalidStageStateException {
-    super(); // Call the entity constructor
+    super(idAllocator); // Call the entity constructor
 
     // Check conditions are Ok for the checkpoint
     this.parentStage = parentStage;
 
     if (location <= 0 || location > parentStage.getLength()) {
+      freeId(); // as super() has been called, we need to free the ID
       throw new InvalidLocationException("Location of checkpoint must be within the stage");
     }
 
     if (parentStage.getType() == StageType.TT) {
+      freeId(); // as super() has been called, we need to free the ID
       throw new InvalidStageTypeException("Time trial stages cannot have checkpoints");
     }
 
     if (parentStage.getPrepared()) {
+      freeId(); // as super() has been called, we need to free the ID
       throw new InvalidStageStateException("Stage already prepared");
     }
 
@@ -54,6 +69,52 @@ class Checkpoint extends Entity {
     this.location = location;
   }
 
+  /**
+   * Constructor for restoring a saved checkpoint with its ID, the details were checked
+   * when it was first created.
+   *
+   * @param id          the ID the checkpoint had when it was saved
+   * @param type        the type of checkpoint
+   * @param location    the location of the checkpoint
+   * @param parentStage the stage that the checkpoint is in
+   * @param idAllocator the ID allocator of the portal the checkpoint is loaded into
+   */
+  protected Checkpoint(int id, CheckpointType type, Double location, Stage parentStage,
+                       IdAllocator idAllocator) {
+    super(id, idAllocator);
+    this.myType = type;
+    this.location = location;
+    this.parentStage = parentStage;
+  }
+
+  /**
+   * Read a checkpoint saved with Java serialization. One saved before pass orders were
+   * kept starts with none, and its stage puts its passes back.
+   *
+   * @param in the stream being read
+   * @throws IOException            if an I/O error occurs
+   * @throws ClassNotFoundException if the class of a serialized object cannot be found
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    if (passOrderTimes == null) {
+      passOrderTimes = new long[0];
+      passOrderRiders = new int[0];
+    }
+  }
+
+  /**
+   * Take the passes read from a file saved before the stage held them, so the stage can
+   * store them as it does now.
+   *
+   * @return the passes, format of <riderId, time>, or null if there were none to take
+   */
+  protected HashMap<Integer, LocalTime> takeSavedPassTimes() {
+    HashMap<Integer, LocalTime> saved = passTimes;
+    passTimes = null;
+    return saved;
+  }
+
   /**
    * Gives the stage object that this belongs to.
    *
@@ -63,16 +124,81 @@ class Checkpoint extends Entity {
     return parentStage;
   }
 
+  /**
+   * Getter for the type of checkpoint.
+   *
+   * @return the type of checkpoint
+   */
+  protected CheckpointType getType() {
+    return myType;
+  }
+
+  /**
+   * Getter for where the checkpoint is in the stage.
+   *
+   * @return the location of the checkpoint
+   */
+  protected Double getLocation() {
+    return location;
+  }
+
   /**
    * Record a rider's time at the checkpoint.
    *
-   * @param riderId  the Id of the rider to record
-   * @param passTime What time they crossed the checkpoint
+   * @param riderId the Id of the rider to record
+   * @param nanos   What time they crossed the checkpoint, in nanoseconds of the day
+   */
+  protected void recordTime(int riderId, long nanos) {
+    int passesBefore = passOrderSize; // Get the number of passes before the rider is added
+
+    // Insert after any riders on the same time, so ties keep the order they were recorded in
+    int index = countPassedBy(nanos + 1);
+    if (passOrderSize == passOrderTimes.length) {
+      int capacity = Math.max(8, passOrderSize * 2);
+      passOrderTimes = Arrays.copyOf(passOrderTimes, capacity);
+      passOrderRiders = Arrays.copyOf(passOrderRiders, capacity);
+    }
+    System.arraycopy(passOrderTimes, index, passOrderTimes, index + 1, passOrderSize - index);
+    System.arraycopy(passOrderRiders, index, passOrderRiders, index + 1, passOrderSize - index);
+    passOrderTimes[index] = nanos;
+    passOrderRiders[index] = riderId;
+    passOrderSize++;
+    assert passOrderSize == passesBefore + 1; // Check that the rider has been added
+  }
+
+  /**
+   * Record the times many riders crossed the checkpoint at once.
+   * The new passes are sorted then merged into the pass order in one sweep, going after
+   * any existing passes at the same time.
+   *
+   * @param riderIds the Ids of the riders to record, none already recorded
+   * @param nanos    What time each crossed the checkpoint, in nanoseconds of the day
    */
-  protected void recordTime(int riderId, LocalTime passTime) {
-    int passTimesBefore = passTimes.size(); // Get the number of passTimes before the rider is added
-    passTimes.put(riderId, passTime);
-    assert passTimes.size() == passTimesBefore + 1; // Check that the rider has been added
+  protected void recordTimes(int[] riderIds, long[] nanos) {
+    RankingEngine sorted = RankingEngine.rankLongs(riderIds, nanos, false);
+    int[] newRiders = sorted.getRiderRanks();
+    long[] newTimes = sorted.getRiderScores();
+
+    int size = passOrderSize + newRiders.length;
+    if (size > passOrderTimes.length) {
+      int capacity = Math.max(8, Math.max(size, passOrderSize * 2));
+      passOrderTimes = Arrays.copyOf(passOrderTimes, capacity);
+      passOrderRiders = Arrays.copyOf(passOrderRiders, capacity);
+    }
+
+    // Merge from the back so nothing is overwritten before it has been moved
+    int existing = passOrderSize - 1;
+    int added = newRiders.length - 1;
+    for (int i = size - 1; added >= 0; i--) {
+      if (existing >= 0 && passOrderTimes[existing] > newTimes[added]) {
+        passOrderTimes[i] = passOrderTimes[existing];
+        passOrderRiders[i] = passOrderRiders[existing--];
+      } else {
+        passOrderTimes[i] = newTimes[added];
+        passOrderRiders[i] = newRiders[added--];
+      }
+    }
+    passOrderSize = size;
   }
 
   /**
@@ -82,26 +208,85 @@ class Checkpoint extends Entity {
    * @return the time that the rider reached the checkpoint
    */
   protected LocalTime getPassTime(int riderId) {
-    return passTimes.get(riderId);
+    long nanos = parentStage.getPassNanos(id, riderId);
+    return (nanos < 0) ? null : LocalTime.ofNanoOfDay(nanos);
   }
 
   /**
    * Remove a rider's time from the checkpoint.
    *
    * @param riderId the Id of the rider to remove from the checkpoint
+   * @param nanos   the time the rider passed the checkpoint, in nanoseconds of the day
    */
-  protected void removeRider(int riderId) {
-    // Get the number of passTimes before the rider is removed
-    int passTimesBefore = passTimes.size();
-    passTimes.remove(riderId);
-    assert passTimes.size() == passTimesBefore - 1; // Check that the rider has been removed
+  protected void removeRider(int riderId, long nanos) {
+    // Get the number of passes before the rider is removed
+    int passesBefore = passOrderSize;
+
+    // Find the rider among everyone who passed at the same time and close the gap
+    int index = countPassedBy(nanos);
+    while (passOrderRiders[index] != riderId) {
+      index++;
+    }
+    System.arraycopy(passOrderTimes, index + 1, passOrderTimes, index, passOrderSize - index - 1);
+    System.arraycopy(passOrderRiders, index + 1, passOrderRiders, index, passOrderSize - index - 1);
+    passOrderSize--;
+    assert passOrderSize == passesBefore - 1; // Check that the rider has been removed
+  }
+
+  /**
+   * Get a rider's position crossing the checkpoint.
+   * The position is one more than the number of riders who passed strictly earlier, so
+   * riders passing at the same time share a position. Found by binary search, O(log n).
+   *
+   * @param riderId the rider's ID
+   * @return the rider's position starting from 1, or 0 if they haven't passed
+   */
+  protected int getPassPosition(int riderId) {
+    long nanos = parentStage.getPassNanos(id, riderId);
+    if (nanos < 0) {
+      return 0;
+    }
+    return countPassedBy(nanos) + 1;
+  }
+
+  /**
+   * Get the riders who crossed the checkpoint within the first few positions, in the order
+   * they passed it. Riders tied on the last position are all included.
+   *
+   * @param positions how many positions to include
+   * @return the rider IDs, earliest first
+   */
+  protected int[] getFirstPassers(int positions) {
+    int count = passOrderSize;
+    if (positions < passOrderSize) {
+      count = countPassedBy(passOrderTimes[positions - 1] + 1);
+    }
+    return Arrays.copyOf(passOrderRiders, count);
+  }
+
+  /**
+   * Count how many riders passed the checkpoint strictly before a time.
+   *
+   * @param nanos the time as nanoseconds of the day
+   * @return the number of recorded passes earlier than the time
+   */
+  private int countPassedBy(long nanos) {
+    int low = 0;
+    int high = passOrderSize;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (passOrderTimes[mid] < nanos) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
   }
 
   @Override
   protected void remove() {
-    int idsBefore = usedIds.size(); // Get the number of usedIds before the checkpoint is removed
-    freeId(); // Remove the checkpoint from the usedIds list
-    assert idsBefore == usedIds.size() + 1 : "Number of IDs incorrect after removal";
+    freeId(); // Return the checkpoint's ID to the allocator
   }
 
   /**
@@ -124,6 +309,24 @@ class Checkpoint extends Entity {
     return 0;
   }
 
+  /**
+   * Get the riders who score sprint points at this checkpoint.
+   *
+   * @return the IDs of the point scoring riders, none by default.
+   */
+  protected int[] getSprintScorers() {
+    return new int[0];
+  }
+
+  /**
+   * Get the riders who score mountain points at this checkpoint.
+   *
+   * @return the IDs of the point scoring riders, none by default.
+   */
+  protected int[] getMountainScorers() {
+    return new int[0];
+  }
+
   /**
    * Get the details of the checkpoint in a string form.
    *
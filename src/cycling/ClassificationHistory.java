@@ -0,0 +1,83 @@
+package cycling;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+
+/**
+ * The last few snapshots taken of each classification of a stage or race, so a page can
+ * be cut from the version an earlier page came from after results have changed. Only the
+ * newest snapshot of a classification can be current, and it stops being current as soon
+ * as the results behind it change.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class ClassificationHistory {
+  // Snapshots kept per classification, including the current one
+  protected static final int KEPT_VERSIONS = 4;
+
+  // Newest first, format of <type, snapshots>
+  private final EnumMap<ClassificationType, ArrayDeque<ClassificationSnapshot>> kept =
+      new EnumMap<ClassificationType, ArrayDeque<ClassificationSnapshot>>(
+          ClassificationType.class);
+  // The classifications whose newest snapshot still matches the results
+  private final EnumSet<ClassificationType> current = EnumSet.noneOf(ClassificationType.class);
+
+  /**
+   * Get the current snapshot of a classification.
+   *
+   * @param type the classification
+   * @return the snapshot, or null if the results have changed since the last one
+   */
+  protected ClassificationSnapshot getCurrent(ClassificationType type) {
+    return current.contains(type) ? kept.get(type).peekFirst() : null;
+  }
+
+  /**
+   * Add a snapshot as the current one of its classification, letting the oldest kept go
+   * if there are too many.
+   *
+   * @param snapshot the snapshot, taken of the results as they are now
+   */
+  protected void add(ClassificationSnapshot snapshot) {
+    ArrayDeque<ClassificationSnapshot> snapshots = kept.get(snapshot.getType());
+    if (snapshots == null) {
+      snapshots = new ArrayDeque<ClassificationSnapshot>(KEPT_VERSIONS);
+      kept.put(snapshot.getType(), snapshots);
+    }
+    snapshots.addFirst(snapshot);
+    if (snapshots.size() > KEPT_VERSIONS) {
+      snapshots.removeLast();
+    }
+    current.add(snapshot.getType());
+  }
+
+  /**
+   * Mark every snapshot as out of date, called whenever the results change.
+   * They are kept for pages of their versions until newer ones push them out.
+   */
+  protected void resultsChanged() {
+    current.clear();
+  }
+
+  /**
+   * Find a kept snapshot of a classification by its version.
+   *
+   * @param type    the classification
+   * @param version the version of the snapshot
+   * @return the snapshot, or null if it isn't kept
+   */
+  protected ClassificationSnapshot getVersion(ClassificationType type, long version) {
+    ArrayDeque<ClassificationSnapshot> snapshots = kept.get(type);
+    if (snapshots != null) {
+      for (ClassificationSnapshot snapshot : snapshots) {
+        if (snapshot.getVersion() == version) {
+          return snapshot;
+        }
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,28 @@
+package cycling;
+
+/**
+ * Receives changes to a stage's or race's classifications as they happen, rather than
+ * having to poll for them.
+ * Register one with {@link CyclingPortal#addStageListener(int, ClassificationListener)} or
+ * {@link CyclingPortal#addRaceListener(int, ClassificationListener)}. It is called on the
+ * thread that changed the results, so it should return quickly and must not change any
+ * results itself. An exception thrown by a listener doesn't fail the change, which has
+ * already been made, and is handed to the thread's uncaught exception handler instead.
+ * Listeners are not saved with the portal.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+public interface ClassificationListener {
+
+  /**
+   * Called once per change to the results with every rider whose position or value moved.
+   *
+   * @param sourceId the ID of the stage or race whose classification changed
+   * @param type     which classification changed
+   * @param deltas   the riders that moved, in order of their new position with riders
+   *                 that dropped out of the classification last
+   */
+  void classificationChanged(int sourceId, ClassificationType type, RankDelta[] deltas);
+}
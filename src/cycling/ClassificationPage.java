@@ -0,0 +1,102 @@
+package cycling;
+
+/**
+ * One page of a ranked classification, as returned by the paged queries.
+ * Every page carries the version of the ranking it was cut from, which changes whenever
+ * the results behind it do. The following pages can be taken with {@link #next()}, which
+ * always continues the same version of the ranking even if results have arrived since,
+ * or by passing the version back to the paged queries that take one, while it is kept.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+public class ClassificationPage extends ClassificationResult {
+  private final ClassificationSnapshot snapshot;
+  private final int offset;
+  private final int limit;
+
+  /**
+   * Constructor for the ClassificationPage class.
+   *
+   * @param snapshot the ranking the page was cut from
+   * @param offset   the rank of the first rider on the page, starting at 0
+   * @param limit    the most riders the page could hold
+   * @param riderIds the rider IDs on the page in rank order
+   * @param values   each rider's time in nanoseconds or points, in the same order
+   */
+  protected ClassificationPage(ClassificationSnapshot snapshot, int offset, int limit,
+                               int[] riderIds, long[] values) {
+    super(snapshot.getType(), riderIds, values);
+    this.snapshot = snapshot;
+    this.offset = offset;
+    this.limit = limit;
+  }
+
+  /**
+   * Getter for the version of the ranking the page was cut from. Two pages with the same
+   * version are parts of exactly the same ranking, and the version can be passed back to
+   * {@link CyclingPortal#getStageClassificationPage(int, ClassificationType, long, int, int)}
+   * or {@link CyclingPortal#getRaceClassificationPage(int, ClassificationType, long, int, int)}
+   * for more pages of it.
+   *
+   * @return the version
+   */
+  public long getVersion() {
+    return snapshot.getVersion();
+  }
+
+  /**
+   * Getter for the offset.
+   *
+   * @return the rank of the first rider on the page, starting at 0
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * Get the number of riders in the whole ranking.
+   *
+   * @return the total number of riders across every page
+   */
+  public int getTotal() {
+    return snapshot.size();
+  }
+
+  /**
+   * Check whether there are riders after this page.
+   *
+   * @return true if {@link #next()} would give a page with riders on
+   */
+  public boolean hasNext() {
+    return limit > 0 && offset + size() < snapshot.size();
+  }
+
+  /**
+   * Get the following page of the same version of the ranking, with the same limit.
+   *
+   * @return the next page, empty if this was the last
+   */
+  public ClassificationPage next() {
+    return snapshot.page(offset + size(), limit);
+  }
+
+  /**
+   * Get the details of the page in a string form.
+   *
+   * @return A string describing the page
+   */
+  @Override
+  public String toString() {
+    StringBuilder details = new StringBuilder("Classification: " + getType() + " Version: "
+        + getVersion() + " Total: " + getTotal());
+    int[] riderIds = getRiderIds();
+    long[] values = getValues();
+    for (int i = 0; i < riderIds.length; i++) {
+      details.append(" ").append(offset + i + 1).append(". ").append(riderIds[i])
+          .append(" (").append(values[i]).append(")");
+    }
+    return details.toString();
+  }
+}
@@ -0,0 +1,137 @@
+package cycling;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps the listeners of a stage or race, along with the classifications they were last
+ * told about, so each change can be pushed as the riders that moved rather than the whole
+ * ranking.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class ClassificationPublisher {
+  private final int sourceId;
+  // Listeners can be added from other threads while results are being published
+  private final CopyOnWriteArrayList<ClassificationListener> listeners =
+      new CopyOnWriteArrayList<>();
+  // The last published ranking of each classification, format of <type, {riders, values}>
+  private final EnumMap<ClassificationType, Standings> published =
+      new EnumMap<>(ClassificationType.class);
+
+  /**
+   * Constructor for the ClassificationPublisher class.
+   *
+   * @param sourceId the ID of the stage or race being published
+   */
+  protected ClassificationPublisher(int sourceId) {
+    this.sourceId = sourceId;
+  }
+
+  /**
+   * Add a listener.
+   *
+   * @param listener the listener to add
+   */
+  protected void addListener(ClassificationListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Remove a listener.
+   *
+   * @param listener the listener to remove
+   * @return true if the listener had been added
+   */
+  protected boolean removeListener(ClassificationListener listener) {
+    return listeners.remove(listener);
+  }
+
+  /**
+   * Check whether anyone is listening.
+   *
+   * @return true if there is at least one listener
+   */
+  protected boolean hasListeners() {
+    return !listeners.isEmpty();
+  }
+
+  /**
+   * Publish the current ranking of a classification, telling the listeners about every
+   * rider whose position or value differs from the last ranking published.
+   * The arrays are kept for the next comparison, so must not be modified afterwards.
+   *
+   * @param type   the classification
+   * @param riders the rider IDs in rank order
+   * @param values each rider's time in nanoseconds or points, in the same order
+   * @param notify false to only record the ranking, such as when a listener is added
+   */
+  protected synchronized void publish(ClassificationType type, int[] riders, long[] values,
+                                      boolean notify) {
+    Standings previous = published.put(type, new Standings(riders, values));
+    if (!notify || listeners.isEmpty()) {
+      return;
+    }
+    if (previous == null) {
+      previous = new Standings(new int[0], new long[0]);
+    }
+
+    // Where each rider was, format of <riderId, index in the previous ranking>
+    HashMap<Integer, Integer> oldIndex = new HashMap<Integer, Integer>();
+    for (int i = 0; i < previous.riders.length; i++) {
+      oldIndex.put(previous.riders[i], i);
+    }
+
+    ArrayList<RankDelta> deltas = new ArrayList<RankDelta>();
+    for (int i = 0; i < riders.length; i++) {
+      Integer old = oldIndex.remove(riders[i]);
+      if (old == null || old != i || previous.values[old] != values[i]) {
+        deltas.add(new RankDelta(riders[i], (old == null) ? 0 : old + 1, i + 1, values[i]));
+      }
+    }
+    // Whoever is left has dropped out of the classification
+    for (int i = 0; i < previous.riders.length; i++) {
+      if (oldIndex.containsKey(previous.riders[i])) {
+        deltas.add(new RankDelta(previous.riders[i], i + 1, 0, 0));
+      }
+    }
+
+    if (deltas.isEmpty()) {
+      return;
+    }
+    RankDelta[] changes = deltas.toArray(new RankDelta[0]);
+    for (ClassificationListener listener : listeners) {
+      try {
+        listener.classificationChanged(sourceId, type, changes);
+      } catch (RuntimeException e) {
+        // The change has already been made, so a broken listener can't fail it or keep
+        // the other listeners from hearing about it
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+      }
+    }
+  }
+
+  /**
+   * A published ranking, the riders in order along with their values.
+   */
+  private static class Standings {
+    private final int[] riders;
+    private final long[] values;
+
+    /**
+     * Constructor for Standings.
+     *
+     * @param riders the rider IDs in rank order
+     * @param values each rider's value in the same order
+     */
+    private Standings(int[] riders, long[] values) {
+      this.riders = riders;
+      this.values = values;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package cycling;
+
+/**
+ * The leading riders of a classification along with their times or points, as returned
+ * by the top-K queries. Riders are in rank order, those on the same value ordered by ID.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+public class ClassificationResult {
+  private final ClassificationType type;
+  private final int[] riderIds;
+  private final long[] values;
+
+  /**
+   * Constructor for the ClassificationResult class.
+   *
+   * @param type     the classification ranked
+   * @param riderIds the rider IDs in rank order
+   * @param values   each rider's time in nanoseconds or points, in the same order
+   */
+  protected ClassificationResult(ClassificationType type, int[] riderIds, long[] values) {
+    assert riderIds.length == values.length : "Every rider needs a value";
+    this.type = type;
+    this.riderIds = riderIds;
+    this.values = values;
+  }
+
+  /**
+   * Getter for the classification ranked.
+   *
+   * @return the classification type
+   */
+  public ClassificationType getType() {
+    return type;
+  }
+
+  /**
+   * Get the number of riders in the result, which is fewer than asked for if the
+   * classification doesn't have that many.
+   *
+   * @return the number of riders
+   */
+  public int size() {
+    return riderIds.length;
+  }
+
+  /**
+   * Getter for the rider IDs.
+   *
+   * @return a copy of the rider IDs in rank order
+   */
+  public int[] getRiderIds() {
+    return riderIds.clone();
+  }
+
+  /**
+   * Getter for the riders' values, see {@link ClassificationType} for which.
+   *
+   * @return a copy of the times in nanoseconds or points, in the same order as the riders
+   */
+  public long[] getValues() {
+    return values.clone();
+  }
+
+  /**
+   * Get the details of the result in a string form.
+   *
+   * @return A string describing the result
+   */
+  @Override
+  public String toString() {
+    StringBuilder details = new StringBuilder("Classification: " + type);
+    for (int i = 0; i < riderIds.length; i++) {
+      details.append(" ").append(i + 1).append(". ").append(riderIds[i])
+          .append(" (").append(values[i]).append(")");
+    }
+    return details.toString();
+  }
+}
@@ -0,0 +1,84 @@
+package cycling;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ranked classification frozen at one version, which pages are cut from.
+ * Stages and races reuse one per classification until their results change, so every
+ * page after the first is only a copy of a range of the arrays, and keep the last few so
+ * pages can still be cut from a version after it has been replaced.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class ClassificationSnapshot {
+  // Shared by every stage and race so a version never means two different rankings, even
+  // across a reload
+  private static final AtomicLong VERSIONS = new AtomicLong();
+
+  private final ClassificationType type;
+  private final long version;
+  private final int[] riders;
+  private final long[] values;
+
+  /**
+   * Constructor for the ClassificationSnapshot class, takes arrays that are already ranked.
+   * The arrays are shared rather than copied, so must never be modified afterwards.
+   *
+   * @param type   the classification ranked
+   * @param riders the rider IDs in rank order
+   * @param values each rider's time in nanoseconds or points, in the same order
+   */
+  protected ClassificationSnapshot(ClassificationType type, int[] riders, long[] values) {
+    assert riders.length == values.length : "Every rider needs a value";
+    this.type = type;
+    this.version = VERSIONS.incrementAndGet();
+    this.riders = riders;
+    this.values = values;
+  }
+
+  /**
+   * Getter for the version.
+   *
+   * @return the version, different for every snapshot taken
+   */
+  protected long getVersion() {
+    return version;
+  }
+
+  /**
+   * Get the number of riders ranked.
+   *
+   * @return the number of riders
+   */
+  protected int size() {
+    return riders.length;
+  }
+
+  /**
+   * Cut a page out of the ranking.
+   *
+   * @param offset the rank to start at, starting at 0
+   * @param limit  the most riders to include
+   * @return the page, empty if the offset is past the end of the ranking
+   */
+  protected ClassificationPage page(int offset, int limit) {
+    assert offset >= 0 && limit >= 0 : "Offset and limit can't be negative";
+    int from = Math.min(offset, riders.length);
+    // Long so a huge limit can't overflow past the end
+    int to = (int) Math.min((long) from + limit, riders.length);
+    return new ClassificationPage(this, from, limit, Arrays.copyOfRange(riders, from, to),
+        Arrays.copyOfRange(values, from, to));
+  }
+
+  /**
+   * Getter for the classification ranked.
+   *
+   * @return the classification type
+   */
+  protected ClassificationType getType() {
+    return type;
+  }
+}
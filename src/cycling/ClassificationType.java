@@ -0,0 +1,35 @@
+package cycling;
+
+/**
+ * The classifications that can be ranked and listened to.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+public enum ClassificationType {
+
+  /**
+   * A single stage, ranked by elapsed time. Values are adjusted elapsed times in
+   * nanoseconds.
+   */
+  STAGE,
+
+  /**
+   * The general classification of a race, ranked by the sum of adjusted elapsed times.
+   * Values are the summed times in nanoseconds.
+   */
+  GENERAL,
+
+  /**
+   * The points classification of a race, ranked by the sum of sprint points, or the
+   * sprint points won in a single stage. Values are points.
+   */
+  POINTS,
+
+  /**
+   * The mountain classification of a race, ranked by the sum of mountain points, or the
+   * mountain points won in a single stage. Values are points.
+   */
+  MOUNTAIN
+}
@@ -10,6 +10,7 @@ import java.util.HashMap;
  * @version 1.0
  */
 class Climb extends Checkpoint {
+  private static final long serialVersionUID = 5089248397741234399L;
 
   private static final HashMap<CheckpointType, int[]> POINTS = new HashMap<CheckpointType, int[]>();
 
@@ -32,22 +33,61 @@ class Climb extends Checkpoint {
    * @param length      the length of the climb
    * @param avgGradient the average gradient of the climb
    * @param parentStage the stage that the checkpoint is in
+   * @param idAllocator the ID allocator of the portal creating the climb
    * @throws InvalidLocationException   if the location is out of range of the stage
    * @throws InvalidStageStateException if the stage is not in the correct state
    * @throws InvalidStageTypeException  if the stage is not of the correct type
    */
   protected Climb(CheckpointType type, Double location, Double length, Double avgGradient,
-                  Stage parentStage)
+                  Stage parentStage, IdAllocator idAllocator)
       throws InvalidLocationException, InvalidStageStateException, InvalidStageTypeException {
 
-    super(type, location, parentStage);
+    super(type, location, parentStage, idAllocator);
     this.averageGradient = avgGradient;
     this.length = length;
     if (location + length > parentStage.getLength()) {
+      freeId(); // as super() has been called, we need to free the ID
       throw new InvalidLocationException("Climb is out of range of the stage");
     }
   }
 
+  /**
+   * Constructor for restoring a saved climb with its ID, the details were checked when it
+   * was first created.
+   *
+   * @param id          the ID the climb had when it was saved
+   * @param type        the type of checkpoint it is
+   * @param location    the location of the checkpoint
+   * @param length      the length of the climb
+   * @param avgGradient the average gradient of the climb
+   * @param parentStage the stage that the checkpoint is in
+   * @param idAllocator the ID allocator of the portal the climb is loaded into
+   */
+  protected Climb(int id, CheckpointType type, Double location, Double length,
+                  Double avgGradient, Stage parentStage, IdAllocator idAllocator) {
+    super(id, type, location, parentStage, idAllocator);
+    this.averageGradient = avgGradient;
+    this.length = length;
+  }
+
+  /**
+   * Getter for the length of the climb.
+   *
+   * @return the length of the climb
+   */
+  protected Double getLength() {
+    return length;
+  }
+
+  /**
+   * Getter for the average gradient of the climb.
+   *
+   * @return the average gradient of the climb
+   */
+  protected Double getAverageGradient() {
+    return averageGradient;
+  }
+
   /**
    * Get mountain points for a rider.
    *
@@ -56,21 +96,24 @@ class Climb extends Checkpoint {
    */
   @Override
   protected int getMountainPoints(int riderId) {
-    // We will calculate position by going through the list of times going through
-    // the checkpoint
-    // If there is a smaller time then we will increment the position
-    int position = 1;
-    for (int searchRiderId : passTimes.keySet()) {
-      if (searchRiderId != riderId
-          && passTimes.get(searchRiderId).isBefore(passTimes.get(riderId))) {
-        position++;
-      }
-    }
+    // Position is one more than the number of riders who crossed before them
+    int position = getPassPosition(riderId);
     int[] pointDistribution = POINTS.get(myType);
 
     // return the points for position if its within the point scoring positions else
     // 0
-    return (position <= pointDistribution.length) ? pointDistribution[position - 1] : 0;
+    return (position >= 1 && position <= pointDistribution.length)
+        ? pointDistribution[position - 1] : 0;
+  }
+
+  /**
+   * Get the riders who score mountain points on this climb, in the order they crossed it.
+   *
+   * @return the IDs of the point scoring riders
+   */
+  @Override
+  protected int[] getMountainScorers() {
+    return getFirstPassers(POINTS.get(myType).length);
   }
 
   /**
@@ -0,0 +1,749 @@
+package cycling;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Thread-safe implementation of the CyclingPortal interface, wrapping a CyclingPortalImpl.
+ * Structural changes (creating or removing races, stages, checkpoints, teams and riders,
+ * erasing, saving and loading) hold a portal-wide write lock and so run alone.
+ * Everything else holds the portal-wide read lock plus a lock per stage: registering or
+ * deleting results write-locks just that stage, stage queries read-lock it, and race
+ * queries read-lock every stage of the race. Results arriving for different stages, and
+ * queries on unrelated races, never wait for each other.
+ * Race listeners are told about a change to a stage's results after its write lock is
+ * released, while holding read locks on every stage of the race.
+ * Races of a loaded snapshot are read when first used, as in CyclingPortalImpl. Reading one
+ * adds it to the portal's maps, so a call that would read one takes the structure lock for
+ * writing just while it is read, then carries on holding it for reading.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+public class ConcurrentCyclingPortalImpl implements CyclingPortal {
+
+  // Race listeners are told about result changes here, once the race's stages can be locked
+  private final CyclingPortalImpl portal = new CyclingPortalImpl(false);
+  // Held for writing by structural changes, for reading by everything else
+  private final ReentrantReadWriteLock structureLock = new ReentrantReadWriteLock();
+  // One lock per stage, format of <stageId, lock>, created on first use
+  private final ConcurrentHashMap<Integer, ReentrantReadWriteLock> stageLocks =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Get the lock for a stage, creating it if this is the first time it is used.
+   * Only called while holding the structure lock, so the stage can't be removed meanwhile.
+   * A stage that isn't in the system gets a lock of its own that isn't kept, so bad IDs
+   * don't fill the map; the portal rejects the ID once it is locked.
+   *
+   * @param stageId the ID of the stage
+   * @return the stage's lock
+   */
+  private ReentrantReadWriteLock getStageLock(int stageId) {
+    ReentrantReadWriteLock lock = stageLocks.get(stageId);
+    if (lock != null) {
+      return lock;
+    }
+    if (!portal.containsStage(stageId)) {
+      return new ReentrantReadWriteLock();
+    }
+    return stageLocks.computeIfAbsent(stageId, k -> new ReentrantReadWriteLock());
+  }
+
+  /**
+   * Take the structure lock for reading, first reading the race an ID belongs to if it is
+   * still in the archive of the loaded snapshot. The race is read holding the write lock,
+   * which is then swapped for the read lock without letting go, so it can't be unloaded
+   * in between. A caller already holding the read lock can't have it swapped, so must only
+   * pass IDs of races that have been read.
+   *
+   * @param id the ID of the race, stage or checkpoint about to be used
+   */
+  private void lockStructureFor(int id) {
+    structureLock.readLock().lock();
+    if (!portal.isArchived(id)) {
+      return;
+    }
+    structureLock.readLock().unlock();
+    lockStructure();
+    try {
+      portal.readArchivedRaceOf(id); // Another thread may have read it in the meantime
+      structureLock.readLock().lock();
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  /**
+   * Lock a stage, along with the structure lock for reading.
+   *
+   * @param stageId the ID of the stage
+   * @param write   true to lock the stage for writing, false for reading
+   * @return the stage lock that was taken, to pass to {@link #unlock(Lock...)}
+   */
+  private Lock lockStage(int stageId, boolean write) {
+    lockStructureFor(stageId);
+    ReentrantReadWriteLock stageLock = getStageLock(stageId);
+    Lock lock = write ? stageLock.writeLock() : stageLock.readLock();
+    lock.lock();
+    return lock;
+  }
+
+  /**
+   * Read-lock every stage of a race, along with the structure lock for reading.
+   * The stages are locked in order of ID so two race queries can never deadlock.
+   *
+   * @param raceId the ID of the race
+   * @return the stage locks that were taken, to pass to {@link #unlock(Lock...)}
+   * @throws IDNotRecognisedException If the ID does not match any race, in which case
+   *                                  nothing is left locked
+   */
+  private Lock[] lockRace(int raceId) throws IDNotRecognisedException {
+    lockStructureFor(raceId);
+    int[] stageIds;
+    try {
+      stageIds = portal.getRaceStages(raceId);
+    } catch (IDNotRecognisedException e) {
+      structureLock.readLock().unlock();
+      throw e;
+    }
+
+    Arrays.sort(stageIds);
+    Lock[] locks = new Lock[stageIds.length];
+    for (int i = 0; i < stageIds.length; i++) {
+      locks[i] = getStageLock(stageIds[i]).readLock();
+      locks[i].lock();
+    }
+    return locks;
+  }
+
+  /**
+   * Release stage locks taken by {@link #lockStage(int, boolean)} or
+   * {@link #lockRace(int)}, then the structure read lock.
+   *
+   * @param locks the stage locks to release
+   */
+  private void unlock(Lock... locks) {
+    for (int i = locks.length - 1; i >= 0; i--) {
+      locks[i].unlock();
+    }
+    structureLock.readLock().unlock();
+  }
+
+  /**
+   * Take the structure lock for writing, waiting for every other call to finish.
+   */
+  private void lockStructure() {
+    structureLock.writeLock().lock();
+  }
+
+  /**
+   * Release the structure write lock.
+   */
+  private void unlockStructure() {
+    structureLock.writeLock().unlock();
+  }
+
+  /**
+   * Tell the listeners of a stage's race about a change to the stage's results, read-locking
+   * the race's stages so none of them change while the classifications are worked out.
+   *
+   * @param stageId the ID of the stage whose results changed
+   */
+  private void publishRaceChanges(int stageId) {
+    structureLock.readLock().lock();
+    try {
+      Stage stage = portal.getEntityIndex().getStage(stageId);
+      if (stage == null) {
+        return; // Removed since its results changed, the removal told the race
+      }
+      int raceId = stage.getParentRace().getId(); // Read, as its stage is in the index
+      Lock[] locks = lockRace(raceId);
+      try {
+        portal.publishRaceClassifications(raceId);
+      } finally {
+        unlock(locks);
+      }
+    } catch (IDNotRecognisedException e) {
+      assert false : "Race of a stage in the system not recognised";
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int[] getRaceIds() {
+    structureLock.readLock().lock();
+    try {
+      return portal.getRaceIds();
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int createRace(String name, String description)
+      throws IllegalNameException, InvalidNameException {
+    lockStructure();
+    try {
+      return portal.createRace(name, description);
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public String viewRaceDetails(int raceId) throws IDNotRecognisedException {
+    lockStructureFor(raceId);
+    try {
+      return portal.viewRaceDetails(raceId);
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void removeRaceById(int raceId) throws IDNotRecognisedException {
+    lockStructure();
+    try {
+      int[] stageIds = portal.getRaceStages(raceId);
+      portal.removeRaceById(raceId);
+      for (int stageId : stageIds) {
+        stageLocks.remove(stageId);
+      }
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public int getNumberOfStages(int raceId) throws IDNotRecognisedException {
+    lockStructureFor(raceId);
+    try {
+      return portal.getNumberOfStages(raceId);
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int addStageToRace(int raceId, String stageName, String description, double length,
+                            LocalDateTime startTime, StageType type)
+      throws IDNotRecognisedException, IllegalNameException, InvalidNameException,
+      InvalidLengthException {
+    lockStructure();
+    try {
+      return portal.addStageToRace(raceId, stageName, description, length, startTime, type);
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public int[] getRaceStages(int raceId) throws IDNotRecognisedException {
+    lockStructureFor(raceId);
+    try {
+      return portal.getRaceStages(raceId);
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public double getStageLength(int stageId) throws IDNotRecognisedException {
+    lockStructureFor(stageId);
+    try {
+      return portal.getStageLength(stageId);
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void removeStageById(int stageId) throws IDNotRecognisedException {
+    lockStructure();
+    try {
+      portal.removeStageById(stageId);
+      stageLocks.remove(stageId);
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public int addCategorizedClimbToStage(int stageId, Double location, CheckpointType type,
+                                        Double averageGradient, Double length)
+      throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException,
+      InvalidStageTypeException {
+    lockStructure();
+    try {
+      return portal.addCategorizedClimbToStage(stageId, location, type, averageGradient, length);
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public int addIntermediateSprintToStage(int stageId, double location)
+      throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException,
+      InvalidStageTypeException {
+    lockStructure();
+    try {
+      return portal.addIntermediateSprintToStage(stageId, location);
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public void removeCheckpoint(int checkpointId)
+      throws IDNotRecognisedException, InvalidStageStateException {
+    lockStructure();
+    try {
+      portal.removeCheckpoint(checkpointId);
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public void concludeStagePreparation(int stageId)
+      throws IDNotRecognisedException, InvalidStageStateException {
+    Lock lock = lockStage(stageId, true);
+    try {
+      portal.concludeStagePreparation(stageId);
+    } finally {
+      unlock(lock);
+    }
+  }
+
+  @Override
+  public int[] getStageCheckpoints(int stageId) throws IDNotRecognisedException {
+    lockStructureFor(stageId);
+    try {
+      return portal.getStageCheckpoints(stageId);
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int createTeam(String name, String description)
+      throws IllegalNameException, InvalidNameException {
+    lockStructure();
+    try {
+      return portal.createTeam(name, description);
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public void removeTeam(int teamId) throws IDNotRecognisedException {
+    lockStructure();
+    try {
+      portal.removeTeam(teamId);
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public int[] getTeams() {
+    structureLock.readLock().lock();
+    try {
+      return portal.getTeams();
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int[] getTeamRiders(int teamId) throws IDNotRecognisedException {
+    structureLock.readLock().lock();
+    try {
+      return portal.getTeamRiders(teamId);
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public int createRider(int teamId, String name, int yearOfBirth)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    lockStructure();
+    try {
+      return portal.createRider(teamId, name, yearOfBirth);
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public void removeRider(int riderId) throws IDNotRecognisedException {
+    lockStructure();
+    try {
+      portal.removeRider(riderId);
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpoints)
+      throws IDNotRecognisedException, DuplicatedResultException,
+      InvalidCheckpointTimesException, InvalidStageStateException {
+    Lock lock = lockStage(stageId, true);
+    try {
+      portal.registerRiderResultsInStage(stageId, riderId, checkpoints);
+    } finally {
+      unlock(lock);
+    }
+    publishRaceChanges(stageId);
+  }
+
+  @Override
+  public void registerStageResultSheet(int stageId, int[] riderIds, LocalTime[][] checkpointTimes)
+      throws IDNotRecognisedException, DuplicatedResultException,
+      InvalidCheckpointTimesException, InvalidStageStateException {
+    Lock lock = lockStage(stageId, true);
+    try {
+      portal.registerStageResultSheet(stageId, riderIds, checkpointTimes);
+    } finally {
+      unlock(lock);
+    }
+    publishRaceChanges(stageId);
+  }
+
+  @Override
+  public boolean registerCheckpointPass(int stageId, int riderId, int ordinal, LocalTime time)
+      throws IDNotRecognisedException, DuplicatedResultException,
+      InvalidCheckpointTimesException, InvalidStageStateException {
+    Lock lock = lockStage(stageId, true);
+    boolean completed;
+    try {
+      completed = portal.registerCheckpointPass(stageId, riderId, ordinal, time);
+    } finally {
+      unlock(lock);
+    }
+    if (completed) {
+      publishRaceChanges(stageId);
+    }
+    return completed;
+  }
+
+  @Override
+  public LocalTime[] getRiderResultsInStage(int stageId, int riderId)
+      throws IDNotRecognisedException {
+    Lock lock = lockStage(stageId, false);
+    try {
+      return portal.getRiderResultsInStage(stageId, riderId);
+    } finally {
+      unlock(lock);
+    }
+  }
+
+  @Override
+  public LocalTime getRiderAdjustedElapsedTimeInStage(int stageId, int riderId)
+      throws IDNotRecognisedException {
+    Lock lock = lockStage(stageId, false);
+    try {
+      return portal.getRiderAdjustedElapsedTimeInStage(stageId, riderId);
+    } finally {
+      unlock(lock);
+    }
+  }
+
+  @Override
+  public void deleteRiderResultsInStage(int stageId, int riderId)
+      throws IDNotRecognisedException {
+    Lock lock = lockStage(stageId, true);
+    try {
+      portal.deleteRiderResultsInStage(stageId, riderId);
+    } finally {
+      unlock(lock);
+    }
+    publishRaceChanges(stageId);
+  }
+
+  @Override
+  public int[] getRidersRankInStage(int stageId) throws IDNotRecognisedException {
+    Lock lock = lockStage(stageId, false);
+    try {
+      return portal.getRidersRankInStage(stageId);
+    } finally {
+      unlock(lock);
+    }
+  }
+
+  @Override
+  public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId)
+      throws IDNotRecognisedException {
+    Lock lock = lockStage(stageId, false);
+    try {
+      return portal.getRankedAdjustedElapsedTimesInStage(stageId);
+    } finally {
+      unlock(lock);
+    }
+  }
+
+  @Override
+  public int[] getRidersPointsInStage(int stageId) throws IDNotRecognisedException {
+    Lock lock = lockStage(stageId, false);
+    try {
+      return portal.getRidersPointsInStage(stageId);
+    } finally {
+      unlock(lock);
+    }
+  }
+
+  @Override
+  public int[] getRidersMountainPointsInStage(int stageId) throws IDNotRecognisedException {
+    Lock lock = lockStage(stageId, false);
+    try {
+      return portal.getRidersMountainPointsInStage(stageId);
+    } finally {
+      unlock(lock);
+    }
+  }
+
+  @Override
+  public void eraseCyclingPortal() {
+    lockStructure();
+    try {
+      portal.eraseCyclingPortal();
+      stageLocks.clear();
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public void saveCyclingPortal(String filename) throws IOException {
+    try {
+      saveCyclingPortalAsync(filename).join(); // Waits for the write without the lock
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> saveCyclingPortalAsync(String filename) {
+    lockStructure(); // Only while the portal is captured, results can arrive while it's written
+    try {
+      return portal.saveCyclingPortalAsync(filename);
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
+    lockStructure();
+    try {
+      portal.loadCyclingPortal(filename); // Races are read when first used
+      stageLocks.clear();
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public void removeRaceByName(String name) throws NameNotRecognisedException {
+    lockStructure();
+    try {
+      portal.removeRaceByName(name);
+      // The race's stage IDs aren't known any more, so drop locks for stages that are gone
+      stageLocks.keySet().removeIf(stageId -> portal.getEntityIndex().getStage(stageId) == null);
+    } finally {
+      unlockStructure();
+    }
+  }
+
+  @Override
+  public LocalTime[] getGeneralClassificationTimesInRace(int raceId)
+      throws IDNotRecognisedException {
+    Lock[] locks = lockRace(raceId);
+    try {
+      return portal.getGeneralClassificationTimesInRace(raceId);
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public int[] getRidersPointsInRace(int raceId) throws IDNotRecognisedException {
+    Lock[] locks = lockRace(raceId);
+    try {
+      return portal.getRidersPointsInRace(raceId);
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public int[] getRidersMountainPointsInRace(int raceId) throws IDNotRecognisedException {
+    Lock[] locks = lockRace(raceId);
+    try {
+      return portal.getRidersMountainPointsInRace(raceId);
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public int[] getRidersGeneralClassificationRank(int raceId) throws IDNotRecognisedException {
+    Lock[] locks = lockRace(raceId);
+    try {
+      return portal.getRidersGeneralClassificationRank(raceId);
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public int[] getRidersPointClassificationRank(int raceId) throws IDNotRecognisedException {
+    Lock[] locks = lockRace(raceId);
+    try {
+      return portal.getRidersPointClassificationRank(raceId);
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public int[] getRidersMountainPointClassificationRank(int raceId)
+      throws IDNotRecognisedException {
+    Lock[] locks = lockRace(raceId);
+    try {
+      return portal.getRidersMountainPointClassificationRank(raceId);
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public void addStageListener(int stageId, ClassificationListener listener)
+      throws IDNotRecognisedException {
+    Lock lock = lockStage(stageId, false);
+    try {
+      portal.addStageListener(stageId, listener);
+    } finally {
+      unlock(lock);
+    }
+  }
+
+  @Override
+  public void removeStageListener(int stageId, ClassificationListener listener)
+      throws IDNotRecognisedException {
+    lockStructureFor(stageId);
+    try {
+      portal.removeStageListener(stageId, listener);
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void addRaceListener(int raceId, ClassificationListener listener)
+      throws IDNotRecognisedException {
+    Lock[] locks = lockRace(raceId);
+    try {
+      portal.addRaceListener(raceId, listener);
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public void removeRaceListener(int raceId, ClassificationListener listener)
+      throws IDNotRecognisedException {
+    lockStructureFor(raceId);
+    try {
+      portal.removeRaceListener(raceId, listener);
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public ClassificationResult getTopRidersInStage(int stageId, ClassificationType type, int k)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    Lock lock = lockStage(stageId, false);
+    try {
+      return portal.getTopRidersInStage(stageId, type, k);
+    } finally {
+      unlock(lock);
+    }
+  }
+
+  @Override
+  public ClassificationResult getTopRidersInRace(int raceId, ClassificationType type, int k)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    Lock[] locks = lockRace(raceId);
+    try {
+      return portal.getTopRidersInRace(raceId, type, k);
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public ClassificationPage getStageClassificationPage(int stageId, ClassificationType type,
+                                                       int offset, int limit)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    Lock lock = lockStage(stageId, false);
+    try {
+      return portal.getStageClassificationPage(stageId, type, offset, limit);
+    } finally {
+      unlock(lock);
+    }
+  }
+
+  @Override
+  public ClassificationPage getRaceClassificationPage(int raceId, ClassificationType type,
+                                                      int offset, int limit)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    Lock[] locks = lockRace(raceId);
+    try {
+      return portal.getRaceClassificationPage(raceId, type, offset, limit);
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public ClassificationPage getStageClassificationPage(int stageId, ClassificationType type,
+                                                       long version, int offset, int limit)
+      throws IDNotRecognisedException, IllegalArgumentException, VersionNotAvailableException {
+    Lock lock = lockStage(stageId, false);
+    try {
+      return portal.getStageClassificationPage(stageId, type, version, offset, limit);
+    } finally {
+      unlock(lock);
+    }
+  }
+
+  @Override
+  public ClassificationPage getRaceClassificationPage(int raceId, ClassificationType type,
+                                                      long version, int offset, int limit)
+      throws IDNotRecognisedException, IllegalArgumentException, VersionNotAvailableException {
+    Lock[] locks = lockRace(raceId);
+    try {
+      return portal.getRaceClassificationPage(raceId, type, version, offset, limit);
+    } finally {
+      unlock(locks);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package cycling;
 
 import java.time.LocalTime;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * CyclingPortal interface. The no-argument constructor of a class
@@ -128,4 +129,274 @@ public interface CyclingPortal extends MiniCyclingPortal {
 	 */
 	int[] getRidersMountainPointClassificationRank(int raceId) throws IDNotRecognisedException;
 
+	/**
+	 * Record the times of many riders in a stage at once, such as a whole result
+	 * sheet.
+	 * <p>
+	 * Every row is checked before any are recorded. The state of this
+	 * CyclingPortal must be unchanged if any exceptions are thrown, and the
+	 * exception message says which row was rejected.
+	 * 
+	 * @param stageId         The ID of the stage the results refer to.
+	 * @param riderIds        The IDs of the riders, each at most once.
+	 * @param checkpointTimes For each rider, in the same order as riderIds, an
+	 *                        array of times at which the rider reached each of the
+	 *                        checkpoints of the stage, including the start time and
+	 *                        the finish line.
+	 * @throws IDNotRecognisedException        If the ID does not match to any stage,
+	 *                                         or any of the riders, in the system.
+	 * @throws DuplicatedResultException       Thrown if a rider already has a result
+	 *                                         for the stage, or appears twice.
+	 * @throws InvalidCheckpointTimesException Thrown if the length of a row of
+	 *                                         checkpointTimes is not equal to n+2,
+	 *                                         where n is the number of checkpoints
+	 *                                         in the stage, or its times are not in
+	 *                                         order.
+	 * @throws InvalidStageStateException      Thrown if the stage is not "waiting
+	 *                                         for results".
+	 * @throws IllegalArgumentException        Thrown if riderIds and checkpointTimes
+	 *                                         have different lengths.
+	 */
+	void registerStageResultSheet(int stageId, int[] riderIds, LocalTime[][] checkpointTimes)
+			throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException,
+			InvalidStageStateException;
+
+	/**
+	 * Record the time a rider passed a single point of a stage, for results that
+	 * arrive one pass at a time and in any order.
+	 * <p>
+	 * Passes are held until the rider has one for the start, every checkpoint and
+	 * the finish, then recorded as if
+	 * {@link #registerRiderResultsInStage(int, int, LocalTime...)} had been called
+	 * with all of them. Until then the rider has no result in the stage. Deleting
+	 * the rider's results in the stage discards the passes held so far.
+	 * <p>
+	 * The state of this CyclingPortal must be unchanged if any
+	 * exceptions are thrown.
+	 * 
+	 * @param stageId The ID of the stage the pass refers to.
+	 * @param riderId The ID of the rider.
+	 * @param ordinal Which point was passed: 0 for the start, 1 to n for the n
+	 *                checkpoints of the stage in order, and n+1 for the finish.
+	 * @param time    The time the point was passed.
+	 * @return true if this pass completed the rider's result in the stage.
+	 * @throws IDNotRecognisedException        If the ID does not match to any rider
+	 *                                         or stage in the system.
+	 * @throws DuplicatedResultException       Thrown if the rider already has a
+	 *                                         result for the stage, or already has a
+	 *                                         pass for this point.
+	 * @throws InvalidCheckpointTimesException Thrown if the ordinal is not a point of
+	 *                                         the stage, or the time is out of order
+	 *                                         with the rider's other passes.
+	 * @throws InvalidStageStateException      Thrown if the stage is not "waiting
+	 *                                         for results".
+	 */
+	boolean registerCheckpointPass(int stageId, int riderId, int ordinal, LocalTime time)
+			throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException,
+			InvalidStageStateException;
+
+	/**
+	 * Add a listener to be told how a stage's ranking changes.
+	 * <p>
+	 * After each registration or deletion of results in the stage, the listener
+	 * receives the riders whose position or adjusted elapsed time changed since the
+	 * previous change, or since the first listener was added.
+	 * 
+	 * @param stageId  The ID of the stage to listen to.
+	 * @param listener The listener to add.
+	 * @throws IDNotRecognisedException If the ID does not match any stage in the
+	 *                                  system.
+	 */
+	void addStageListener(int stageId, ClassificationListener listener) throws IDNotRecognisedException;
+
+	/**
+	 * Stop a listener being told about changes to a stage's ranking.
+	 * 
+	 * @param stageId  The ID of the stage being listened to.
+	 * @param listener The listener to remove.
+	 * @throws IDNotRecognisedException If the ID does not match any stage in the
+	 *                                  system.
+	 */
+	void removeStageListener(int stageId, ClassificationListener listener) throws IDNotRecognisedException;
+
+	/**
+	 * Add a listener to be told how a race's general, points and mountain
+	 * classifications change.
+	 * <p>
+	 * After each registration or deletion of results in any stage of the race, the
+	 * listener receives, for each classification, the riders whose position, time
+	 * or points changed.
+	 * 
+	 * @param raceId   The ID of the race to listen to.
+	 * @param listener The listener to add.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	void addRaceListener(int raceId, ClassificationListener listener) throws IDNotRecognisedException;
+
+	/**
+	 * Stop a listener being told about changes to a race's classifications.
+	 * 
+	 * @param raceId   The ID of the race being listened to.
+	 * @param listener The listener to remove.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 */
+	void removeRaceListener(int raceId, ClassificationListener listener) throws IDNotRecognisedException;
+
+	/**
+	 * Get the leading riders of a stage along with their times or points, without
+	 * ranking the rest of the field.
+	 * <p>
+	 * {@link ClassificationType#STAGE} ranks by adjusted elapsed time and gives the
+	 * same riders as the head of {@link #getRidersRankInStage(int)}.
+	 * {@link ClassificationType#POINTS} and {@link ClassificationType#MOUNTAIN} rank
+	 * by the sprint or mountain points won in the stage, most first. Riders on the
+	 * same time or points are ordered by ID.
+	 * 
+	 * @param stageId The ID of the stage being queried.
+	 * @param type    STAGE, POINTS or MOUNTAIN.
+	 * @param k       The number of riders wanted.
+	 * @return The first k riders, or every rider with a result if there are fewer.
+	 * @throws IDNotRecognisedException If the ID does not match any stage in the
+	 *                                  system.
+	 * @throws IllegalArgumentException If k is negative or the type is GENERAL.
+	 */
+	ClassificationResult getTopRidersInStage(int stageId, ClassificationType type, int k)
+			throws IDNotRecognisedException, IllegalArgumentException;
+
+	/**
+	 * Get the leading riders of one of a race's classifications along with their
+	 * times or points, without ranking the rest of the field.
+	 * <p>
+	 * {@link ClassificationType#GENERAL} gives the same riders as the head of
+	 * {@link #getRidersGeneralClassificationRank(int)},
+	 * {@link ClassificationType#POINTS} the head of
+	 * {@link #getRidersPointClassificationRank(int)} and
+	 * {@link ClassificationType#MOUNTAIN} the head of
+	 * {@link #getRidersMountainPointClassificationRank(int)}.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @param type   GENERAL, POINTS or MOUNTAIN.
+	 * @param k      The number of riders wanted.
+	 * @return The first k riders, or every rider with a result if there are fewer.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 * @throws IllegalArgumentException If k is negative or the type is STAGE.
+	 */
+	ClassificationResult getTopRidersInRace(int raceId, ClassificationType type, int k)
+			throws IDNotRecognisedException, IllegalArgumentException;
+
+	/**
+	 * Get one page of a stage's classification, ranked as in
+	 * {@link #getTopRidersInStage(int, ClassificationType, int)}.
+	 * <p>
+	 * Pages are cut from a ranking kept until the stage's results change, so asking
+	 * for later pages doesn't rank the stage again. Each page carries the version of
+	 * the ranking it came from; pages with the same version are consistent with
+	 * each other, and {@link ClassificationPage#next()} always continues the same
+	 * version.
+	 * 
+	 * @param stageId The ID of the stage being queried.
+	 * @param type    STAGE, POINTS or MOUNTAIN.
+	 * @param offset  The rank to start the page at, starting at 0.
+	 * @param limit   The most riders to include in the page.
+	 * @return The page, empty if the offset is past the last rider.
+	 * @throws IDNotRecognisedException If the ID does not match any stage in the
+	 *                                  system.
+	 * @throws IllegalArgumentException If the offset or limit is negative or the
+	 *                                  type is GENERAL.
+	 */
+	ClassificationPage getStageClassificationPage(int stageId, ClassificationType type, int offset, int limit)
+			throws IDNotRecognisedException, IllegalArgumentException;
+
+	/**
+	 * Get one page of a race's general, points or mountain classification, ranked
+	 * as in {@link #getTopRidersInRace(int, ClassificationType, int)}.
+	 * <p>
+	 * Pages are cut from a ranking kept until the results of one of the race's
+	 * stages change, so asking for later pages doesn't rank the race again. Each
+	 * page carries the version of the ranking it came from; pages with the same
+	 * version are consistent with each other, and {@link ClassificationPage#next()}
+	 * always continues the same version.
+	 * 
+	 * @param raceId The ID of the race being queried.
+	 * @param type   GENERAL, POINTS or MOUNTAIN.
+	 * @param offset The rank to start the page at, starting at 0.
+	 * @param limit  The most riders to include in the page.
+	 * @return The page, empty if the offset is past the last rider.
+	 * @throws IDNotRecognisedException If the ID does not match any race in the
+	 *                                  system.
+	 * @throws IllegalArgumentException If the offset or limit is negative or the
+	 *                                  type is STAGE.
+	 */
+	ClassificationPage getRaceClassificationPage(int raceId, ClassificationType type, int offset, int limit)
+			throws IDNotRecognisedException, IllegalArgumentException;
+
+	/**
+	 * Get one page of a stage's classification from the version of the ranking an
+	 * earlier page came from, as given by {@link ClassificationPage#getVersion()},
+	 * so a caller that only kept the version can page through the same ranking.
+	 * <p>
+	 * The last few versions of each classification are kept, so a version can be
+	 * paged for a while after the stage's results change.
+	 * 
+	 * @param stageId The ID of the stage being queried.
+	 * @param type    STAGE, POINTS or MOUNTAIN.
+	 * @param version The version of the ranking to page.
+	 * @param offset  The rank to start the page at, starting at 0.
+	 * @param limit   The most riders to include in the page.
+	 * @return The page, empty if the offset is past the last rider.
+	 * @throws IDNotRecognisedException     If the ID does not match any stage in
+	 *                                      the system.
+	 * @throws IllegalArgumentException     If the offset or limit is negative or
+	 *                                      the type is GENERAL.
+	 * @throws VersionNotAvailableException If that version of the classification
+	 *                                      is no longer kept, or was never taken
+	 *                                      of this stage.
+	 */
+	ClassificationPage getStageClassificationPage(int stageId, ClassificationType type, long version, int offset,
+			int limit) throws IDNotRecognisedException, IllegalArgumentException, VersionNotAvailableException;
+
+	/**
+	 * Get one page of a race's classification from the version of the ranking an
+	 * earlier page came from, as given by {@link ClassificationPage#getVersion()},
+	 * so a caller that only kept the version can page through the same ranking.
+	 * <p>
+	 * The last few versions of each classification are kept, so a version can be
+	 * paged for a while after the results of the race's stages change.
+	 * 
+	 * @param raceId  The ID of the race being queried.
+	 * @param type    GENERAL, POINTS or MOUNTAIN.
+	 * @param version The version of the ranking to page.
+	 * @param offset  The rank to start the page at, starting at 0.
+	 * @param limit   The most riders to include in the page.
+	 * @return The page, empty if the offset is past the last rider.
+	 * @throws IDNotRecognisedException     If the ID does not match any race in
+	 *                                      the system.
+	 * @throws IllegalArgumentException     If the offset or limit is negative or
+	 *                                      the type is STAGE.
+	 * @throws VersionNotAvailableException If that version of the classification
+	 *                                      is no longer kept, or was never taken
+	 *                                      of this race.
+	 */
+	ClassificationPage getRaceClassificationPage(int raceId, ClassificationType type, long version, int offset,
+			int limit) throws IDNotRecognisedException, IllegalArgumentException, VersionNotAvailableException;
+
+	/**
+	 * Save the portal's contents to a file in the background, as
+	 * {@link #saveCyclingPortal(String)} does.
+	 * <p>
+	 * The contents are captured as they are when the method is called, and
+	 * changes made once it returns are not in the file. Registering results
+	 * doesn't wait for the file to be written. Saves started one after another
+	 * are written in the same order.
+	 * 
+	 * @param filename Location of the file to be saved.
+	 * @return A future completed once the file is written, or completed
+	 *         exceptionally with the IOException if there was a problem writing
+	 *         it.
+	 */
+	CompletableFuture<Void> saveCyclingPortalAsync(String filename);
+
 }
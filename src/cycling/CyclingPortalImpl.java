@@ -1,10 +1,13 @@
 package cycling;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class is the implementation of the CyclingPortal interface.
@@ -17,8 +20,41 @@ import java.util.HashMap;
 public class CyclingPortalImpl implements CyclingPortal {
 
   // Lists of the various IDs that belong to this instance of CyclingPortalImpl
-  private final HashMap<Integer, Race> myRaces = new HashMap<>();
-  private final HashMap<Integer, Team> myTeams = new HashMap<>();
+  // These four are replaced together when a portal is loaded
+  private HashMap<Integer, Race> myRaces = new HashMap<>();
+  private HashMap<Integer, Team> myTeams = new HashMap<>();
+  // Index of the riders, stages and checkpoints nested under the races and teams
+  private EntityIndex entityIndex = new EntityIndex();
+  // Hands out the IDs of every entity created by this portal
+  private IdAllocator idAllocator = new IdAllocator();
+  // Whether race listeners are told about result changes as part of the change, or left
+  // to a wrapper that needs to take its own locks first
+  private final boolean publishRaceChanges;
+  // Races of the last loaded snapshot not read yet, null if there are none
+  private RaceArchive raceArchive;
+  // What changed since the last save or load, so the next save can write only that
+  private final ChangeTracker changeTracker = new ChangeTracker();
+  // The last save started, which the next one waits for so files are written in order
+  private CompletableFuture<Void> lastSave = CompletableFuture.completedFuture(null);
+
+  /**
+   * Constructor for an empty portal.
+   */
+  public CyclingPortalImpl() {
+    this(true);
+  }
+
+  /**
+   * Constructor for an empty portal, used by wrappers that tell race listeners about
+   * result changes themselves.
+   *
+   * @param publishRaceChanges false if registering or deleting results shouldn't tell race
+   *                           listeners, because the caller will use
+   *                           {@link #publishRaceClassifications(int)}
+   */
+  protected CyclingPortalImpl(boolean publishRaceChanges) {
+    this.publishRaceChanges = publishRaceChanges;
+  }
 
   /**
    * Method to get all the race IDs in the system.
@@ -27,6 +63,14 @@ public class CyclingPortalImpl implements CyclingPortal {
    */
   @Override
   public int[] getRaceIds() {
+    if (raceArchive != null) {
+      // Races not read from the snapshot yet are still part of the system
+      HashSet<Integer> raceIds = new HashSet<Integer>(myRaces.keySet());
+      for (int raceId : raceArchive.getRaceIds()) {
+        raceIds.add(raceId);
+      }
+      return raceIds.stream().mapToInt(Integer::intValue).toArray();
+    }
     // Convert the ArrayList of Integers to an array of ints and return it
     return myRaces.keySet().stream().mapToInt(Integer::intValue).toArray();
   }
@@ -48,8 +92,10 @@ public class CyclingPortalImpl implements CyclingPortal {
 
     int racesBefore = myRaces.size(); // Get the number
 
-    Race newRace = new Race(name, description); // Create instance
+    Race newRace = new Race(name, description, idAllocator); // Create instance
     myRaces.put(newRace.getId(), newRace); // Add race to races list
+    entityIndex.addRace(newRace);
+    changeTracker.raceChanged(newRace.getId());
 
     assert myRaces.size() == racesBefore + 1 : "Race wasn't added"; // assert race is added well
 
@@ -81,10 +127,12 @@ public class CyclingPortalImpl implements CyclingPortal {
    */
   @Override
   public void removeRaceById(int raceId) throws IDNotRecognisedException {
-    getRaceById(raceId); // Check race belongs to this system
+    Race race = getRaceById(raceId); // Check race belongs to this system
     int racesBefore = myRaces.size();
+    changeTracker.raceRemoved(race); // While it still has its stages
     // Delete the race and remove it from the list of races
-    getRaceById(raceId).remove();
+    entityIndex.removeRace(race);
+    race.remove();
     myRaces.remove(Integer.valueOf(raceId));
     // assert removal
     assert myRaces.size() == racesBefore - 1 : "Race didn't remove correctly";
@@ -130,9 +178,12 @@ public class CyclingPortalImpl implements CyclingPortal {
     checkNameLegal(stageName, NameUnusedType.STAGE); // Check Stage name is Unique
 
     // Create the stage and add it to the list of stage Ids and return Id.
-    Stage newStage = new Stage(stageName, description, type,
-        length, startTime, getRaceById(raceId));
-    getRaceById(raceId).addStage(newStage); // this also checks race is in the system
+    Race race = getRaceById(raceId); // this also checks race is in the system
+    Stage newStage = new Stage(stageName, description, type, length, startTime, race,
+        idAllocator);
+    race.addStage(newStage);
+    entityIndex.addStage(newStage);
+    changeTracker.stageChanged(raceId, newStage.getId());
 
     return newStage.getId();
   }
@@ -172,7 +223,11 @@ public class CyclingPortalImpl implements CyclingPortal {
    */
   @Override
   public void removeStageById(int stageId) throws IDNotRecognisedException {
-    getStageById(stageId).remove(); // Will throw if the stage does not exist
+    Stage stage = getStageById(stageId); // Will throw if the stage does not exist
+    entityIndex.removeStage(stage);
+    stage.remove();
+    changeTracker.stageRemoved(stage.getParentRace().getId(), stageId);
+    stage.getParentRace().publishClassifications(); // The race lost the stage's results
   }
 
   /**
@@ -203,10 +258,14 @@ public class CyclingPortalImpl implements CyclingPortal {
       throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException,
       InvalidStageTypeException {
 
+    Stage stage = getStageById(stageId);
     // Create the new climb
-    Checkpoint newClimb = new Climb(type, location, length, averageGradient, getStageById(stageId));
+    Checkpoint newClimb = new Climb(type, location, length, averageGradient, stage,
+        idAllocator);
     // Add it to the parent stage's list of checkpoints
-    getStageById(stageId).addCheckpoint(newClimb);
+    stage.addCheckpoint(newClimb);
+    entityIndex.addCheckpoint(newClimb);
+    stageChanged(stage);
 
     return newClimb.getId();
   }
@@ -233,10 +292,12 @@ public class CyclingPortalImpl implements CyclingPortal {
       throws IDNotRecognisedException, InvalidLocationException,
       InvalidStageStateException, InvalidStageTypeException {
 
-    Checkpoint newInterSprint = new IntermediateSprint(location,
-        getStageById(stageId)); // Create the new climb
-    getStageById(stageId).addCheckpoint(newInterSprint); // Add it to the parent stage's list of
-    // Checkpoints
+    Stage stage = getStageById(stageId);
+    Checkpoint newInterSprint = new IntermediateSprint(location, stage,
+        idAllocator); // Create the new sprint
+    stage.addCheckpoint(newInterSprint); // Add it to the parent stage's list of checkpoints
+    entityIndex.addCheckpoint(newInterSprint);
+    stageChanged(stage);
     return newInterSprint.getId();
   }
 
@@ -254,6 +315,8 @@ public class CyclingPortalImpl implements CyclingPortal {
 
     Checkpoint checkpoint = getCheckpointById(checkpointId);
     checkpoint.getParentStage().removeCheckpoint(checkpointId);
+    entityIndex.removeCheckpoint(checkpoint);
+    stageChanged(checkpoint.getParentStage());
   }
 
   /**
@@ -269,7 +332,9 @@ public class CyclingPortalImpl implements CyclingPortal {
   public void concludeStagePreparation(int stageId)
       throws IDNotRecognisedException, InvalidStageStateException {
 
-    getStageById(stageId).concludePreparation(); // Throws if the stage does not exist
+    Stage stage = getStageById(stageId); // Throws if the stage does not exist
+    stage.concludePreparation();
+    stageChanged(stage);
   }
 
   /**
@@ -301,10 +366,12 @@ public class CyclingPortalImpl implements CyclingPortal {
     checkNameLegal(name, NameUnusedType.TEAM); // Check for illegal name, already in use
 
     int teamsBefore = myTeams.size(); // Get the number of teams before
-    Team newTeam = new Team(name, description); // Create instance of the team
+    Team newTeam = new Team(name, description, idAllocator); // Create instance of the team
     int newId = newTeam.getId(); // The new ID for the created team
 
     myTeams.put(newTeam.getId(), newTeam);
+    entityIndex.addTeam(newTeam);
+    changeTracker.teamChanged(newId);
 
     assert myTeams.size() == teamsBefore + 1 : "Team wasn't added"; // assert team is added well
 
@@ -320,11 +387,13 @@ public class CyclingPortalImpl implements CyclingPortal {
    */
   @Override
   public void removeTeam(int teamId) throws IDNotRecognisedException {
-    getTeamById(teamId); // Check the teamID exists in this system
+    Team team = getTeamById(teamId); // Check the teamID exists in this system
 
     int teamsBefore = myTeams.size(); // Get the number of teams before
-    myTeams.get(teamId).remove(); // Remove the team from its own class
+    entityIndex.removeTeam(team);
+    team.remove(); // Remove the team from its own class
     myTeams.remove((Integer) teamId); // Remove it from the cycling portals list of associated teams
+    changeTracker.teamRemoved(teamId);
 
     assert myTeams.size() == teamsBefore - 1 : "Team wasn't removed"; // assert team is removed well
   }
@@ -371,8 +440,10 @@ public class CyclingPortalImpl implements CyclingPortal {
 
     Team team = getTeamById(teamId); // Throws if the team does not exist
 
-    Rider newRider = new Rider(name, yearOfBirth, team); // Create the rider
+    Rider newRider = new Rider(name, yearOfBirth, team, idAllocator); // Create the rider
     team.addRider(newRider); // Add the rider to the team
+    entityIndex.addRider(newRider);
+    changeTracker.teamChanged(teamId);
 
     return newRider.getId(); // Return the new rider's ID
   }
@@ -388,8 +459,22 @@ public class CyclingPortalImpl implements CyclingPortal {
   public void removeRider(int riderId) throws IDNotRecognisedException {
     Rider rider = getRiderById(riderId);
     rider.getMyTeam().deleteRider(riderId); // Remove the rider using its object's remove function
+    entityIndex.removeRider(rider);
+    changeTracker.teamChanged(rider.getMyTeam().getId());
+    ArrayList<Stage> stages = new ArrayList<Stage>();
+    HashSet<Race> races = new HashSet<Race>();
     for (int stageId : rider.getRegisteredStages()) {
-      getStageById(stageId).removeRider(riderId);
+      Stage stage = getStageById(stageId);
+      stage.removeRider(riderId);
+      stageChanged(stage);
+      stages.add(stage);
+      races.add(stage.getParentRace());
+    }
+    for (Stage stage : stages) {
+      stage.publishResults();
+    }
+    for (Race race : races) {
+      race.publishClassifications(); // Once per race, however many stages the rider was in
     }
   }
 
@@ -431,9 +516,98 @@ public class CyclingPortalImpl implements CyclingPortal {
       throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException,
       InvalidStageStateException {
 
-    // Check rider is in system and register for stage
-    getRiderById(riderId).registerForStage(stageId);
-    getStageById(stageId).registerResults(riderId, checkpoints);
+    // Check rider is in system, then only register them for the stage once it succeeded
+    Rider rider = getRiderById(riderId);
+    Stage stage = getStageById(stageId);
+    stage.registerResults(riderId, checkpoints);
+    rider.registerForStage(stageId);
+    stageChanged(stage);
+    changeTracker.teamChanged(rider.getMyTeam().getId()); // The team holds registrations
+    publishResults(stage);
+  }
+
+  /**
+   * Record the time a rider passed one point of a stage, for results that arrive a pass at
+   * a time and in any order. The rider's result is stored once every pass has arrived.
+   *
+   * @param stageId The ID of the stage the pass refers to.
+   * @param riderId The ID of the rider.
+   * @param ordinal Which point was passed, 0 for the start, 1 to n for the checkpoints in
+   *                order and n + 1 for the finish.
+   * @param time    The time the point was passed.
+   * @return true if this pass completed the rider's result
+   * @throws IDNotRecognisedException        If the stage or rider is not in the system
+   * @throws DuplicatedResultException       If the rider already has a result for the
+   *                                         stage, or already passed this point
+   * @throws InvalidCheckpointTimesException If the ordinal isn't a point of the stage, or
+   *                                         the time is out of order with the rider's
+   *                                         other passes
+   * @throws InvalidStageStateException      If the stage is not waiting for results
+   */
+  @Override
+  public boolean registerCheckpointPass(int stageId, int riderId, int ordinal, LocalTime time)
+      throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException,
+      InvalidStageStateException {
+    Rider rider = getRiderById(riderId);
+    Stage stage = getStageById(stageId);
+    boolean started = stage.hasPartialResults(riderId);
+
+    boolean completed = stage.registerPass(riderId, ordinal, time);
+    stageChanged(stage);
+    if (!started) {
+      // Registered from the first pass, so removing the rider also drops a partial result
+      rider.registerForStage(stageId);
+      changeTracker.teamChanged(rider.getMyTeam().getId());
+    }
+    if (completed) {
+      publishResults(stage);
+    }
+    return completed;
+  }
+
+  /**
+   * Record the times of many riders in a stage at once, such as a whole result sheet.
+   * The stage is looked up once and every row is checked before any are recorded.
+   *
+   * @param stageId         The ID of the stage the results refer to.
+   * @param riderIds        The IDs of the riders, each at most once.
+   * @param checkpointTimes For each rider, in the same order as riderIds, their times
+   *                        in the form [start, checkpoint1, ..., finish].
+   * @throws IDNotRecognisedException        If the stage or any rider is not in the system
+   * @throws DuplicatedResultException       If a rider already has a result for the
+   *                                         stage, or appears twice
+   * @throws InvalidCheckpointTimesException If a row has the wrong number of times, or
+   *                                         its times are out of order
+   * @throws InvalidStageStateException      If the stage is not waiting for results
+   * @throws IllegalArgumentException        If riderIds and checkpointTimes have
+   *                                         different lengths
+   */
+  @Override
+  public void registerStageResultSheet(int stageId, int[] riderIds, LocalTime[][] checkpointTimes)
+      throws IDNotRecognisedException, DuplicatedResultException, InvalidCheckpointTimesException,
+      InvalidStageStateException {
+    if (riderIds.length != checkpointTimes.length) {
+      throw new IllegalArgumentException("Got " + riderIds.length + " riders but "
+          + checkpointTimes.length + " rows of times");
+    }
+
+    Stage stage = getStageById(stageId); // Throws if the stage does not exist
+    Rider[] riders = new Rider[riderIds.length];
+    for (int row = 0; row < riderIds.length; row++) {
+      riders[row] = entityIndex.getRider(riderIds[row]);
+      if (riders[row] == null) {
+        throw new IDNotRecognisedException("Row " + row + " (rider " + riderIds[row]
+            + "): Rider ID not recognised");
+      }
+    }
+
+    stage.registerResultSheet(riderIds, checkpointTimes); // Stores all or nothing
+    for (Rider rider : riders) {
+      rider.registerForStage(stageId);
+      changeTracker.teamChanged(rider.getMyTeam().getId());
+    }
+    stageChanged(stage);
+    publishResults(stage); // Once for the whole sheet
   }
 
   /**
@@ -488,7 +662,276 @@ public class CyclingPortalImpl implements CyclingPortal {
    */
   @Override
   public void deleteRiderResultsInStage(int stageId, int riderId) throws IDNotRecognisedException {
-    getStageById(stageId).removeRider(riderId); // Throws if the stage does not exist
+    Stage stage = getStageById(stageId); // Throws if the stage does not exist
+    boolean hadResult = !stage.hasPartialResults(riderId);
+    stage.removeRider(riderId);
+    stageChanged(stage);
+    // The rider can only have results if they exist, so this won't throw
+    Rider rider = getRiderById(riderId);
+    rider.unregisterFromStage(stageId);
+    changeTracker.teamChanged(rider.getMyTeam().getId());
+    if (hadResult) {
+      publishResults(stage);
+    }
+  }
+
+  /**
+   * Record that a stage changed, so the next save writes it.
+   *
+   * @param stage the stage
+   */
+  private void stageChanged(Stage stage) {
+    changeTracker.stageChanged(stage.getParentRace().getId(), stage.getId());
+  }
+
+  /**
+   * Tell the listeners of a stage about a change to its results, then those of its race
+   * unless a wrapper is going to do it. Only called once the change has been recorded, so
+   * listeners see the portal as it is after the change.
+   *
+   * @param stage the stage whose results changed
+   */
+  private void publishResults(Stage stage) {
+    stage.publishResults();
+    if (publishRaceChanges) {
+      stage.getParentRace().publishClassifications();
+    }
+  }
+
+  /**
+   * Tell the listeners of a race how its classifications changed, for wrappers that
+   * turned off doing so as part of each change.
+   *
+   * @param raceId the ID of the race
+   * @throws IDNotRecognisedException If the ID does not match any race in the system
+   */
+  protected void publishRaceClassifications(int raceId) throws IDNotRecognisedException {
+    getRaceById(raceId).publishClassifications();
+  }
+
+  /**
+   * Add a listener to be told how a stage's ranking changes after each change to its
+   * results.
+   *
+   * @param stageId  The ID of the stage to listen to.
+   * @param listener The listener to add.
+   * @throws IDNotRecognisedException If the ID does not match any stage in the system.
+   */
+  @Override
+  public void addStageListener(int stageId, ClassificationListener listener)
+      throws IDNotRecognisedException {
+    getStageById(stageId).addListener(listener); // Throws if the stage does not exist
+  }
+
+  /**
+   * Stop a listener being told about a stage's changes.
+   *
+   * @param stageId  The ID of the stage being listened to.
+   * @param listener The listener to remove.
+   * @throws IDNotRecognisedException If the ID does not match any stage in the system.
+   */
+  @Override
+  public void removeStageListener(int stageId, ClassificationListener listener)
+      throws IDNotRecognisedException {
+    getStageById(stageId).removeListener(listener); // Throws if the stage does not exist
+  }
+
+  /**
+   * Add a listener to be told how a race's general, points and mountain classifications
+   * change after each change to the results of its stages.
+   *
+   * @param raceId   The ID of the race to listen to.
+   * @param listener The listener to add.
+   * @throws IDNotRecognisedException If the ID does not match any race in the system.
+   */
+  @Override
+  public void addRaceListener(int raceId, ClassificationListener listener)
+      throws IDNotRecognisedException {
+    getRaceById(raceId).addListener(listener); // Throws if the race does not exist
+  }
+
+  /**
+   * Stop a listener being told about a race's changes.
+   *
+   * @param raceId   The ID of the race being listened to.
+   * @param listener The listener to remove.
+   * @throws IDNotRecognisedException If the ID does not match any race in the system.
+   */
+  @Override
+  public void removeRaceListener(int raceId, ClassificationListener listener)
+      throws IDNotRecognisedException {
+    getRaceById(raceId).removeListener(listener); // Throws if the race does not exist
+  }
+
+  /**
+   * Get the leading riders of a stage along with their times or points.
+   *
+   * @param stageId The ID of the stage being queried.
+   * @param type    STAGE, POINTS or MOUNTAIN.
+   * @param k       The number of riders wanted.
+   * @return The first k riders in rank order, fewer if the stage doesn't have k results.
+   * @throws IDNotRecognisedException If the ID does not match any stage in the system.
+   * @throws IllegalArgumentException If k is negative or the type is GENERAL.
+   */
+  @Override
+  public ClassificationResult getTopRidersInStage(int stageId, ClassificationType type, int k)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    Stage stage = getStageById(stageId); // Throws if the stage does not exist
+    if (k < 0) {
+      throw new IllegalArgumentException("Can't get the top " + k + " riders");
+    }
+    if (type == ClassificationType.GENERAL) {
+      throw new IllegalArgumentException("A stage has no general classification");
+    }
+    return stage.getTopRiders(type, k);
+  }
+
+  /**
+   * Get the leading riders of one of a race's classifications along with their times or
+   * points.
+   *
+   * @param raceId The ID of the race being queried.
+   * @param type   GENERAL, POINTS or MOUNTAIN.
+   * @param k      The number of riders wanted.
+   * @return The first k riders in rank order, fewer if the race doesn't have k riders.
+   * @throws IDNotRecognisedException If the ID does not match any race in the system.
+   * @throws IllegalArgumentException If k is negative or the type is STAGE.
+   */
+  @Override
+  public ClassificationResult getTopRidersInRace(int raceId, ClassificationType type, int k)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    Race race = getRaceById(raceId); // Throws if the race does not exist
+    if (k < 0) {
+      throw new IllegalArgumentException("Can't get the top " + k + " riders");
+    }
+    if (type == ClassificationType.STAGE) {
+      throw new IllegalArgumentException("Use getTopRidersInStage for a stage's ranking");
+    }
+    return race.getTopRiders(type, k);
+  }
+
+  /**
+   * Get one page of a stage's classification.
+   *
+   * @param stageId The ID of the stage being queried.
+   * @param type    STAGE, POINTS or MOUNTAIN.
+   * @param offset  The rank to start the page at, starting at 0.
+   * @param limit   The most riders to include in the page.
+   * @return The page, empty if the offset is past the last rider.
+   * @throws IDNotRecognisedException If the ID does not match any stage in the system.
+   * @throws IllegalArgumentException If the offset or limit is negative or the type is
+   *                                  GENERAL.
+   */
+  @Override
+  public ClassificationPage getStageClassificationPage(int stageId, ClassificationType type,
+                                                       int offset, int limit)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    Stage stage = getStageById(stageId); // Throws if the stage does not exist
+    checkPageBounds(offset, limit);
+    if (type == ClassificationType.GENERAL) {
+      throw new IllegalArgumentException("A stage has no general classification");
+    }
+    return stage.getSnapshot(type).page(offset, limit);
+  }
+
+  /**
+   * Get one page of a race's general, points or mountain classification.
+   *
+   * @param raceId The ID of the race being queried.
+   * @param type   GENERAL, POINTS or MOUNTAIN.
+   * @param offset The rank to start the page at, starting at 0.
+   * @param limit  The most riders to include in the page.
+   * @return The page, empty if the offset is past the last rider.
+   * @throws IDNotRecognisedException If the ID does not match any race in the system.
+   * @throws IllegalArgumentException If the offset or limit is negative or the type is
+   *                                  STAGE.
+   */
+  @Override
+  public ClassificationPage getRaceClassificationPage(int raceId, ClassificationType type,
+                                                      int offset, int limit)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    Race race = getRaceById(raceId); // Throws if the race does not exist
+    checkPageBounds(offset, limit);
+    if (type == ClassificationType.STAGE) {
+      throw new IllegalArgumentException("Use getStageClassificationPage for a stage's ranking");
+    }
+    return race.getSnapshot(type).page(offset, limit);
+  }
+
+  /**
+   * Get one page of a stage's classification from an earlier version of the ranking.
+   *
+   * @param stageId The ID of the stage being queried.
+   * @param type    STAGE, POINTS or MOUNTAIN.
+   * @param version The version of the ranking to page.
+   * @param offset  The rank to start the page at, starting at 0.
+   * @param limit   The most riders to include in the page.
+   * @return The page, empty if the offset is past the last rider.
+   * @throws IDNotRecognisedException     If the ID does not match any stage in the system.
+   * @throws IllegalArgumentException     If the offset or limit is negative or the type is
+   *                                      GENERAL.
+   * @throws VersionNotAvailableException If that version is no longer kept for the stage.
+   */
+  @Override
+  public ClassificationPage getStageClassificationPage(int stageId, ClassificationType type,
+                                                       long version, int offset, int limit)
+      throws IDNotRecognisedException, IllegalArgumentException, VersionNotAvailableException {
+    Stage stage = getStageById(stageId); // Throws if the stage does not exist
+    checkPageBounds(offset, limit);
+    if (type == ClassificationType.GENERAL) {
+      throw new IllegalArgumentException("A stage has no general classification");
+    }
+    ClassificationSnapshot snapshot = stage.getSnapshot(type, version);
+    if (snapshot == null) {
+      throw new VersionNotAvailableException("Version " + version + " of stage " + stageId
+          + "'s " + type + " classification is no longer kept");
+    }
+    return snapshot.page(offset, limit);
+  }
+
+  /**
+   * Get one page of a race's classification from an earlier version of the ranking.
+   *
+   * @param raceId  The ID of the race being queried.
+   * @param type    GENERAL, POINTS or MOUNTAIN.
+   * @param version The version of the ranking to page.
+   * @param offset  The rank to start the page at, starting at 0.
+   * @param limit   The most riders to include in the page.
+   * @return The page, empty if the offset is past the last rider.
+   * @throws IDNotRecognisedException     If the ID does not match any race in the system.
+   * @throws IllegalArgumentException     If the offset or limit is negative or the type is
+   *                                      STAGE.
+   * @throws VersionNotAvailableException If that version is no longer kept for the race.
+   */
+  @Override
+  public ClassificationPage getRaceClassificationPage(int raceId, ClassificationType type,
+                                                      long version, int offset, int limit)
+      throws IDNotRecognisedException, IllegalArgumentException, VersionNotAvailableException {
+    Race race = getRaceById(raceId); // Throws if the race does not exist
+    checkPageBounds(offset, limit);
+    if (type == ClassificationType.STAGE) {
+      throw new IllegalArgumentException("Use getStageClassificationPage for a stage's ranking");
+    }
+    ClassificationSnapshot snapshot = race.getSnapshot(type, version);
+    if (snapshot == null) {
+      throw new VersionNotAvailableException("Version " + version + " of race " + raceId
+          + "'s " + type + " classification is no longer kept");
+    }
+    return snapshot.page(offset, limit);
+  }
+
+  /**
+   * Check the offset and limit of a page are valid.
+   *
+   * @param offset the rank to start the page at
+   * @param limit  the most riders to include in the page
+   * @throws IllegalArgumentException If either is negative
+   */
+  private void checkPageBounds(int offset, int limit) throws IllegalArgumentException {
+    if (offset < 0 || limit < 0) {
+      throw new IllegalArgumentException("Can't get a page at offset " + offset + " with limit "
+          + limit);
+    }
   }
 
   /**
@@ -562,6 +1005,12 @@ public class CyclingPortalImpl implements CyclingPortal {
    */
   @Override
   public void eraseCyclingPortal() {
+    if (raceArchive != null) {
+      // No need to read races just to remove them, their names go when the index is cleared
+      raceArchive.discard(idAllocator);
+      raceArchive = null;
+    }
+
     // Use while loops as for loops will not work with concurrent modification
     while (!myTeams.isEmpty()) {
       try {
@@ -579,6 +1028,8 @@ public class CyclingPortalImpl implements CyclingPortal {
       }
     }
 
+    entityIndex.clear(); // Everything should already be gone, but don't leave stale entries
+    changeTracker.reset(null); // The next save can't be a delta on a chain of the old data
     assert getTeams().length == 0 : "Teams not erased";
     assert getRaceIds().length == 0 : "Races not erased";
   }
@@ -596,6 +1047,20 @@ public class CyclingPortalImpl implements CyclingPortal {
     SerializedData.saveData(filename, this);
   }
 
+  /**
+   * Save this portal's contents to a file in the background. The contents are captured
+   * before returning, without copying the stages' results, and the portal can be changed
+   * as soon as this returns while the file is written.
+   *
+   * @param filename Location of the file to be saved.
+   * @return A future completed once the file is written, or with the IOException if there
+   *         was a problem writing it.
+   */
+  @Override
+  public CompletableFuture<Void> saveCyclingPortalAsync(String filename) {
+    return SerializedData.saveDataAsync(filename, this);
+  }
+
   /**
    * Method should load and replace this MiniCyclingPortal contents with the
    * serialised contents stored in the file given in the argument.
@@ -620,21 +1085,19 @@ public class CyclingPortalImpl implements CyclingPortal {
    */
   @Override
   public void removeRaceByName(String name) throws NameNotRecognisedException {
-    // Go through all races check their names
-    for (Race race : myRaces.values()) {
-      if (race.getName().equals(name)) {
-        try {
-          removeRaceById(race.getId());
-        } catch (IDNotRecognisedException e) {
-          // This should never happen as we are giving it an ID that we have found in the
-          // system
-          assert false : "Race ID not found in the system";
-        }
-        return;
-      }
+    Integer raceId = entityIndex.getRaceIdByName(name);
+    if (raceId == null) {
+      throw new NameNotRecognisedException("The name " + name
+          + " has not been found in the system");
     }
 
-    throw new NameNotRecognisedException("The name " + name + " has not been found in the system");
+    try {
+      removeRaceById(raceId);
+    } catch (IDNotRecognisedException e) {
+      // This should never happen as we are giving it an ID that we have found in the
+      // system
+      assert false : "Race ID not found in the system";
+    }
   }
 
   /**
@@ -744,9 +1207,157 @@ public class CyclingPortalImpl implements CyclingPortal {
    * @return Hashmap of race IDs
    */
   protected HashMap<Integer, Race> getMyRacesMap() {
+    readArchivedRaces(); // Everyone using the map expects every race to be in it
     return myRaces;
   }
 
+  /**
+   * Check whether a stage is in the system, without reading its race from the archive.
+   *
+   * @param stageId the ID of the stage
+   * @return true if the stage is in the system, read or not
+   */
+  protected boolean containsStage(int stageId) {
+    return entityIndex.getStage(stageId) != null
+        || (raceArchive != null && raceArchive.getRaceIdOfStage(stageId) != null);
+  }
+
+  /**
+   * Check whether using an ID would read a race from the archive of the last loaded
+   * snapshot, as it is an unread race or a stage or checkpoint of one.
+   *
+   * @param id the ID of a race, stage or checkpoint
+   * @return true if the race the ID belongs to hasn't been read yet
+   */
+  protected boolean isArchived(int id) {
+    return raceArchive != null && (raceArchive.containsRace(id)
+        || raceArchive.getRaceIdOfStage(id) != null
+        || raceArchive.getRaceIdOfCheckpoint(id) != null);
+  }
+
+  /**
+   * Read the race an ID belongs to from the archive of the last loaded snapshot, if it
+   * hasn't been read already.
+   *
+   * @param id the ID of a race, stage or checkpoint
+   */
+  protected void readArchivedRaceOf(int id) {
+    if (!isArchived(id)) {
+      return;
+    }
+    Integer raceId = raceArchive.containsRace(id) ? Integer.valueOf(id)
+        : raceArchive.getRaceIdOfStage(id);
+    if (raceId == null) {
+      raceId = raceArchive.getRaceIdOfCheckpoint(id);
+    }
+    readArchivedRace(raceId);
+  }
+
+  /**
+   * Get a race if it has been read, without reading it from the archive.
+   *
+   * @param raceId the ID of the race
+   * @return the race, or null if it isn't in the system or hasn't been read
+   */
+  protected Race getLoadedRace(int raceId) {
+    return myRaces.get(raceId);
+  }
+
+  /**
+   * Get the last save started, which may still be being written.
+   *
+   * @return a future completed once the save is written
+   */
+  protected CompletableFuture<Void> getLastSave() {
+    return lastSave;
+  }
+
+  /**
+   * Set the last save started, for the next save to wait for.
+   *
+   * @param save a future completed once the save is written
+   */
+  protected void setLastSave(CompletableFuture<Void> save) {
+    lastSave = save;
+  }
+
+  /**
+   * Get the record of what changed since the portal was last saved or loaded.
+   *
+   * @return the change tracker
+   */
+  protected ChangeTracker getChangeTracker() {
+    return changeTracker;
+  }
+
+  /**
+   * Replace everything in the system with the contents of a loaded portal, built and
+   * indexed off to the side, so the portal holds either all of its old contents or all of
+   * the new ones. The old contents aren't taken apart, they are just let go.
+   *
+   * @param races       the loaded races that have been read, keyed by ID
+   * @param teams       the loaded teams, keyed by ID
+   * @param index       the index of everything loaded, with the archive's names in it
+   * @param idAllocator the allocator every loaded entity is attached to, holding every
+   *                    loaded ID including the archive's
+   * @param archive     the races still to be read as they are used, or null for none
+   * @param chain       the chain the portal was loaded from, or null if it wasn't one
+   */
+  protected void replaceContents(HashMap<Integer, Race> races, HashMap<Integer, Team> teams,
+                                 EntityIndex index, IdAllocator idAllocator,
+                                 RaceArchive archive, SnapshotChain chain) {
+    myRaces = races;
+    myTeams = teams;
+    entityIndex = index;
+    this.idAllocator = idAllocator;
+    raceArchive = (archive == null || archive.isEmpty()) ? null : archive;
+    // Changes from here on go in a delta on top of the chain, if the file was one
+    changeTracker.reset(chain);
+  }
+
+  /**
+   * Read every race left in the archive of the last loaded snapshot.
+   */
+  protected void readArchivedRaces() {
+    if (raceArchive == null) {
+      return;
+    }
+    for (int raceId : raceArchive.getRaceIds()) {
+      readArchivedRace(raceId);
+    }
+  }
+
+  /**
+   * Read a race and its stages from the archive of the last loaded snapshot, and add them
+   * to the system.
+   *
+   * @param raceId the ID of a race in the archive
+   * @return the race
+   */
+  private Race readArchivedRace(int raceId) {
+    Race race;
+    try {
+      race = raceArchive.readRace(raceId);
+    } catch (IOException e) {
+      // The table was read fine at load time, so the file's races are damaged
+      throw new UncheckedIOException("Race " + raceId + " could not be read", e);
+    }
+    if (raceArchive.isEmpty()) {
+      raceArchive = null; // Let the mapping go
+    }
+
+    myRaces.put(raceId, race);
+    entityIndex.addRace(race);
+    race.attachIdAllocator(idAllocator);
+    for (Stage stage : race.getStages().values()) {
+      stage.attachIdAllocator(idAllocator);
+      for (Checkpoint checkpoint : stage.getCheckpoints()) {
+        checkpoint.attachIdAllocator(idAllocator);
+      }
+    }
+    return race;
+  }
+
   /**
    * Get all team IDs in the system as a Hashmap.
    *
@@ -756,6 +1367,24 @@ public class CyclingPortalImpl implements CyclingPortal {
     return myTeams;
   }
 
+  /**
+   * Get the allocator that hands out this portal's entity IDs.
+   *
+   * @return The portal's ID allocator
+   */
+  protected IdAllocator getIdAllocator() {
+    return idAllocator;
+  }
+
+  /**
+   * Get the index of riders, stages and checkpoints in the system.
+   *
+   * @return The portal's entity index
+   */
+  protected EntityIndex getEntityIndex() {
+    return entityIndex;
+  }
+
   /**
    * Get a rider by its ID.
    *
@@ -764,12 +1393,9 @@ public class CyclingPortalImpl implements CyclingPortal {
    * @throws IDNotRecognisedException if the rider ID is not part of the system
    */
   protected Rider getRiderById(int riderId) throws IDNotRecognisedException {
-    for (Team team : myTeams.values()) {
-      for (Rider rider : team.getRiders().values()) {
-        if (rider.getId() == riderId) {
-          return rider;
-        }
-      }
+    Rider rider = entityIndex.getRider(riderId);
+    if (rider != null) {
+      return rider;
     }
 
     throw new IDNotRecognisedException("Rider " + riderId + " is not part of the system");
@@ -783,10 +1409,8 @@ public class CyclingPortalImpl implements CyclingPortal {
    * @throws IDNotRecognisedException if the team ID is not part of the system
    */
   protected Team getTeamById(int teamId) throws IDNotRecognisedException {
-    for (Team team : myTeams.values()) {
-      if (team.getId() == teamId) {
-        return team;
-      }
+    if (myTeams.containsKey(teamId)) {
+      return myTeams.get(teamId);
     }
 
     throw new IDNotRecognisedException("Team " + teamId + " is not part of the system");
@@ -794,6 +1418,7 @@ public class CyclingPortalImpl implements CyclingPortal {
 
   /**
    * Get a checkpoint by its ID.
+   * A checkpoint in a race not read from the loaded snapshot yet has its race read first.
    *
    * @param checkId the id of the checkpoint to search for
    * @return The checkpoint Object
@@ -801,14 +1426,14 @@ public class CyclingPortalImpl implements CyclingPortal {
    *                                  system
    */
   protected Checkpoint getCheckpointById(int checkId) throws IDNotRecognisedException {
-    for (Race race : myRaces.values()) {
-      for (Stage stage : race.getStages().values()) {
-        for (Checkpoint checkpoint : stage.getCheckpoints()) {
-          if (checkpoint.getId() == checkId) {
-            return checkpoint;
-          }
-        }
-      }
+    Checkpoint checkpoint = entityIndex.getCheckpoint(checkId);
+    if (checkpoint != null) {
+      return checkpoint;
+    }
+    Integer raceId = (raceArchive == null) ? null : raceArchive.getRaceIdOfCheckpoint(checkId);
+    if (raceId != null) {
+      readArchivedRace(raceId);
+      return entityIndex.getCheckpoint(checkId);
     }
 
     throw new IDNotRecognisedException("Checkpoint " + checkId + " is not part of the system");
@@ -816,18 +1441,21 @@ public class CyclingPortalImpl implements CyclingPortal {
 
   /**
    * Get a stage by its ID.
+   * A stage in a race not read from the loaded snapshot yet has its race read first.
    *
    * @param stageId the id of the stage to search for
    * @return The stage Object
    * @throws IDNotRecognisedException if the stage ID is not part of the system
    */
   protected Stage getStageById(int stageId) throws IDNotRecognisedException {
-    for (Race race : myRaces.values()) {
-      for (Stage stage : race.getStages().values()) {
-        if (stage.getId() == stageId) {
-          return stage;
-        }
-      }
+    Stage stage = entityIndex.getStage(stageId);
+    if (stage != null) {
+      return stage;
+    }
+    Integer raceId = (raceArchive == null) ? null : raceArchive.getRaceIdOfStage(stageId);
+    if (raceId != null) {
+      readArchivedRace(raceId);
+      return entityIndex.getStage(stageId);
     }
 
     throw new IDNotRecognisedException("Stage " + stageId + " is not part of the system");
@@ -835,6 +1463,7 @@ public class CyclingPortalImpl implements CyclingPortal {
 
   /**
    * Get a race by its ID.
+   * A race not read from the loaded snapshot yet is read first.
    *
    * @param raceId the id of the race to search for
    * @return The race Object
@@ -844,6 +1473,9 @@ public class CyclingPortalImpl implements CyclingPortal {
     if (myRaces.containsKey(raceId)) {
       return myRaces.get(raceId);
     }
+    if (raceArchive != null && raceArchive.containsRace(raceId)) {
+      return readArchivedRace(raceId);
+    }
 
     throw new IDNotRecognisedException("Race " + raceId + " is not part of the system");
   }
@@ -875,62 +1507,24 @@ public class CyclingPortalImpl implements CyclingPortal {
    */
   private void checkNameLegal(String trialName, NameUnusedType type) throws IllegalNameException {
 
-    // Get the list of IDs for the type
-    ArrayList<Integer> ids = null;
+    // Look the name up in the index for the type
+    Integer takenBy = null;
     switch (type) {
       case STAGE:
-        ids = new ArrayList<>();
-        for (int raceId : getMyRacesMap().keySet()) {
-          try {
-            ids.addAll(getRaceById(raceId).getStages().keySet());
-          } catch (IDNotRecognisedException e) {
-            // Should never happen
-          }
-        }
+        takenBy = entityIndex.getStageIdByName(trialName);
         break;
       case TEAM:
-        ids = new ArrayList<>(getMyTeamsMap().keySet());
+        takenBy = entityIndex.getTeamIdByName(trialName);
         break;
       case RACE:
-        ids = new ArrayList<>(getMyRacesMap().keySet());
+        takenBy = entityIndex.getRaceIdByName(trialName);
         break;
       default:
         assert false : "Invalid nameUnusedType should never happen";
     }
 
-    for (int id : ids) {
-      String name = null;
-      switch (type) { // Use the specific method to get the name
-        case STAGE:
-          try {
-            name = getStageById(id).getName();
-          } catch (IDNotRecognisedException e) {
-            // Will never happen as iterating through already valid IDs so ignore
-            assert false : "Stage ID not found in system";
-          }
-          break;
-        case TEAM:
-          try {
-            name = getTeamById(id).getName();
-          } catch (IDNotRecognisedException e) {
-            // Will never happen as iterating through already valid IDs so ignore
-            assert false : "Team ID not found in system";
-          }
-          break;
-        case RACE:
-          try {
-            name = getRaceById(id).getName();
-          } catch (IDNotRecognisedException e) {
-            throw new RuntimeException(e);
-          }
-          break;
-        default:
-          assert false : "Invalid nameUnusedType";
-      }
-
-      if (name.equals(trialName)) { // If the name is already taken
-        throw new IllegalNameException("The name " + name + " has already been taken");
-      }
+    if (takenBy != null) { // If the name is already taken
+      throw new IllegalNameException("The name " + trialName + " has already been taken");
     }
   }
 }
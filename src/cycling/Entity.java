@@ -1,6 +1,7 @@
 package cycling;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.BitSet;
 
 /**
  * Represents an entity with a unique ID.
@@ -10,17 +11,36 @@ import java.util.ArrayList;
  * @version 1.0
  */
 abstract class Entity implements java.io.Serializable {
-  protected static final ArrayList<Integer> usedIds = new ArrayList<Integer>();
+  // The UIDs of the entity classes are pinned to the ones Java computed for them before
+  // they changed, so portals saved with Java serialization back then still load
+  private static final long serialVersionUID = -6436526386623899394L;
+
   protected final int id;
+  // The allocator of the portal this entity belongs to, reattached when loaded from a file
+  protected transient IdAllocator idAllocator;
 
   /**
    * Constructor for the Entity class. Generates a unique ID for the entity.
+   *
+   * @param idAllocator The ID allocator of the portal creating this entity
    */
-  protected Entity() {
-    int idsUsedBefore = usedIds.size();
-    this.id = calculateUniqueId();
-    usedIds.add(this.id);
-    assert usedIds.size() == idsUsedBefore + 1; // assert id was added to usedIds
+  protected Entity(IdAllocator idAllocator) {
+    this.idAllocator = idAllocator;
+    this.id = idAllocator.allocate();
+    assert idAllocator.isUsed(id) : "ID was not marked as used";
+  }
+
+  /**
+   * Constructor for restoring an entity that already has an ID, such as one loaded from a
+   * snapshot. The ID is marked as used in the portal's allocator.
+   *
+   * @param id          The ID the entity had when it was saved
+   * @param idAllocator The ID allocator of the portal the entity is loaded into
+   */
+  protected Entity(int id, IdAllocator idAllocator) {
+    this.idAllocator = idAllocator;
+    this.id = id;
+    idAllocator.reserve(id);
   }
 
   /**
@@ -39,40 +59,48 @@ abstract class Entity implements java.io.Serializable {
   protected abstract void remove();
 
   /**
-   * Remove this entity's ID from the usedIds list.
+   * Return this entity's ID to its portal's allocator.
    */
   protected void freeId() {
-    usedIds.remove((Integer) id);
+    idAllocator.free(id);
   }
 
   /**
-   * Calculate a unique ID for the entity.
-   * This includes filling gaps from deleted entities.
+   * Hand a loaded entity the allocator of the portal it now belongs to and mark its ID as
+   * used there.
    *
-   * @return A unique ID for the entity
+   * @param idAllocator The ID allocator of the portal the entity was loaded into
    */
-  private static int calculateUniqueId() {
-
-    // Go through all the teams and store their IDs in an array
-    // also store the maximum ID
-    ArrayList<Integer> genericIds = new ArrayList<Integer>();
-    int maxId = -1;
+  protected void attachIdAllocator(IdAllocator idAllocator) {
+    this.idAllocator = idAllocator;
+    idAllocator.reserve(id);
+  }
 
-    for (Integer currentId : usedIds) {
-      genericIds.add(currentId);
-      if (currentId > maxId) {
-        maxId = currentId;
-      }
-    }
+  /**
+   * Hand a loaded entity the allocator of the portal it is being loaded into, leaving its
+   * ID to be marked as used along with every other loaded ID once they are all known.
+   *
+   * @param idAllocator The ID allocator of the portal the entity is loaded into
+   * @param usedIds     The loaded IDs, which this entity's ID is added to
+   * @throws IOException If another loaded entity already has the ID, so the file is damaged
+   */
+  protected void attachIdAllocator(IdAllocator idAllocator, BitSet usedIds)
+      throws IOException {
+    useId(usedIds, id);
+    this.idAllocator = idAllocator;
+  }
 
-    // If there are gaps in the IDs ie `ids = [0, 1, 3, 4]` then return the first gap
-    // (in this case 2)
-    for (int i = 0; i < maxId; i++) {
-      if (!genericIds.contains(i)) {
-        return i;
-      }
+  /**
+   * Mark a loaded ID as used, checking no other loaded entity has it.
+   *
+   * @param usedIds the loaded IDs
+   * @param id      the ID
+   * @throws IOException If the ID is already used, so the file is damaged
+   */
+  protected static void useId(BitSet usedIds, int id) throws IOException {
+    if (usedIds.get(id)) {
+      throw new IOException("ID " + id + " is used by two entities");
     }
-    // If there are no gaps then return the next number in the sequence
-    return maxId + 1;
+    usedIds.set(id);
   }
 }
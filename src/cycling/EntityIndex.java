@@ -0,0 +1,226 @@
+package cycling;
+
+import java.util.HashMap;
+
+/**
+ * Portal-wide index from IDs to the riders, stages and checkpoints held by a portal, and
+ * from names to the IDs of its races, stages and teams.
+ * Races and teams are already keyed by ID in the portal itself, this covers the entities
+ * nested beneath them so lookups don't have to walk every team/race/stage.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class EntityIndex implements java.io.Serializable {
+  private final HashMap<Integer, Rider> riders = new HashMap<>();
+  private final HashMap<Integer, Stage> stages = new HashMap<>();
+  private final HashMap<Integer, Checkpoint> checkpoints = new HashMap<>();
+
+  // Names are unique per type, format of <name, id>
+  private final HashMap<String, Integer> raceNames = new HashMap<>();
+  private final HashMap<String, Integer> stageNames = new HashMap<>();
+  private final HashMap<String, Integer> teamNames = new HashMap<>();
+
+  /**
+   * Get a rider by its ID.
+   *
+   * @param riderId the ID of the rider
+   * @return the rider, or null if it is not indexed
+   */
+  protected Rider getRider(int riderId) {
+    return riders.get(riderId);
+  }
+
+  /**
+   * Get a stage by its ID.
+   *
+   * @param stageId the ID of the stage
+   * @return the stage, or null if it is not indexed
+   */
+  protected Stage getStage(int stageId) {
+    return stages.get(stageId);
+  }
+
+  /**
+   * Get a checkpoint by its ID.
+   *
+   * @param checkpointId the ID of the checkpoint
+   * @return the checkpoint, or null if it is not indexed
+   */
+  protected Checkpoint getCheckpoint(int checkpointId) {
+    return checkpoints.get(checkpointId);
+  }
+
+  /**
+   * Get the ID of the race with a given name.
+   *
+   * @param name the race name
+   * @return the race ID, or null if no race has that name
+   */
+  protected Integer getRaceIdByName(String name) {
+    return raceNames.get(name);
+  }
+
+  /**
+   * Get the ID of the stage with a given name.
+   *
+   * @param name the stage name
+   * @return the stage ID, or null if no stage has that name
+   */
+  protected Integer getStageIdByName(String name) {
+    return stageNames.get(name);
+  }
+
+  /**
+   * Get the ID of the team with a given name.
+   *
+   * @param name the team name
+   * @return the team ID, or null if no team has that name
+   */
+  protected Integer getTeamIdByName(String name) {
+    return teamNames.get(name);
+  }
+
+  /**
+   * Index a race's name, its stages and their checkpoints.
+   *
+   * @param race the race to index
+   */
+  protected void addRace(Race race) {
+    raceNames.put(race.getName(), race.getId());
+    for (Stage stage : race.getStages().values()) {
+      addStage(stage);
+    }
+  }
+
+  /**
+   * Index the name of a race that hasn't been read from a snapshot yet.
+   *
+   * @param name   the race name
+   * @param raceId the race ID
+   */
+  protected void addRaceName(String name, int raceId) {
+    raceNames.put(name, raceId);
+  }
+
+  /**
+   * Index the name of a stage that hasn't been read from a snapshot yet.
+   *
+   * @param name    the stage name
+   * @param stageId the stage ID
+   */
+  protected void addStageName(String name, int stageId) {
+    stageNames.put(name, stageId);
+  }
+
+  /**
+   * Remove a race's name, its stages and their checkpoints from the index.
+   *
+   * @param race the race to remove
+   */
+  protected void removeRace(Race race) {
+    raceNames.remove(race.getName());
+    for (Stage stage : race.getStages().values()) {
+      removeStage(stage);
+    }
+  }
+
+  /**
+   * Index a stage and its checkpoints.
+   *
+   * @param stage the stage to index
+   */
+  protected void addStage(Stage stage) {
+    stages.put(stage.getId(), stage);
+    stageNames.put(stage.getName(), stage.getId());
+    for (Checkpoint checkpoint : stage.getCheckpoints()) {
+      addCheckpoint(checkpoint);
+    }
+  }
+
+  /**
+   * Remove a stage and its checkpoints from the index.
+   *
+   * @param stage the stage to remove
+   */
+  protected void removeStage(Stage stage) {
+    stages.remove(stage.getId());
+    stageNames.remove(stage.getName());
+    for (Checkpoint checkpoint : stage.getCheckpoints()) {
+      removeCheckpoint(checkpoint);
+    }
+  }
+
+  /**
+   * Index a checkpoint.
+   *
+   * @param checkpoint the checkpoint to index
+   */
+  protected void addCheckpoint(Checkpoint checkpoint) {
+    checkpoints.put(checkpoint.getId(), checkpoint);
+  }
+
+  /**
+   * Remove a checkpoint from the index.
+   *
+   * @param checkpoint the checkpoint to remove
+   */
+  protected void removeCheckpoint(Checkpoint checkpoint) {
+    checkpoints.remove(checkpoint.getId());
+  }
+
+  /**
+   * Index a team's name and its riders.
+   *
+   * @param team the team to index
+   */
+  protected void addTeam(Team team) {
+    teamNames.put(team.getName(), team.getId());
+    for (Rider rider : team.getRiders().values()) {
+      addRider(rider);
+    }
+  }
+
+  /**
+   * Remove a team's name and its riders from the index.
+   *
+   * @param team the team to remove
+   */
+  protected void removeTeam(Team team) {
+    teamNames.remove(team.getName());
+    for (Rider rider : team.getRiders().values()) {
+      removeRider(rider);
+    }
+  }
+
+  /**
+   * Index a rider.
+   *
+   * @param rider the rider to index
+   */
+  protected void addRider(Rider rider) {
+    riders.put(rider.getId(), rider);
+  }
+
+  /**
+   * Remove a rider from the index.
+   *
+   * @param rider the rider to remove
+   */
+  protected void removeRider(Rider rider) {
+    riders.remove(rider.getId());
+  }
+
+  /**
+   * Remove everything from the index.
+   */
+  protected void clear() {
+    riders.clear();
+    stages.clear();
+    checkpoints.clear();
+    raceNames.clear();
+    stageNames.clear();
+    teamNames.clear();
+  }
+}
@@ -0,0 +1,107 @@
+package cycling;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out entity IDs for a single portal, always giving back the lowest ID not currently
+ * in use. Freed IDs below the high-water mark are kept in a sorted set of gaps, so both
+ * allocating and freeing an ID are O(log n) rather than a scan of every used ID.
+ * The gap set and high-water mark are both lock-free, so entities can be created and
+ * removed from several threads without taking a lock.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class IdAllocator implements java.io.Serializable {
+  private final ConcurrentSkipListSet<Integer> freeIds = new ConcurrentSkipListSet<>();
+  private final AtomicInteger nextId = new AtomicInteger(); // every ID >= this is unused
+
+  /**
+   * Allocate the lowest unused ID.
+   * This includes filling gaps from deleted entities.
+   *
+   * @return A unique ID for an entity
+   */
+  protected int allocate() {
+    // If there are gaps in the IDs ie `ids = [0, 1, 3, 4]` then return the first gap
+    // (in this case 2)
+    Integer gap = freeIds.pollFirst();
+    if (gap != null) {
+      return gap;
+    }
+    // If there are no gaps then return the next number in the sequence
+    return nextId.getAndIncrement();
+  }
+
+  /**
+   * Return an ID so that it can be handed out again.
+   * Freeing an ID that is not in use does nothing.
+   *
+   * @param id The ID to free
+   */
+  protected void free(int id) {
+    if (id < 0 || id >= nextId.get() || !freeIds.add(id)) {
+      return;
+    }
+
+    // Pull the high-water mark down while the ID just below it is a gap. The gap is taken
+    // out of the set first so nobody allocates it while the mark moves.
+    int top = nextId.get();
+    while (freeIds.remove(top - 1)) {
+      if (!nextId.compareAndSet(top, top - 1)) {
+        freeIds.add(top - 1); // Someone allocated above it in the meantime, so leave the gap
+        return;
+      }
+      top--;
+    }
+  }
+
+  /**
+   * Mark a specific ID as used, for entities that already have an ID (ie loaded from a file).
+   * Any unused IDs skipped over below it become gaps.
+   *
+   * @param id The ID to reserve
+   */
+  protected void reserve(int id) {
+    int top = nextId.get();
+    while (id >= top) {
+      if (nextId.compareAndSet(top, id + 1)) {
+        for (int gap = top; gap < id; gap++) {
+          freeIds.add(gap);
+        }
+        return;
+      }
+      top = nextId.get();
+    }
+    freeIds.remove(id);
+  }
+
+  /**
+   * Replace the allocator's state with exactly the given IDs in use, in one pass over them.
+   * Only for an allocator no entities are being created with yet, such as one for a portal
+   * being loaded, as it isn't safe against IDs being allocated at the same time.
+   *
+   * @param usedIds The IDs in use, every unused ID below the highest becomes a gap
+   */
+  protected void rebuild(BitSet usedIds) {
+    freeIds.clear();
+    int top = usedIds.length();
+    for (int gap = usedIds.nextClearBit(0); gap < top; gap = usedIds.nextClearBit(gap + 1)) {
+      freeIds.add(gap);
+    }
+    nextId.set(top);
+  }
+
+  /**
+   * Check whether an ID is currently handed out.
+   *
+   * @param id The ID to check
+   * @return true if the ID is in use
+   */
+  protected boolean isUsed(int id) {
+    return id >= 0 && id < nextId.get() && !freeIds.contains(id);
+  }
+}
@@ -8,6 +8,7 @@ package cycling;
  * @version 1.0
  */
 class IntermediateSprint extends Checkpoint {
+  private static final long serialVersionUID = -2475162303780138911L;
 
   // The points distribution for crossing the intermediate sprint checkpoint
   private static final int[] POINTS = {20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1};
@@ -17,14 +18,29 @@ class IntermediateSprint extends Checkpoint {
    *
    * @param location    the location of the intermediate sprint
    * @param parentStage the parent stage of the intermediate sprint
+   * @param idAllocator the ID allocator of the portal creating the sprint
    * @throws InvalidLocationException   if the location is out of range of the
    *                                    stage
    * @throws InvalidStageStateException if the stage is not in the correct state
    * @throws InvalidStageTypeException  if the stage is not of the correct type
    */
-  protected IntermediateSprint(Double location, Stage parentStage)
+  protected IntermediateSprint(Double location, Stage parentStage, IdAllocator idAllocator)
       throws InvalidLocationException, InvalidStageStateException, InvalidStageTypeException {
-    super(CheckpointType.SPRINT, location, parentStage);
+    super(CheckpointType.SPRINT, location, parentStage, idAllocator);
+  }
+
+  /**
+   * Constructor for restoring a saved intermediate sprint with its ID, the details were
+   * checked when it was first created.
+   *
+   * @param id          the ID the sprint had when it was saved
+   * @param location    the location of the intermediate sprint
+   * @param parentStage the parent stage of the intermediate sprint
+   * @param idAllocator the ID allocator of the portal the sprint is loaded into
+   */
+  protected IntermediateSprint(int id, Double location, Stage parentStage,
+                               IdAllocator idAllocator) {
+    super(id, CheckpointType.SPRINT, location, parentStage, idAllocator);
   }
 
   /**
@@ -38,19 +54,21 @@ class IntermediateSprint extends Checkpoint {
     // This is according to the order that the riders crossed the line,
     // not how long the checkpoint took them
 
-    // We will calculate position by going through the list of times going through
-    // the checkpoint
-    // If there is a smaller time then we will increment the position
-    int position = 1;
-    for (int searchRiderId : passTimes.keySet()) {
-      if (searchRiderId != riderId
-          && passTimes.get(searchRiderId).isBefore(passTimes.get(riderId))) {
-        position++;
-      }
-    }
+    // Position is one more than the number of riders who crossed before them
+    int position = getPassPosition(riderId);
 
     // return the points for position if its within the 15 point scoring positions
     // else 0
-    return (position <= 15) ? POINTS[position - 1] : 0;
+    return (position >= 1 && position <= POINTS.length) ? POINTS[position - 1] : 0;
+  }
+
+  /**
+   * Get the riders who score sprint points at this checkpoint, in the order they crossed it.
+   *
+   * @return the IDs of the point scoring riders
+   */
+  @Override
+  protected int[] getSprintScorers() {
+    return getFirstPassers(POINTS.length);
   }
 }
@@ -0,0 +1,262 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of records, each framed as its length and CRC32 then its bytes.
+ * The header names the snapshot the records follow on from by its length and checksum, so
+ * a journal is only replayed on top of the snapshot it was started after.
+ * Appending only writes a record to the file; {@link #sync(long)} forces it to disk. A
+ * sync forces every record written so far, so threads syncing at the same time share one
+ * force rather than queueing a force each.
+ *
+ * <p>The layout is:
+ * <pre>
+ *   header:  magic, format version, snapshot length (-1 for none), snapshot checksum
+ *   records: per record   length of the bytes, CRC32 of the bytes, the bytes
+ * </pre>
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class Journal {
+  // "CYJL"
+  private static final int MAGIC = 0x43594A4C;
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_SIZE = 4 + 1 + 8 + 8;
+  private static final int FRAME_SIZE = 4 + 4; // length and CRC32 in front of each record
+  private static final int INITIAL_RECORD_CAPACITY = 64;
+
+  private final Path path;
+  private FileChannel channel;
+  private long written = 0; // records appended so far
+  private long durable = 0; // records known to be forced to disk
+  // Held while forcing, so syncs that arrive meanwhile find their record already forced
+  private final Object syncLock = new Object();
+
+  /**
+   * Constructor for the Journal class. Nothing is opened until {@link #open(long, long)}.
+   *
+   * @param path where the journal is kept
+   */
+  protected Journal(Path path) {
+    this.path = path;
+  }
+
+  /**
+   * Open the journal for appending, reading the records already in it if it follows on
+   * from the given snapshot. A journal that follows on from a different snapshot is moved
+   * aside with a ".stale" suffix and a new one started, as happens if the portal saved a
+   * snapshot but stopped before starting a new journal after it. A record cut short or
+   * damaged by a crash part way through writing it is dropped, along with anything after.
+   *
+   * @param snapshotLength   the length of the snapshot the portal was loaded from, or -1
+   * @param snapshotChecksum the checksum of that snapshot from {@link #checksum(Path)}
+   * @return the bytes of each record to replay, in the order they were appended
+   * @throws IOException if the journal can't be read or written
+   */
+  protected ArrayList<ByteBuffer> open(long snapshotLength, long snapshotChecksum)
+      throws IOException {
+    assert channel == null : "Journal is already open";
+    ArrayList<ByteBuffer> records = new ArrayList<ByteBuffer>();
+    if (!Files.exists(path)) {
+      start(snapshotLength, snapshotChecksum);
+      return records;
+    }
+
+    ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path));
+    if (file.remaining() < HEADER_SIZE || file.getInt() != MAGIC
+        || file.get() != FORMAT_VERSION || file.getLong() != snapshotLength
+        || file.getLong() != snapshotChecksum) {
+      moveAside();
+      start(snapshotLength, snapshotChecksum);
+      return records;
+    }
+
+    CRC32 crc = new CRC32();
+    while (file.remaining() >= FRAME_SIZE) {
+      int length = file.getInt(file.position());
+      int checksum = file.getInt(file.position() + 4);
+      if (length < 0 || length > file.remaining() - FRAME_SIZE) {
+        break; // Cut short
+      }
+      ByteBuffer record = file.duplicate();
+      record.position(file.position() + FRAME_SIZE);
+      record.limit(record.position() + length);
+      crc.reset();
+      crc.update(record.duplicate());
+      if ((int) crc.getValue() != checksum) {
+        break; // Damaged
+      }
+      records.add(record.slice());
+      file.position(record.limit());
+    }
+
+    channel = FileChannel.open(path, StandardOpenOption.WRITE);
+    channel.truncate(file.position()); // Drop whatever was left after the last good record
+    channel.position(file.position());
+    channel.force(true);
+    return records;
+  }
+
+  /**
+   * Start an empty record in a buffer with room for its frame.
+   *
+   * @return the buffer to write the record's bytes to
+   */
+  protected static BinaryBuffer startRecord() {
+    ByteBuffer buffer = ByteBuffer.allocate(INITIAL_RECORD_CAPACITY);
+    buffer.position(FRAME_SIZE);
+    return new BinaryBuffer(buffer);
+  }
+
+  /**
+   * Append a record started by {@link #startRecord()}. It is written to the file, but is
+   * only certain to survive a power cut once synced.
+   *
+   * @param record the record
+   * @return the record's sequence number, to pass to {@link #sync(long)}
+   * @throws IOException if the record can't be written
+   */
+  protected synchronized long append(BinaryBuffer record) throws IOException {
+    ByteBuffer frame = record.getBuffer();
+    frame.flip();
+    ByteBuffer bytes = frame.duplicate();
+    bytes.position(FRAME_SIZE);
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    frame.putInt(0, frame.limit() - FRAME_SIZE);
+    frame.putInt(4, (int) crc.getValue());
+
+    while (frame.hasRemaining()) {
+      channel.write(frame);
+    }
+    return ++written;
+  }
+
+  /**
+   * Make sure a record, and every record appended before it, is forced to disk.
+   *
+   * @param sequence the sequence number {@link #append(BinaryBuffer)} gave the record
+   * @throws IOException if the journal can't be forced
+   */
+  protected void sync(long sequence) throws IOException {
+    synchronized (syncLock) {
+      if (durable >= sequence) {
+        return; // Forced along with someone else's record
+      }
+      long target;
+      FileChannel current;
+      synchronized (this) {
+        target = written;
+        current = channel;
+      }
+      current.force(false);
+      durable = target;
+    }
+  }
+
+  /**
+   * Make sure every record appended so far is forced to disk.
+   *
+   * @throws IOException if the journal can't be forced
+   */
+  protected void syncAll() throws IOException {
+    long sequence;
+    synchronized (this) {
+      sequence = written;
+    }
+    sync(sequence);
+  }
+
+  /**
+   * Replace the journal with an empty one following on from a new snapshot. The new
+   * journal is written next to the old one and moved over it, so a crash leaves one or the
+   * other.
+   *
+   * @param snapshotLength   the length of the snapshot, or -1 for none
+   * @param snapshotChecksum the checksum of the snapshot from {@link #checksum(Path)}
+   * @throws IOException if the journal can't be written
+   */
+  protected void restart(long snapshotLength, long snapshotChecksum) throws IOException {
+    // Locked in the same order as sync
+    synchronized (syncLock) {
+      synchronized (this) {
+        if (channel != null) {
+          channel.close();
+          channel = null;
+        }
+        start(snapshotLength, snapshotChecksum);
+        durable = written; // Everything before is in the snapshot
+      }
+    }
+  }
+
+  /**
+   * Force any records not yet synced and close the journal.
+   *
+   * @throws IOException if the journal can't be forced or closed
+   */
+  protected synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.force(false);
+      channel.close();
+      channel = null;
+    }
+  }
+
+  /**
+   * Work out the checksum a journal uses to recognise the snapshot it follows on from.
+   *
+   * @param snapshot the snapshot file
+   * @return the CRC32 of the whole file
+   * @throws IOException if the file can't be read
+   */
+  protected static long checksum(Path snapshot) throws IOException {
+    CRC32 crc = new CRC32();
+    FileChannel file = FileChannel.open(snapshot, StandardOpenOption.READ);
+    try {
+      crc.update(file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()));
+    } finally {
+      file.close();
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * Write a new journal holding only the header and open it for appending.
+   *
+   * @param snapshotLength   the length of the snapshot it follows on from, or -1
+   * @param snapshotChecksum the checksum of the snapshot
+   * @throws IOException if the journal can't be written
+   */
+  private void start(long snapshotLength, long snapshotChecksum) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).put((byte) FORMAT_VERSION).putLong(snapshotLength)
+        .putLong(snapshotChecksum).flip();
+
+    Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    SerializedData.writeFile(temporary, header);
+    SerializedData.moveAtomically(temporary, path);
+
+    channel = FileChannel.open(path, StandardOpenOption.WRITE);
+    channel.position(HEADER_SIZE);
+  }
+
+  /**
+   * Keep a journal that doesn't follow on from the loaded snapshot out of the way.
+   *
+   * @throws IOException if the journal can't be moved
+   */
+  private void moveAside() throws IOException {
+    SerializedData.moveAtomically(path, path.resolveSibling(path.getFileName() + ".stale"));
+  }
+}
@@ -0,0 +1,826 @@
+package cycling;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * CyclingPortal that makes every change durable without saving the whole portal, wrapping
+ * another portal. Each change that succeeds is appended to a journal as a compact record,
+ * and when the portal is next started the journal is replayed on top of the snapshot it
+ * follows on from. Saving to that snapshot through this portal starts a new journal after
+ * it, while saving to any other file only writes a copy and leaves the journal following on
+ * from the snapshot. Loading another file saves its contents over the snapshot, so the
+ * journal can start again from there.
+ *
+ * <p>Changes are applied and appended under one lock, so the journal replays them in the
+ * order they happened and every created entity gets the same ID again. If changes are
+ * synced as they are made, a change has been forced to disk by the time its call returns;
+ * threads making changes at the same time share a force rather than waiting for one each.
+ * Otherwise records only reach the operating system, which keeps them if the process
+ * crashes, and {@link #sync()} forces them.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+public class JournalingCyclingPortal implements CyclingPortal, Closeable {
+  // The kinds of record, the first byte of each
+  private static final int CREATE_RACE = 1;
+  private static final int REMOVE_RACE = 2;
+  private static final int REMOVE_RACE_BY_NAME = 3;
+  private static final int ADD_STAGE = 4;
+  private static final int REMOVE_STAGE = 5;
+  private static final int ADD_CLIMB = 6;
+  private static final int ADD_SPRINT = 7;
+  private static final int REMOVE_CHECKPOINT = 8;
+  private static final int CONCLUDE_PREPARATION = 9;
+  private static final int CREATE_TEAM = 10;
+  private static final int REMOVE_TEAM = 11;
+  private static final int CREATE_RIDER = 12;
+  private static final int REMOVE_RIDER = 13;
+  private static final int REGISTER_RESULTS = 14;
+  private static final int REGISTER_RESULT_SHEET = 15;
+  private static final int REGISTER_PASS = 16;
+  private static final int DELETE_RESULTS = 17;
+  private static final int ERASE = 18;
+
+  private final CyclingPortal portal;
+  private final Journal journal;
+  private final Path snapshot; // the snapshot recovered from, which the journal follows
+  private final boolean syncEachChange;
+  // Held while a change is applied and appended, so the journal has them in order
+  private final Object changeLock = new Object();
+
+  /**
+   * Constructor for the JournalingCyclingPortal class, which recovers the wrapped portal's
+   * contents. The snapshot is loaded if it exists, otherwise the portal is erased, then
+   * any journal following on from it is replayed.
+   *
+   * @param portal           the portal to keep the contents in, which shouldn't be changed
+   *                         other than through this one
+   * @param snapshotFilename the snapshot to recover from, which should be the file this
+   *                         portal is saved to
+   * @param journalFilename  where the journal is kept
+   * @param syncEachChange   true to force each change to disk before its call returns,
+   *                         false to leave it to {@link #sync()}
+   * @throws IOException            If the snapshot or journal can't be read, or the
+   *                                journal can't be replayed.
+   * @throws ClassNotFoundException If the snapshot is in the old serialized format and
+   *                                required class files cannot be found.
+   */
+  public JournalingCyclingPortal(CyclingPortal portal, String snapshotFilename,
+                                 String journalFilename, boolean syncEachChange)
+      throws IOException, ClassNotFoundException {
+    this.portal = portal;
+    this.syncEachChange = syncEachChange;
+
+    snapshot = Paths.get(snapshotFilename).toAbsolutePath().normalize();
+    long snapshotLength = -1;
+    long snapshotChecksum = 0;
+    if (Files.exists(snapshot)) {
+      portal.loadCyclingPortal(snapshotFilename);
+      snapshotLength = Files.size(snapshot);
+      snapshotChecksum = Journal.checksum(snapshot);
+    } else {
+      portal.eraseCyclingPortal(); // With no snapshot the journal starts from nothing
+    }
+
+    journal = new Journal(Paths.get(journalFilename));
+    ArrayList<ByteBuffer> records = journal.open(snapshotLength, snapshotChecksum);
+    for (int i = 0; i < records.size(); i++) {
+      replay(records.get(i), i);
+    }
+  }
+
+  /**
+   * Force every change made so far to disk.
+   *
+   * @throws IOException If the journal can't be forced.
+   */
+  public void sync() throws IOException {
+    journal.syncAll();
+  }
+
+  /**
+   * Force every change made so far to disk and close the journal. The portal can't be
+   * changed afterwards.
+   *
+   * @throws IOException If the journal can't be forced or closed.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (changeLock) {
+      journal.close();
+    }
+  }
+
+  /**
+   * Start a record of a change.
+   *
+   * @param kind the kind of change
+   * @return the record, to write the change's arguments to
+   */
+  private static BinaryBuffer record(int kind) {
+    BinaryBuffer record = Journal.startRecord();
+    record.writeByte(kind);
+    return record;
+  }
+
+  /**
+   * Append the record of a change that has just been made. Only called holding the change
+   * lock.
+   *
+   * @param record the record
+   * @return the record's sequence number, to pass to {@link #commit(long)}
+   */
+  private long append(BinaryBuffer record) {
+    try {
+      return journal.append(record);
+    } catch (IOException e) {
+      // The change has been made, but won't survive a restart
+      throw new UncheckedIOException("Change could not be written to the journal", e);
+    }
+  }
+
+  /**
+   * Force a change to disk if each change is synced. Called after releasing the change lock,
+   * so other changes can be appended meanwhile and forced along with it.
+   *
+   * @param sequence the record's sequence number
+   */
+  private void commit(long sequence) {
+    if (!syncEachChange) {
+      return;
+    }
+    try {
+      journal.sync(sequence);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Change could not be forced to the journal", e);
+    }
+  }
+
+  /**
+   * Check whether a file is the snapshot the portal recovers from.
+   *
+   * @param filename the file
+   * @return true if it is the snapshot, however its path is written
+   */
+  private boolean isSnapshot(String filename) {
+    return Paths.get(filename).toAbsolutePath().normalize().equals(snapshot);
+  }
+
+  /**
+   * Start a new journal after the snapshot just saved. Only called holding the change lock.
+   *
+   * @throws IOException If the snapshot can't be read or the journal written.
+   */
+  private void restartJournal() throws IOException {
+    journal.restart(Files.size(snapshot), Journal.checksum(snapshot));
+  }
+
+  /**
+   * Apply a change read back from the journal.
+   *
+   * @param bytes  the record
+   * @param number the position of the record in the journal, for error messages
+   * @throws IOException If the record is not valid or the change fails, which means the
+   *                     journal doesn't follow on from the portal's contents.
+   */
+  private void replay(ByteBuffer bytes, int number) throws IOException {
+    BinaryBuffer record = new BinaryBuffer(bytes);
+    int kind = record.readByte();
+    int expectedId = -1;
+    int id = -1;
+    try {
+      switch (kind) {
+        case CREATE_RACE:
+          id = portal.createRace(record.readString(), record.readString());
+          expectedId = record.readVarInt();
+          break;
+        case REMOVE_RACE:
+          portal.removeRaceById(record.readVarInt());
+          break;
+        case REMOVE_RACE_BY_NAME:
+          portal.removeRaceByName(record.readString());
+          break;
+        case ADD_STAGE:
+          id = portal.addStageToRace(record.readVarInt(), record.readString(),
+              record.readString(), record.readDouble(), record.readDateTime(),
+              record.readEnum(StageType.values()));
+          expectedId = record.readVarInt();
+          break;
+        case REMOVE_STAGE:
+          portal.removeStageById(record.readVarInt());
+          break;
+        case ADD_CLIMB:
+          id = portal.addCategorizedClimbToStage(record.readVarInt(),
+              record.readOptionalDouble(), record.readEnum(CheckpointType.values()),
+              record.readOptionalDouble(), record.readOptionalDouble());
+          expectedId = record.readVarInt();
+          break;
+        case ADD_SPRINT:
+          id = portal.addIntermediateSprintToStage(record.readVarInt(), record.readDouble());
+          expectedId = record.readVarInt();
+          break;
+        case REMOVE_CHECKPOINT:
+          portal.removeCheckpoint(record.readVarInt());
+          break;
+        case CONCLUDE_PREPARATION:
+          portal.concludeStagePreparation(record.readVarInt());
+          break;
+        case CREATE_TEAM:
+          id = portal.createTeam(record.readString(), record.readString());
+          expectedId = record.readVarInt();
+          break;
+        case REMOVE_TEAM:
+          portal.removeTeam(record.readVarInt());
+          break;
+        case CREATE_RIDER:
+          id = portal.createRider(record.readVarInt(), record.readString(),
+              (int) BinaryBuffer.unZigZag(record.readVarLong()));
+          expectedId = record.readVarInt();
+          break;
+        case REMOVE_RIDER:
+          portal.removeRider(record.readVarInt());
+          break;
+        case REGISTER_RESULTS:
+          portal.registerRiderResultsInStage(record.readVarInt(), record.readVarInt(),
+              readTimes(record));
+          break;
+        case REGISTER_RESULT_SHEET: {
+          int stageId = record.readVarInt();
+          int[] riderIds = new int[record.readVarInt()];
+          LocalTime[][] checkpointTimes = new LocalTime[riderIds.length][];
+          for (int row = 0; row < riderIds.length; row++) {
+            riderIds[row] = record.readVarInt();
+            checkpointTimes[row] = readTimes(record);
+          }
+          portal.registerStageResultSheet(stageId, riderIds, checkpointTimes);
+          break;
+        }
+        case REGISTER_PASS:
+          portal.registerCheckpointPass(record.readVarInt(), record.readVarInt(),
+              record.readVarInt(), LocalTime.ofNanoOfDay(record.readVarLong()));
+          break;
+        case DELETE_RESULTS:
+          portal.deleteRiderResultsInStage(record.readVarInt(), record.readVarInt());
+          break;
+        case ERASE:
+          portal.eraseCyclingPortal();
+          break;
+        default:
+          throw new IOException("Unknown kind of record " + kind + " in journal");
+      }
+    } catch (IDNotRecognisedException | NameNotRecognisedException | IllegalNameException
+             | InvalidNameException | InvalidLengthException | InvalidLocationException
+             | InvalidStageStateException | InvalidStageTypeException
+             | DuplicatedResultException | InvalidCheckpointTimesException
+             | IllegalArgumentException | BufferUnderflowException | DateTimeException e) {
+      throw new IOException("Journal record " + number + " could not be replayed", e);
+    }
+    if (id != expectedId) {
+      throw new IOException("Journal record " + number + " created ID " + id
+          + " rather than " + expectedId);
+    }
+  }
+
+  /**
+   * Write a rider's times as nanoseconds of the day.
+   *
+   * @param record the record
+   * @param times  the times
+   */
+  private static void writeTimes(BinaryBuffer record, LocalTime[] times) {
+    record.writeVarInt(times.length);
+    for (LocalTime time : times) {
+      record.writeVarLong(time.toNanoOfDay());
+    }
+  }
+
+  /**
+   * Read times written by {@link #writeTimes(BinaryBuffer, LocalTime[])}.
+   *
+   * @param record the record
+   * @return the times
+   * @throws IOException if the times are not valid
+   */
+  private static LocalTime[] readTimes(BinaryBuffer record) throws IOException {
+    LocalTime[] times = new LocalTime[record.readVarInt()];
+    for (int i = 0; i < times.length; i++) {
+      times[i] = LocalTime.ofNanoOfDay(record.readVarLong());
+    }
+    return times;
+  }
+
+  @Override
+  public int[] getRaceIds() {
+    return portal.getRaceIds();
+  }
+
+  @Override
+  public int createRace(String name, String description)
+      throws IllegalNameException, InvalidNameException {
+    int raceId;
+    long sequence;
+    synchronized (changeLock) {
+      raceId = portal.createRace(name, description);
+      BinaryBuffer record = record(CREATE_RACE);
+      record.writeString(name);
+      record.writeString(description);
+      record.writeVarInt(raceId);
+      sequence = append(record);
+    }
+    commit(sequence);
+    return raceId;
+  }
+
+  @Override
+  public String viewRaceDetails(int raceId) throws IDNotRecognisedException {
+    return portal.viewRaceDetails(raceId);
+  }
+
+  @Override
+  public void removeRaceById(int raceId) throws IDNotRecognisedException {
+    long sequence;
+    synchronized (changeLock) {
+      portal.removeRaceById(raceId);
+      BinaryBuffer record = record(REMOVE_RACE);
+      record.writeVarInt(raceId);
+      sequence = append(record);
+    }
+    commit(sequence);
+  }
+
+  @Override
+  public int getNumberOfStages(int raceId) throws IDNotRecognisedException {
+    return portal.getNumberOfStages(raceId);
+  }
+
+  @Override
+  public int addStageToRace(int raceId, String stageName, String description, double length,
+                            LocalDateTime startTime, StageType type)
+      throws IDNotRecognisedException, IllegalNameException, InvalidNameException,
+      InvalidLengthException {
+    int stageId;
+    long sequence;
+    synchronized (changeLock) {
+      stageId = portal.addStageToRace(raceId, stageName, description, length, startTime, type);
+      BinaryBuffer record = record(ADD_STAGE);
+      record.writeVarInt(raceId);
+      record.writeString(stageName);
+      record.writeString(description);
+      record.writeDouble(length);
+      record.writeDateTime(startTime);
+      record.writeEnum(type);
+      record.writeVarInt(stageId);
+      sequence = append(record);
+    }
+    commit(sequence);
+    return stageId;
+  }
+
+  @Override
+  public int[] getRaceStages(int raceId) throws IDNotRecognisedException {
+    return portal.getRaceStages(raceId);
+  }
+
+  @Override
+  public double getStageLength(int stageId) throws IDNotRecognisedException {
+    return portal.getStageLength(stageId);
+  }
+
+  @Override
+  public void removeStageById(int stageId) throws IDNotRecognisedException {
+    long sequence;
+    synchronized (changeLock) {
+      portal.removeStageById(stageId);
+      BinaryBuffer record = record(REMOVE_STAGE);
+      record.writeVarInt(stageId);
+      sequence = append(record);
+    }
+    commit(sequence);
+  }
+
+  @Override
+  public int addCategorizedClimbToStage(int stageId, Double location, CheckpointType type,
+                                        Double averageGradient, Double length)
+      throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException,
+      InvalidStageTypeException {
+    int checkpointId;
+    long sequence;
+    synchronized (changeLock) {
+      checkpointId = portal.addCategorizedClimbToStage(stageId, location, type,
+          averageGradient, length);
+      BinaryBuffer record = record(ADD_CLIMB);
+      record.writeVarInt(stageId);
+      record.writeOptionalDouble(location);
+      record.writeEnum(type);
+      record.writeOptionalDouble(averageGradient);
+      record.writeOptionalDouble(length);
+      record.writeVarInt(checkpointId);
+      sequence = append(record);
+    }
+    commit(sequence);
+    return checkpointId;
+  }
+
+  @Override
+  public int addIntermediateSprintToStage(int stageId, double location)
+      throws IDNotRecognisedException, InvalidLocationException, InvalidStageStateException,
+      InvalidStageTypeException {
+    int checkpointId;
+    long sequence;
+    synchronized (changeLock) {
+      checkpointId = portal.addIntermediateSprintToStage(stageId, location);
+      BinaryBuffer record = record(ADD_SPRINT);
+      record.writeVarInt(stageId);
+      record.writeDouble(location);
+      record.writeVarInt(checkpointId);
+      sequence = append(record);
+    }
+    commit(sequence);
+    return checkpointId;
+  }
+
+  @Override
+  public void removeCheckpoint(int checkpointId)
+      throws IDNotRecognisedException, InvalidStageStateException {
+    long sequence;
+    synchronized (changeLock) {
+      portal.removeCheckpoint(checkpointId);
+      BinaryBuffer record = record(REMOVE_CHECKPOINT);
+      record.writeVarInt(checkpointId);
+      sequence = append(record);
+    }
+    commit(sequence);
+  }
+
+  @Override
+  public void concludeStagePreparation(int stageId)
+      throws IDNotRecognisedException, InvalidStageStateException {
+    long sequence;
+    synchronized (changeLock) {
+      portal.concludeStagePreparation(stageId);
+      BinaryBuffer record = record(CONCLUDE_PREPARATION);
+      record.writeVarInt(stageId);
+      sequence = append(record);
+    }
+    commit(sequence);
+  }
+
+  @Override
+  public int[] getStageCheckpoints(int stageId) throws IDNotRecognisedException {
+    return portal.getStageCheckpoints(stageId);
+  }
+
+  @Override
+  public int createTeam(String name, String description)
+      throws IllegalNameException, InvalidNameException {
+    int teamId;
+    long sequence;
+    synchronized (changeLock) {
+      teamId = portal.createTeam(name, description);
+      BinaryBuffer record = record(CREATE_TEAM);
+      record.writeString(name);
+      record.writeString(description);
+      record.writeVarInt(teamId);
+      sequence = append(record);
+    }
+    commit(sequence);
+    return teamId;
+  }
+
+  @Override
+  public void removeTeam(int teamId) throws IDNotRecognisedException {
+    long sequence;
+    synchronized (changeLock) {
+      portal.removeTeam(teamId);
+      BinaryBuffer record = record(REMOVE_TEAM);
+      record.writeVarInt(teamId);
+      sequence = append(record);
+    }
+    commit(sequence);
+  }
+
+  @Override
+  public int[] getTeams() {
+    return portal.getTeams();
+  }
+
+  @Override
+  public int[] getTeamRiders(int teamId) throws IDNotRecognisedException {
+    return portal.getTeamRiders(teamId);
+  }
+
+  @Override
+  public int createRider(int teamId, String name, int yearOfBirth)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    int riderId;
+    long sequence;
+    synchronized (changeLock) {
+      riderId = portal.createRider(teamId, name, yearOfBirth);
+      BinaryBuffer record = record(CREATE_RIDER);
+      record.writeVarInt(teamId);
+      record.writeString(name);
+      record.writeVarLong(BinaryBuffer.zigZag(yearOfBirth));
+      record.writeVarInt(riderId);
+      sequence = append(record);
+    }
+    commit(sequence);
+    return riderId;
+  }
+
+  @Override
+  public void removeRider(int riderId) throws IDNotRecognisedException {
+    long sequence;
+    synchronized (changeLock) {
+      portal.removeRider(riderId);
+      BinaryBuffer record = record(REMOVE_RIDER);
+      record.writeVarInt(riderId);
+      sequence = append(record);
+    }
+    commit(sequence);
+  }
+
+  @Override
+  public void registerRiderResultsInStage(int stageId, int riderId, LocalTime... checkpoints)
+      throws IDNotRecognisedException, DuplicatedResultException,
+      InvalidCheckpointTimesException, InvalidStageStateException {
+    long sequence;
+    synchronized (changeLock) {
+      portal.registerRiderResultsInStage(stageId, riderId, checkpoints);
+      BinaryBuffer record = record(REGISTER_RESULTS);
+      record.writeVarInt(stageId);
+      record.writeVarInt(riderId);
+      writeTimes(record, checkpoints);
+      sequence = append(record);
+    }
+    commit(sequence);
+  }
+
+  @Override
+  public void registerStageResultSheet(int stageId, int[] riderIds, LocalTime[][] checkpointTimes)
+      throws IDNotRecognisedException, DuplicatedResultException,
+      InvalidCheckpointTimesException, InvalidStageStateException {
+    long sequence;
+    synchronized (changeLock) {
+      portal.registerStageResultSheet(stageId, riderIds, checkpointTimes);
+      BinaryBuffer record = record(REGISTER_RESULT_SHEET);
+      record.writeVarInt(stageId);
+      record.writeVarInt(riderIds.length);
+      for (int row = 0; row < riderIds.length; row++) {
+        record.writeVarInt(riderIds[row]);
+        writeTimes(record, checkpointTimes[row]);
+      }
+      sequence = append(record);
+    }
+    commit(sequence);
+  }
+
+  @Override
+  public boolean registerCheckpointPass(int stageId, int riderId, int ordinal, LocalTime time)
+      throws IDNotRecognisedException, DuplicatedResultException,
+      InvalidCheckpointTimesException, InvalidStageStateException {
+    boolean completed;
+    long sequence;
+    synchronized (changeLock) {
+      completed = portal.registerCheckpointPass(stageId, riderId, ordinal, time);
+      BinaryBuffer record = record(REGISTER_PASS);
+      record.writeVarInt(stageId);
+      record.writeVarInt(riderId);
+      record.writeVarInt(ordinal);
+      record.writeVarLong(time.toNanoOfDay());
+      sequence = append(record);
+    }
+    commit(sequence);
+    return completed;
+  }
+
+  @Override
+  public LocalTime[] getRiderResultsInStage(int stageId, int riderId)
+      throws IDNotRecognisedException {
+    return portal.getRiderResultsInStage(stageId, riderId);
+  }
+
+  @Override
+  public LocalTime getRiderAdjustedElapsedTimeInStage(int stageId, int riderId)
+      throws IDNotRecognisedException {
+    return portal.getRiderAdjustedElapsedTimeInStage(stageId, riderId);
+  }
+
+  @Override
+  public void deleteRiderResultsInStage(int stageId, int riderId)
+      throws IDNotRecognisedException {
+    long sequence;
+    synchronized (changeLock) {
+      portal.deleteRiderResultsInStage(stageId, riderId);
+      BinaryBuffer record = record(DELETE_RESULTS);
+      record.writeVarInt(stageId);
+      record.writeVarInt(riderId);
+      sequence = append(record);
+    }
+    commit(sequence);
+  }
+
+  @Override
+  public int[] getRidersRankInStage(int stageId) throws IDNotRecognisedException {
+    return portal.getRidersRankInStage(stageId);
+  }
+
+  @Override
+  public LocalTime[] getRankedAdjustedElapsedTimesInStage(int stageId)
+      throws IDNotRecognisedException {
+    return portal.getRankedAdjustedElapsedTimesInStage(stageId);
+  }
+
+  @Override
+  public int[] getRidersPointsInStage(int stageId) throws IDNotRecognisedException {
+    return portal.getRidersPointsInStage(stageId);
+  }
+
+  @Override
+  public int[] getRidersMountainPointsInStage(int stageId) throws IDNotRecognisedException {
+    return portal.getRidersMountainPointsInStage(stageId);
+  }
+
+  @Override
+  public void eraseCyclingPortal() {
+    long sequence;
+    synchronized (changeLock) {
+      portal.eraseCyclingPortal();
+      sequence = append(record(ERASE));
+    }
+    commit(sequence);
+  }
+
+  @Override
+  public void saveCyclingPortal(String filename) throws IOException {
+    synchronized (changeLock) {
+      portal.saveCyclingPortal(filename);
+      if (isSnapshot(filename)) {
+        restartJournal(); // Everything journaled so far is in the snapshot
+      }
+    }
+  }
+
+  /**
+   * Save the portal's contents to a file. Saving to the snapshot the portal recovers from
+   * finishes before returning: the journal has to move on to the new snapshot at the same
+   * moment the snapshot replaces the old one, or a crash in between would leave a journal
+   * that follows on from neither. Any other file is only a copy, so is left to the wrapped
+   * portal to finish in the background.
+   *
+   * @param filename Location of the file to be saved.
+   * @return A future completed once the file is written, or exceptionally with the
+   *         IOException if there was a problem writing the file or starting the new
+   *         journal.
+   */
+  @Override
+  public CompletableFuture<Void> saveCyclingPortalAsync(String filename) {
+    if (!isSnapshot(filename)) {
+      synchronized (changeLock) {
+        return portal.saveCyclingPortalAsync(filename);
+      }
+    }
+    CompletableFuture<Void> saved = new CompletableFuture<Void>();
+    try {
+      saveCyclingPortal(filename);
+      saved.complete(null);
+    } catch (IOException e) {
+      saved.completeExceptionally(e);
+    }
+    return saved;
+  }
+
+  @Override
+  public void loadCyclingPortal(String filename) throws IOException, ClassNotFoundException {
+    synchronized (changeLock) {
+      portal.loadCyclingPortal(filename);
+      if (!isSnapshot(filename)) {
+        // The journal can only follow on from the snapshot recovered from, so that has to
+        // hold what was loaded. Until it does, a crash recovers the portal as it was.
+        portal.saveCyclingPortal(snapshot.toString());
+      }
+      restartJournal();
+    }
+  }
+
+  @Override
+  public void removeRaceByName(String name) throws NameNotRecognisedException {
+    long sequence;
+    synchronized (changeLock) {
+      portal.removeRaceByName(name);
+      BinaryBuffer record = record(REMOVE_RACE_BY_NAME);
+      record.writeString(name);
+      sequence = append(record);
+    }
+    commit(sequence);
+  }
+
+  @Override
+  public LocalTime[] getGeneralClassificationTimesInRace(int raceId)
+      throws IDNotRecognisedException {
+    return portal.getGeneralClassificationTimesInRace(raceId);
+  }
+
+  @Override
+  public int[] getRidersPointsInRace(int raceId) throws IDNotRecognisedException {
+    return portal.getRidersPointsInRace(raceId);
+  }
+
+  @Override
+  public int[] getRidersMountainPointsInRace(int raceId) throws IDNotRecognisedException {
+    return portal.getRidersMountainPointsInRace(raceId);
+  }
+
+  @Override
+  public int[] getRidersGeneralClassificationRank(int raceId) throws IDNotRecognisedException {
+    return portal.getRidersGeneralClassificationRank(raceId);
+  }
+
+  @Override
+  public int[] getRidersPointClassificationRank(int raceId) throws IDNotRecognisedException {
+    return portal.getRidersPointClassificationRank(raceId);
+  }
+
+  @Override
+  public int[] getRidersMountainPointClassificationRank(int raceId)
+      throws IDNotRecognisedException {
+    return portal.getRidersMountainPointClassificationRank(raceId);
+  }
+
+  @Override
+  public void addStageListener(int stageId, ClassificationListener listener)
+      throws IDNotRecognisedException {
+    portal.addStageListener(stageId, listener);
+  }
+
+  @Override
+  public void removeStageListener(int stageId, ClassificationListener listener)
+      throws IDNotRecognisedException {
+    portal.removeStageListener(stageId, listener);
+  }
+
+  @Override
+  public void addRaceListener(int raceId, ClassificationListener listener)
+      throws IDNotRecognisedException {
+    portal.addRaceListener(raceId, listener);
+  }
+
+  @Override
+  public void removeRaceListener(int raceId, ClassificationListener listener)
+      throws IDNotRecognisedException {
+    portal.removeRaceListener(raceId, listener);
+  }
+
+  @Override
+  public ClassificationResult getTopRidersInStage(int stageId, ClassificationType type, int k)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    return portal.getTopRidersInStage(stageId, type, k);
+  }
+
+  @Override
+  public ClassificationResult getTopRidersInRace(int raceId, ClassificationType type, int k)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    return portal.getTopRidersInRace(raceId, type, k);
+  }
+
+  @Override
+  public ClassificationPage getStageClassificationPage(int stageId, ClassificationType type,
+                                                       int offset, int limit)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    return portal.getStageClassificationPage(stageId, type, offset, limit);
+  }
+
+  @Override
+  public ClassificationPage getRaceClassificationPage(int raceId, ClassificationType type,
+                                                      int offset, int limit)
+      throws IDNotRecognisedException, IllegalArgumentException {
+    return portal.getRaceClassificationPage(raceId, type, offset, limit);
+  }
+
+  @Override
+  public ClassificationPage getStageClassificationPage(int stageId, ClassificationType type,
+                                                       long version, int offset, int limit)
+      throws IDNotRecognisedException, IllegalArgumentException, VersionNotAvailableException {
+    return portal.getStageClassificationPage(stageId, type, version, offset, limit);
+  }
+
+  @Override
+  public ClassificationPage getRaceClassificationPage(int raceId, ClassificationType type,
+                                                      long version, int offset, int limit)
+      throws IDNotRecognisedException, IllegalArgumentException, VersionNotAvailableException {
+    return portal.getRaceClassificationPage(raceId, type, version, offset, limit);
+  }
+}
@@ -0,0 +1,641 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Writes and reads the compact binary snapshot a portal is saved as.
+ * Only the primitive fields of each entity are written, with IDs and counts as varints and
+ * times as nanoseconds, each checkpoint and finish time being the (usually small) gap from
+ * the time before. The cached rankings are not saved, they are rebuilt when first used.
+ *
+ * <p>The layout is the magic number, format version, a CRC32 of everything after it and
+ * where the race table starts, then:
+ * <pre>
+ *   teams:  removed team IDs, count, then per team    id, name, description, rider count,
+ *           then per rider          id, name, year of birth, registered stage IDs
+ *   races:  per race                id, name, description
+ *   stages: per stage               id, name, description, type, length, start time,
+ *                                   prepared, checkpoints, results, partial results
+ *   table:  removed race IDs, count, then per race    id, name, offset of the race,
+ *           stage count, then per stage   id, name, file, offset, checkpoint IDs
+ * </pre>
+ * The table is all that has to be read to know every ID and name in the snapshot, so
+ * loading reads the teams and the table and leaves each race to be read when it is first
+ * used. A snapshot is either the base of a {@link SnapshotChain}, holding everything, or
+ * a delta holding only what changed since the file before it: the teams and races that
+ * changed or were removed, and the stages that changed. A delta's table gives the file and
+ * offset of every stage of each race it holds, most of them in earlier files.
+ * The checksum is checked when the file is loaded, and everything read is checked to fit
+ * together, such as no ID or result appearing twice, so a damaged file is an IOException
+ * rather than a portal holding the wrong data.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class PortalSnapshot extends BinaryBuffer {
+  // "CYCL", which can't be the start of a Java serialization stream (0xACED)
+  protected static final int MAGIC = 0x4359434C;
+  private static final int FORMAT_VERSION = 4;
+  private static final int CHECKSUM_OFFSET = 5; // after the magic number and version
+  private static final int TABLE_POSITION_OFFSET = 9; // the first byte the checksum covers
+  private static final int HEADER_SIZE = 13;
+  private static final long NANOS_PER_DAY = 86_400_000_000_000L;
+
+  private static final int SPRINT = 0;
+  private static final int CLIMB = 1;
+  private static final int INITIAL_CAPACITY = 1 << 16;
+  private static final int INITIAL_DELTA_CAPACITY = 1 << 12;
+
+  /**
+   * Constructor for the PortalSnapshot class.
+   *
+   * @param buffer the buffer to write to or read from
+   */
+  private PortalSnapshot(ByteBuffer buffer) {
+    super(buffer);
+  }
+
+  /**
+   * Write a captured portal's teams and races, as the base of a new chain.
+   *
+   * @param image     the portal captured by {@link SerializedData}
+   * @param locations filled in with where each stage was written, format of
+   *                  <stageId, {file index, offset}>
+   * @return the snapshot, from position 0 to the limit
+   */
+  protected static ByteBuffer write(SerializedData image, Map<Integer, int[]> locations) {
+    PortalSnapshot out = new PortalSnapshot(ByteBuffer.allocate(INITIAL_CAPACITY));
+    out.writeSnapshot(image, null, 0, locations);
+    return out.buffer;
+  }
+
+  /**
+   * Write the teams, races and stages of a portal that changed since it was last saved
+   * to or loaded from a chain, as the chain's next delta.
+   *
+   * @param image     the changes captured by {@link SerializedData}
+   * @param chain     the chain, which says where the stages that didn't change are
+   * @param fileIndex where the delta goes in the chain
+   * @param locations filled in with where each stage was written, format of
+   *                  <stageId, {file index, offset}>
+   * @return the delta, from position 0 to the limit
+   */
+  protected static ByteBuffer writeDelta(SerializedData image, SnapshotChain chain,
+                                         int fileIndex, Map<Integer, int[]> locations) {
+    PortalSnapshot out = new PortalSnapshot(ByteBuffer.allocate(INITIAL_DELTA_CAPACITY));
+    out.writeSnapshot(image, chain, fileIndex, locations);
+    return out.buffer;
+  }
+
+  /**
+   * Read a snapshot's teams, held against a scratch allocator until the caller attaches
+   * them to a portal, along with an archive of its races to be read as they are needed.
+   * The magic number must already have been read. The buffer is kept by the archive, so
+   * must not change while any of its races are unread.
+   *
+   * @param buffer the snapshot positioned just after the magic number
+   * @return the loaded teams and archive
+   * @throws IOException if the snapshot is not valid
+   */
+  protected static SerializedData read(ByteBuffer buffer) throws IOException {
+    HashMap<Integer, Team> teams = new HashMap<Integer, Team>();
+    RaceArchive archive = new RaceArchive(new ByteBuffer[]{buffer.duplicate()});
+    try {
+      new PortalSnapshot(buffer).readFile(0, teams, archive, new IdAllocator());
+      return new SerializedData(new HashMap<Integer, Race>(), teams, archive);
+    } catch (BufferUnderflowException | IllegalArgumentException | DateTimeException e) {
+      // Position throws IllegalArgumentException if the table is past the end
+      throw new IOException("Snapshot ends part way through or is damaged", e);
+    }
+  }
+
+  /**
+   * Read the teams and race tables of every file of a chain, each file replacing the
+   * teams and races it holds. The buffers are kept by the archive, so must not change
+   * while any of its races are unread.
+   *
+   * @param files the base then each delta, each from position 0
+   * @return the loaded teams and archive
+   * @throws IOException if a file is not valid
+   */
+  protected static SerializedData readChain(ByteBuffer[] files) throws IOException {
+    HashMap<Integer, Team> teams = new HashMap<Integer, Team>();
+    RaceArchive archive = new RaceArchive(files);
+    IdAllocator scratch = new IdAllocator();
+    for (int i = 0; i < files.length; i++) {
+      try {
+        ByteBuffer buffer = files[i].duplicate();
+        if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+          throw new IOException("File " + i + " of the chain is not a snapshot");
+        }
+        new PortalSnapshot(buffer).readFile(i, teams, archive, scratch);
+      } catch (BufferUnderflowException | IllegalArgumentException | DateTimeException e) {
+        throw new IOException("File " + i + " of the chain ends part way through or is damaged",
+            e);
+      }
+    }
+    return new SerializedData(new HashMap<Integer, Race>(), teams, archive);
+  }
+
+  /**
+   * Read one race from wherever the files of a chain hold its details and stages.
+   *
+   * @param files        the base then each delta, which are left untouched
+   * @param raceFile     which file holds the race's details
+   * @param raceOffset   where the race's details start in that file
+   * @param stageFiles   which file holds each stage
+   * @param stageOffsets where each stage starts in its file
+   * @return the race, held against a scratch allocator until the caller attaches it
+   * @throws IOException if the race or a stage is not valid
+   */
+  protected static Race readRace(ByteBuffer[] files, int raceFile, int raceOffset,
+                                 int[] stageFiles, int[] stageOffsets) throws IOException {
+    IdAllocator scratch = new IdAllocator();
+    try {
+      ByteBuffer buffer = files[raceFile].duplicate();
+      buffer.position(raceOffset);
+      PortalSnapshot in = new PortalSnapshot(buffer);
+      Race race = new Race(in.readVarInt(), in.readString(), in.readString(), scratch);
+      for (int i = 0; i < stageFiles.length; i++) {
+        buffer = files[stageFiles[i]].duplicate();
+        buffer.position(stageOffsets[i]);
+        race.addStage(new PortalSnapshot(buffer).readStage(race, scratch));
+      }
+      return race;
+    } catch (BufferUnderflowException | IllegalArgumentException | DateTimeException e) {
+      throw new IOException("Race at " + raceOffset + " of file " + raceFile
+          + " ends part way through or is damaged", e);
+    }
+  }
+
+  /**
+   * Write a snapshot holding the captured teams and races, and the removals.
+   *
+   * @param image     the captured teams and races
+   * @param chain     where the stages that didn't change are, or null to write every stage
+   * @param fileIndex where the snapshot goes in its chain
+   * @param locations filled in with where each stage was written
+   */
+  private void writeSnapshot(SerializedData image, SnapshotChain chain, int fileIndex,
+                             Map<Integer, int[]> locations) {
+    buffer.putInt(MAGIC);
+    writeByte(FORMAT_VERSION);
+    buffer.putInt(0); // The checksum, filled in once everything else is written
+    buffer.putInt(0); // Where the table starts, filled in once the races are written
+
+    writeIds(image.getRemovedTeams());
+    Collection<Team> teams = image.getTeams().values();
+    writeVarInt(teams.size());
+    for (Team team : teams) {
+      writeTeam(team);
+    }
+
+    // Write each race's details and its stages, remembering where they start for the table
+    Collection<Race> races = image.getRaces().values();
+    HashMap<Integer, Integer> offsets = new HashMap<Integer, Integer>();
+    for (Race race : races) {
+      offsets.put(race.getId(), buffer.position());
+      writeVarInt(race.getId());
+      writeString(race.getName());
+      writeString(race.getDescription());
+    }
+    Set<Integer> changedStages = image.getChangedStages();
+    for (Race race : races) {
+      for (Stage stage : race.getStages().values()) {
+        int[] location = (chain == null) ? null : chain.getStageLocation(stage.getId());
+        if (location == null || changedStages == null || changedStages.contains(stage.getId())) {
+          locations.put(stage.getId(), new int[]{fileIndex, buffer.position()});
+          writeStage(stage);
+        }
+      }
+    }
+
+    buffer.putInt(TABLE_POSITION_OFFSET, buffer.position());
+    writeIds(image.getRemovedRaces());
+    writeVarInt(races.size());
+    for (Race race : races) {
+      writeTableEntry(race, offsets.get(race.getId()), chain, locations);
+    }
+    buffer.flip();
+    buffer.putInt(CHECKSUM_OFFSET, checksum(buffer));
+  }
+
+  /**
+   * Work out the checksum of a snapshot, which covers everything after the checksum.
+   *
+   * @param snapshot the whole snapshot, which is left untouched
+   * @return the CRC32 of the bytes from the table position to the limit
+   */
+  private static int checksum(ByteBuffer snapshot) {
+    ByteBuffer covered = snapshot.duplicate();
+    covered.position(TABLE_POSITION_OFFSET);
+    CRC32 crc = new CRC32();
+    crc.update(covered);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Read a count of things that follow, each of which takes at least a byte.
+   *
+   * @return the count
+   * @throws IOException if there aren't that many bytes left
+   */
+  private int readCount() throws IOException {
+    int count = readVarInt();
+    if (count > buffer.remaining()) {
+      throw new IOException("Count of " + count + " is more than is left of the snapshot");
+    }
+    return count;
+  }
+
+  /**
+   * Read a time of day in nanoseconds, such as a result's time.
+   *
+   * @param nanos the time read
+   * @return the time
+   * @throws IOException if it isn't a time of day
+   */
+  private static long checkTime(long nanos) throws IOException {
+    if (nanos < 0 || nanos >= NANOS_PER_DAY) {
+      throw new IOException("Time " + nanos + " is not a time of day");
+    }
+    return nanos;
+  }
+
+  /**
+   * Read the teams and race table of a snapshot file. Teams and races the file removes or
+   * holds replace those read from earlier files.
+   *
+   * @param fileIndex   where the file is in its chain
+   * @param teams       the teams read so far, format of <teamId, team>
+   * @param archive     the races read so far
+   * @param idAllocator the allocator the teams take their IDs in
+   * @throws IOException if the snapshot is not valid
+   */
+  private void readFile(int fileIndex, HashMap<Integer, Team> teams, RaceArchive archive,
+                        IdAllocator idAllocator) throws IOException {
+    int version = readByte();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported snapshot format version " + version);
+    }
+    if (buffer.getInt() != checksum(buffer)) {
+      throw new IOException("Snapshot checksum doesn't match, the file is damaged");
+    }
+    int tablePosition = buffer.getInt();
+    if (tablePosition < HEADER_SIZE) {
+      throw new IOException("Race table at " + tablePosition + " is inside the header");
+    }
+
+    for (int teamId : readIds()) {
+      teams.remove(teamId);
+    }
+    HashSet<Integer> teamIds = new HashSet<Integer>();
+    int teamCount = readCount();
+    for (int i = 0; i < teamCount; i++) {
+      Team team = readTeam(idAllocator);
+      if (!teamIds.add(team.getId())) {
+        throw new IOException("Team " + team.getId() + " appears twice");
+      }
+      teams.put(team.getId(), team);
+    }
+
+    // Skip over the races to the table
+    buffer.position(tablePosition);
+    for (int raceId : readIds()) {
+      archive.removeRace(raceId);
+    }
+    HashSet<Integer> raceIds = new HashSet<Integer>();
+    int raceCount = readCount();
+    for (int i = 0; i < raceCount; i++) {
+      RaceArchive.Entry entry = readTableEntry(fileIndex);
+      if (!raceIds.add(entry.getRaceId())) {
+        throw new IOException("Race " + entry.getRaceId() + " appears twice in the table");
+      }
+      archive.addEntry(entry);
+    }
+  }
+
+  /**
+   * Write a list of IDs, such as of removed teams.
+   *
+   * @param ids the IDs
+   */
+  private void writeIds(Collection<Integer> ids) {
+    writeVarInt(ids.size());
+    for (int id : ids) {
+      writeVarInt(id);
+    }
+  }
+
+  /**
+   * Read a list of IDs written by {@link #writeIds(Collection)}.
+   *
+   * @return the IDs
+   * @throws IOException if a varint is not valid
+   */
+  private int[] readIds() throws IOException {
+    int[] ids = new int[readCount()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = readVarInt();
+    }
+    return ids;
+  }
+
+  /**
+   * Write a race's entry in the race table.
+   *
+   * @param race      the race
+   * @param offset    where the race's details were written
+   * @param chain     where stages not written in this file are, or null if every stage is
+   * @param locations where each stage written in this file is
+   */
+  private void writeTableEntry(Race race, int offset, SnapshotChain chain,
+                               Map<Integer, int[]> locations) {
+    writeVarInt(race.getId());
+    writeString(race.getName());
+    writeVarInt(offset);
+
+    HashMap<Integer, Stage> stages = race.getStages();
+    writeVarInt(stages.size());
+    for (Stage stage : stages.values()) {
+      writeVarInt(stage.getId());
+      writeString(stage.getName());
+      int[] location = locations.get(stage.getId());
+      if (location == null) {
+        location = chain.getStageLocation(stage.getId());
+      }
+      writeVarInt(location[0]);
+      writeVarInt(location[1]);
+      ArrayList<Checkpoint> checkpoints = stage.getCheckpoints();
+      writeVarInt(checkpoints.size());
+      for (Checkpoint checkpoint : checkpoints) {
+        writeVarInt(checkpoint.getId());
+      }
+    }
+  }
+
+  /**
+   * Read a race's entry in the race table.
+   *
+   * @param fileIndex where the file is in its chain
+   * @return the entry
+   * @throws IOException if the entry is not valid
+   */
+  private RaceArchive.Entry readTableEntry(int fileIndex) throws IOException {
+    int raceId = readVarInt();
+    String raceName = readString();
+    if (raceName == null) {
+      throw new IOException("Race " + raceId + " has no name");
+    }
+    int offset = readVarInt();
+
+    int stageCount = readCount();
+    int[] stageIds = new int[stageCount];
+    String[] stageNames = new String[stageCount];
+    int[] stageFiles = new int[stageCount];
+    int[] stageOffsets = new int[stageCount];
+    ArrayList<Integer> checkpointIds = new ArrayList<Integer>();
+    for (int i = 0; i < stageCount; i++) {
+      stageIds[i] = readVarInt();
+      stageNames[i] = readString();
+      if (stageNames[i] == null) {
+        throw new IOException("Stage " + stageIds[i] + " has no name");
+      }
+      stageFiles[i] = readVarInt();
+      stageOffsets[i] = readVarInt();
+      if (stageFiles[i] > fileIndex) {
+        throw new IOException("Stage " + stageIds[i] + " is in a later file");
+      }
+      int checkpointCount = readCount();
+      for (int c = 0; c < checkpointCount; c++) {
+        checkpointIds.add(readVarInt());
+      }
+    }
+    return new RaceArchive.Entry(raceId, raceName, fileIndex, offset, stageIds, stageNames,
+        stageFiles, stageOffsets, checkpointIds.stream().mapToInt(Integer::intValue).toArray());
+  }
+
+  /**
+   * Write a team and its riders.
+   *
+   * @param team the team
+   */
+  private void writeTeam(Team team) {
+    writeVarInt(team.getId());
+    writeString(team.getName());
+    writeString(team.getDescription());
+
+    HashMap<Integer, Rider> riders = team.getRiders();
+    writeVarInt(riders.size());
+    for (Rider rider : riders.values()) {
+      writeVarInt(rider.getId());
+      writeString(rider.getName());
+      writeVarLong(zigZag(rider.getYearOfBirth()));
+      ArrayList<Integer> stages = rider.getRegisteredStages();
+      writeVarInt(stages.size());
+      for (int stageId : stages) {
+        writeVarInt(stageId);
+      }
+    }
+  }
+
+  /**
+   * Read a team and its riders.
+   *
+   * @param idAllocator the allocator the entities take their IDs in
+   * @return the team
+   * @throws IOException if the team is not valid
+   */
+  private Team readTeam(IdAllocator idAllocator) throws IOException {
+    Team team = new Team(readVarInt(), readString(), readString(), idAllocator);
+
+    int riderCount = readCount();
+    for (int i = 0; i < riderCount; i++) {
+      int riderId = readVarInt();
+      String name = readString();
+      int yearOfBirth = (int) unZigZag(readVarLong());
+      if (team.getRiders().containsKey(riderId)) {
+        throw new IOException("Rider " + riderId + " appears twice in team " + team.getId());
+      }
+      Rider rider = new Rider(riderId, name, yearOfBirth, team, idAllocator);
+      team.addRider(rider);
+
+      // Registrations are only stage IDs, so the stages needn't have been read yet
+      int stageCount = readCount();
+      for (int s = 0; s < stageCount; s++) {
+        rider.registerForStage(readVarInt());
+      }
+    }
+    return team;
+  }
+
+  /**
+   * Write a stage, its checkpoints and its results.
+   *
+   * @param stage the stage
+   */
+  private void writeStage(Stage stage) {
+    writeVarInt(stage.getId());
+    writeString(stage.getName());
+    writeString(stage.getDescription());
+    writeEnum(stage.getType());
+    writeDouble(stage.getLength());
+    writeDateTime(stage.getStartTime());
+    writeBoolean(stage.getPrepared());
+
+    ArrayList<Checkpoint> checkpoints = stage.getCheckpoints();
+    writeVarInt(checkpoints.size());
+    for (Checkpoint checkpoint : checkpoints) {
+      writeVarInt(checkpoint.getId());
+      writeByte((checkpoint instanceof Climb) ? CLIMB : SPRINT);
+      writeEnum(checkpoint.getType());
+      writeDouble(checkpoint.getLocation());
+      if (checkpoint instanceof Climb) {
+        Climb climb = (Climb) checkpoint;
+        writeDouble(climb.getLength());
+        writeOptionalDouble(climb.getAverageGradient());
+      }
+    }
+    if (!stage.getPrepared()) {
+      return; // Results can't be registered until the stage is prepared
+    }
+
+    // Each time after the start is written as the gap from the time before it
+    StageResults results = stage.getResults();
+    writeVarInt(results.size());
+    for (int slot = 0; slot < results.size(); slot++) {
+      writeVarInt(results.getRider(slot));
+      long previous = results.getStartTime(slot);
+      writeVarLong(previous);
+      for (int i = 0; i < results.getCheckpointCount(); i++) {
+        long passTime = results.getPassTime(i, slot);
+        writeVarLong(zigZag(passTime - previous));
+        previous = passTime;
+      }
+      writeVarLong(zigZag(results.getFinishTime(slot) - previous));
+    }
+
+    // Passes not received yet are -1, so shift every time up by one to stay unsigned
+    HashMap<Integer, long[]> partialResults = stage.getPartialResults();
+    writeVarInt(partialResults.size());
+    for (Map.Entry<Integer, long[]> partial : partialResults.entrySet()) {
+      writeVarInt(partial.getKey());
+      for (long nanos : partial.getValue()) {
+        writeVarLong(nanos + 1);
+      }
+    }
+  }
+
+  /**
+   * Read a stage, its checkpoints and its results.
+   *
+   * @param race        the race the stage belongs to
+   * @param idAllocator the allocator the entities take their IDs in
+   * @return the stage
+   * @throws IOException if the stage is not valid
+   */
+  private Stage readStage(Race race, IdAllocator idAllocator) throws IOException {
+    int stageId = readVarInt();
+    String name = readString();
+    String description = readString();
+    StageType type = readEnum(StageType.values());
+    double length = readDouble();
+    LocalDateTime startTime = readDateTime();
+    boolean prepared = readBoolean();
+    if (name == null || type == null) {
+      throw new IOException("Stage " + stageId + " has no name or type");
+    }
+    Stage stage = new Stage(stageId, name, description, type, length, startTime, race,
+        idAllocator);
+
+    HashSet<Integer> checkpointIds = new HashSet<Integer>();
+    int checkpointCount = readCount();
+    for (int i = 0; i < checkpointCount; i++) {
+      int checkpointId = readVarInt();
+      if (!checkpointIds.add(checkpointId)) {
+        throw new IOException("Checkpoint " + checkpointId + " appears twice in stage " + stageId);
+      }
+      int kind = readByte();
+      CheckpointType checkpointType = readEnum(CheckpointType.values());
+      if (checkpointType == null) {
+        throw new IOException("Checkpoint " + checkpointId + " has no type");
+      }
+      Double location = readDouble();
+      if (kind == CLIMB) {
+        Double climbLength = readDouble();
+        Double gradient = readOptionalDouble();
+        stage.addCheckpoint(new Climb(checkpointId, checkpointType, location, climbLength,
+            gradient, stage, idAllocator));
+      } else if (kind == SPRINT) {
+        stage.addCheckpoint(new IntermediateSprint(checkpointId, location, stage, idAllocator));
+      } else {
+        throw new IOException("Unknown checkpoint kind " + kind + " in stage " + stageId);
+      }
+    }
+    if (!prepared) {
+      return stage;
+    }
+    try {
+      stage.concludePreparation();
+    } catch (InvalidStageStateException e) {
+      assert false : "New stage was already prepared";
+    }
+
+    // Results were checked when registered, so times out of order mean the file is damaged
+    HashSet<Integer> riders = new HashSet<Integer>();
+    int resultCount = readCount();
+    int[] riderIds = new int[resultCount];
+    long[][] nanos = new long[resultCount][checkpointCount + 2];
+    for (int row = 0; row < resultCount; row++) {
+      riderIds[row] = readVarInt();
+      if (!riders.add(riderIds[row])) {
+        throw new IOException("Rider " + riderIds[row] + " has two results in stage " + stageId);
+      }
+      long[] times = nanos[row];
+      times[0] = checkTime(readVarLong());
+      for (int i = 1; i < times.length; i++) {
+        long gap = unZigZag(readVarLong());
+        if (gap < 0) {
+          throw new IOException("Rider " + riderIds[row] + "'s times in stage " + stageId
+              + " are out of order");
+        }
+        times[i] = checkTime(times[i - 1] + gap);
+      }
+    }
+    stage.restoreResults(riderIds, nanos);
+
+    int partialCount = readCount();
+    for (int i = 0; i < partialCount; i++) {
+      int riderId = readVarInt();
+      if (!riders.add(riderId)) {
+        throw new IOException("Rider " + riderId + " has two results in stage " + stageId);
+      }
+      long[] times = new long[checkpointCount + 2];
+      long previous = 0;
+      for (int t = 0; t < times.length; t++) {
+        times[t] = readVarLong() - 1;
+        if (times[t] >= 0) {
+          if (checkTime(times[t]) < previous) {
+            throw new IOException("Rider " + riderId + "'s passes in stage " + stageId
+                + " are out of order");
+          }
+          previous = times[t];
+        }
+      }
+      stage.restorePartialResults(riderId, times);
+    }
+    return stage;
+  }
+}
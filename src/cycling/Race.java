@@ -2,8 +2,13 @@ package cycling;
 
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.function.Function;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Class to represent an entire Race in the system.
@@ -13,21 +18,43 @@ import java.util.function.Function;
  * @version 1.0
  */
 class Race extends Entity {
+  private static final long serialVersionUID = 3418340763462334314L;
+  private static final long NANOS_PER_DAY = 86_400_000_000_000L;
+  // Races with fewer stages than this are classified on the caller thread, as handing the
+  // work to the pool costs more than it saves
+  private static final int PARALLEL_STAGE_THRESHOLD = 4;
+
   private final String name;
   private final String description;
   // Hashmap of the stages belonging to this race
   private final HashMap<Integer, Stage> stages = new HashMap<>();
 
+  // Running general classification, only the stages whose results changed get reapplied.
+  // These are rebuilt from the stages on first use after loading, and only touched while
+  // holding this race's monitor as results for different stages may arrive concurrently.
+  private transient HashMap<Integer, long[]> gcTotals; // <riderId, {summed nanos, stages}>
+  private transient HashMap<Integer, StageTimes> gcApplied; // <stageId, times in gcTotals>
+  private transient HashSet<Integer> gcStale; // stages whose results changed since applied
+  private transient int[] gcRanking; // riderIds in GC order, null until sorted
+  private transient long[] gcRankingTimes; // summed nanos in the same order
+  // <riderId, {sprint points, mountain points}> summed over every stage, null when stale
+  private transient HashMap<Integer, int[]> pointsTotals;
+  // Ranked classifications pages are cut from, out of date whenever a stage's results change
+  private transient ClassificationHistory snapshots;
+  private transient ClassificationPublisher publisher; // null until a listener is added
+
   /**
    * Constructor for the Race class.
    *
    * @param name        Name of the race
    * @param description Description of the race
+   * @param idAllocator The ID allocator of the portal creating the race
    * @throws InvalidNameException When the name is empty/null, too long/short, or
    *                              contains whitespace
    */
-  protected Race(String name, String description) throws InvalidNameException {
-    super(); // Call the entity constructor
+  protected Race(String name, String description, IdAllocator idAllocator)
+      throws InvalidNameException {
+    super(idAllocator); // Call the entity constructor
 
     // Check for invalid (rule breaking) name
     if (name == null || name.length() > 30 || name.isEmpty() || name.contains(" ")) {
@@ -41,6 +68,21 @@ class Race extends Entity {
     this.description = description;
   }
 
+  /**
+   * Constructor for restoring a saved race with its ID, the name was checked when it was
+   * first created.
+   *
+   * @param id          The ID the race had when it was saved
+   * @param name        Name of the race
+   * @param description Description of the race
+   * @param idAllocator The ID allocator of the portal the race is loaded into
+   */
+  protected Race(int id, String name, String description, IdAllocator idAllocator) {
+    super(id, idAllocator);
+    this.name = name;
+    this.description = description;
+  }
+
   /**
    * Getter for the Race's name.
    *
@@ -50,6 +92,15 @@ class Race extends Entity {
     return name;
   }
 
+  /**
+   * Getter for the Race's description.
+   *
+   * @return The description of the Race instance
+   */
+  protected String getDescription() {
+    return description;
+  }
+
   /**
    * Gets a short text description of the race.
    * Format: "Name: [name], Description: [description], Number of stages: [number
@@ -100,10 +151,26 @@ class Race extends Entity {
   protected void addStage(Stage stage) {
     int stagesBefore = stages.size();
     stages.put(stage.getId(), stage);
+    stageResultsChanged(stage.getId());
     // Check that the stage was added to the list
     assert stages.size() == stagesBefore + 1 : "Stage was not added to the list";
   }
 
+  /**
+   * Take a copy of the race and its stages as they are now for saving, detached from the
+   * portal, which later changes to the race don't affect.
+   *
+   * @param idAllocator a scratch allocator for the copies' IDs
+   * @return the copy, which must only be read
+   */
+  protected Race capture(IdAllocator idAllocator) {
+    Race copy = new Race(id, name, description, idAllocator);
+    for (Stage stage : stages.values()) {
+      copy.addStage(stage.capture(copy, idAllocator));
+    }
+    return copy;
+  }
+
   /**
    * Removes a stage from the list of stages that belong to this race.
    * Does not delete the stage, just removes it from the list.
@@ -113,6 +180,7 @@ class Race extends Entity {
   protected void removeStage(int stageId) {
     int stagesBefore = stages.size();
     stages.remove((Integer) stageId);
+    stageResultsChanged(stageId); // its times come back out of the GC
     // assert that the stage was removed from the list
     assert stages.size() == stagesBefore - 1 : "Stage was not removed from the list";
   }
@@ -132,11 +200,15 @@ class Race extends Entity {
    *
    * @return An array of Localtimes of the riders' general classification times
    */
-  protected LocalTime[] getRidersGeneralClassificationTimes() {
-    Function<Integer, LocalTime> func = this::getRiderGeneralClassificationTime;
-    PointsHandler<LocalTime> pointsHandler = new PointsHandler<LocalTime>(func, false,
-        new ArrayList<Stage>(stages.values()));
-    return pointsHandler.getRiderTimes();
+  protected synchronized LocalTime[] getRidersGeneralClassificationTimes() {
+    sortGeneralClassification();
+
+    LocalTime[] times = new LocalTime[gcRankingTimes.length];
+    for (int i = 0; i < times.length; i++) {
+      // A race is assumed to fit in a day, wrap like LocalTime would if it doesn't
+      times[i] = LocalTime.ofNanoOfDay(gcRankingTimes[i] % NANOS_PER_DAY);
+    }
+    return times;
   }
 
   /**
@@ -144,57 +216,203 @@ class Race extends Entity {
    *
    * @return The ordered riderIds of who came 1st 2nd etc
    */
-  protected int[] getRidersGeneralClassificationRanks() {
-    Function<Integer, LocalTime> func = this::getRiderGeneralClassificationTime;
-    PointsHandler<LocalTime> pointsHandler = new PointsHandler<LocalTime>(func, false,
-        new ArrayList<Stage>(stages.values()));
-
-    return pointsHandler.getRiderRanks();
+  protected synchronized int[] getRidersGeneralClassificationRanks() {
+    sortGeneralClassification();
+    return gcRanking.clone();
   }
 
   /**
-   * Gets the general classification time for a rider across all race stages.
+   * Marks a stage's results as changed so its times get reapplied to the general
+   * classification the next time it is queried.
    *
-   * @param riderId The riderID to check
-   * @return The total time for the rider across all stages
+   * @param stageId The stage whose results changed, or which was added or removed
+   */
+  protected synchronized void stageResultsChanged(int stageId) {
+    pointsTotals = null;
+    if (snapshots != null) {
+      snapshots.resultsChanged(); // Kept for pages of their versions
+    }
+    if (gcTotals == null) {
+      return; // Nothing applied yet, everything gets applied on first use
+    }
+    gcStale.add(stageId);
+    gcRanking = null;
+    gcRankingTimes = null;
+  }
+
+  /**
+   * Brings the running GC totals up to date by taking each changed stage's old times back
+   * out and adding its new ones. Stages that haven't changed are not touched.
    */
-  private LocalTime getRiderGeneralClassificationTime(int riderId) {
-    LocalTime summedTime = LocalTime.of(0, 0, 0);
+  private void updateGeneralClassification() {
+    if (gcTotals == null) {
+      // First use (or just loaded), apply every stage
+      gcTotals = new HashMap<Integer, long[]>();
+      gcApplied = new HashMap<Integer, StageTimes>();
+      gcStale = new HashSet<Integer>(stages.keySet());
+    }
+    if (gcStale.size() >= PARALLEL_STAGE_THRESHOLD) {
+      // Many stages to reapply, sort their finishing orders across the pool first
+      ArrayList<Stage> stale = new ArrayList<Stage>();
+      for (int stageId : gcStale) {
+        Stage stage = stages.get(stageId);
+        if (stage != null && stage.getPrepared()) {
+          stale.add(stage);
+        }
+      }
+      buildFinishingOrders(stale.toArray(new Stage[0]));
+    }
 
-    for (Stage stage : stages.values()) {
-      if (!stage.getPrepared()) {
-        continue;
+    for (int stageId : gcStale) {
+      StageTimes old = gcApplied.remove(stageId);
+      if (old != null) {
+        for (int i = 0; i < old.riders.length; i++) {
+          long[] total = gcTotals.get(old.riders[i]);
+          total[0] -= old.times[i];
+          total[1]--;
+          if (total[1] == 0) { // The rider has no results left in this race
+            gcTotals.remove(old.riders[i]);
+          }
+        }
+      }
+
+      Stage stage = stages.get(stageId);
+      if (stage == null || !stage.getPrepared()) {
+        continue; // Removed, or can't have results yet
+      }
+      StageTimes latest = new StageTimes(stage.getFinishingOrder(),
+          stage.getFinishingAdjustedTimes());
+      for (int i = 0; i < latest.riders.length; i++) {
+        long[] total = gcTotals.computeIfAbsent(latest.riders[i], k -> new long[2]);
+        total[0] += latest.times[i];
+        total[1]++;
       }
+      gcApplied.put(stageId, latest);
+    }
+    gcStale.clear();
+  }
+
+  /**
+   * Sorts the riders by their GC time, unless nothing has changed since the last sort.
+   * Riders on the same time are ordered by ID.
+   */
+  private synchronized void sortGeneralClassification() {
+    updateGeneralClassification();
+    if (gcRanking != null) {
+      return;
+    }
+
+    int[] riders = new int[gcTotals.size()];
+    long[] times = new long[riders.length];
+    int i = 0;
+    for (Map.Entry<Integer, long[]> total : gcTotals.entrySet()) {
+      riders[i] = total.getKey();
+      times[i] = total.getValue()[0];
+      i++;
+    }
 
-      try {
-        LocalTime stageTime = stage.getAdjustedElapsedTime(riderId);
-        summedTime = summedTime.plusHours(stageTime.getHour())
-            .plusMinutes(stageTime.getMinute())
-            .plusSeconds(stageTime.getSecond())
-            .plusNanos(stageTime.getNano());
-      } catch (IDNotRecognisedException e) {
-        // This comes up if a rider isn't in the stage so just do nothing
+    RankingEngine ranking = RankingEngine.rankLongs(riders, times, false);
+    gcRanking = ranking.getRiderRanks();
+    gcRankingTimes = ranking.getRiderScores();
+  }
+
+  /**
+   * The adjusted times a stage contributed to the GC totals, kept so they can be taken
+   * back out when the stage changes. The arrays are the stage's own cached ones, which it
+   * replaces rather than modifies.
+   */
+  private static class StageTimes {
+    private final int[] riders;
+    private final long[] times;
+
+    /**
+     * Constructor for StageTimes.
+     *
+     * @param riders the riders in the stage
+     * @param times  each rider's adjusted elapsed time in nanoseconds
+     */
+    private StageTimes(int[] riders, long[] times) {
+      this.riders = riders;
+      this.times = times;
+    }
+  }
+
+  /**
+   * Sorts the finishing order of each of some stages that isn't already sorted, in
+   * parallel on the common fork/join pool if there are enough of them.
+   *
+   * @param prepared the stages, all prepared
+   */
+  private static void buildFinishingOrders(Stage[] prepared) {
+    if (prepared.length < PARALLEL_STAGE_THRESHOLD) {
+      for (Stage stage : prepared) {
+        stage.getFinishingOrder(); // Too few to be worth the pool
       }
+    } else {
+      ForkJoinPool.commonPool().invoke(new FinishingOrderTask(prepared, 0, prepared.length));
     }
+  }
 
-    return summedTime;
+  /**
+   * Gets the sprint and mountain points of every rider summed over all the stages,
+   * unless nothing has changed since they were last summed.
+   * Each stage's points are independent, so races with enough stages sort their finishing
+   * orders, then work out their points, in parallel on the common fork/join pool and merge
+   * the totals.
+   *
+   * @return the totals in the format of <riderId, {sprint points, mountain points}>
+   */
+  private synchronized HashMap<Integer, int[]> getPointsTotals() {
+    if (pointsTotals != null) {
+      return pointsTotals;
+    }
+
+    ArrayList<Stage> prepared = new ArrayList<Stage>();
+    for (Stage stage : stages.values()) {
+      if (stage.getPrepared()) { // Only prepared stages can have results
+        prepared.add(stage);
+      }
+    }
+    Stage[] preparedStages = prepared.toArray(new Stage[0]);
+    buildFinishingOrders(preparedStages);
+    StagePointsTask task = new StagePointsTask(preparedStages, 0, preparedStages.length);
+
+    if (prepared.size() < PARALLEL_STAGE_THRESHOLD) {
+      pointsTotals = task.compute(); // Too small to be worth the pool
+    } else {
+      pointsTotals = ForkJoinPool.commonPool().invoke(task);
+    }
+    return pointsTotals;
   }
 
   /**
-   * Gets the mountain points for all riders ordered by their GC time.
+   * Gets one kind of points for all riders ordered by their GC time.
    *
-   * @return An array of the mountain points for each rider ordered by their GC
-   *        time
+   * @param kind 0 for sprint points, 1 for mountain points
+   * @return An array of the points for each rider ordered by their GC time
    */
-  protected int[] getRidersMountainPoints() {
+  private int[] getRidersPoints(int kind) {
     int[] ridersGeneralClassificationRanks = getRidersGeneralClassificationRanks();
-    int[] ridersMountainPoints = new int[ridersGeneralClassificationRanks.length];
+    HashMap<Integer, int[]> totals = getPointsTotals();
+    int[] ridersPoints = new int[ridersGeneralClassificationRanks.length];
 
     for (int i = 0; i < ridersGeneralClassificationRanks.length; i++) {
-      ridersMountainPoints[i] = getRiderMountainPoints(ridersGeneralClassificationRanks[i]);
+      int[] total = totals.get(ridersGeneralClassificationRanks[i]);
+      assert total != null : "Rider in the GC has no points total";
+      ridersPoints[i] = total[kind];
     }
 
-    return ridersMountainPoints;
+    return ridersPoints;
+  }
+
+  /**
+   * Gets the mountain points for all riders ordered by their GC time.
+   *
+   * @return An array of the mountain points for each rider ordered by their GC
+   *        time
+   */
+  protected int[] getRidersMountainPoints() {
+    return getRidersPoints(1);
   }
 
   /**
@@ -203,11 +421,7 @@ class Race extends Entity {
    * @return An int array of the riderIds ordered by their mountain points
    */
   protected int[] getRidersMountainPointsRankings() {
-    Function<Integer, Integer> func = this::getRiderMountainPoints;
-    PointsHandler<Integer> pointsHandler = new PointsHandler<Integer>(func, true,
-        new ArrayList<Stage>(stages.values()));
-
-    return pointsHandler.getRiderRanks();
+    return rankPoints(1).getRiderRanks();
   }
 
   /**
@@ -216,68 +430,294 @@ class Race extends Entity {
    * @return An int array of the riderIds ordered by their sprint points
    */
   protected int[] getRidersSprintPointsRankings() {
-    Function<Integer, Integer> func = this::getRiderSprintPoints;
-    PointsHandler<Integer> pointsHandler = new PointsHandler<Integer>(func, true,
-        new ArrayList<Stage>(stages.values()));
+    return rankPoints(0).getRiderRanks();
+  }
 
-    return pointsHandler.getRiderRanks();
+  /**
+   * Ranks the riders by one kind of points.
+   *
+   * @param kind 0 for sprint points, 1 for mountain points
+   * @return the ranking, with every rider with a result including those on 0 points
+   */
+  private RankingEngine rankPoints(int kind) {
+    int[] riders = getRidersGeneralClassificationRanks();
+    return RankingEngine.rankInts(riders, getRidersPoints(kind), true);
   }
 
   /**
-   * Gets the sprint points for all riders ordered by their GC time.
+   * Get the best riders of one of the race's classifications without ranking the whole
+   * field. The GC comes from the head of its cached ranking if there is one, otherwise
+   * the running totals are kept up to date and the best K picked from them.
    *
-   * @return An int array of the sprint points for each rider ordered by their GC time
+   * @param type GENERAL, POINTS or MOUNTAIN
+   * @param k    the number of riders wanted
+   * @return up to k riders in rank order along with their times or points
    */
-  protected int[] getRidersSprintPoints() {
-    int[] ridersGeneralClassificationRanks = getRidersGeneralClassificationRanks();
-    int[] ridersSprintPoints = new int[ridersGeneralClassificationRanks.length];
+  protected synchronized ClassificationResult getTopRiders(ClassificationType type, int k) {
+    TopKSelector selector;
+    if (type == ClassificationType.GENERAL) {
+      updateGeneralClassification();
+      if (gcRanking != null) {
+        int count = Math.min(k, gcRanking.length);
+        return new ClassificationResult(type, Arrays.copyOf(gcRanking, count),
+            Arrays.copyOf(gcRankingTimes, count));
+      }
+      selector = new TopKSelector(Math.min(k, gcTotals.size()), false);
+      for (Map.Entry<Integer, long[]> total : gcTotals.entrySet()) {
+        selector.offer(total.getKey(), total.getValue()[0]);
+      }
+    } else {
+      assert type == ClassificationType.POINTS || type == ClassificationType.MOUNTAIN
+          : "A race has no " + type + " classification";
+      int kind = (type == ClassificationType.POINTS) ? 0 : 1;
+      HashMap<Integer, int[]> totals = getPointsTotals();
+      selector = new TopKSelector(Math.min(k, totals.size()), true);
+      for (Map.Entry<Integer, int[]> total : totals.entrySet()) {
+        selector.offer(total.getKey(), total.getValue()[kind]);
+      }
+    }
+    return selector.toResult(type);
+  }
 
-    for (int i = 0; i < ridersGeneralClassificationRanks.length; i++) {
-      ridersSprintPoints[i] = getRiderSprintPoints(ridersGeneralClassificationRanks[i]);
+  /**
+   * Get one of the race's classifications ranked in full, reusing the last snapshot taken
+   * if no stage's results have changed since.
+   *
+   * @param type GENERAL, POINTS or MOUNTAIN
+   * @return the snapshot
+   */
+  protected synchronized ClassificationSnapshot getSnapshot(ClassificationType type) {
+    if (snapshots == null) {
+      snapshots = new ClassificationHistory();
+    }
+    ClassificationSnapshot snapshot = snapshots.getCurrent(type);
+    if (snapshot != null) {
+      return snapshot;
     }
 
-    return ridersSprintPoints;
+    if (type == ClassificationType.GENERAL) {
+      sortGeneralClassification();
+      // The cached arrays are replaced rather than modified, so can be shared
+      snapshot = new ClassificationSnapshot(type, gcRanking, gcRankingTimes);
+    } else {
+      assert type == ClassificationType.POINTS || type == ClassificationType.MOUNTAIN
+          : "A race has no " + type + " classification";
+      RankingEngine ranking = rankPoints((type == ClassificationType.POINTS) ? 0 : 1);
+      snapshot = new ClassificationSnapshot(type, ranking.getRiderRanks(),
+          ranking.getRiderScores());
+    }
+    snapshots.add(snapshot);
+    return snapshot;
   }
 
   /**
-   * Get the mountain points for a rider across all stages.
+   * Get a snapshot of one of the race's classifications taken earlier, if it is still kept.
    *
-   * @param riderId The rider to get mountain points for
-   * @return The sum of the mountain points for the rider
+   * @param type    the classification
+   * @param version the version of the snapshot, as given with a page cut from it
+   * @return the snapshot, or null if no snapshot of that version is kept
    */
-  private int getRiderMountainPoints(int riderId) {
-    int pointSum = 0;
-    for (Stage stage : stages.values()) {
-      try {
-        pointSum += stage.getMountainPoints(riderId);
-      } catch (IDNotRecognisedException e) {
-        // Should never happen since we are iterating through the list of stageIds
-        // Already validated
-        assert false : "Stage ID not recognised";
+  protected synchronized ClassificationSnapshot getSnapshot(ClassificationType type,
+                                                            long version) {
+    return (snapshots == null) ? null : snapshots.getVersion(type, version);
+  }
+
+  /**
+   * Add a listener to be told about changes to this race's classifications.
+   * If nobody was listening, the current classifications become the ones changes are
+   * compared against.
+   *
+   * @param listener the listener to add
+   */
+  protected void addListener(ClassificationListener listener) {
+    ClassificationPublisher current;
+    boolean first;
+    synchronized (this) {
+      if (publisher == null) {
+        publisher = new ClassificationPublisher(id);
       }
+      current = publisher;
+      first = !current.hasListeners();
+      current.addListener(listener);
+    }
+    if (first) {
+      publishTo(current, false);
     }
-    return pointSum;
   }
 
   /**
-   * Get the sprint points for a rider across all stages.
+   * Remove a listener from this race.
    *
-   * @param riderId The rider to get sprint points for
-   * @return The sum of the sprint points for the rider
+   * @param listener the listener to remove
+   * @return true if the listener had been added
    */
-  private int getRiderSprintPoints(int riderId) {
-    int pointSum = 0;
+  protected synchronized boolean removeListener(ClassificationListener listener) {
+    return publisher != null && publisher.removeListener(listener);
+  }
 
-    for (Stage stage : stages.values()) {
-      try {
-        pointSum += stage.getSprintPoints(riderId);
-      } catch (IDNotRecognisedException e) {
-        // Should never happen since we are iterating through the list of stageIds
-        // Already validated
-        assert false : "Stage ID not recognised";
+  /**
+   * Tell this race's listeners how its classifications changed, called once after every
+   * change to the results of its stages. Nothing is worked out if nobody is listening.
+   */
+  protected void publishClassifications() {
+    ClassificationPublisher current;
+    synchronized (this) {
+      current = publisher;
+    }
+    if (current != null && current.hasListeners()) {
+      publishTo(current, true);
+    }
+  }
+
+  /**
+   * Work out every classification once and hand them to a publisher.
+   *
+   * @param current the publisher
+   * @param notify  false to only record the classifications without telling anyone
+   */
+  private void publishTo(ClassificationPublisher current, boolean notify) {
+    int[] gcRiders;
+    long[] gcTimes;
+    RankingEngine points;
+    RankingEngine mountain;
+    synchronized (this) {
+      sortGeneralClassification();
+      // These are replaced rather than modified, so can be kept for comparison
+      gcRiders = gcRanking;
+      gcTimes = gcRankingTimes;
+      points = rankPoints(0);
+      mountain = rankPoints(1);
+    }
+    current.publish(ClassificationType.GENERAL, gcRiders, gcTimes, notify);
+    current.publish(ClassificationType.POINTS, points.getRiderRanks(), points.getRiderScores(),
+        notify);
+    current.publish(ClassificationType.MOUNTAIN, mountain.getRiderRanks(),
+        mountain.getRiderScores(), notify);
+  }
+
+  /**
+   * Gets the sprint points for all riders ordered by their GC time.
+   *
+   * @return An int array of the sprint points for each rider ordered by their GC time
+   */
+  protected int[] getRidersSprintPoints() {
+    return getRidersPoints(0);
+  }
+
+  /**
+   * Fork/join task sorting the finishing orders of a range of stages, the most expensive
+   * part of both the general classification and the points totals. The range is split in
+   * half until it is a single stage, which sorts (and caches) its own order. Each stage is
+   * only ever touched by one task.
+   */
+  private static class FinishingOrderTask extends RecursiveAction {
+    private final Stage[] stages;
+    private final int from;
+    private final int to;
+
+    /**
+     * Constructor for FinishingOrderTask.
+     *
+     * @param stages the prepared stages to sort
+     * @param from   the index of the first stage to sort
+     * @param to     one past the index of the last stage to sort
+     */
+    private FinishingOrderTask(Stage[] stages, int from, int to) {
+      this.stages = stages;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= 1) {
+        if (to > from) {
+          stages[from].getFinishingOrder();
+        }
+        return;
+      }
+
+      int mid = (from + to) >>> 1;
+      invokeAll(new FinishingOrderTask(stages, from, mid), new FinishingOrderTask(stages, mid, to));
+    }
+  }
+
+  /**
+   * Fork/join task summing the sprint and mountain points of a range of stages, whose
+   * finishing orders are already sorted.
+   * The range is split in half until it is a single stage, whose points are worked out
+   * (and cached) by the stage itself, then the halves' totals are merged on the way back
+   * up. Each stage is only ever touched by one task.
+   */
+  private static class StagePointsTask extends RecursiveTask<HashMap<Integer, int[]>> {
+    private final Stage[] stages;
+    private final int from;
+    private final int to;
+
+    /**
+     * Constructor for StagePointsTask.
+     *
+     * @param stages the prepared stages of the race
+     * @param from   the index of the first stage to sum
+     * @param to     one past the index of the last stage to sum
+     */
+    private StagePointsTask(Stage[] stages, int from, int to) {
+      this.stages = stages;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected HashMap<Integer, int[]> compute() {
+      if (to - from <= 1) {
+        HashMap<Integer, int[]> totals = new HashMap<Integer, int[]>();
+        if (to > from) {
+          addStage(totals, stages[from]);
+        }
+        return totals;
       }
+
+      int mid = (from + to) >>> 1;
+      StagePointsTask left = new StagePointsTask(stages, from, mid);
+      left.fork();
+      HashMap<Integer, int[]> right = new StagePointsTask(stages, mid, to).compute();
+      return merge(left.join(), right);
     }
 
-    return pointSum;
+    /**
+     * Adds a stage's points to a set of totals.
+     *
+     * @param totals the totals to add to
+     * @param stage  the stage to add
+     */
+    private static void addStage(HashMap<Integer, int[]> totals, Stage stage) {
+      int[] riders = stage.getFinishingOrder();
+      int[] sprintPoints = stage.getFinishingSprintPoints();
+      int[] mountainPoints = stage.getFinishingMountainPoints();
+      for (int i = 0; i < riders.length; i++) {
+        int[] total = totals.computeIfAbsent(riders[i], k -> new int[2]);
+        total[0] += sprintPoints[i];
+        total[1] += mountainPoints[i];
+      }
+    }
+
+    /**
+     * Merges two sets of totals, adding the smaller into the larger.
+     *
+     * @param a the first totals
+     * @param b the second totals
+     * @return the merged totals
+     */
+    private static HashMap<Integer, int[]> merge(HashMap<Integer, int[]> a,
+                                                 HashMap<Integer, int[]> b) {
+      HashMap<Integer, int[]> into = (a.size() >= b.size()) ? a : b;
+      HashMap<Integer, int[]> from = (into == a) ? b : a;
+      for (Map.Entry<Integer, int[]> entry : from.entrySet()) {
+        int[] total = into.computeIfAbsent(entry.getKey(), k -> new int[2]);
+        total[0] += entry.getValue()[0];
+        total[1] += entry.getValue()[1];
+      }
+      return into;
+    }
   }
 }
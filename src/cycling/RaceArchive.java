@@ -0,0 +1,273 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * The races of a loaded snapshot that haven't been read yet.
+ * Only the snapshot's race table is read when loading, giving the IDs and names of each
+ * race, its stages and their checkpoints, along with where the race and each stage start
+ * in the (memory-mapped) files of the snapshot. A race and its stages are read from there
+ * the first time they are needed, so loading takes the same time however many results the
+ * snapshot holds. The table of each delta of a chain replaces the entries of the races it
+ * holds or removes.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class RaceArchive {
+  private final ByteBuffer[] files;
+  // The races not read yet, format of <raceId, entry>
+  private final HashMap<Integer, Entry> races = new HashMap<Integer, Entry>();
+  // Which race each unread stage and checkpoint belongs to, format of <id, raceId>
+  private final HashMap<Integer, Integer> stageRaces = new HashMap<Integer, Integer>();
+  private final HashMap<Integer, Integer> checkpointRaces = new HashMap<Integer, Integer>();
+
+  /**
+   * Constructor for the RaceArchive class.
+   *
+   * @param files the base then each delta of the snapshot, which must not change while
+   *              races are unread
+   */
+  protected RaceArchive(ByteBuffer[] files) {
+    this.files = files;
+  }
+
+  /**
+   * Add a race from the snapshot's race table, replacing the race's entry from an earlier
+   * file of the chain.
+   *
+   * @param entry the race's table entry
+   */
+  protected void addEntry(Entry entry) {
+    removeRace(entry.raceId);
+    races.put(entry.raceId, entry);
+    for (int stageId : entry.stageIds) {
+      stageRaces.put(stageId, entry.raceId);
+    }
+    for (int checkpointId : entry.checkpointIds) {
+      checkpointRaces.put(checkpointId, entry.raceId);
+    }
+  }
+
+  /**
+   * Forget a race removed by a later file of the chain.
+   *
+   * @param raceId the ID of the race, which does nothing if it isn't in the archive
+   */
+  protected void removeRace(int raceId) {
+    Entry entry = races.remove(raceId);
+    if (entry == null) {
+      return;
+    }
+    // A later race may have taken the IDs, so only drop them if they are still this race's
+    for (int stageId : entry.stageIds) {
+      stageRaces.remove(stageId, raceId);
+    }
+    for (int checkpointId : entry.checkpointIds) {
+      checkpointRaces.remove(checkpointId, raceId);
+    }
+  }
+
+  /**
+   * Hand a chain the file and offset of every stage of every unread race, so its next
+   * delta can point at them rather than write them again.
+   *
+   * @param chain the chain the archive was loaded from
+   */
+  protected void putStageLocations(SnapshotChain chain) {
+    HashMap<Integer, int[]> locations = new HashMap<Integer, int[]>();
+    for (Entry entry : races.values()) {
+      for (int i = 0; i < entry.stageIds.length; i++) {
+        locations.put(entry.stageIds[i], new int[]{entry.stageFiles[i], entry.stageOffsets[i]});
+      }
+    }
+    chain.putStageLocations(locations);
+  }
+
+  /**
+   * Check whether every race has been read.
+   *
+   * @return true if no races are left unread
+   */
+  protected boolean isEmpty() {
+    return races.isEmpty();
+  }
+
+  /**
+   * Check whether a race is still unread.
+   *
+   * @param raceId the ID of the race
+   * @return true if the race is in the archive and hasn't been read
+   */
+  protected boolean containsRace(int raceId) {
+    return races.containsKey(raceId);
+  }
+
+  /**
+   * Get the IDs of the races not read yet.
+   *
+   * @return the race IDs
+   */
+  protected int[] getRaceIds() {
+    return races.keySet().stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Get the race an unread stage belongs to.
+   *
+   * @param stageId the ID of the stage
+   * @return the race ID, or null if the stage isn't in an unread race
+   */
+  protected Integer getRaceIdOfStage(int stageId) {
+    return stageRaces.get(stageId);
+  }
+
+  /**
+   * Get the race an unread checkpoint belongs to.
+   *
+   * @param checkpointId the ID of the checkpoint
+   * @return the race ID, or null if the checkpoint isn't in an unread race
+   */
+  protected Integer getRaceIdOfCheckpoint(int checkpointId) {
+    return checkpointRaces.get(checkpointId);
+  }
+
+  /**
+   * Collect the IDs of every unread race, stage and checkpoint, and index their names, so
+   * the portal treats them as taken before they are read.
+   *
+   * @param usedIds     the IDs loaded into the portal, which the archive's are added to
+   * @param entityIndex the index being built for the portal the archive is loaded into
+   * @throws IOException if an ID is used twice, so the snapshot is damaged
+   */
+  protected void attach(BitSet usedIds, EntityIndex entityIndex) throws IOException {
+    for (Entry entry : races.values()) {
+      Entity.useId(usedIds, entry.raceId);
+      entityIndex.addRaceName(entry.raceName, entry.raceId);
+      for (int i = 0; i < entry.stageIds.length; i++) {
+        Entity.useId(usedIds, entry.stageIds[i]);
+        entityIndex.addStageName(entry.stageNames[i], entry.stageIds[i]);
+      }
+      for (int checkpointId : entry.checkpointIds) {
+        Entity.useId(usedIds, checkpointId);
+      }
+    }
+  }
+
+  /**
+   * Give back the IDs of every unread race, stage and checkpoint, and forget them.
+   * Their names are left for the caller to take out of the index.
+   *
+   * @param idAllocator the allocator of the portal the archive was loaded into
+   */
+  protected void discard(IdAllocator idAllocator) {
+    for (Entry entry : races.values()) {
+      idAllocator.free(entry.raceId);
+      for (int stageId : entry.stageIds) {
+        idAllocator.free(stageId);
+      }
+      for (int checkpointId : entry.checkpointIds) {
+        idAllocator.free(checkpointId);
+      }
+    }
+    races.clear();
+    stageRaces.clear();
+    checkpointRaces.clear();
+  }
+
+  /**
+   * Read a race and its stages from the snapshot, taking it out of the archive. The race
+   * must be the one the table says is there, with the same stages and checkpoints, or it
+   * is left in the archive.
+   *
+   * @param raceId the ID of an unread race
+   * @return the race, with IDs held against a scratch allocator until it is attached
+   * @throws IOException if the race is not valid
+   */
+  protected Race readRace(int raceId) throws IOException {
+    Entry entry = races.get(raceId);
+    assert entry != null : "Race is not in the archive";
+
+    Race race = PortalSnapshot.readRace(files, entry.raceFile, entry.offset, entry.stageFiles,
+        entry.stageOffsets);
+    if (race.getId() != raceId || !entry.raceName.equals(race.getName())
+        || race.getStages().size() != entry.stageIds.length) {
+      throw new IOException("Race table entry for race " + raceId + " doesn't match the race");
+    }
+    int checkpoint = 0;
+    for (int i = 0; i < entry.stageIds.length; i++) {
+      Stage stage = race.getStages().get(entry.stageIds[i]);
+      if (stage == null || !entry.stageNames[i].equals(stage.getName())) {
+        throw new IOException("Race table entry for race " + raceId + " doesn't match stage "
+            + entry.stageIds[i]);
+      }
+      for (Checkpoint read : stage.getCheckpoints()) {
+        if (checkpoint == entry.checkpointIds.length
+            || read.getId() != entry.checkpointIds[checkpoint++]) {
+          throw new IOException("Race table entry for race " + raceId
+              + " doesn't match the checkpoints of stage " + stage.getId());
+        }
+      }
+    }
+    if (checkpoint != entry.checkpointIds.length) {
+      throw new IOException("Race table entry for race " + raceId + " has extra checkpoints");
+    }
+    removeRace(raceId);
+    return race;
+  }
+
+  /**
+   * A race's entry in the snapshot's race table.
+   */
+  protected static class Entry {
+    private final int raceId;
+    private final String raceName;
+    private final int raceFile;
+    private final int offset;
+    private final int[] stageIds;
+    private final String[] stageNames;
+    private final int[] stageFiles;
+    private final int[] stageOffsets;
+    private final int[] checkpointIds;
+
+    /**
+     * Constructor for Entry.
+     *
+     * @param raceId        the ID of the race
+     * @param raceName      the name of the race
+     * @param raceFile      which file of the chain the race is in
+     * @param offset        where the race starts in that file
+     * @param stageIds      the IDs of the race's stages
+     * @param stageNames    the names of the stages, in the same order
+     * @param stageFiles    which file each stage is in
+     * @param stageOffsets  where each stage starts in its file
+     * @param checkpointIds the IDs of every checkpoint in the race's stages
+     */
+    protected Entry(int raceId, String raceName, int raceFile, int offset, int[] stageIds,
+                    String[] stageNames, int[] stageFiles, int[] stageOffsets,
+                    int[] checkpointIds) {
+      this.raceId = raceId;
+      this.raceName = raceName;
+      this.raceFile = raceFile;
+      this.offset = offset;
+      this.stageIds = stageIds;
+      this.stageNames = stageNames;
+      this.stageFiles = stageFiles;
+      this.stageOffsets = stageOffsets;
+      this.checkpointIds = checkpointIds;
+    }
+
+    /**
+     * Getter for the ID of the race.
+     *
+     * @return the race ID
+     */
+    protected int getRaceId() {
+      return raceId;
+    }
+  }
+}
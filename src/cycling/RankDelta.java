@@ -0,0 +1,80 @@
+package cycling;
+
+/**
+ * One rider's change in a classification, as pushed to a {@link ClassificationListener}.
+ * Positions are places in the ranked list starting at 1, with 0 meaning the rider was not
+ * (or is no longer) in the classification.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+public class RankDelta {
+  private final int riderId;
+  private final int oldPosition;
+  private final int newPosition;
+  private final long value;
+
+  /**
+   * Constructor for the RankDelta class.
+   *
+   * @param riderId     the rider whose standing changed
+   * @param oldPosition the rider's position before the change, 0 if they weren't ranked
+   * @param newPosition the rider's position after the change, 0 if they aren't ranked
+   * @param value       the rider's time in nanoseconds or points after the change, 0 if
+   *                    they aren't ranked
+   */
+  protected RankDelta(int riderId, int oldPosition, int newPosition, long value) {
+    this.riderId = riderId;
+    this.oldPosition = oldPosition;
+    this.newPosition = newPosition;
+    this.value = value;
+  }
+
+  /**
+   * Getter for the rider's ID.
+   *
+   * @return the rider whose standing changed
+   */
+  public int getRiderId() {
+    return riderId;
+  }
+
+  /**
+   * Getter for the position before the change.
+   *
+   * @return the old position starting at 1, or 0 if the rider wasn't ranked
+   */
+  public int getOldPosition() {
+    return oldPosition;
+  }
+
+  /**
+   * Getter for the position after the change.
+   *
+   * @return the new position starting at 1, or 0 if the rider is no longer ranked
+   */
+  public int getNewPosition() {
+    return newPosition;
+  }
+
+  /**
+   * Getter for the rider's new time or points, see {@link ClassificationType} for which.
+   *
+   * @return the time in nanoseconds or the points
+   */
+  public long getValue() {
+    return value;
+  }
+
+  /**
+   * Get the details of the delta in a string form.
+   *
+   * @return A string describing the delta
+   */
+  @Override
+  public String toString() {
+    return "Rider: " + riderId + " Position: " + oldPosition + " -> " + newPosition
+        + " Value: " + value;
+  }
+}
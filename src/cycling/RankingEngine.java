@@ -0,0 +1,171 @@
+package cycling;
+
+import java.util.Arrays;
+
+/**
+ * This handles the sorting and ranking of riders by their points/times.
+ * Scores are kept in primitive arrays with separate int and long paths, so ranking a
+ * field creates no object per rider. Every rider is kept, riders with the same score
+ * share a position and are ordered by ID so the ranking is the same every time.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class RankingEngine {
+
+  private final int[] riderRanks; // The riderIds in order of their points/times
+  private final long[] riderScores; // The points/times of the riders in the same order
+  private final int[] positions; // The position of each rank, equal scores share one
+
+  /**
+   * Constructor for the RankingEngine class, takes arrays that are already sorted.
+   *
+   * @param riderRanks  the riderIds in rank order
+   * @param riderScores the score of each rider in rank order
+   */
+  private RankingEngine(int[] riderRanks, long[] riderScores) {
+    assert riderRanks.length == riderScores.length : "Every rider needs a score";
+    this.riderRanks = riderRanks;
+    this.riderScores = riderScores;
+
+    positions = new int[riderRanks.length];
+    for (int i = 0; i < positions.length; i++) {
+      boolean tied = i > 0 && riderScores[i] == riderScores[i - 1];
+      positions[i] = tied ? positions[i - 1] : i + 1;
+    }
+  }
+
+  /**
+   * Ranks riders by an int score such as points.
+   * Each rider and score are packed into a single long that sorts into rank order, so
+   * the whole field is ranked with one primitive sort.
+   *
+   * @param riderIds   the riders to rank, each only once
+   * @param scores     the score of each rider, in the same order as riderIds
+   * @param descending true if higher scores rank first (points), false if lower do
+   * @return the ranking
+   */
+  protected static RankingEngine rankInts(int[] riderIds, int[] scores, boolean descending) {
+    assert riderIds.length == scores.length : "Every rider needs a score";
+
+    long[] keys = new long[riderIds.length];
+    for (int i = 0; i < keys.length; i++) {
+      // Flipping every bit reverses the order of an int, so descending sorts ascending
+      int key = descending ? ~scores[i] : scores[i];
+      // Score in the signed top half, rider ID offset to be unsigned in the bottom half
+      keys[i] = ((long) key << 32) | ((riderIds[i] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+    }
+    Arrays.sort(keys);
+
+    int[] ranks = new int[keys.length];
+    long[] rankScores = new long[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      int key = (int) (keys[i] >> 32);
+      ranks[i] = (int) keys[i] ^ Integer.MIN_VALUE;
+      rankScores[i] = descending ? ~key : key;
+    }
+    return new RankingEngine(ranks, rankScores);
+  }
+
+  /**
+   * Ranks riders by a long score such as a time in nanoseconds.
+   * A long score and rider ID don't fit in one long, so an array of indices is merge
+   * sorted by comparing the primitive arrays directly.
+   *
+   * @param riderIds   the riders to rank, each only once
+   * @param scores     the score of each rider, in the same order as riderIds
+   * @param descending true if higher scores rank first, false if lower do (times)
+   * @return the ranking
+   */
+  protected static RankingEngine rankLongs(int[] riderIds, long[] scores, boolean descending) {
+    assert riderIds.length == scores.length : "Every rider needs a score";
+
+    int[] order = new int[riderIds.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    mergeSort(order, order.clone(), 0, order.length, riderIds, scores, descending);
+
+    int[] ranks = new int[order.length];
+    long[] rankScores = new long[order.length];
+    for (int i = 0; i < order.length; i++) {
+      ranks[i] = riderIds[order[i]];
+      rankScores[i] = scores[order[i]];
+    }
+    return new RankingEngine(ranks, rankScores);
+  }
+
+  /**
+   * Sorts a range of indices into rank order, leaving the result in dest.
+   * src must hold the same indices as dest on entry, the two swap roles at each level.
+   *
+   * @param dest       the array to leave the sorted range in
+   * @param src        a copy of dest used as working space
+   * @param from       the first index of the range
+   * @param to         one past the last index of the range
+   * @param riderIds   the rider IDs, used to break ties
+   * @param scores     the scores to sort by
+   * @param descending true if higher scores rank first
+   */
+  private static void mergeSort(int[] dest, int[] src, int from, int to, int[] riderIds,
+                                long[] scores, boolean descending) {
+    if (to - from < 2) {
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    mergeSort(src, dest, from, mid, riderIds, scores, descending);
+    mergeSort(src, dest, mid, to, riderIds, scores, descending);
+
+    int left = from;
+    int right = mid;
+    for (int i = from; i < to; i++) {
+      boolean takeLeft = right >= to || (left < mid
+          && compare(src[left], src[right], riderIds, scores, descending) <= 0);
+      dest[i] = takeLeft ? src[left++] : src[right++];
+    }
+  }
+
+  /**
+   * Compares two riders by score, then by rider ID.
+   *
+   * @param a          the index of the first rider
+   * @param b          the index of the second rider
+   * @param riderIds   the rider IDs
+   * @param scores     the scores
+   * @param descending true if higher scores rank first
+   * @return negative if a ranks first, positive if b does
+   */
+  private static int compare(int a, int b, int[] riderIds, long[] scores, boolean descending) {
+    int byScore = descending ? Long.compare(scores[b], scores[a])
+        : Long.compare(scores[a], scores[b]);
+    return (byScore != 0) ? byScore : Integer.compare(riderIds[a], riderIds[b]);
+  }
+
+  /**
+   * Getter for the riderRanks array.
+   *
+   * @return the ids of riders in order of rank
+   */
+  protected int[] getRiderRanks() {
+    return riderRanks;
+  }
+
+  /**
+   * Getter for the riderScores array.
+   *
+   * @return the scores of the riders in order of rank
+   */
+  protected long[] getRiderScores() {
+    return riderScores;
+  }
+
+  /**
+   * Getter for the positions array.
+   *
+   * @return the position of each rank, starting at 1, riders on equal scores share one
+   */
+  protected int[] getPositions() {
+    return positions;
+  }
+}
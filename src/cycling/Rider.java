@@ -10,6 +10,7 @@ import java.util.ArrayList;
  * @version 1.0
  */
 class Rider extends Entity {
+  private static final long serialVersionUID = 2984180496967033933L;
   private final ArrayList<Integer> stagesRegistered = new ArrayList<>();
 
   private final Team myTeam;
@@ -22,13 +23,14 @@ class Rider extends Entity {
    * @param name        Name of the rider
    * @param yearOfBirth Year of birth of the rider
    * @param team        The team the rider belongs to
+   * @param idAllocator The ID allocator of the portal creating the rider
    * @throws IllegalArgumentException If the name is empty or null, or the year of
    *                                  birth
    *                                  is less than 1900
    */
-  protected Rider(String name, int yearOfBirth, Team team)
+  protected Rider(String name, int yearOfBirth, Team team, IdAllocator idAllocator)
       throws IllegalArgumentException {
-    super(); // Call the entity constructor
+    super(idAllocator); // Call the entity constructor
 
     // Check the arguments are legal
     if (name == null || name.isEmpty() || yearOfBirth < 1900) {
@@ -42,15 +44,41 @@ class Rider extends Entity {
     this.myTeam = team;
   }
 
+  /**
+   * Constructor for restoring a saved rider with their ID, the details were checked when
+   * they were first created.
+   *
+   * @param id          The ID the rider had when they were saved
+   * @param name        Name of the rider
+   * @param yearOfBirth Year of birth of the rider
+   * @param team        The team the rider belongs to
+   * @param idAllocator The ID allocator of the portal the rider is loaded into
+   */
+  protected Rider(int id, String name, int yearOfBirth, Team team, IdAllocator idAllocator) {
+    super(id, idAllocator);
+    this.name = name;
+    this.yearOfBirth = yearOfBirth;
+    this.myTeam = team;
+  }
+
   /**
    * Register the rider for a stage.
    *
    * @param stageId The stage to say I have registered for
    */
-  protected void registerForStage(int stageId) {
+  protected synchronized void registerForStage(int stageId) {
     stagesRegistered.add(stageId);
   }
 
+  /**
+   * Unregister the rider from a stage, once their results there have been deleted.
+   *
+   * @param stageId The stage to say I am no longer registered for
+   */
+  protected synchronized void unregisterFromStage(int stageId) {
+    stagesRegistered.remove(Integer.valueOf(stageId));
+  }
+
   /**
    * Getter for registered stages.
    *
@@ -60,6 +88,24 @@ class Rider extends Entity {
     return stagesRegistered;
   }
 
+  /**
+   * Getter for the rider's name.
+   *
+   * @return The name of the rider
+   */
+  protected String getName() {
+    return name;
+  }
+
+  /**
+   * Getter for the rider's year of birth.
+   *
+   * @return The year the rider was born
+   */
+  protected int getYearOfBirth() {
+    return yearOfBirth;
+  }
+
   /**
    * Get the details of the rider in a string form.
    *
@@ -72,9 +118,7 @@ class Rider extends Entity {
 
   @Override
   protected void remove() {
-    int idsBefore = usedIds.size(); // Get the number of usedIds before the checkpoint is removed
-    freeId(); // Remove the checkpoint from the usedIds list
-    assert idsBefore == usedIds.size() + 1 : "Number of IDs incorrect after removal";
+    freeId(); // Return the rider's ID to the allocator
   }
 
   /**
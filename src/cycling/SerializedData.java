@@ -1,11 +1,26 @@
 package cycling;
 
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * This class is used to serialize the data of the CyclingPortalImpl portal
@@ -16,36 +31,231 @@ import java.util.HashMap;
  * @version 1.0
  */
 class SerializedData implements java.io.Serializable {
+  // Pinned to the UID Java computed for the class when portals were saved with Java
+  // serialization, so those files still load
+  private static final long serialVersionUID = 8593231195146993920L;
+
+  // Writes saves in the background, each portal's saves being chained so they run in order
+  private static final ExecutorService SAVER = Executors.newCachedThreadPool(task -> {
+    Thread thread = new Thread(task, "portal-saver");
+    thread.setDaemon(true); // A save still running doesn't keep the program alive
+    return thread;
+  });
 
   private final HashMap<Integer, Race> races = new HashMap<>();
   private final HashMap<Integer, Team> teams = new HashMap<>();
+  // The races of a snapshot left to be read when first used, null if every race is loaded
+  private transient RaceArchive archive;
+  // For a capture of the changes since the last save, what was removed and which stages
+  // changed; empty for a capture of everything
+  private transient Set<Integer> removedTeams = Collections.emptySet();
+  private transient Set<Integer> removedRaces = Collections.emptySet();
+  private transient Set<Integer> changedStages = null;
 
   /**
    * This method is used to save the data of the CyclingPortalImpl portal instance
-   * to a file.
+   * to a file, as a chain of binary snapshots, returning once the file is written.
    *
    * @param filename the filename to save the data to
    * @param portal   the portal to save
    * @throws IOException if an I/O error occurs
+   * @see #saveDataAsync(String, CyclingPortalImpl)
    */
   protected static void saveData(String filename, CyclingPortalImpl portal) throws IOException {
-    // Convert the portal to a serialised data object and write it to a file
-    ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(filename));
+    try {
+      saveDataAsync(filename, portal).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * This method is used to save the data of the CyclingPortalImpl portal instance
+   * to a file, as a chain of binary snapshots, in the background.
+   * The portal is captured as it is now before returning, which copies the teams and
+   * races but not the stages' results, which are shared until they next change. The
+   * capture is then written on a background thread, after any earlier saves of the portal.
+   * If the portal was last saved to or loaded from the chain at this file, only what
+   * changed since is written, as a delta added to the end of the chain. Otherwise, or once
+   * the chain's deltas have grown too many or too large, the whole portal is written as
+   * the base of a new chain and the old chain's files are deleted.
+   * Each file is written before the manifest naming it is moved over the file, so the file
+   * is never left half written and a portal still reading races from the old files keeps
+   * its (possibly unlinked) copy.
+   *
+   * @param filename the filename to save the data to
+   * @param portal   the portal to save, which mustn't change until this returns
+   * @return completes once the file is written, or with the IOException if it couldn't be
+   */
+  protected static CompletableFuture<Void> saveDataAsync(String filename,
+                                                         CyclingPortalImpl portal) {
+    Path manifest = Paths.get(filename).toAbsolutePath().normalize();
+    ChangeTracker changes = portal.getChangeTracker();
+    SnapshotChain chain = changes.getChain();
+    boolean delta = chain != null && chain.getManifest().equals(manifest)
+        && !chain.needsCompaction();
 
+    SerializedData image;
     try {
-      SerializedData data = new SerializedData(portal);
-      out.writeObject(data);
-      out.close();
-    } catch (IDNotRecognisedException e) {
-      // This should never happen as we are giving it an ID that we have found in the
-      // system
-      assert false : "ID not recognised when saving data to file";
+      image = capture(portal, delta ? changes : null);
+    } catch (UncheckedIOException e) {
+      // An archived race couldn't be read to capture it
+      CompletableFuture<Void> failed = new CompletableFuture<Void>();
+      failed.completeExceptionally(e.getCause());
+      return failed;
+    }
+    if (!delta) {
+      chain = new SnapshotChain(manifest);
+    }
+    int fileIndex = chain.reserveFile();
+    changes.reset(chain); // Changes from now on go in the next save
+
+    SnapshotChain target = chain;
+    CompletableFuture<Void> saved = new CompletableFuture<Void>();
+    // Wait for the previous save however it ended, each file goes after the one before
+    portal.getLastSave().whenCompleteAsync((result, error) -> {
+      try {
+        writeImage(image, target, fileIndex);
+        saved.complete(null);
+      } catch (IOException | RuntimeException e) {
+        target.markBroken(); // Deltas planned after this one would be missing its changes
+        saved.completeExceptionally(e);
+      }
+    }, SAVER);
+    portal.setLastSave(saved);
+    return saved;
+  }
+
+  /**
+   * Capture a portal's teams and races as they are now, detached from the portal so they
+   * can be written while it changes.
+   *
+   * @param portal  the portal
+   * @param changes what changed since the chain being added to, or null to capture
+   *                everything
+   * @return the captured teams and races, along with what was removed
+   */
+  private static SerializedData capture(CyclingPortalImpl portal, ChangeTracker changes) {
+    IdAllocator scratch = new IdAllocator();
+    HashMap<Integer, Team> teams = new HashMap<Integer, Team>();
+    HashMap<Integer, Race> races = new HashMap<Integer, Race>();
+    if (changes == null) {
+      for (Team team : portal.getMyTeamsMap().values()) {
+        teams.put(team.getId(), team.capture(scratch));
+      }
+      for (Race race : portal.getMyRacesMap().values()) {
+        races.put(race.getId(), race.capture(scratch));
+      }
+      return new SerializedData(races, teams, null);
+    }
+
+    HashMap<Integer, Team> allTeams = portal.getMyTeamsMap();
+    for (int teamId : changes.getChangedTeams()) {
+      Team team = allTeams.get(teamId);
+      if (team != null) {
+        teams.put(teamId, team.capture(scratch));
+      }
+    }
+    // Races that haven't been read since loading can't have changed, so are left unread
+    for (int raceId : changes.getChangedRaces()) {
+      Race race = portal.getLoadedRace(raceId);
+      if (race != null) {
+        races.put(raceId, race.capture(scratch));
+      }
+    }
+    SerializedData image = new SerializedData(races, teams, null);
+    image.removedTeams = new HashSet<Integer>(changes.getRemovedTeams());
+    image.removedRaces = new HashSet<Integer>(changes.getRemovedRaces());
+    image.changedStages = new HashSet<Integer>(changes.getChangedStages());
+    return image;
+  }
+
+  /**
+   * Write captured teams and races as the next file of a chain, and move the chain's
+   * manifest into place naming it.
+   *
+   * @param image     the captured teams and races
+   * @param chain     the chain
+   * @param fileIndex the place reserved for the file, 0 for a new chain's base
+   * @throws IOException if an I/O error occurs
+   */
+  private static void writeImage(SerializedData image, SnapshotChain chain, int fileIndex)
+      throws IOException {
+    HashMap<Integer, int[]> locations = new HashMap<Integer, int[]>();
+    SnapshotChain old = null;
+    ByteBuffer contents;
+    if (fileIndex == 0) {
+      old = SnapshotChain.readIfPresent(chain.getManifest());
+      chain.setGeneration((old == null) ? 0 : old.getGeneration() + 1);
+      contents = PortalSnapshot.write(image, locations);
+    } else if (chain.isBroken()) {
+      throw new IOException("An earlier save to " + chain.getManifest()
+          + " failed, so the changes since it can't be saved as a delta");
+    } else {
+      contents = PortalSnapshot.writeDelta(image, chain, fileIndex, locations);
+    }
+
+    Path file = chain.getNewFile(fileIndex);
+    long length = contents.remaining();
+    writeFile(file, contents);
+    chain.addFile(file.getFileName().toString(), length);
+    chain.writeManifest();
+    chain.putStageLocations(locations);
+    if (old != null) {
+      old.deleteFiles(); // Every race was read to capture it, so nothing still needs them
+    }
+  }
+
+  /**
+   * Write a file in full and force it to disk.
+   *
+   * @param path     the file, created or replaced
+   * @param contents the bytes to write, from the position to the limit
+   * @throws IOException if an I/O error occurs
+   */
+  protected static void writeFile(Path path, ByteBuffer contents) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    try {
+      while (contents.hasRemaining()) {
+        channel.write(contents);
+      }
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Move a file over another, atomically if the file system allows.
+   *
+   * @param from the file to move
+   * @param to   where to move it
+   * @throws IOException if the file can't be moved
+   */
+  protected static void moveAtomically(Path from, Path to) throws IOException {
+    try {
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
     }
   }
 
   /**
    * This method is used to load the data of the CyclingPortalImpl portal instance
-   * from a file.
+   * from a file. Snapshot chains and single binary snapshots are recognised by their
+   * magic numbers, anything else is read as Java serialization, the format portals were
+   * saved in before snapshots, which the entity classes convert as they are read.
+   * Snapshots are memory-mapped rather than read in, and only their teams and race tables
+   * are read here, each race being read from the mappings when the portal first uses it.
+   * Each snapshot's checksum is checked as it is mapped, and two loaded entities with the
+   * same ID mean the file is damaged, so either is an IOException.
+   * The loaded contents are indexed, and their IDs collected into a new allocator, in one
+   * pass off to the side, then swapped in at once rather than erasing the old contents
+   * entity by entity, so a file that can't be read leaves the portal as it was.
    *
    * @param filename  the filename to load the data from
    * @param newPortal the portal to load the data into
@@ -55,48 +265,107 @@ class SerializedData implements java.io.Serializable {
    */
   protected static void loadData(String filename, CyclingPortalImpl newPortal)
       throws IOException, ClassNotFoundException {
+    // Saves still being written could be to this file, and are of the portal's old state
+    newPortal.getLastSave().handle((result, error) -> null).join();
 
-    // Open up the serialised data file and read the data into a new instance of
-    // SerializedData
-    ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename));
-    SerializedData loadedPortal = (SerializedData) in.readObject();
-    in.close();
+    SerializedData loadedPortal;
+    SnapshotChain chain = null;
+    Path path = Paths.get(filename).toAbsolutePath().normalize();
+    ByteBuffer file = map(path);
 
-    // Remove the old portal
-    newPortal.eraseCyclingPortal();
+    // Peek at the start of the file to see which format it is
+    if (file.remaining() >= 4 && file.getInt(0) == SnapshotChain.MAGIC) {
+      file.position(4);
+      chain = SnapshotChain.read(path, file);
+      ByteBuffer[] files = new ByteBuffer[chain.getFileCount()];
+      for (int i = 0; i < files.length; i++) {
+        files[i] = map(chain.getFile(i));
+        if (files[i].remaining() != chain.getLength(i)) {
+          throw new IOException(chain.getFile(i) + " is not the length the manifest says");
+        }
+      }
+      loadedPortal = PortalSnapshot.readChain(files);
+    } else if (file.remaining() >= 4 && file.getInt(0) == PortalSnapshot.MAGIC) {
+      file.position(4);
+      loadedPortal = PortalSnapshot.read(file);
+    } else {
+      // Open up the serialised data and read it into a new instance of SerializedData
+      ObjectInputStream in = new ObjectInputStream(new FileInputStream(filename));
+      loadedPortal = (SerializedData) in.readObject();
+      in.close();
+    }
 
-    // These are the references to the new portal's hashmaps
-    // Since java is pass by value, we can't just assign the new hashmaps
-    // To the old ones, we have to modify the old ones
-    HashMap<Integer, Race> raceMap = newPortal.getMyRacesMap();
-    HashMap<Integer, Team> teamMap = newPortal.getMyTeamsMap();
+    // Build the new contents off to the side, the portal keeps its old ones until the swap
+    HashMap<Integer, Race> raceMap = new HashMap<Integer, Race>();
+    HashMap<Integer, Team> teamMap = new HashMap<Integer, Team>();
+    EntityIndex entityIndex = new EntityIndex();
+    IdAllocator idAllocator = new IdAllocator();
+    BitSet usedIds = new BitSet();
 
-    // Add in all the new data
+    // One pass over the loaded entities indexes them, attaches them to the new allocator
+    // and collects their IDs, which the allocator then takes all at once
     for (Race race : loadedPortal.getRaces().values()) {
       raceMap.put(race.getId(), race);
+      entityIndex.addRaceName(race.getName(), race.getId());
+      race.attachIdAllocator(idAllocator, usedIds);
+      for (Stage stage : race.getStages().values()) {
+        entityIndex.addStage(stage);
+        stage.attachIdAllocator(idAllocator, usedIds);
+        for (Checkpoint checkpoint : stage.getCheckpoints()) {
+          checkpoint.attachIdAllocator(idAllocator, usedIds);
+        }
+      }
+    }
+
+    for (Team team : loadedPortal.getTeams().values()) {
+      teamMap.put(team.getId(), team);
+      entityIndex.addTeam(team);
+      team.attachIdAllocator(idAllocator, usedIds);
+      for (Rider rider : team.getRiders().values()) {
+        rider.attachIdAllocator(idAllocator, usedIds);
+      }
     }
 
-    for (int teamId : loadedPortal.getTeams().keySet()) {
-      teamMap.put(teamId, loadedPortal.getTeams().get(teamId));
+    RaceArchive archive = loadedPortal.archive;
+    if (archive != null) {
+      if (chain != null) {
+        archive.putStageLocations(chain);
+      }
+      archive.attach(usedIds, entityIndex); // Races not read yet still hold their IDs
     }
+    idAllocator.rebuild(usedIds);
+
+    newPortal.replaceContents(raceMap, teamMap, entityIndex, idAllocator, archive, chain);
   }
 
   /**
-   * Constructor for the SerializedData class.
+   * Memory-map a whole file for reading.
    *
-   * @param portal the portal to be serialized
-   * @throws IDNotRecognisedException if an ID is not recognised
+   * @param path the file
+   * @return the mapping, which stays valid once the file is closed
+   * @throws IOException if an I/O error occurs
    */
-  protected SerializedData(CyclingPortalImpl portal) throws IDNotRecognisedException {
-    for (int raceId : portal.getRaceIds()) {
-      Race race = portal.getRaceById(raceId);
-      races.put(raceId, race);
+  private static ByteBuffer map(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      channel.close();
     }
+  }
 
-    for (int teamId : portal.getTeams()) {
-      Team team = portal.getTeamById(teamId);
-      teams.put(teamId, team);
-    }
+  /**
+   * Constructor for the SerializedData class, from races and teams already loaded.
+   *
+   * @param races   the races in the format of <raceId, race>
+   * @param teams   the teams in the format of <teamId, team>
+   * @param archive the races still to be read, or null if they are all in races
+   */
+  protected SerializedData(HashMap<Integer, Race> races, HashMap<Integer, Team> teams,
+                           RaceArchive archive) {
+    this.races.putAll(races);
+    this.teams.putAll(teams);
+    this.archive = archive;
   }
 
   /**
@@ -116,4 +385,31 @@ class SerializedData implements java.io.Serializable {
   protected HashMap<Integer, Team> getTeams() {
     return teams;
   }
+
+  /**
+   * Returns the IDs of the teams removed since the last save, for a capture of changes.
+   *
+   * @return The team IDs
+   */
+  protected Set<Integer> getRemovedTeams() {
+    return removedTeams;
+  }
+
+  /**
+   * Returns the IDs of the races removed since the last save, for a capture of changes.
+   *
+   * @return The race IDs
+   */
+  protected Set<Integer> getRemovedRaces() {
+    return removedRaces;
+  }
+
+  /**
+   * Returns the IDs of the stages changed since the last save, for a capture of changes.
+   *
+   * @return The stage IDs, or null if every stage was captured to be written
+   */
+  protected Set<Integer> getChangedStages() {
+    return changedStages;
+  }
 }
@@ -0,0 +1,290 @@
+package cycling;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A portal saved as a base snapshot followed by deltas, each holding only the races,
+ * stages and teams that changed since the file before it, tied together by a manifest.
+ * The manifest is the file the portal is saved to, and is replaced atomically once a new
+ * file is written, so a crash part way through a save leaves the previous chain intact.
+ * Each delta's race table says which file the latest copy of each stage is in, so loading
+ * reads only the tables and the teams.
+ *
+ * <p>Files are named after the manifest and the chain's generation, {@code <manifest>.
+ * <generation>.<index>}. Once the deltas add up to more than the base, or there are too
+ * many of them, the next save compacts the portal into the base of a new generation and
+ * the old generation's files are deleted.
+ *
+ * <p>Saves are planned when the portal's state is captured, and written later in the same
+ * order, so a file's place in the chain is reserved when it is planned and the file is
+ * only added once written. If writing one fails, every delta planned after it would be
+ * missing its changes, so the chain is marked broken and the next save starts a new one.
+ *
+ * <p>The manifest's layout is:
+ * <pre>
+ *   magic, format version, generation, file count, then per file  name, length
+ * </pre>
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class SnapshotChain {
+  // "CYMF"
+  protected static final int MAGIC = 0x43594D46;
+  private static final int FORMAT_VERSION = 1;
+  private static final int MAX_DELTAS = 16;
+
+  private final Path manifest;
+  private long generation;
+  // The base then each delta, names relative to the manifest's directory
+  private final ArrayList<String> files = new ArrayList<String>();
+  private final ArrayList<Long> lengths = new ArrayList<Long>();
+  private int plannedFiles = 0; // files written, or reserved to be written
+  private long deltaBytes = 0;
+  private boolean broken = false;
+  // Where the latest copy of each saved stage is, format of <stageId, {file index, offset}>
+  private final HashMap<Integer, int[]> stageLocations = new HashMap<Integer, int[]>();
+
+  /**
+   * Constructor for an empty chain, whose generation is set once the chain it replaces
+   * is known.
+   *
+   * @param manifest where the manifest is saved
+   */
+  protected SnapshotChain(Path manifest) {
+    this.manifest = manifest;
+  }
+
+  /**
+   * Read a manifest. The magic number must already have been read.
+   *
+   * @param manifest where the manifest was read from
+   * @param buffer   the manifest positioned just after the magic number
+   * @return the chain, with no stage locations yet
+   * @throws IOException if the manifest is not valid
+   */
+  protected static SnapshotChain read(Path manifest, ByteBuffer buffer) throws IOException {
+    try {
+      BinaryBuffer in = new BinaryBuffer(buffer);
+      int version = in.readByte();
+      if (version != FORMAT_VERSION) {
+        throw new IOException("Unsupported manifest format version " + version);
+      }
+      SnapshotChain chain = new SnapshotChain(manifest);
+      chain.generation = in.readVarLong();
+      int fileCount = in.readVarInt();
+      for (int i = 0; i < fileCount; i++) {
+        chain.reserveFile();
+        chain.addFile(in.readString(), in.readVarLong());
+      }
+      return chain;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Manifest ends part way through", e);
+    }
+  }
+
+  /**
+   * Read the manifest already at a path, if there is one, such as to find the files of a
+   * chain about to be replaced.
+   *
+   * @param manifest the path
+   * @return the chain, or null if the path holds no readable manifest
+   */
+  protected static SnapshotChain readIfPresent(Path manifest) {
+    try {
+      if (!Files.exists(manifest)) {
+        return null;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(manifest));
+      if (buffer.remaining() < 4 || buffer.getInt() != MAGIC) {
+        return null;
+      }
+      return read(manifest, buffer);
+    } catch (IOException e) {
+      return null; // Whatever is there gets replaced
+    }
+  }
+
+  /**
+   * Write the manifest next to where it goes and move it into place.
+   *
+   * @throws IOException if the manifest can't be written
+   */
+  protected synchronized void writeManifest() throws IOException {
+    BinaryBuffer out = new BinaryBuffer(ByteBuffer.allocate(256));
+    out.getBuffer().putInt(MAGIC);
+    out.writeByte(FORMAT_VERSION);
+    out.writeVarLong(generation);
+    out.writeVarInt(files.size());
+    for (int i = 0; i < files.size(); i++) {
+      out.writeString(files.get(i));
+      out.writeVarLong(lengths.get(i));
+    }
+    ByteBuffer contents = out.getBuffer();
+    contents.flip();
+
+    Path temporary = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+    SerializedData.writeFile(temporary, contents);
+    SerializedData.moveAtomically(temporary, manifest);
+  }
+
+  /**
+   * Delete every file of the chain, but not the manifest.
+   */
+  protected synchronized void deleteFiles() {
+    for (int i = 0; i < files.size(); i++) {
+      try {
+        Files.deleteIfExists(getFile(i));
+      } catch (IOException e) {
+        // Left behind, it isn't in the new manifest so is never read
+      }
+    }
+  }
+
+  /**
+   * Get where the manifest is saved.
+   *
+   * @return the manifest's path
+   */
+  protected Path getManifest() {
+    return manifest;
+  }
+
+  /**
+   * Get the generation of the chain.
+   *
+   * @return the generation
+   */
+  protected synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Set the generation of a new chain, before its base is written.
+   *
+   * @param generation one more than the generation of the chain it replaces
+   */
+  protected synchronized void setGeneration(long generation) {
+    assert files.isEmpty() : "Generation set after files were written";
+    this.generation = generation;
+  }
+
+  /**
+   * Get the number of files written, the base and each delta.
+   *
+   * @return the number of files
+   */
+  protected synchronized int getFileCount() {
+    return files.size();
+  }
+
+  /**
+   * Get the path of a file in the chain.
+   *
+   * @param index 0 for the base, or the position of a delta
+   * @return the file's path
+   */
+  protected synchronized Path getFile(int index) {
+    return manifest.resolveSibling(files.get(index));
+  }
+
+  /**
+   * Get the length a file in the chain had when it was written.
+   *
+   * @param index 0 for the base, or the position of a delta
+   * @return the file's length in bytes
+   */
+  protected synchronized long getLength(int index) {
+    return lengths.get(index);
+  }
+
+  /**
+   * Reserve the next place in the chain, for a save being planned.
+   *
+   * @return the place, 0 for the base
+   */
+  protected synchronized int reserveFile() {
+    return plannedFiles++;
+  }
+
+  /**
+   * Get the path a file of the chain is written to.
+   *
+   * @param index the place reserved for the file
+   * @return the path
+   */
+  protected synchronized Path getNewFile(int index) {
+    return manifest.resolveSibling(manifest.getFileName() + "." + generation + "." + index);
+  }
+
+  /**
+   * Add a file just written to the end of the chain.
+   *
+   * @param name   the file's name, relative to the manifest's directory
+   * @param length the file's length in bytes
+   */
+  protected synchronized void addFile(String name, long length) {
+    assert files.size() < plannedFiles : "File was not reserved";
+    if (!files.isEmpty()) {
+      deltaBytes += length;
+    }
+    files.add(name);
+    lengths.add(length);
+  }
+
+  /**
+   * Check whether the next save should write a whole new base rather than a delta. Files
+   * not written yet count towards the number of deltas but not their size.
+   *
+   * @return true if there are too many deltas, they add up to more than the base, or the
+   *         chain is broken
+   */
+  protected synchronized boolean needsCompaction() {
+    return broken || plannedFiles == 0 || plannedFiles > MAX_DELTAS
+        || (!files.isEmpty() && deltaBytes > lengths.get(0));
+  }
+
+  /**
+   * Mark the chain as broken after a file planned for it couldn't be written.
+   */
+  protected synchronized void markBroken() {
+    broken = true;
+  }
+
+  /**
+   * Check whether a file planned for the chain couldn't be written.
+   *
+   * @return true if the chain can't take more deltas
+   */
+  protected synchronized boolean isBroken() {
+    return broken;
+  }
+
+  /**
+   * Get where the latest copy of a stage is.
+   *
+   * @param stageId the ID of the stage
+   * @return {file index, offset}, or null if the stage hasn't been saved in the chain
+   */
+  protected synchronized int[] getStageLocation(int stageId) {
+    return stageLocations.get(stageId);
+  }
+
+  /**
+   * Record where the latest copies of stages are, once the file they are in is part of
+   * the chain.
+   *
+   * @param locations the locations in the format of <stageId, {file index, offset}>
+   */
+  protected synchronized void putStageLocations(Map<Integer, int[]> locations) {
+    stageLocations.putAll(locations);
+  }
+}
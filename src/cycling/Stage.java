@@ -1,10 +1,14 @@
 package cycling;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.function.Function;
+import java.util.HashSet;
+import java.util.Map;
 
 /**
  * Class to represent a stage in the staged bike race.
@@ -14,6 +18,7 @@ import java.util.function.Function;
  * @version 1.0
  */
 class Stage extends Entity {
+  private static final long serialVersionUID = -6590335226487391827L;
 
   // Points for each stage type
   private static final HashMap<StageType, int[]> POINTS = new HashMap<StageType, int[]>();
@@ -29,6 +34,8 @@ class Stage extends Entity {
         new int[]{20, 17, 15, 13, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1});
   }
 
+  private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
   private final String name;
   private final String description;
 
@@ -40,10 +47,28 @@ class Stage extends Entity {
   private final LocalDateTime startStageTime; // The time the stage starts
   private final Race parentRace;
 
-  // Hashmaps to store the start and finish times for each rider format of
-  // <riderId, time>
-  private final HashMap<Integer, LocalTime> startTimes = new HashMap<Integer, LocalTime>();
-  private final HashMap<Integer, LocalTime> finishTimes = new HashMap<Integer, LocalTime>();
+  // The start, checkpoint and finish times of each rider, sized for the checkpoints once the
+  // stage is prepared
+  private StageResults results = new StageResults(0);
+  // Passes received one at a time for riders whose results aren't complete yet, format of
+  // <riderId, nanos in the form [start, checkpoint1, ..., finish]> with -1 for not received
+  private HashMap<Integer, long[]> partialResults = new HashMap<Integer, long[]>();
+  // How results were kept in files saved with Java serialization before StageResults,
+  // format of <riderId, time>. Only set while such a file is read
+  private HashMap<Integer, LocalTime> startTimes;
+  private HashMap<Integer, LocalTime> finishTimes;
+
+  // Finishing order cache, built lazily and dropped whenever the results change. Built and
+  // dropped while holding this stage's monitor, so concurrent readers only build it once
+  private transient int[] finishingOrder; // rider IDs ordered by elapsed time
+  private transient int[] finishingPositions; // position of each rider in finishingOrder
+  private transient long[] finishingAdjustedTimes; // adjusted elapsed nanos in finishingOrder
+  private transient HashMap<Integer, Integer> finishingIndex; // <riderId, index in order>
+  private transient int[] finishingSprintPoints; // sprint points in finishingOrder, lazy
+  private transient int[] finishingMountainPoints; // mountain points in finishingOrder, lazy
+  // Ranked classifications pages are cut from, built lazily and out of date with the order
+  private transient ClassificationHistory snapshots;
+  private transient ClassificationPublisher publisher; // null until a listener is added
 
   /**
    * Constructor for the Stage class.
@@ -54,14 +79,15 @@ class Stage extends Entity {
    * @param length      The length of the stage
    * @param startTime   The time the stage starts
    * @param parentRace  The parent race that this stage belongs to
+   * @param idAllocator The ID allocator of the portal creating the stage
    * @throws InvalidNameException   if the name is not between 0 and 30 chars or
    *                                contains whitespace
    * @throws InvalidLengthException if the length is less than 5km
    */
   protected Stage(String name, String description, StageType type, double length,
-                  LocalDateTime startTime, Race parentRace)
+                  LocalDateTime startTime, Race parentRace, IdAllocator idAllocator)
       throws InvalidNameException, InvalidLengthException {
-    super(); // Call the entity constructor
+    super(idAllocator); // Call the entity constructor
 
     // Check name is not null, empty or >30 chars
     if (name == null || name.length() > 30 || name.isEmpty() || name.contains(" ")) {
@@ -86,6 +112,73 @@ class Stage extends Entity {
     this.parentRace = parentRace;
   }
 
+  /**
+   * Constructor for restoring a saved stage with its ID, the details were checked when it
+   * was first created. The stage starts unprepared so its checkpoints can be restored.
+   *
+   * @param id          The ID the stage had when it was saved
+   * @param name        Name of the stage
+   * @param description Description of the stage
+   * @param type        The type of the stage
+   * @param length      The length of the stage
+   * @param startTime   The time the stage starts
+   * @param parentRace  The parent race that this stage belongs to
+   * @param idAllocator The ID allocator of the portal the stage is loaded into
+   */
+  protected Stage(int id, String name, String description, StageType type, double length,
+                  LocalDateTime startTime, Race parentRace, IdAllocator idAllocator) {
+    super(id, idAllocator);
+    this.name = name;
+    this.description = description;
+    this.type = type;
+    this.length = length;
+    this.startStageTime = startTime;
+    this.parentRace = parentRace;
+  }
+
+  /**
+   * Read a stage saved with Java serialization. One saved before StageResults had its
+   * start and finish times in maps, and its checkpoints held their own passes, so they are
+   * gathered up and stored as results are now.
+   *
+   * @param in the stream being read
+   * @throws IOException            if an I/O error occurs
+   * @throws ClassNotFoundException if the class of a serialized object cannot be found
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject(); // The checkpoints have been read by the time this returns
+    if (results != null) {
+      return;
+    }
+
+    results = new StageResults(prepared ? checkpointOrder.size() : 0);
+    partialResults = new HashMap<Integer, long[]>();
+    ArrayList<HashMap<Integer, LocalTime>> passTimes = new ArrayList<>();
+    for (int checkpointId : checkpointOrder) {
+      passTimes.add(myCheckpoints.get(checkpointId).takeSavedPassTimes());
+    }
+
+    int[] riderIds = new int[finishTimes.size()];
+    long[][] nanos = new long[riderIds.length][];
+    int row = 0;
+    for (Map.Entry<Integer, LocalTime> finish : finishTimes.entrySet()) {
+      int riderId = finish.getKey();
+      long[] times = new long[checkpointOrder.size() + 2];
+      times[0] = startTimes.get(riderId).toNanoOfDay();
+      for (int i = 0; i < passTimes.size(); i++) {
+        times[i + 1] = passTimes.get(i).get(riderId).toNanoOfDay();
+      }
+      times[times.length - 1] = finish.getValue().toNanoOfDay();
+      riderIds[row] = riderId;
+      nanos[row++] = times;
+    }
+    startTimes = null;
+    finishTimes = null;
+    if (riderIds.length > 0) {
+      storeResultSheet(riderIds, nanos);
+    }
+  }
+
   /**
    * Register a rider's results at each checkpoint.
    *
@@ -108,42 +201,314 @@ class Stage extends Entity {
       throw new InvalidStageStateException("Stage not prepared");
     }
 
-    // Check if the rider has already registered a results
-    if (startTimes.containsKey(riderId) || finishTimes.containsKey(riderId)) {
+    // Must be done before any changes are made
+    if (partialResults.containsKey(riderId)) {
+      throw new DuplicatedResultException("Rider ID already has passes recorded");
+    }
+    long[] nanos = checkResults(riderId, times, "");
+    storeResults(riderId, nanos);
+  }
+
+  /**
+   * Register the time a rider passed one point of the stage, for results that arrive a
+   * pass at a time and in any order.
+   * Passes are kept aside until the rider has one for every point, then stored as if the
+   * whole result had been registered at once. Each pass is checked against the closest
+   * passes already received before and after it, so times out of order are rejected as
+   * they arrive.
+   *
+   * @param riderId the ID of the rider
+   * @param ordinal which point was passed, 0 for the start, 1 to n for the checkpoints in
+   *                order and n + 1 for the finish
+   * @param time    the time the point was passed
+   * @return true if this pass completed the rider's result and it has been stored
+   * @throws DuplicatedResultException       if the rider already has a result, or already
+   *                                         passed this point
+   * @throws InvalidCheckpointTimesException if the ordinal isn't a point of the stage, or
+   *                                         the time is out of order with the rider's
+   *                                         other passes
+   * @throws InvalidStageStateException      if the stage is not fully set up
+   */
+  protected boolean registerPass(int riderId, int ordinal, LocalTime time)
+      throws DuplicatedResultException, InvalidCheckpointTimesException,
+      InvalidStageStateException {
+    if (!prepared) {
+      throw new InvalidStageStateException("Stage not prepared");
+    }
+    if (results.contains(riderId)) {
       throw new DuplicatedResultException("Rider ID already has a finish time");
     }
+    int points = checkpointOrder.size() + 2;
+    if (ordinal < 0 || ordinal >= points) {
+      throw new InvalidCheckpointTimesException("Pass " + ordinal + " is not a point of the"
+          + " stage, which has " + points);
+    }
+    if (time == null) {
+      throw new InvalidCheckpointTimesException("Time is missing");
+    }
 
-    // Check the number of times is correct
-    if (times.length != myCheckpoints.size() + 2) {
-      throw new InvalidCheckpointTimesException("Number of times given is not"
-          + " number of checkpoints + 2");
+    long[] row = partialResults.get(riderId);
+    if (row == null) {
+      row = new long[points];
+      Arrays.fill(row, -1);
+    } else if (row[ordinal] >= 0) {
+      throw new DuplicatedResultException("Rider ID already passed point " + ordinal);
     }
 
-    // Must be done before any changes are made
-    for (int i = 0; i < times.length - 1; i++) {
-      if (times[i].isAfter(times[i + 1])) {
-        throw new InvalidCheckpointTimesException("Checkpoint times are not in order");
+    // Only the closest known pass either side needs checking, the rest are already in order
+    long nanos = time.toNanoOfDay();
+    for (int i = ordinal - 1; i >= 0; i--) {
+      if (row[i] >= 0) {
+        if (row[i] > nanos) {
+          throw new InvalidCheckpointTimesException("Pass " + ordinal + " is before pass " + i);
+        }
+        break;
+      }
+    }
+    for (int i = ordinal + 1; i < points; i++) {
+      if (row[i] >= 0) {
+        if (row[i] < nanos) {
+          throw new InvalidCheckpointTimesException("Pass " + ordinal + " is after pass " + i);
+        }
+        break;
       }
     }
 
-    startTimes.put(riderId, times[0]);
-    finishTimes.put(riderId, times[times.length - 1]);
-    assert startTimes.size() == finishTimes.size() : "Start & finish times should be same size";
-
-    if (type == StageType.TT) {
-      // If the stage is a time trial, then the rider's time is the time they
-      // finished the stage
-      return;
+    row[ordinal] = nanos;
+    for (long pass : row) {
+      if (pass < 0) {
+        partialResults.put(riderId, row); // Still waiting on some passes
+        return false;
+      }
     }
+    partialResults.remove(riderId);
+    storeResults(riderId, row);
+    return true;
+  }
+
+  /**
+   * Check whether a rider has some passes recorded but not a complete result yet.
+   *
+   * @param riderId the ID of the rider
+   * @return true if the rider's result is still being assembled
+   */
+  protected boolean hasPartialResults(int riderId) {
+    return partialResults.containsKey(riderId);
+  }
+
+  /**
+   * Stores a rider's checked times in the results and the checkpoints' pass orders.
+   *
+   * @param riderId the ID of a rider without a result
+   * @param nanos   the times in nanoseconds of the day, in the form
+   *                [start, checkpoint1, ..., finish]
+   */
+  private void storeResults(int riderId, long[] nanos) {
+    int resultsBefore = results.size();
+    results.add(riderId, nanos);
+    assert results.size() == resultsBefore + 1 : "Result was not stored";
+    invalidateFinishingOrder();
+    parentRace.stageResultsChanged(id);
 
     // Consider that the array is [start, checkpoint1, checkpoint2, ..., finish]
     // The nth checkpoint starts at index n and ends at index n+1
-    for (int i = 0; i < times.length - 2; i++) {
+    // (a time trial has no checkpoints, so nothing happens here for one)
+    for (int i = 0; i < nanos.length - 2; i++) {
       Checkpoint checkpoint = myCheckpoints.get(checkpointOrder.get(i));
-      checkpoint.recordTime(riderId, times[i + 1]);
+      checkpoint.recordTime(riderId, nanos[i + 1]);
+    }
+  }
+
+  /**
+   * Add a listener to be told about changes to this stage's rankings.
+   * If nobody was listening, the current ranking becomes the one changes are compared
+   * against.
+   *
+   * @param listener the listener to add
+   */
+  protected void addListener(ClassificationListener listener) {
+    ClassificationPublisher current;
+    boolean first;
+    synchronized (this) {
+      if (publisher == null) {
+        publisher = new ClassificationPublisher(id);
+      }
+      current = publisher;
+      first = !current.hasListeners();
+      current.addListener(listener);
+    }
+    if (first) {
+      current.publish(ClassificationType.STAGE, getFinishingOrder(), getFinishingAdjustedTimes(),
+          false);
+    }
+  }
+
+  /**
+   * Remove a listener from this stage.
+   *
+   * @param listener the listener to remove
+   * @return true if the listener had been added
+   */
+  protected synchronized boolean removeListener(ClassificationListener listener) {
+    return publisher != null && publisher.removeListener(listener);
+  }
+
+  /**
+   * Tell this stage's listeners how its ranking changed, called by the portal once per
+   * change to the results after it has recorded the change. Nothing is worked out if
+   * nobody is listening.
+   */
+  protected void publishResults() {
+    ClassificationPublisher current;
+    synchronized (this) {
+      current = publisher;
+    }
+    if (current == null || !current.hasListeners()) {
+      return;
+    }
+    // The cached arrays are replaced rather than modified, so can be kept for comparison
+    current.publish(ClassificationType.STAGE, getFinishingOrder(), getFinishingAdjustedTimes(),
+        true);
+  }
+
+  /**
+   * Getter for the race this stage belongs to.
+   *
+   * @return the parent race
+   */
+  protected Race getParentRace() {
+    return parentRace;
+  }
+
+  /**
+   * Register the results of many riders at once, such as a whole official result sheet.
+   * Every row is checked before anything is stored, so either all of the results are
+   * registered or none are. The results are then stored with one pass per checkpoint
+   * rather than one per rider.
+   *
+   * @param riderIds the IDs of the riders, each at most once
+   * @param times    each rider's times in the form [start, checkpoint1, ..., finish], in
+   *                 the same order as riderIds
+   * @throws DuplicatedResultException       if a rider already has a result, or appears
+   *                                         twice in the sheet
+   * @throws InvalidCheckpointTimesException if a row has the wrong number of times, or
+   *                                         times out of order
+   * @throws InvalidStageStateException      if the stage is not fully set up
+   */
+  protected void registerResultSheet(int[] riderIds, LocalTime[][] times)
+      throws DuplicatedResultException, InvalidCheckpointTimesException,
+      InvalidStageStateException {
+    assert riderIds.length == times.length : "Every rider needs a row of times";
+
+    // Check stage is fully set up
+    if (!prepared) {
+      throw new InvalidStageStateException("Stage not prepared");
+    }
+
+    // Check every row before any changes are made
+    long[][] nanos = new long[riderIds.length][];
+    HashSet<Integer> inSheet = new HashSet<Integer>();
+    for (int row = 0; row < riderIds.length; row++) {
+      String where = "Row " + row + " (rider " + riderIds[row] + "): ";
+      if (!inSheet.add(riderIds[row])) {
+        throw new DuplicatedResultException(where + "Rider appears more than once in the sheet");
+      }
+      if (partialResults.containsKey(riderIds[row])) {
+        throw new DuplicatedResultException(where + "Rider ID already has passes recorded");
+      }
+      nanos[row] = checkResults(riderIds[row], times[row], where);
+    }
+
+    storeResultSheet(riderIds, nanos);
+  }
+
+  /**
+   * Put back results that were saved, which were checked when first registered.
+   *
+   * @param riderIds the IDs of the riders, none with a result yet
+   * @param nanos    each rider's times in nanoseconds of the day, in the form
+   *                 [start, checkpoint1, ..., finish]
+   */
+  protected void restoreResults(int[] riderIds, long[][] nanos) {
+    assert prepared : "Results can only be restored to a prepared stage";
+    storeResultSheet(riderIds, nanos);
+  }
 
+  /**
+   * Put back the passes a rider had when saved, before their result was complete.
+   *
+   * @param riderId the ID of the rider
+   * @param nanos   the times in nanoseconds of the day, in the form
+   *                [start, checkpoint1, ..., finish] with -1 for not received
+   */
+  protected void restorePartialResults(int riderId, long[] nanos) {
+    assert nanos.length == checkpointOrder.size() + 2 : "Wrong number of times for the stage";
+    partialResults.put(riderId, nanos);
+  }
+
+  /**
+   * Stores many riders' checked times in the results, then merges them into each
+   * checkpoint's pass order at once.
+   *
+   * @param riderIds the IDs of riders without a result
+   * @param nanos    each rider's times in nanoseconds of the day, in the form
+   *                 [start, checkpoint1, ..., finish]
+   */
+  private void storeResultSheet(int[] riderIds, long[][] nanos) {
+    int resultsBefore = results.size();
+    results.ensureCapacity(resultsBefore + riderIds.length);
+    for (int row = 0; row < riderIds.length; row++) {
+      results.add(riderIds[row], nanos[row]);
+    }
+    assert results.size() == resultsBefore + riderIds.length : "Results were not stored";
+    invalidateFinishingOrder();
+    parentRace.stageResultsChanged(id);
+
+    // Merge the whole sheet into each checkpoint's pass order at once
+    long[] passTimes = new long[riderIds.length];
+    for (int i = 0; i < checkpointOrder.size(); i++) {
+      for (int row = 0; row < riderIds.length; row++) {
+        passTimes[row] = nanos[row][i + 1];
+      }
+      myCheckpoints.get(checkpointOrder.get(i)).recordTimes(riderIds, passTimes);
+    }
+  }
+
+  /**
+   * Checks a rider's times can be registered, without changing anything.
+   *
+   * @param riderId the ID of the rider
+   * @param times   the times in the form [start, checkpoint1, ..., finish]
+   * @param where   added to the start of any error message, to say which result failed
+   * @return the times in nanoseconds of the day
+   * @throws DuplicatedResultException       if the rider already has a result
+   * @throws InvalidCheckpointTimesException if the number of times given ≠ the number of
+   *                                         checkpoints + 2, or they are out of order
+   */
+  private long[] checkResults(int riderId, LocalTime[] times, String where)
+      throws DuplicatedResultException, InvalidCheckpointTimesException {
+    // Check if the rider has already registered a results
+    if (results.contains(riderId)) {
+      throw new DuplicatedResultException(where + "Rider ID already has a finish time");
     }
 
+    // Check the number of times is correct
+    if (times == null || times.length != myCheckpoints.size() + 2) {
+      throw new InvalidCheckpointTimesException(where + "Number of times given is not"
+          + " number of checkpoints + 2");
+    }
+
+    long[] nanos = new long[times.length];
+    for (int i = 0; i < times.length; i++) {
+      if (times[i] == null) {
+        throw new InvalidCheckpointTimesException(where + "Time " + i + " is missing");
+      }
+      nanos[i] = times[i].toNanoOfDay();
+      if (i > 0 && nanos[i - 1] > nanos[i]) {
+        throw new InvalidCheckpointTimesException(where + "Checkpoint times are not in order");
+      }
+    }
+    return nanos;
   }
 
   /**
@@ -178,31 +543,12 @@ class Stage extends Entity {
   protected int getSprintPoints(int riderId) throws IDNotRecognisedException {
     // If its only not in the stage then it should return empty array.
     // check if the rider has a start and finish time recorded
-    if (!(startTimes.containsKey(riderId) && finishTimes.containsKey(riderId))) {
+    if (!results.contains(riderId)) {
       throw new IDNotRecognisedException("Rider ID not recognised");
     }
 
-    // Calculate the rider's position at the end of the stage by counting the number
-    // of riders who finished before them
-    int position = 1;
-    for (int id : finishTimes.keySet()) {
-      if (id != riderId && getElapsedTime(id).isBefore(getElapsedTime(riderId))) {
-        position++;
-      }
-    }
-
-    int[] pointsArray = POINTS.get(type);
-
-    // Assume the rider gets 0 points if they finish outside the top 15
-    int points = (position >= pointsArray.length) ? 0 : pointsArray[position - 1];
-
-    // Add the points from the checkpoints for intermediate sprints
-    for (Checkpoint checkpoint : myCheckpoints.values()) {
-      assert type != StageType.TT : "TT stage should not have intermediate sprints";
-      points += checkpoint.getIntermediateSprintPoints(riderId);
-    }
-
-    return points;
+    buildPoints();
+    return finishingSprintPoints[finishingIndex.get(riderId)];
   }
 
   /**
@@ -236,17 +582,12 @@ class Stage extends Entity {
   protected int getMountainPoints(int riderId) throws IDNotRecognisedException {
 
     // check if the rider has a start and finish time recorded
-    if (!(startTimes.containsKey(riderId) && finishTimes.containsKey(riderId))) {
+    if (!results.contains(riderId)) {
       throw new IDNotRecognisedException("Rider ID not recognised");
     }
 
-    int points = 0;
-
-    for (Checkpoint checkpoint : myCheckpoints.values()) {
-      points += checkpoint.getMountainPoints(riderId);
-    }
-
-    return points;
+    buildPoints();
+    return finishingMountainPoints[finishingIndex.get(riderId)];
   }
 
   /**
@@ -260,6 +601,8 @@ class Stage extends Entity {
     }
 
     prepared = true;
+    // The checkpoints are fixed from now on, so size the result columns for them
+    results = new StageResults(checkpointOrder.size());
   }
 
   /**
@@ -282,33 +625,37 @@ class Stage extends Entity {
   }
 
   /**
-   * Removes all of a rider's results from the stage and its checkpoints.
+   * Removes all of a rider's results from the stage and its checkpoints, or the passes
+   * received so far if their result isn't complete yet.
    *
    * @param riderId the ID of the rider to remove
    * @throws IDNotRecognisedException if the rider ID is not recognised
    */
   protected void removeRider(int riderId) throws IDNotRecognisedException {
-    if (!(startTimes.containsKey(riderId) && finishTimes.containsKey(riderId))) {
-      throw new IDNotRecognisedException("Rider ID not recognised");
+    if (partialResults.remove(riderId) != null) {
+      return; // Nothing was stored for the rider yet
     }
 
-    assert startTimes.containsKey(riderId) : "Rider ID not found in start times";
-
-    int startTimesBefore = startTimes.size();
-    startTimes.remove(riderId);
-    finishTimes.remove(riderId);
-
-    assert startTimes.size() == startTimesBefore - 1 : "Rider not removed from start times";
-    assert startTimes.size() == finishTimes.size() : "Start and finish times should be same size";
+    int slot = results.getSlot(riderId);
+    if (slot < 0) {
+      throw new IDNotRecognisedException("Rider ID not recognised");
+    }
 
-    for (Checkpoint checkpoint : myCheckpoints.values()) {
-      checkpoint.removeRider(riderId);
+    // Take the rider out of each checkpoint's pass order while their times are still stored
+    for (int i = 0; i < checkpointOrder.size(); i++) {
+      myCheckpoints.get(checkpointOrder.get(i)).removeRider(riderId, results.getPassTime(i, slot));
     }
+
+    int resultsBefore = results.size();
+    results.remove(riderId);
+    assert results.size() == resultsBefore - 1 : "Rider not removed from results";
+    invalidateFinishingOrder();
+    parentRace.stageResultsChanged(id);
   }
 
   @Override
   protected void remove() {
-    freeId(); // Remove the ID from the list of used IDs
+    freeId(); // Return the stage's ID to the allocator
 
     // has to be like this so concurrent modification exception is not thrown
     while (!myCheckpoints.isEmpty()) {
@@ -329,9 +676,123 @@ class Stage extends Entity {
    * @return the elapsed time
    */
   private LocalTime getElapsedTime(int riderId) {
-    return LocalTime
-        .ofNanoOfDay(finishTimes.get(riderId).toNanoOfDay()
-            - startTimes.get(riderId).toNanoOfDay());
+    return LocalTime.ofNanoOfDay(getElapsedNanos(riderId));
+  }
+
+  /**
+   * Gets a rider's elapsed time for the stage in nanoseconds, without creating a LocalTime.
+   *
+   * @param riderId the ID of the rider to get the elapsed time for
+   * @return the elapsed time in nanoseconds
+   */
+  private long getElapsedNanos(int riderId) {
+    return results.getElapsedTime(results.getSlot(riderId));
+  }
+
+  /**
+   * Gets the time a rider passed one of this stage's checkpoints.
+   *
+   * @param checkpointId the ID of the checkpoint
+   * @param riderId      the ID of the rider
+   * @return the pass time in nanoseconds of the day, or -1 if the rider has no result
+   */
+  protected long getPassNanos(int checkpointId, int riderId) {
+    int slot = results.getSlot(riderId);
+    if (slot < 0) {
+      return -1;
+    }
+    return results.getPassTime(checkpointOrder.indexOf(checkpointId), slot);
+  }
+
+  /**
+   * Works out every rider's sprint and mountain points for the stage, if that hasn't been
+   * done since the results last changed.
+   * Only the riders who score at each checkpoint are visited, rather than asking every
+   * checkpoint about every rider.
+   */
+  private synchronized void buildPoints() {
+    buildFinishingOrder();
+    if (finishingSprintPoints != null) {
+      return;
+    }
+
+    int[] sprintPoints = new int[finishingOrder.length];
+    int[] mountainPoints = new int[finishingOrder.length];
+    int[] pointsArray = POINTS.get(type);
+    for (int i = 0; i < finishingOrder.length; i++) {
+      // Assume the rider gets 0 points if they finish outside the top 15
+      int position = finishingPositions[i];
+      sprintPoints[i] = (position >= pointsArray.length) ? 0 : pointsArray[position - 1];
+    }
+
+    // Add the points from the checkpoints for intermediate sprints and climbs
+    for (Checkpoint checkpoint : myCheckpoints.values()) {
+      assert type != StageType.TT : "TT stage should not have checkpoints";
+      for (int riderId : checkpoint.getSprintScorers()) {
+        sprintPoints[finishingIndex.get(riderId)] += checkpoint.getIntermediateSprintPoints(riderId);
+      }
+      for (int riderId : checkpoint.getMountainScorers()) {
+        mountainPoints[finishingIndex.get(riderId)] += checkpoint.getMountainPoints(riderId);
+      }
+    }
+
+    finishingSprintPoints = sprintPoints;
+    finishingMountainPoints = mountainPoints;
+  }
+
+  /**
+   * Sorts the registered riders by elapsed time and works out their adjusted times, if that
+   * hasn't been done since the results last changed.
+   * Once sorted, riders finishing less than a second behind the rider ahead form a chain
+   * that all get the time of the first rider in it, so one sweep down the order gives every
+   * adjusted time.
+   */
+  private synchronized void buildFinishingOrder() {
+    if (finishingOrder != null) {
+      return;
+    }
+
+    // Work out every elapsed time once rather than in each comparison
+    int riderCount = results.size();
+    int[] riderIds = new int[riderCount];
+    long[] elapsed = new long[riderCount];
+    for (int slot = 0; slot < riderCount; slot++) {
+      riderIds[slot] = results.getRider(slot);
+      elapsed[slot] = results.getElapsedTime(slot);
+    }
+    // Riders on the same time share a position
+    RankingEngine ranking = RankingEngine.rankLongs(riderIds, elapsed, false);
+    int[] order = ranking.getRiderRanks();
+    long[] sortedTimes = ranking.getRiderScores();
+
+    long[] adjusted = new long[riderCount];
+    HashMap<Integer, Integer> index = new HashMap<Integer, Integer>();
+    for (int i = 0; i < riderCount; i++) {
+      long gap = (i > 0) ? sortedTimes[i] - sortedTimes[i - 1] : Long.MAX_VALUE;
+      // Riders within a second of the one ahead join their chain and share its time
+      adjusted[i] = (gap < NANOS_PER_SECOND) ? adjusted[i - 1] : sortedTimes[i];
+      index.put(order[i], i);
+    }
+
+    finishingOrder = order;
+    finishingPositions = ranking.getPositions();
+    finishingAdjustedTimes = adjusted;
+    finishingIndex = index;
+  }
+
+  /**
+   * Drops the cached finishing order, called whenever a result is added or removed.
+   */
+  private synchronized void invalidateFinishingOrder() {
+    finishingOrder = null;
+    finishingPositions = null;
+    finishingAdjustedTimes = null;
+    finishingIndex = null;
+    finishingSprintPoints = null;
+    finishingMountainPoints = null;
+    if (snapshots != null) {
+      snapshots.resultsChanged(); // Kept for pages of their versions
+    }
   }
 
   /**
@@ -344,35 +805,12 @@ class Stage extends Entity {
    * @throws IDNotRecognisedException if the rider ID is not recognised
    */
   protected LocalTime getAdjustedElapsedTime(int riderId) throws IDNotRecognisedException {
-    if (!(startTimes.containsKey(riderId) && finishTimes.containsKey(riderId))) {
+    if (!results.contains(riderId)) {
       throw new IDNotRecognisedException("Rider ID not recognised");
     }
 
-    LocalTime adjustedElapsedTime = getElapsedTime(riderId);
-
-    // Repeat until no more adjustments are made
-    boolean adjusted = true;
-    while (adjusted) {
-      adjusted = false;
-
-      // Iterate through all registered riders in the stage
-      for (int otherRiderId : getRegisteredRiders()) {
-        if (otherRiderId != riderId) {
-          // Calculate the time difference between the current rider and other riders
-
-          float difference = (float) (getElapsedTime(otherRiderId).toNanoOfDay()
-              - adjustedElapsedTime.toNanoOfDay()) / 1000000000; // nanoseconds to seconds
-
-          // Adjust the elapsed time if the difference is within the range [-1, 0)
-          if (-1 < difference && difference < 0) {
-            adjustedElapsedTime = getElapsedTime(otherRiderId);
-            adjusted = true;
-          }
-        }
-      }
-    }
-
-    return adjustedElapsedTime;
+    buildFinishingOrder();
+    return LocalTime.ofNanoOfDay(finishingAdjustedTimes[finishingIndex.get(riderId)]);
   }
 
   /**
@@ -384,21 +822,21 @@ class Stage extends Entity {
    * @throws IDNotRecognisedException if the rider ID is not recognised
    */
   protected LocalTime[] getResults(int riderId) throws IDNotRecognisedException {
-    if (!(startTimes.containsKey(riderId) && finishTimes.containsKey(riderId))) {
+    int slot = results.getSlot(riderId);
+    if (slot < 0) {
       throw new IDNotRecognisedException("Rider ID not recognised");
     }
 
-    LocalTime[] results = new LocalTime[myCheckpoints.size() + 1];
+    LocalTime[] riderResults = new LocalTime[results.getCheckpointCount() + 1];
 
     // Set the last element to the elapsed time
-    results[results.length - 1] = getElapsedTime(riderId);
+    riderResults[riderResults.length - 1] = LocalTime.ofNanoOfDay(results.getElapsedTime(slot));
 
-    for (int i = 0; i < results.length - 2; i++) {
-      Checkpoint checkpoint = myCheckpoints.get(checkpointOrder.get(i));
-      results[i] = checkpoint.getPassTime(riderId);
+    for (int i = 0; i < riderResults.length - 1; i++) {
+      riderResults[i] = LocalTime.ofNanoOfDay(results.getPassTime(i, slot));
     }
 
-    return results;
+    return riderResults;
   }
 
   /**
@@ -419,6 +857,67 @@ class Stage extends Entity {
     return type;
   }
 
+  /**
+   * Getter for the description of this stage.
+   *
+   * @return the Stage description
+   */
+  protected String getDescription() {
+    return description;
+  }
+
+  /**
+   * Getter for the time this stage starts.
+   *
+   * @return the Stage start time
+   */
+  protected LocalDateTime getStartTime() {
+    return startStageTime;
+  }
+
+  /**
+   * Getter for the results stored in this stage. Only to be read, such as when saving.
+   *
+   * @return the results of every rider with a complete result
+   */
+  protected StageResults getResults() {
+    return results;
+  }
+
+  /**
+   * Getter for the passes of riders whose results aren't complete yet. Only to be read,
+   * such as when saving.
+   *
+   * @return the passes in the format of <riderId, nanos in the form
+   *        [start, checkpoint1, ..., finish]> with -1 for not received
+   */
+  protected HashMap<Integer, long[]> getPartialResults() {
+    return partialResults;
+  }
+
+  /**
+   * Take a copy of the stage as it is now for saving, detached from the portal, which
+   * later changes to the stage don't affect. The results are a snapshot sharing this
+   * stage's columns until either changes, and the checkpoints are shared as they can't
+   * change.
+   *
+   * @param race        the copy of the race the copy belongs to
+   * @param idAllocator a scratch allocator for the copy's ID
+   * @return the copy, which must only be read
+   */
+  protected Stage capture(Race race, IdAllocator idAllocator) {
+    Stage copy = new Stage(id, name, description, type, length, startStageTime, race,
+        idAllocator);
+    copy.checkpointOrder.addAll(checkpointOrder);
+    copy.myCheckpoints.putAll(myCheckpoints);
+    copy.prepared = prepared;
+    copy.results = results.snapshot();
+    for (Map.Entry<Integer, long[]> partial : partialResults.entrySet()) {
+      copy.partialResults.put(partial.getKey(), partial.getValue().clone());
+    }
+    return copy;
+  }
+
   /**
    * Getter for the length of this stage.
    *
@@ -476,27 +975,161 @@ class Stage extends Entity {
    * @return the registered riders
    */
   protected ArrayList<Integer> getRegisteredRiders() {
-    return new ArrayList<Integer>(finishTimes.keySet());
+    ArrayList<Integer> riders = new ArrayList<Integer>(results.size());
+    for (int slot = 0; slot < results.size(); slot++) {
+      riders.add(results.getRider(slot));
+    }
+    return riders;
   }
 
   /**
    * Get the riders (as IDs) that are a part of the queried stage ordered by their
-   * GC time.
+   * elapsed time.
    *
    * @return The IDs of the riders sorted by elapsed time
    */
   protected int[] getRidersRankInStage() {
-    Function<Integer, LocalTime> func = this::getElapsedTime;
-    ArrayList<Stage> pointsStages = new ArrayList<Stage>();
-    pointsStages.add(this);
-    PointsHandler<LocalTime> pointsHandler = new PointsHandler<LocalTime>(func, false,
-        pointsStages);
-
-    int[] riderRanks = pointsHandler.getRiderRanks();
-    assert riderRanks.length == getRegisteredRiders().size()
+    buildFinishingOrder();
+
+    int[] riderRanks = finishingOrder.clone();
+    assert riderRanks.length == results.size()
         : "Rider ranks array should be the same length as the riders array";
     return riderRanks;
+  }
+
+  /**
+   * Get the riders in finishing order without copying the cached array.
+   * The array is replaced rather than modified when the results change, so callers can
+   * hold on to it but must not write to it.
+   *
+   * @return The IDs of the riders sorted by elapsed time
+   */
+  protected int[] getFinishingOrder() {
+    buildFinishingOrder();
+    return finishingOrder;
+  }
 
+  /**
+   * Get the adjusted elapsed times in nanoseconds, in the same order as
+   * {@link #getFinishingOrder()} and without copying the cached array.
+   *
+   * @return The adjusted elapsed times sorted by finish time
+   */
+  protected long[] getFinishingAdjustedTimes() {
+    buildFinishingOrder();
+    return finishingAdjustedTimes;
+  }
+
+  /**
+   * Get each rider's sprint points for the stage, in the same order as
+   * {@link #getFinishingOrder()} and without copying the cached array.
+   *
+   * @return The sprint points sorted by finish time
+   */
+  protected int[] getFinishingSprintPoints() {
+    buildPoints();
+    return finishingSprintPoints;
+  }
+
+  /**
+   * Get each rider's mountain points for the stage, in the same order as
+   * {@link #getFinishingOrder()} and without copying the cached array.
+   *
+   * @return The mountain points sorted by finish time
+   */
+  protected int[] getFinishingMountainPoints() {
+    buildPoints();
+    return finishingMountainPoints;
+  }
+
+  /**
+   * Get the best riders of the stage without ranking the whole field.
+   * A rider's adjusted time only depends on the riders finishing ahead of them, so if the
+   * finishing order isn't cached the K fastest are picked by elapsed time and adjusted
+   * among themselves. Points depend on finishing positions, so rank from the cached points.
+   *
+   * @param type STAGE for adjusted elapsed times, POINTS or MOUNTAIN for the stage's points
+   * @param k    the number of riders wanted
+   * @return up to k riders in rank order along with their times or points
+   */
+  protected synchronized ClassificationResult getTopRiders(ClassificationType type, int k) {
+    if (type == ClassificationType.POINTS || type == ClassificationType.MOUNTAIN) {
+      buildPoints();
+      int[] points = (type == ClassificationType.POINTS) ? finishingSprintPoints
+          : finishingMountainPoints;
+      TopKSelector selector = new TopKSelector(Math.min(k, finishingOrder.length), true);
+      for (int i = 0; i < finishingOrder.length; i++) {
+        selector.offer(finishingOrder[i], points[i]);
+      }
+      return selector.toResult(type);
+    }
+    assert type == ClassificationType.STAGE : "A stage has no " + type + " classification";
+
+    if (finishingOrder != null) {
+      // Already ranked, the top is just the head of the order
+      int count = Math.min(k, finishingOrder.length);
+      return new ClassificationResult(type, Arrays.copyOf(finishingOrder, count),
+          Arrays.copyOf(finishingAdjustedTimes, count));
+    }
+
+    TopKSelector selector = new TopKSelector(Math.min(k, results.size()), false);
+    for (int slot = 0; slot < results.size(); slot++) {
+      selector.offer(results.getRider(slot), results.getElapsedTime(slot));
+    }
+    ClassificationResult fastest = selector.toResult(type);
+    long[] elapsed = fastest.getValues();
+    long[] adjusted = new long[elapsed.length];
+    for (int i = 0; i < elapsed.length; i++) {
+      // The same chain sweep as buildFinishingOrder
+      long gap = (i > 0) ? elapsed[i] - elapsed[i - 1] : Long.MAX_VALUE;
+      adjusted[i] = (gap < NANOS_PER_SECOND) ? adjusted[i - 1] : elapsed[i];
+    }
+    return new ClassificationResult(type, fastest.getRiderIds(), adjusted);
+  }
+
+  /**
+   * Get one of the stage's classifications ranked in full, reusing the last snapshot taken
+   * if the results haven't changed since.
+   *
+   * @param type STAGE for adjusted elapsed times, POINTS or MOUNTAIN for the stage's points
+   * @return the snapshot
+   */
+  protected synchronized ClassificationSnapshot getSnapshot(ClassificationType type) {
+    if (snapshots == null) {
+      snapshots = new ClassificationHistory();
+    }
+    ClassificationSnapshot snapshot = snapshots.getCurrent(type);
+    if (snapshot != null) {
+      return snapshot;
+    }
+
+    if (type == ClassificationType.POINTS || type == ClassificationType.MOUNTAIN) {
+      buildPoints();
+      int[] points = (type == ClassificationType.POINTS) ? finishingSprintPoints
+          : finishingMountainPoints;
+      RankingEngine ranking = RankingEngine.rankInts(finishingOrder, points, true);
+      snapshot = new ClassificationSnapshot(type, ranking.getRiderRanks(),
+          ranking.getRiderScores());
+    } else {
+      assert type == ClassificationType.STAGE : "A stage has no " + type + " classification";
+      buildFinishingOrder();
+      // The cached arrays are replaced rather than modified, so can be shared
+      snapshot = new ClassificationSnapshot(type, finishingOrder, finishingAdjustedTimes);
+    }
+    snapshots.add(snapshot);
+    return snapshot;
+  }
+
+  /**
+   * Get a snapshot of one of the stage's classifications taken earlier, if it is still kept.
+   *
+   * @param type    the classification
+   * @param version the version of the snapshot, as given with a page cut from it
+   * @return the snapshot, or null if no snapshot of that version is kept
+   */
+  protected synchronized ClassificationSnapshot getSnapshot(ClassificationType type,
+                                                            long version) {
+    return (snapshots == null) ? null : snapshots.getVersion(type, version);
   }
 
   /**
@@ -506,14 +1139,13 @@ class Stage extends Entity {
    *        time.
    */
   protected LocalTime[] getRankedAdjustedElapsedTimesInStage() {
-    Function<Integer, LocalTime> func = this::getElapsedTime;
-    ArrayList<Stage> pointsStages = new ArrayList<Stage>();
-    pointsStages.add(this);
-    PointsHandler<LocalTime> pointsHandler = new PointsHandler<LocalTime>(func, false,
-        pointsStages);
-
-    LocalTime[] riderTimes = pointsHandler.getRiderTimes();
-    assert riderTimes.length == getRegisteredRiders().size()
+    buildFinishingOrder();
+
+    LocalTime[] riderTimes = new LocalTime[finishingAdjustedTimes.length];
+    for (int i = 0; i < riderTimes.length; i++) {
+      riderTimes[i] = LocalTime.ofNanoOfDay(finishingAdjustedTimes[i]);
+    }
+    assert riderTimes.length == results.size()
         : "Rider times array should be the same length as the riders array";
     return riderTimes;
   }
@@ -0,0 +1,336 @@
+package cycling;
+
+import java.util.Arrays;
+
+/**
+ * Columnar store of the results registered in a stage.
+ * Each rider gets a dense slot, and their start, checkpoint and finish times are kept as
+ * nanoseconds of the day in one primitive array per column. Riders are found through an
+ * open-addressing table of slots, so storing a result creates no boxed keys, map entries
+ * or LocalTime objects.
+ * A snapshot of the results shares the columns rather than copying them; the columns are
+ * only copied when the results next change, so a save can hold on to the snapshot while
+ * results keep arriving.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class StageResults implements java.io.Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int checkpointCount;
+  private int size = 0;
+
+  // Columns indexed by slot, slots 0 to size - 1 are in use
+  private int[] riders;
+  private long[] startTimes;
+  private long[] finishTimes;
+  private long[][] passTimes; // [checkpoint ordinal][slot]
+
+  // Open-addressing table of slot + 1 hashed by rider ID, 0 marks an empty entry
+  private int[] slotTable;
+  // Whether a snapshot shares the columns, so they must be copied before they change
+  private transient boolean shared = false;
+
+  /**
+   * Constructor for the StageResults class.
+   *
+   * @param checkpointCount the number of checkpoints in the stage
+   */
+  protected StageResults(int checkpointCount) {
+    this.checkpointCount = checkpointCount;
+    riders = new int[INITIAL_CAPACITY];
+    startTimes = new long[INITIAL_CAPACITY];
+    finishTimes = new long[INITIAL_CAPACITY];
+    passTimes = new long[checkpointCount][INITIAL_CAPACITY];
+    slotTable = new int[INITIAL_CAPACITY * 2];
+  }
+
+  /**
+   * Constructor for a snapshot, sharing the columns of the results it was taken from.
+   *
+   * @param original the results to take a snapshot of
+   */
+  private StageResults(StageResults original) {
+    checkpointCount = original.checkpointCount;
+    size = original.size;
+    riders = original.riders;
+    startTimes = original.startTimes;
+    finishTimes = original.finishTimes;
+    passTimes = original.passTimes.clone(); // Resizing replaces the inner columns in place
+    slotTable = original.slotTable;
+    shared = true;
+  }
+
+  /**
+   * Take a snapshot of the results as they are now, which later changes don't affect.
+   * This copies nothing up front, the columns are copied by whichever of the two changes
+   * first.
+   *
+   * @return the snapshot, which must only be read
+   */
+  protected StageResults snapshot() {
+    shared = true;
+    return new StageResults(this);
+  }
+
+  /**
+   * Get the number of riders with a result.
+   *
+   * @return the number of riders stored
+   */
+  protected int size() {
+    return size;
+  }
+
+  /**
+   * Get the number of checkpoints each result holds a time for.
+   *
+   * @return the number of checkpoints
+   */
+  protected int getCheckpointCount() {
+    return checkpointCount;
+  }
+
+  /**
+   * Check whether a rider has a result stored.
+   *
+   * @param riderId the ID of the rider
+   * @return true if the rider has a result
+   */
+  protected boolean contains(int riderId) {
+    return getSlot(riderId) >= 0;
+  }
+
+  /**
+   * Get the slot holding a rider's result.
+   *
+   * @param riderId the ID of the rider
+   * @return the slot, or -1 if the rider has no result
+   */
+  protected int getSlot(int riderId) {
+    int mask = slotTable.length - 1;
+    for (int i = hash(riderId) & mask; slotTable[i] != 0; i = (i + 1) & mask) {
+      if (riders[slotTable[i] - 1] == riderId) {
+        return slotTable[i] - 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Store a rider's result.
+   *
+   * @param riderId the ID of a rider without a result
+   * @param times   nanoseconds of the day in the form [start, checkpoint1, ..., finish]
+   */
+  protected void add(int riderId, long[] times) {
+    assert !contains(riderId) : "Rider already has a result";
+    assert times.length == checkpointCount + 2 : "Wrong number of times for the stage";
+
+    if (size == riders.length) {
+      grow(); // Copies the columns anyway
+    } else if (shared) {
+      unshare();
+    }
+
+    int slot = size++;
+    riders[slot] = riderId;
+    startTimes[slot] = times[0];
+    finishTimes[slot] = times[times.length - 1];
+    for (int i = 0; i < checkpointCount; i++) {
+      passTimes[i][slot] = times[i + 1];
+    }
+    insertSlot(slot);
+  }
+
+  /**
+   * Remove a rider's result. The last slot is moved into the gap so slots stay dense.
+   *
+   * @param riderId the ID of the rider
+   * @return true if the rider had a result
+   */
+  protected boolean remove(int riderId) {
+    int slot = getSlot(riderId);
+    if (slot < 0) {
+      return false;
+    }
+    if (shared) {
+      unshare();
+    }
+
+    deleteSlot(slot);
+    int last = --size;
+    if (slot != last) {
+      // Point the moved rider's table entry at its new slot
+      deleteSlot(last);
+      riders[slot] = riders[last];
+      startTimes[slot] = startTimes[last];
+      finishTimes[slot] = finishTimes[last];
+      for (long[] column : passTimes) {
+        column[slot] = column[last];
+      }
+      insertSlot(slot);
+    }
+    return true;
+  }
+
+  /**
+   * Get the rider in a slot.
+   *
+   * @param slot the slot
+   * @return the rider's ID
+   */
+  protected int getRider(int slot) {
+    return riders[slot];
+  }
+
+  /**
+   * Get the start time in a slot.
+   *
+   * @param slot the slot
+   * @return the start time in nanoseconds of the day
+   */
+  protected long getStartTime(int slot) {
+    return startTimes[slot];
+  }
+
+  /**
+   * Get the finish time in a slot.
+   *
+   * @param slot the slot
+   * @return the finish time in nanoseconds of the day
+   */
+  protected long getFinishTime(int slot) {
+    return finishTimes[slot];
+  }
+
+  /**
+   * Get the elapsed time in a slot.
+   *
+   * @param slot the slot
+   * @return the finish time minus the start time in nanoseconds
+   */
+  protected long getElapsedTime(int slot) {
+    return finishTimes[slot] - startTimes[slot];
+  }
+
+  /**
+   * Get the time a checkpoint was passed in a slot.
+   *
+   * @param ordinal the position of the checkpoint in the stage, starting at 0
+   * @param slot    the slot
+   * @return the pass time in nanoseconds of the day
+   */
+  protected long getPassTime(int ordinal, int slot) {
+    return passTimes[ordinal][slot];
+  }
+
+  /**
+   * Make room for a number of results up front, so adding them grows the columns at most
+   * once.
+   *
+   * @param capacity the number of results to make room for
+   */
+  protected void ensureCapacity(int capacity) {
+    int newCapacity = riders.length;
+    while (newCapacity < capacity) {
+      newCapacity *= 2;
+    }
+    if (newCapacity != riders.length) {
+      resize(newCapacity);
+    }
+  }
+
+  /**
+   * Double the capacity of every column and the slot table.
+   */
+  private void grow() {
+    resize(riders.length * 2);
+  }
+
+  /**
+   * Change the capacity of every column, and rebuild the slot table at twice that size.
+   *
+   * @param capacity the new capacity, a power of two no smaller than the size
+   */
+  private void resize(int capacity) {
+    riders = Arrays.copyOf(riders, capacity);
+    startTimes = Arrays.copyOf(startTimes, capacity);
+    finishTimes = Arrays.copyOf(finishTimes, capacity);
+    for (int i = 0; i < checkpointCount; i++) {
+      passTimes[i] = Arrays.copyOf(passTimes[i], capacity);
+    }
+
+    slotTable = new int[capacity * 2];
+    for (int slot = 0; slot < size; slot++) {
+      insertSlot(slot);
+    }
+    shared = false; // Every column is a new copy
+  }
+
+  /**
+   * Copy the columns and slot table shared with a snapshot, so they can be changed.
+   */
+  private void unshare() {
+    riders = riders.clone();
+    startTimes = startTimes.clone();
+    finishTimes = finishTimes.clone();
+    for (int i = 0; i < checkpointCount; i++) {
+      passTimes[i] = passTimes[i].clone();
+    }
+    slotTable = slotTable.clone();
+    shared = false;
+  }
+
+  /**
+   * Add a slot to the table under the hash of its rider.
+   *
+   * @param slot the slot to add
+   */
+  private void insertSlot(int slot) {
+    int mask = slotTable.length - 1;
+    int i = hash(riders[slot]) & mask;
+    while (slotTable[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    slotTable[i] = slot + 1;
+  }
+
+  /**
+   * Take a slot out of the table, shifting back any entries that probed past it so
+   * lookups never stop early at the hole.
+   *
+   * @param slot the slot to remove
+   */
+  private void deleteSlot(int slot) {
+    int mask = slotTable.length - 1;
+    int hole = hash(riders[slot]) & mask;
+    while (slotTable[hole] != slot + 1) {
+      hole = (hole + 1) & mask;
+    }
+
+    for (int i = (hole + 1) & mask; slotTable[i] != 0; i = (i + 1) & mask) {
+      int home = hash(riders[slotTable[i] - 1]) & mask;
+      // Move the entry back if the hole lies between its home and where it ended up
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        slotTable[hole] = slotTable[i];
+        hole = i;
+      }
+    }
+    slotTable[hole] = 0;
+  }
+
+  /**
+   * Spread a rider ID's bits so sequential IDs don't cluster in the table.
+   *
+   * @param riderId the ID to hash
+   * @return the hash
+   */
+  private static int hash(int riderId) {
+    int h = riderId * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
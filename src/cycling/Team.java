@@ -10,6 +10,7 @@ import java.util.HashMap;
  * @version 1.0
  */
 class Team extends Entity {
+  private static final long serialVersionUID = -3065205063747596006L;
   private final String name; // Name of the team
   private final String description; // Description of the team
   private final HashMap<Integer, Rider> myRiders = new HashMap<>(); // Holds the riders in the team
@@ -19,11 +20,13 @@ class Team extends Entity {
    *
    * @param name        Name of the team
    * @param description Description of the team
+   * @param idAllocator The ID allocator of the portal creating the team
    * @throws InvalidNameException if the name is invalid (too long/short or
    *                              contains whitespace)
    */
-  protected Team(String name, String description) throws InvalidNameException {
-    super(); // Call the entity constructor
+  protected Team(String name, String description, IdAllocator idAllocator)
+      throws InvalidNameException {
+    super(idAllocator); // Call the entity constructor
 
     // Check for invalid (rule breaking) name
     if (name == null || name.length() > 30 || name.isEmpty() || name.contains(" ")) {
@@ -37,6 +40,21 @@ class Team extends Entity {
     this.description = description;
   }
 
+  /**
+   * Constructor for restoring a saved team with its ID, the name was checked when it was
+   * first created.
+   *
+   * @param id          The ID the team had when it was saved
+   * @param name        Name of the team
+   * @param description Description of the team
+   * @param idAllocator The ID allocator of the portal the team is loaded into
+   */
+  protected Team(int id, String name, String description, IdAllocator idAllocator) {
+    super(id, idAllocator);
+    this.name = name;
+    this.description = description;
+  }
+
   /**
    * Getter for the riders' Ids that belong to this team.
    *
@@ -55,6 +73,15 @@ class Team extends Entity {
     return name;
   }
 
+  /**
+   * Getter for the description attribute on the team class.
+   *
+   * @return this instance of a team's description
+   */
+  protected String getDescription() {
+    return description;
+  }
+
   /**
    * Gets details about the team.
    * Format: "Name: [name] Description: [description]"
@@ -77,7 +104,7 @@ class Team extends Entity {
 
   @Override
   protected void remove() {
-    freeId(); // Remove the team from the usedIds list
+    freeId(); // Return the team's ID to the allocator
 
     // Needs to be a while loop to stop concurrent modification exception
     while (!new ArrayList<Integer>(myRiders.keySet()).isEmpty()) {
@@ -101,6 +128,24 @@ class Team extends Entity {
     assert myRiders.size() == ridersBefore + 1 : "Rider not added to team";
   }
 
+  /**
+   * Take a copy of the team and its riders as they are now for saving, detached from the
+   * portal, which later changes to the team don't affect.
+   *
+   * @param idAllocator a scratch allocator for the copies' IDs
+   * @return the copy, which must only be read
+   */
+  protected Team capture(IdAllocator idAllocator) {
+    Team copy = new Team(id, name, description, idAllocator);
+    for (Rider rider : myRiders.values()) {
+      Rider riderCopy = new Rider(rider.getId(), rider.getName(), rider.getYearOfBirth(), copy,
+          idAllocator);
+      riderCopy.getRegisteredStages().addAll(rider.getRegisteredStages());
+      copy.addRider(riderCopy);
+    }
+    return copy;
+  }
+
   /**
    * Remove a rider from the team.
    *
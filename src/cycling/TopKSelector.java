@@ -0,0 +1,126 @@
+package cycling;
+
+/**
+ * Picks the best K riders of a classification as they are offered one at a time, without
+ * sorting or storing the rest of the field.
+ * The riders kept are held in a heap with the worst of them at the root, so each offer is
+ * compared against the root and costs at most O(log K). Ties are broken by rider ID in
+ * the same way as {@link RankingEngine}, so the result matches the head of a full ranking.
+ *
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ */
+class TopKSelector {
+  private final boolean descending;
+  private final int[] heapRiders;
+  private final long[] heapValues;
+  private int size = 0;
+
+  /**
+   * Constructor for the TopKSelector class.
+   *
+   * @param k          the number of riders to keep, at least 0
+   * @param descending true if higher values rank first (points), false if lower do (times)
+   */
+  protected TopKSelector(int k, boolean descending) {
+    assert k >= 0 : "Can't keep a negative number of riders";
+    this.descending = descending;
+    heapRiders = new int[k];
+    heapValues = new long[k];
+  }
+
+  /**
+   * Offer a rider, kept only if they rank ahead of the worst rider kept so far.
+   *
+   * @param riderId the rider, each only offered once
+   * @param value   the rider's time or points
+   */
+  protected void offer(int riderId, long value) {
+    if (size < heapRiders.length) {
+      // Not full yet, add at the bottom and move up past any better riders
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        if (!ranksAhead(heapRiders[parent], heapValues[parent], riderId, value)) {
+          break;
+        }
+        heapRiders[i] = heapRiders[parent];
+        heapValues[i] = heapValues[parent];
+        i = parent;
+      }
+      heapRiders[i] = riderId;
+      heapValues[i] = value;
+    } else if (size > 0 && ranksAhead(riderId, value, heapRiders[0], heapValues[0])) {
+      siftDown(riderId, value, size);
+    }
+  }
+
+  /**
+   * Get the riders kept in rank order. The heap is emptied by repeatedly moving the worst
+   * rider to the end, so no more riders can be offered afterwards.
+   *
+   * @param type the classification being ranked
+   * @return the best riders and their values, best first
+   */
+  protected ClassificationResult toResult(ClassificationType type) {
+    int[] riders = new int[size];
+    long[] values = new long[size];
+    for (int end = size - 1; end >= 0; end--) {
+      riders[end] = heapRiders[0];
+      values[end] = heapValues[0];
+      // Refill the root from the last entry of the shrinking heap
+      siftDown(heapRiders[end], heapValues[end], end);
+    }
+    size = 0;
+    return new ClassificationResult(type, riders, values);
+  }
+
+  /**
+   * Put a rider at the root of the heap and move them down past any worse riders.
+   *
+   * @param riderId the rider to place
+   * @param value   the rider's time or points
+   * @param end     the number of entries in the heap
+   */
+  private void siftDown(int riderId, long value, int end) {
+    int i = 0;
+    while (true) {
+      int worst = 2 * i + 1;
+      if (worst >= end) {
+        break;
+      }
+      int right = worst + 1;
+      if (right < end && ranksAhead(heapRiders[worst], heapValues[worst], heapRiders[right],
+          heapValues[right])) {
+        worst = right;
+      }
+      if (!ranksAhead(riderId, value, heapRiders[worst], heapValues[worst])) {
+        break;
+      }
+      heapRiders[i] = heapRiders[worst];
+      heapValues[i] = heapValues[worst];
+      i = worst;
+    }
+    if (end > 0) {
+      heapRiders[i] = riderId;
+      heapValues[i] = value;
+    }
+  }
+
+  /**
+   * Check whether one rider ranks ahead of another, by value then by ID.
+   *
+   * @param riderA the first rider
+   * @param valueA the first rider's value
+   * @param riderB the second rider
+   * @param valueB the second rider's value
+   * @return true if the first rider ranks ahead
+   */
+  private boolean ranksAhead(int riderA, long valueA, int riderB, long valueB) {
+    if (valueA != valueB) {
+      return descending ? valueA > valueB : valueA < valueB;
+    }
+    return riderA < riderB;
+  }
+}
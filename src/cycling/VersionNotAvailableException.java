@@ -0,0 +1,30 @@
+package cycling;
+
+/**
+ * Thrown when asking for a page of a version of a classification that is no longer
+ * kept, because results have changed too many times since it was taken.
+ * 
+ * @author 730003140
+ * @author 730002704
+ * @version 1.0
+ *
+ */
+public class VersionNotAvailableException extends Exception {
+
+	/**
+	 * Constructs an instance of the exception with no message
+	 */
+	public VersionNotAvailableException() {
+		// do nothing
+	}
+
+	/**
+	 * Constructs an instance of the exception containing the message argument
+	 * 
+	 * @param message message containing details regarding the exception cause
+	 */
+	public VersionNotAvailableException(String message) {
+		super(message);
+	}
+
+}